@@ -0,0 +1,33 @@
+package benchmark.beast;
+
+/**
+ * A single operation whose average time is measured by BenchmarkRunner,
+ * for data of the size given to setUp.
+ */
+public abstract class Benchmark {
+
+    /**
+     * @return false if this benchmark does not apply to data of the given size,
+     * for example because it requires a particular number of states
+     */
+    public boolean supports(final SyntheticData data) {
+        return true;
+    }
+
+    /** prepare for measurements with the given data; called once before warming up **/
+    abstract public void setUp(SyntheticData data) throws Exception;
+
+    /**
+     * The operation that is measured. The result is accumulated by the runner,
+     * so that the JIT cannot eliminate the work.
+     */
+    abstract public double run() throws Exception;
+
+    /** release resources acquired in setUp **/
+    public void tearDown() throws Exception {
+    }
+
+    public String getName() {
+        return getClass().getName();
+    }
+}
@@ -0,0 +1,263 @@
+package benchmark.beast;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.stat.StatUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import beast.base.core.Log;
+import beast.base.core.ProgramStatus;
+import benchmark.beast.evolution.branchratemodel.InverseCDFBenchmark;
+import benchmark.beast.evolution.branchratemodel.InverseCDFTableBenchmark;
+import benchmark.beast.evolution.branchratemodel.InverseCDFTableBuildBenchmark;
+import benchmark.beast.evolution.likelihood.BeerLikelihoodCore4Benchmark;
+import benchmark.beast.evolution.likelihood.BeerLikelihoodCore61Benchmark;
+import benchmark.beast.evolution.likelihood.BeerLikelihoodCoreBenchmark;
+import benchmark.beast.evolution.likelihood.ThreadedTreeLikelihoodBenchmark;
+import benchmark.beast.evolution.substitutionmodel.TransitionProbabilitiesBenchmark;
+import benchmark.beast.evolution.substitutionmodel.TransitionProbabilitiesPerCategoryBenchmark;
+import benchmark.beast.evolution.tree.TreeStoreBenchmark;
+import benchmark.beast.inference.LoggerBenchmark;
+import benchmark.beast.inference.StateBenchmark;
+
+/**
+ * Runs benchmarks in the style of JMH average time mode: every benchmark is set up
+ * for each combination of data sizes, warmed up, and then timed over a number of
+ * measurement iterations. The score is the mean time per operation over iterations,
+ * with the half-width of its 99.9% confidence interval as error.
+ *
+ * Results can be written as JSON in the format used by JMH, so that tools for
+ * comparing JMH results can be used to compare builds.
+ *
+ * Usage: BenchmarkRunner [options] [name ...]
+ * where names restrict the benchmarks run to those containing one of the names.
+ */
+public class BenchmarkRunner {
+    final static double CONFIDENCE = 0.999;
+
+    static Benchmark[] createBenchmarks() {
+        return new Benchmark[] {
+                new BeerLikelihoodCoreBenchmark(),
+                new BeerLikelihoodCore4Benchmark(),
+                new BeerLikelihoodCore61Benchmark(),
+                new ThreadedTreeLikelihoodBenchmark(),
+                new TransitionProbabilitiesBenchmark(),
+                new TransitionProbabilitiesPerCategoryBenchmark(),
+                new InverseCDFBenchmark(),
+                new InverseCDFTableBenchmark(),
+                new InverseCDFTableBuildBenchmark(),
+                new TreeStoreBenchmark(),
+                new StateBenchmark(),
+                new LoggerBenchmark()
+        };
+    }
+
+    int[] taxonCounts = {32};
+    int[] patternCounts = {1000};
+    int[] stateCounts = {4};
+    int warmupIterations = 5;
+    int measurementIterations = 10;
+    long iterationTime = 1000;
+    int threadCount = 2;
+    String jsonFile = null;
+    List<String> names = new ArrayList<>();
+
+    /** accumulates benchmark results so the work cannot be eliminated **/
+    static volatile double sink;
+
+    void parseArgs(final String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-taxa": taxonCounts = parseList(args[++i]); break;
+                case "-patterns": patternCounts = parseList(args[++i]); break;
+                case "-states": stateCounts = parseList(args[++i]); break;
+                case "-warmup": warmupIterations = Integer.parseInt(args[++i]); break;
+                case "-iterations": measurementIterations = Integer.parseInt(args[++i]); break;
+                case "-time": iterationTime = Long.parseLong(args[++i]); break;
+                case "-threads": threadCount = Integer.parseInt(args[++i]); break;
+                case "-json": jsonFile = args[++i]; break;
+                case "-help":
+                    printUsage();
+                    System.exit(0);
+                    break;
+                default:
+                    if (args[i].startsWith("-")) {
+                        printUsage();
+                        throw new IllegalArgumentException("Unrecognised option " + args[i]);
+                    }
+                    names.add(args[i]);
+            }
+        }
+    }
+
+    private int[] parseList(final String arg) {
+        final String[] strs = arg.split(",");
+        final int[] values = new int[strs.length];
+        for (int i = 0; i < strs.length; i++) {
+            values[i] = Integer.parseInt(strs[i].trim());
+        }
+        return values;
+    }
+
+    static void printUsage() {
+        Log.info.println("Usage: BenchmarkRunner [options] [name ...]");
+        Log.info.println("Runs benchmarks with names containing one of the names, or all if no name is given.");
+        Log.info.println("Sizes can be comma separated lists, and all combinations are run.");
+        Log.info.println("-taxa n[,n...]       number of taxa (default 32)");
+        Log.info.println("-patterns n[,n...]   number of patterns (default 1000)");
+        Log.info.println("-states n[,n...]     number of states (default 4)");
+        Log.info.println("-warmup n            number of warmup iterations (default 5)");
+        Log.info.println("-iterations n        number of measurement iterations (default 10)");
+        Log.info.println("-time ms             duration of an iteration in milliseconds (default 1000)");
+        Log.info.println("-threads n           number of threads for threaded benchmarks (default 2)");
+        Log.info.println("-json file           write results to file in JMH JSON format");
+    }
+
+    boolean isSelected(final Benchmark benchmark) {
+        if (names.isEmpty()) {
+            return true;
+        }
+        for (final String name : names) {
+            if (benchmark.getName().contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    JSONArray run() throws Exception {
+        ProgramStatus.m_nThreads = threadCount;
+        final JSONArray results = new JSONArray();
+        for (final int taxonCount : taxonCounts) {
+            for (final int patternCount : patternCounts) {
+                for (final int stateCount : stateCounts) {
+                    // create benchmarks anew for every size, so no state is shared between sizes
+                    for (final Benchmark benchmark : createBenchmarks()) {
+                        if (!isSelected(benchmark)) {
+                            continue;
+                        }
+                        final SyntheticData data = new SyntheticData(taxonCount, patternCount, stateCount);
+                        if (!benchmark.supports(data)) {
+                            Log.info.println("Skipping " + benchmark.getName() + " for " + data);
+                            continue;
+                        }
+                        results.put(run(benchmark, data));
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    JSONObject run(final Benchmark benchmark, final SyntheticData data) throws Exception {
+        Log.info.println("# " + benchmark.getName() + ": " + data);
+        benchmark.setUp(data);
+        final long timeNs = iterationTime * 1000000L;
+        for (int i = 0; i < warmupIterations; i++) {
+            Log.info.println(String.format("# Warmup Iteration %3d: %12.3f ns/op", i + 1, iteration(benchmark, timeNs)));
+        }
+        final double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            scores[i] = iteration(benchmark, timeNs);
+            Log.info.println(String.format("Iteration %3d: %12.3f ns/op", i + 1, scores[i]));
+        }
+        benchmark.tearDown();
+
+        final double score = StatUtils.mean(scores);
+        double error = Double.NaN;
+        if (scores.length > 1) {
+            final double t = new TDistribution(scores.length - 1).inverseCumulativeProbability(1.0 - (1.0 - CONFIDENCE) / 2.0);
+            error = t * Math.sqrt(StatUtils.variance(scores) / scores.length);
+        }
+        Log.info.println(String.format("Result %s: %.3f +-(99.9%%) %.3f ns/op", benchmark.getName(), score, error));
+        Log.info.println();
+
+        final JSONObject params = new JSONObject();
+        params.put("taxa", Integer.toString(data.taxonCount));
+        params.put("patterns", Integer.toString(data.patternCount));
+        params.put("states", Integer.toString(data.stateCount));
+
+        final JSONObject metric = new JSONObject();
+        metric.put("score", score);
+        putNumber(metric, "scoreError", error);
+        final JSONArray confidence = new JSONArray();
+        if (Double.isNaN(error)) {
+            confidence.put("NaN").put("NaN");
+        } else {
+            confidence.put(score - error).put(score + error);
+        }
+        metric.put("scoreConfidence", confidence);
+        metric.put("scoreUnit", "ns/op");
+        final JSONArray rawData = new JSONArray();
+        final JSONArray fork = new JSONArray();
+        for (final double s : scores) {
+            fork.put(s);
+        }
+        rawData.put(fork);
+        metric.put("rawData", rawData);
+
+        final JSONObject result = new JSONObject();
+        result.put("benchmark", benchmark.getName() + ".run");
+        result.put("mode", "avgt");
+        result.put("threads", 1);
+        result.put("forks", 1);
+        result.put("jvm", System.getProperty("java.home"));
+        result.put("jdkVersion", System.getProperty("java.version"));
+        result.put("warmupIterations", warmupIterations);
+        result.put("warmupTime", iterationTime + " ms");
+        result.put("measurementIterations", measurementIterations);
+        result.put("measurementTime", iterationTime + " ms");
+        result.put("params", params);
+        result.put("primaryMetric", metric);
+        result.put("secondaryMetrics", new JSONObject());
+        return result;
+    }
+
+    /** JSON has no NaN, so it is written as a string, as JMH does **/
+    private void putNumber(final JSONObject o, final String key, final double value) throws JSONException {
+        if (Double.isNaN(value)) {
+            o.put(key, "NaN");
+        } else {
+            o.put(key, value);
+        }
+    }
+
+    /** @return average time per operation in nanoseconds, running operations for at least timeNs **/
+    private double iteration(final Benchmark benchmark, final long timeNs) throws Exception {
+        double sum = 0;
+        long operations = 0;
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            sum += benchmark.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < timeNs);
+        sink += sum;
+        return (double) elapsed / operations;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final BenchmarkRunner runner = new BenchmarkRunner();
+        runner.parseArgs(args);
+        final JSONArray results = runner.run();
+        if (runner.jsonFile != null) {
+            try (Writer out = new FileWriter(runner.jsonFile)) {
+                out.write(results.toString(4));
+                out.write('\n');
+            } catch (IOException e) {
+                Log.err.println("Could not write " + runner.jsonFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+            Log.info.println("Results written to " + runner.jsonFile);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,122 @@
+package benchmark.beast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.alignment.Sequence;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.util.Randomizer;
+
+/**
+ * Random alignments and trees of a given size (taxa x patterns x states)
+ * for benchmarks. Data is generated from a fixed seed, so that all runs
+ * with the same size see the same data.
+ */
+public class SyntheticData {
+    final static long SEED = 127;
+
+    final public int taxonCount;
+    final public int patternCount;
+    final public int stateCount;
+
+    public SyntheticData(final int taxonCount, final int patternCount, final int stateCount) {
+        if (taxonCount < 2 || patternCount < 2 || stateCount < 2) {
+            throw new IllegalArgumentException("Need at least 2 taxa, 2 patterns and 2 states");
+        }
+        this.taxonCount = taxonCount;
+        this.patternCount = patternCount;
+        this.stateCount = stateCount;
+        Randomizer.setSeed(SEED);
+    }
+
+    public String getTaxonName(final int i) {
+        return "t" + i;
+    }
+
+    /**
+     * @return alignment of integer data with states 0 ... stateCount - 1, drawn uniformly.
+     * Sites are nearly all distinct patterns unless stateCount^taxonCount is small.
+     */
+    public Alignment alignment() {
+        final List<Sequence> sequences = new ArrayList<>();
+        for (int i = 0; i < taxonCount; i++) {
+            final StringBuilder b = new StringBuilder();
+            for (int j = 0; j < patternCount; j++) {
+                if (j > 0) {
+                    b.append(',');
+                }
+                b.append(Randomizer.nextInt(stateCount));
+            }
+            final Sequence sequence = new Sequence();
+            sequence.initByName("taxon", getTaxonName(i), "value", b.toString(), "totalcount", stateCount);
+            sequences.add(sequence);
+        }
+        final Alignment alignment = new Alignment();
+        alignment.initByName("sequence", sequences, "dataType", "integer");
+        return alignment;
+    }
+
+    /**
+     * @return random ultrametric tree in Newick format, obtained by joining random pairs of
+     * lineages at exponentially distributed intervals with rate 1 per pair, as in a coalescent
+     */
+    public String newick() {
+        final List<String> lineages = new ArrayList<>();
+        final List<Double> heights = new ArrayList<>();
+        for (int i = 0; i < taxonCount; i++) {
+            lineages.add(getTaxonName(i));
+            heights.add(0.0);
+        }
+        double height = 0;
+        while (lineages.size() > 1) {
+            final int n = lineages.size();
+            height += Randomizer.nextExponential(n * (n - 1) / 2.0);
+            final int i = Randomizer.nextInt(n);
+            final String left = lineages.remove(i);
+            final double leftHeight = heights.remove(i);
+            final int j = Randomizer.nextInt(n - 1);
+            final String right = lineages.remove(j);
+            final double rightHeight = heights.remove(j);
+            lineages.add("(" + left + ":" + (height - leftHeight) + "," + right + ":" + (height - rightHeight) + ")");
+            heights.add(height);
+        }
+        return lineages.get(0) + ";";
+    }
+
+    /** @return random tree with taxa of the alignment **/
+    public Tree tree(final Alignment alignment) {
+        return new TreeParser(alignment, newick());
+    }
+
+    /** @return random tip states, one for each pattern **/
+    public int[] states() {
+        final int[] states = new int[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            states[i] = Randomizer.nextInt(stateCount);
+        }
+        return states;
+    }
+
+    /** @return random transition probability matrix, with rows that sum to one **/
+    public double[] matrix() {
+        final double[] matrix = new double[stateCount * stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            double sum = 0;
+            for (int j = 0; j < stateCount; j++) {
+                matrix[i * stateCount + j] = Randomizer.nextDouble();
+                sum += matrix[i * stateCount + j];
+            }
+            for (int j = 0; j < stateCount; j++) {
+                matrix[i * stateCount + j] /= sum;
+            }
+        }
+        return matrix;
+    }
+
+    @Override
+    public String toString() {
+        return taxonCount + " taxa, " + patternCount + " patterns, " + stateCount + " states";
+    }
+}
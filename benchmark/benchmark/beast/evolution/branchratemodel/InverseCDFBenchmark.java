@@ -0,0 +1,44 @@
+package benchmark.beast.evolution.branchratemodel;
+
+import org.apache.commons.math.MathException;
+
+import beast.base.inference.distribution.LogNormalDistributionModel;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import benchmark.beast.Benchmark;
+import benchmark.beast.SyntheticData;
+
+/**
+ * Rates for all branches of a tree from rate quantiles, as calculated by the quantile
+ * parameterisation of UCRelaxedClockModel, by the exact inverse CDF of a log-normal
+ * rate distribution.
+ */
+public class InverseCDFBenchmark extends Benchmark {
+
+    LogNormalDistributionModel distr;
+    double[] quantiles, rates;
+
+    @Override
+    public void setUp(final SyntheticData data) throws Exception {
+        distr = new LogNormalDistributionModel();
+        distr.initByName("M", new RealParameter("1.0"), "S", new RealParameter("0.5"), "meanInRealSpace", true);
+        final int branchCount = 2 * data.taxonCount - 2;
+        quantiles = new double[branchCount];
+        for (int i = 0; i < branchCount; i++) {
+            quantiles[i] = Randomizer.nextDouble();
+        }
+        rates = new double[branchCount];
+    }
+
+    protected double rate(final double quantile) throws MathException {
+        return distr.inverseCumulativeProbability(quantile);
+    }
+
+    @Override
+    public double run() throws Exception {
+        for (int i = 0; i < quantiles.length; i++) {
+            rates[i] = rate(quantiles[i]);
+        }
+        return rates[0];
+    }
+}
@@ -0,0 +1,28 @@
+package benchmark.beast.evolution.branchratemodel;
+
+import org.apache.commons.math.MathException;
+
+import beast.base.inference.distribution.InverseCDFTable;
+import benchmark.beast.SyntheticData;
+
+/**
+ * As InverseCDFBenchmark, with rates looked up in an InverseCDFTable, as
+ * UCRelaxedClockModel does when quantileTolerance is set.
+ */
+public class InverseCDFTableBenchmark extends InverseCDFBenchmark {
+    final static double TOLERANCE = 1e-6;
+
+    InverseCDFTable table;
+
+    @Override
+    public void setUp(final SyntheticData data) throws Exception {
+        super.setUp(data);
+        table = new InverseCDFTable(TOLERANCE);
+        table.build(distr);
+    }
+
+    @Override
+    protected double rate(final double quantile) throws MathException {
+        return table.inverseCumulativeProbability(quantile);
+    }
+}
@@ -0,0 +1,30 @@
+package benchmark.beast.evolution.branchratemodel;
+
+import beast.base.inference.distribution.InverseCDFTable;
+import beast.base.inference.distribution.LogNormalDistributionModel;
+import beast.base.inference.parameter.RealParameter;
+import benchmark.beast.Benchmark;
+import benchmark.beast.SyntheticData;
+
+/**
+ * (Re)building the InverseCDFTable of InverseCDFTableBenchmark, which
+ * UCRelaxedClockModel does whenever the rate distribution changes.
+ */
+public class InverseCDFTableBuildBenchmark extends Benchmark {
+
+    LogNormalDistributionModel distr;
+    InverseCDFTable table;
+
+    @Override
+    public void setUp(final SyntheticData data) {
+        distr = new LogNormalDistributionModel();
+        distr.initByName("M", new RealParameter("1.0"), "S", new RealParameter("0.5"), "meanInRealSpace", true);
+        table = new InverseCDFTable(InverseCDFTableBenchmark.TOLERANCE);
+    }
+
+    @Override
+    public double run() throws Exception {
+        table.build(distr);
+        return table.getKnotCount();
+    }
+}
@@ -0,0 +1,21 @@
+package benchmark.beast.evolution.likelihood;
+
+import beast.base.evolution.likelihood.BeerLikelihoodCore4;
+import beast.base.evolution.likelihood.LikelihoodCore;
+import benchmark.beast.SyntheticData;
+
+/**
+ * As BeerLikelihoodCoreBenchmark, for the core specialised to 4 states.
+ */
+public class BeerLikelihoodCore4Benchmark extends BeerLikelihoodCoreBenchmark {
+
+    @Override
+    public boolean supports(final SyntheticData data) {
+        return data.stateCount == 4;
+    }
+
+    @Override
+    protected LikelihoodCore createCore(final int stateCount) {
+        return new BeerLikelihoodCore4();
+    }
+}
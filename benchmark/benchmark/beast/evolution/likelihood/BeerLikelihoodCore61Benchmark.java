@@ -0,0 +1,22 @@
+package benchmark.beast.evolution.likelihood;
+
+import beast.base.evolution.likelihood.BeerLikelihoodCore61;
+import beast.base.evolution.likelihood.LikelihoodCore;
+import benchmark.beast.SyntheticData;
+
+/**
+ * As BeerLikelihoodCoreBenchmark, for the blocked core specialised to 61 codon states.
+ * Compare with BeerLikelihoodCoreBenchmark for -states 61.
+ */
+public class BeerLikelihoodCore61Benchmark extends BeerLikelihoodCoreBenchmark {
+
+    @Override
+    public boolean supports(final SyntheticData data) {
+        return data.stateCount == 61;
+    }
+
+    @Override
+    protected LikelihoodCore createCore(final int stateCount) {
+        return new BeerLikelihoodCore61();
+    }
+}
@@ -0,0 +1,87 @@
+package benchmark.beast.evolution.likelihood;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import beast.base.evolution.likelihood.BeerLikelihoodCore;
+import beast.base.evolution.likelihood.LikelihoodCore;
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import benchmark.beast.Benchmark;
+import benchmark.beast.SyntheticData;
+
+/**
+ * Full post-order traversal of a likelihood core: partials for all internal
+ * nodes of a random tree with tip states, integration over 4 rate categories
+ * and the log likelihoods of all patterns at the root.
+ */
+public class BeerLikelihoodCoreBenchmark extends Benchmark {
+    final static int CATEGORY_COUNT = 4;
+
+    LikelihoodCore core;
+    // children and parent node numbers of internal nodes, in post-order
+    int[] children1, children2, parents;
+    int rootNr;
+    double[] proportions, frequencies, rootPartials, patternLogLikelihoods;
+
+    protected LikelihoodCore createCore(final int stateCount) {
+        return new BeerLikelihoodCore(stateCount);
+    }
+
+    @Override
+    public void setUp(final SyntheticData data) {
+        final Tree tree = new TreeParser(data.newick(), false);
+        final int nodeCount = tree.getNodeCount();
+        core = createCore(data.stateCount);
+        core.initialize(nodeCount, data.patternCount, CATEGORY_COUNT, true, false);
+        for (final Node node : tree.getNodesAsArray()) {
+            if (node.isLeaf()) {
+                core.setNodeStates(node.getNr(), data.states());
+            } else {
+                core.createNodePartials(node.getNr());
+            }
+            if (!node.isRoot()) {
+                core.setNodeMatrixForUpdate(node.getNr());
+                for (int i = 0; i < CATEGORY_COUNT; i++) {
+                    core.setNodeMatrix(node.getNr(), i, data.matrix());
+                }
+            }
+        }
+
+        final List<Node> internalNodes = new ArrayList<>();
+        for (final Node node : tree.listNodesPostOrder(null, null)) {
+            if (!node.isLeaf()) {
+                internalNodes.add(node);
+            }
+        }
+        children1 = new int[internalNodes.size()];
+        children2 = new int[internalNodes.size()];
+        parents = new int[internalNodes.size()];
+        for (int i = 0; i < internalNodes.size(); i++) {
+            children1[i] = internalNodes.get(i).getLeft().getNr();
+            children2[i] = internalNodes.get(i).getRight().getNr();
+            parents[i] = internalNodes.get(i).getNr();
+        }
+        rootNr = tree.getRoot().getNr();
+
+        proportions = new double[CATEGORY_COUNT];
+        Arrays.fill(proportions, 1.0 / CATEGORY_COUNT);
+        frequencies = new double[data.stateCount];
+        Arrays.fill(frequencies, 1.0 / data.stateCount);
+        rootPartials = new double[data.patternCount * data.stateCount];
+        patternLogLikelihoods = new double[data.patternCount];
+    }
+
+    @Override
+    public double run() {
+        for (int i = 0; i < parents.length; i++) {
+            core.setNodePartialsForUpdate(parents[i]);
+            core.calculatePartials(children1[i], children2[i], parents[i]);
+        }
+        core.integratePartials(rootNr, proportions, rootPartials);
+        core.calculateLogLikelihoods(rootPartials, frequencies, patternLogLikelihoods);
+        return patternLogLikelihoods[0];
+    }
+}
@@ -0,0 +1,54 @@
+package benchmark.beast.evolution.likelihood;
+
+import java.util.Arrays;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.likelihood.ThreadedTreeLikelihood;
+import beast.base.evolution.sitemodel.SiteModel;
+import beast.base.evolution.substitutionmodel.Frequencies;
+import beast.base.evolution.substitutionmodel.GeneralSubstitutionModel;
+import beast.base.evolution.tree.Tree;
+import beast.base.inference.parameter.RealParameter;
+import benchmark.beast.Benchmark;
+import benchmark.beast.SyntheticData;
+
+/**
+ * Full recalculation of a ThreadedTreeLikelihood for a random alignment on a random tree,
+ * with an equal rates substitution model and 4 gamma rate categories. The number of threads
+ * is that of the -threads option of the runner.
+ */
+public class ThreadedTreeLikelihoodBenchmark extends Benchmark {
+    final static int CATEGORY_COUNT = 4;
+
+    Tree tree;
+    ThreadedTreeLikelihood likelihood;
+
+    @Override
+    public void setUp(final SyntheticData data) {
+        final Alignment alignment = data.alignment();
+        tree = data.tree(alignment);
+
+        final int stateCount = data.stateCount;
+        final Double[] freqs = new Double[stateCount];
+        Arrays.fill(freqs, 1.0 / stateCount);
+        final Frequencies frequencies = new Frequencies();
+        frequencies.initByName("frequencies", new RealParameter(freqs), "estimate", false);
+        final Double[] rates = new Double[stateCount * (stateCount - 1)];
+        Arrays.fill(rates, 1.0);
+        final GeneralSubstitutionModel substModel = new GeneralSubstitutionModel();
+        substModel.initByName("rates", new RealParameter(rates), "frequencies", frequencies);
+
+        final SiteModel siteModel = new SiteModel();
+        siteModel.initByName("gammaCategoryCount", CATEGORY_COUNT, "shape", "0.5", "substModel", substModel);
+
+        likelihood = new ThreadedTreeLikelihood();
+        likelihood.initByName("data", alignment, "tree", tree, "siteModel", siteModel);
+    }
+
+    @Override
+    public double run() {
+        // make sure all transition probabilities and partials are recalculated
+        tree.setEverythingDirty(true);
+        return likelihood.calculateLogP();
+    }
+}
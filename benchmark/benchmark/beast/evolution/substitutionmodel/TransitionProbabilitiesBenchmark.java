@@ -0,0 +1,63 @@
+package benchmark.beast.evolution.substitutionmodel;
+
+import java.util.Arrays;
+
+import beast.base.evolution.substitutionmodel.Frequencies;
+import beast.base.evolution.substitutionmodel.GeneralSubstitutionModel;
+import beast.base.evolution.tree.Node;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import benchmark.beast.Benchmark;
+import benchmark.beast.SyntheticData;
+
+/**
+ * Transition probability matrices for all rate categories of all branches of a tree,
+ * for a general substitution model with random rates, through the method that
+ * calculates the matrices of all categories of a branch at once.
+ */
+public class TransitionProbabilitiesBenchmark extends Benchmark {
+    final static int CATEGORY_COUNT = 4;
+
+    GeneralSubstitutionModel substModel;
+    Node node;
+    double[] lengths, categoryRates, matrices;
+
+    @Override
+    public void setUp(final SyntheticData data) {
+        final int stateCount = data.stateCount;
+        final Double[] rates = new Double[stateCount * (stateCount - 1)];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = 0.1 + Randomizer.nextDouble();
+        }
+        final Double[] f = new Double[stateCount];
+        Arrays.fill(f, 1.0 / stateCount);
+        final Frequencies freqs = new Frequencies();
+        freqs.initByName("frequencies", new RealParameter(f), "estimate", false);
+        substModel = new GeneralSubstitutionModel();
+        substModel.initByName("rates", new RealParameter(rates), "frequencies", freqs);
+        node = new Node();
+
+        final int branchCount = 2 * data.taxonCount - 2;
+        lengths = new double[branchCount];
+        for (int i = 0; i < branchCount; i++) {
+            lengths[i] = Randomizer.nextExponential(10);
+        }
+        categoryRates = new double[CATEGORY_COUNT];
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            categoryRates[i] = (i + 0.5) * 2.0 / CATEGORY_COUNT;
+        }
+        matrices = new double[CATEGORY_COUNT * stateCount * stateCount];
+    }
+
+    protected void calculateMatrices(final double length) {
+        substModel.getTransitionProbabilities(node, length, 0, categoryRates, CATEGORY_COUNT, matrices);
+    }
+
+    @Override
+    public double run() {
+        for (final double length : lengths) {
+            calculateMatrices(length);
+        }
+        return matrices[0];
+    }
+}
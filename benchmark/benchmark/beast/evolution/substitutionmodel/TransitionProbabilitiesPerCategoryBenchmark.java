@@ -0,0 +1,27 @@
+package benchmark.beast.evolution.substitutionmodel;
+
+import benchmark.beast.SyntheticData;
+
+/**
+ * As TransitionProbabilitiesBenchmark, with the matrix of every category
+ * calculated separately and copied into place, as TreeLikelihood did
+ * before the method for all categories at once was added.
+ */
+public class TransitionProbabilitiesPerCategoryBenchmark extends TransitionProbabilitiesBenchmark {
+
+    double[] matrix;
+
+    @Override
+    public void setUp(final SyntheticData data) {
+        super.setUp(data);
+        matrix = new double[data.stateCount * data.stateCount];
+    }
+
+    @Override
+    protected void calculateMatrices(final double length) {
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            substModel.getTransitionProbabilities(node, length, 0, categoryRates[i], matrix);
+            System.arraycopy(matrix, 0, matrices, i * matrix.length, matrix.length);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package benchmark.beast.evolution.tree;
+
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import benchmark.beast.Benchmark;
+import benchmark.beast.SyntheticData;
+
+/**
+ * Storing a random tree when an operator starts editing it, followed by restoring it,
+ * as happens for every rejected tree proposal.
+ */
+public class TreeStoreBenchmark extends Benchmark {
+
+    Tree tree;
+
+    @Override
+    public void setUp(final SyntheticData data) {
+        tree = new TreeParser(data.newick(), false);
+    }
+
+    @Override
+    public double run() {
+        tree.startEditing(null);
+        tree.restoreStateNode();
+        return tree.getRoot().getHeight();
+    }
+}
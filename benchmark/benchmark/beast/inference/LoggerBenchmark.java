@@ -0,0 +1,60 @@
+package benchmark.beast.inference;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.inference.Logger;
+import beast.base.inference.parameter.RealParameter;
+import benchmark.beast.Benchmark;
+import benchmark.beast.SyntheticData;
+
+/**
+ * Logging a sample to a trace log with a parameter with one value per taxon,
+ * and to a tree log with a random tree. Output is discarded, so that only the cost
+ * of producing log lines is measured, not that of writing to disk.
+ */
+public class LoggerBenchmark extends Benchmark {
+
+    Logger traceLogger;
+    Logger treeLogger;
+    long sample;
+
+    @Override
+    public void setUp(final SyntheticData data) {
+        final Tree tree = new TreeParser(data.newick(), false);
+        tree.setID("tree");
+        final Double[] values = new Double[data.taxonCount];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1.0 + i;
+        }
+        final RealParameter parameter = new RealParameter(values);
+        parameter.setID("rates");
+
+        final PrintStream out = new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        });
+        traceLogger = new Logger();
+        traceLogger.initByName("log", parameter, "logEvery", 1);
+        traceLogger.setPrintStream(out);
+        treeLogger = new Logger();
+        treeLogger.initByName("log", tree, "logEvery", 1, "mode", "tree");
+        treeLogger.setPrintStream(out);
+        sample = 0;
+    }
+
+    @Override
+    public double run() {
+        sample++;
+        traceLogger.log(sample);
+        treeLogger.log(sample);
+        return sample;
+    }
+}
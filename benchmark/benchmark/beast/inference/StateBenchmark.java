@@ -0,0 +1,95 @@
+package benchmark.beast.inference;
+
+import java.util.Arrays;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.likelihood.TreeLikelihood;
+import beast.base.evolution.sitemodel.SiteModel;
+import beast.base.evolution.speciation.YuleModel;
+import beast.base.evolution.substitutionmodel.Frequencies;
+import beast.base.evolution.substitutionmodel.GeneralSubstitutionModel;
+import beast.base.evolution.tree.Tree;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.State;
+import beast.base.inference.StateNode;
+import beast.base.inference.distribution.LogNormalDistributionModel;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.parameter.RealParameter;
+import benchmark.beast.Benchmark;
+import benchmark.beast.SyntheticData;
+
+/**
+ * The bookkeeping MCMC does around a rejected proposal, without calculating the posterior:
+ * storing the state, collecting the calculation nodes affected by the changed state node
+ * (State.getCurrentCalculationNodes), storing them, checking their dirtiness and restoring
+ * everything. Proposals alternate between the tree, the birth rate and the gamma shape of
+ * a model with a tree likelihood and a Yule prior.
+ */
+public class StateBenchmark extends Benchmark {
+
+    State state;
+    StateNode[] stateNodes;
+    long sample;
+
+    @Override
+    public void setUp(final SyntheticData data) {
+        final Alignment alignment = data.alignment();
+        final Tree tree = data.tree(alignment);
+        tree.setID("tree");
+
+        final int stateCount = data.stateCount;
+        final Double[] freqs = new Double[stateCount];
+        Arrays.fill(freqs, 1.0 / stateCount);
+        final Frequencies frequencies = new Frequencies();
+        frequencies.initByName("frequencies", new RealParameter(freqs), "estimate", false);
+        final Double[] rates = new Double[stateCount * (stateCount - 1)];
+        Arrays.fill(rates, 1.0);
+        final GeneralSubstitutionModel substModel = new GeneralSubstitutionModel();
+        substModel.initByName("rates", new RealParameter(rates), "frequencies", frequencies);
+
+        final RealParameter shape = new RealParameter("0.5");
+        shape.setID("shape");
+        final SiteModel siteModel = new SiteModel();
+        siteModel.initByName("gammaCategoryCount", 4, "shape", shape, "substModel", substModel);
+        final TreeLikelihood likelihood = new TreeLikelihood();
+        likelihood.initByName("data", alignment, "tree", tree, "siteModel", siteModel);
+
+        final RealParameter birthRate = new RealParameter("1.0");
+        birthRate.setID("birthRate");
+        final YuleModel yule = new YuleModel();
+        yule.initByName("tree", tree, "birthDiffRate", birthRate);
+        final LogNormalDistributionModel logNormal = new LogNormalDistributionModel();
+        logNormal.initByName("M", "1.0", "S", "1.0");
+        final Prior birthRatePrior = new Prior();
+        birthRatePrior.initByName("x", birthRate, "distr", logNormal);
+        final Prior shapePrior = new Prior();
+        shapePrior.initByName("x", shape, "distr", logNormal);
+
+        final CompoundDistribution prior = new CompoundDistribution();
+        prior.initByName("distribution", yule, "distribution", birthRatePrior, "distribution", shapePrior);
+        final CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", prior, "distribution", likelihood);
+
+        state = new State();
+        state.initByName("stateNode", tree, "stateNode", birthRate, "stateNode", shape);
+        state.initialise();
+        state.setPosterior(posterior);
+        state.robustlyCalcPosterior(posterior);
+        stateNodes = new StateNode[] {tree, birthRate, shape};
+        sample = 0;
+    }
+
+    @Override
+    public double run() {
+        sample++;
+        state.store(sample);
+        final StateNode stateNode = stateNodes[(int) (sample % stateNodes.length)];
+        stateNode.startEditing(null);
+        state.storeCalculationNodes();
+        state.checkCalculationNodesDirtiness();
+        state.restore();
+        state.restoreCalculationNodes();
+        state.setEverythingDirty(false);
+        return state.getCurrentCalculationNodes().size();
+    }
+}
@@ -383,6 +383,21 @@ public interface BEASTInterface {
         return beastObjects;
     }
 
+    /**
+     * Collect this object and all objects reachable through its inputs, each object once.
+     * Unlike getPredecessors, this takes linear time when done is a hash set.
+     *
+     * @param done objects collected so far, to which the objects are added
+     */
+    default void collectPredecessors(final Set<BEASTInterface> done) {
+        if (!done.add(this)) {
+            return;
+        }
+        for (final BEASTInterface beastObject : listActiveBEASTObjects()) {
+            beastObject.collectPredecessors(done);
+        }
+    }
+
     @Deprecated /** use listActiveBEASTObjects instead **/
     default List<BEASTInterface> listActivePlugins() throws IllegalArgumentException, IllegalAccessException {
     	return listActiveBEASTObjects();
@@ -0,0 +1,474 @@
+package beast.base.evolution;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import java.text.FieldPosition;
+import java.util.Arrays;
+
+import beast.base.core.Log;
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.pkgmgmt.Arguments;
+
+/**
+ * Reads tree logs written by BinaryTreeLogger, and converts them to NEXUS tree files
+ * in the same format as TreeWithMetaDataLogger produces. Records are read through
+ * memory mapped windows of the file.
+ *
+ * Since the topology is stored as parent node numbers, children are ordered as by
+ * Node.sort, the same as TreeWithMetaDataLogger does by default. Logs of unsorted trees
+ * store the position of every node among its siblings, so the order is kept.
+ */
+public class BinaryTreeLogReader implements Closeable {
+    /** maximum size of the part of the file that is mapped at any time **/
+    final static int WINDOW_SIZE = 1 << 28;
+
+    private final FileChannel channel;
+
+    private final int nodeCount;
+    private final boolean singlePrecision;
+    private final boolean substitutions;
+    private final boolean hasRate;
+    private final boolean sorted;
+    private final int decimalPlaces;
+    private final String[] taxa;
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final int[] columnDimensions;
+
+    private final long headerSize;
+    private final int recordSize;
+    private final int valueCount;
+    private final int metadataValueCount;
+    // reused by readRecord when the caller is not interested in presence flags
+    private final byte[] presentBytes;
+
+    private MappedByteBuffer window;
+    private long windowStart = -1;
+    private long windowRecordCount;
+
+    public BinaryTreeLogReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            // reading from the channel directly, so its position ends up at the first record
+            final DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            if (in.readInt() != BinaryTreeLogger.MAGIC) {
+                throw new IOException("Not a binary tree log (or unsupported version): " + file.getPath());
+            }
+            nodeCount = in.readInt();
+            taxa = new String[in.readInt()];
+            final int flags = in.readByte();
+            singlePrecision = (flags & BinaryTreeLogger.FLOAT) != 0;
+            substitutions = (flags & BinaryTreeLogger.SUBSTITUTIONS) != 0;
+            hasRate = (flags & BinaryTreeLogger.RATE) != 0;
+            sorted = (flags & BinaryTreeLogger.SORTED) != 0;
+            decimalPlaces = in.readInt();
+            for (int i = 0; i < taxa.length; i++) {
+                taxa[i] = in.readBoolean() ? in.readUTF() : null;
+            }
+            final int columnCount = in.readInt();
+            columnNames = new String[columnCount];
+            columnTypes = new int[columnCount];
+            columnDimensions = new int[columnCount];
+            int metadataValueCount = 0;
+            for (int k = 0; k < columnCount; k++) {
+                columnNames[k] = in.readUTF();
+                columnTypes[k] = in.readByte();
+                columnDimensions[k] = in.readInt();
+                metadataValueCount += columnDimensions[k] * nodeCount;
+            }
+            this.metadataValueCount = metadataValueCount;
+            valueCount = nodeCount + metadataValueCount + (hasRate ? nodeCount : 0);
+            presentBytes = new byte[(metadataValueCount + 7) / 8];
+            headerSize = channel.position();
+            recordSize = BinaryTreeLogger.getRecordSize(nodeCount, valueCount, metadataValueCount, singlePrecision, sorted);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** taxon names by leaf node number, null for leaves that were logged without an ID **/
+    public String[] getTaxa() {
+        return taxa;
+    }
+
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /** whether children are ordered as by Node.sort, as TreeWithMetaDataLogger does with sort="true" **/
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /** number of values per record: node heights, metadata columns, and rates (if any) **/
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    /** number of complete records in the file **/
+    public long getRecordCount() throws IOException {
+        return (channel.size() - headerSize) / recordSize;
+    }
+
+    /** position in the file where a record starts **/
+    public long getRecordOffset(long record) {
+        return headerSize + record * recordSize;
+    }
+
+    /** the buffer holding a record, positioned at the start of the record **/
+    private ByteBuffer seek(long record) throws IOException {
+        if (record < windowStart || record >= windowStart + windowRecordCount) {
+            final long recordCount = getRecordCount();
+            if (record < 0 || record >= recordCount) {
+                throw new IndexOutOfBoundsException("Record " + record + " is not in the log");
+            }
+            windowStart = record;
+            windowRecordCount = Math.min(recordCount - record, Math.max(1, WINDOW_SIZE / recordSize));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, getRecordOffset(record), windowRecordCount * recordSize);
+        }
+        window.position((int) ((record - windowStart) * recordSize));
+        return window;
+    }
+
+    /** sample number of a record **/
+    public long getSample(long record) throws IOException {
+        return seek(record).getLong();
+    }
+
+    /**
+     * Reads a record.
+     * @param parents parent node number for every node, -1 for the root
+     * @param values node heights, followed by values of the metadata columns (by column, node and
+     * dimension, NaN for nodes without value) and rates (if any), getValueCount() values in all
+     * @return sample number
+     */
+    public long readRecord(long record, int[] parents, double[] values) throws IOException {
+        return readRecord(record, parents, null, values, null);
+    }
+
+    /**
+     * Reads a record, including the order of children and which metadata values are present.
+     * @param parents parent node number for every node, -1 for the root
+     * @param childIndices if not null, receives the position of every node among the children of its
+     * parent, or -1 for all nodes if the log is sorted
+     * @param values as for readRecord(long, int[], double[])
+     * @param present if not null, receives for each of the values whether it was logged, which
+     * distinguishes missing metadata from NaN values. Heights and rates are always present.
+     * @return sample number
+     */
+    public long readRecord(long record, int[] parents, int[] childIndices, double[] values, boolean[] present) throws IOException {
+        final ByteBuffer buffer = seek(record);
+        final long sample = buffer.getLong();
+        for (int i = 0; i < nodeCount; i++) {
+            parents[i] = buffer.getInt();
+        }
+        if (!sorted) {
+            for (int i = 0; i < nodeCount; i++) {
+                final byte index = buffer.get();
+                if (childIndices != null) {
+                    childIndices[i] = parents[i] < 0 ? -1 : index;
+                }
+            }
+        } else if (childIndices != null) {
+            Arrays.fill(childIndices, -1);
+        }
+        buffer.get(presentBytes);
+        for (int i = 0; i < valueCount; i++) {
+            values[i] = singlePrecision ? buffer.getFloat() : buffer.getDouble();
+        }
+        if (present != null) {
+            Arrays.fill(present, true);
+            for (int v = 0; v < metadataValueCount; v++) {
+                present[nodeCount + v] = (presentBytes[v >> 3] & (1 << (v & 7))) != 0;
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Writes the log as a NEXUS tree file, as TreeWithMetaDataLogger would.
+     * @param burninPercentage percentage of trees to skip at the start of the log
+     * @param decimalPlaces number of decimal places of real values, -1 for full precision,
+     * or null to use the setting of the logger
+     */
+    public void toNexus(PrintStream out, double burninPercentage, Integer decimalPlaces) throws IOException {
+        final int dp = decimalPlaces != null ? decimalPlaces : this.decimalPlaces;
+        DecimalFormat df = null;
+        if (dp >= 0) {
+            df = new DecimalFormat("#." + new String(new char[dp]).replace('\0', '#'));
+            df.setRoundingMode(RoundingMode.HALF_UP);
+        }
+        final NewickWriter writer = new NewickWriter(df);
+
+        writeHeader(out);
+        final long recordCount = getRecordCount();
+        final int[] parents = new int[nodeCount];
+        final int[] childIndices = new int[nodeCount];
+        final double[] values = new double[valueCount];
+        final boolean[] present = new boolean[valueCount];
+        final StringBuffer buf = new StringBuffer();
+        for (long i = (long) (recordCount * burninPercentage / 100.0); i < recordCount; i++) {
+            final long sample = readRecord(i, parents, childIndices, values, present);
+            buf.setLength(0);
+            buf.append("tree STATE_").append(sample).append(" = ");
+            writer.append(buf, parents, childIndices, values, present);
+            buf.append(';');
+            out.append(buf);
+            out.println();
+        }
+        out.print("End;");
+    }
+
+    /** taxa and translate blocks, as Tree.init produces **/
+    private void writeHeader(PrintStream out) {
+        // any tree with the taxa will do, since only the leaves are printed
+        Node root = null;
+        for (int i = 0; i < taxa.length; i++) {
+            // leaves without ID are labelled by their number, as in the trees
+            final Node leaf = new Node(taxa[i] != null ? taxa[i] : String.valueOf(i + 1));
+            leaf.setNr(i);
+            if (root == null) {
+                root = leaf;
+            } else {
+                final Node parent = new Node();
+                parent.addChild(root);
+                parent.addChild(leaf);
+                root = parent;
+            }
+        }
+        out.println("#NEXUS\n");
+        out.println("Begin taxa;");
+        out.println("\tDimensions ntax=" + taxa.length + ";");
+        out.println("\t\tTaxlabels");
+        Tree.printTaxa(root, out, nodeCount / 2);
+        out.println("\t\t\t;");
+        out.println("End;");
+        out.println("Begin trees;");
+        out.println("\tTranslate");
+        Tree.printTranslate(root, out, nodeCount / 2);
+        out.println(";");
+    }
+
+    /** writes records in Newick format, reusing its buffers between trees **/
+    private class NewickWriter {
+        private final DecimalFormat df;
+        private final FieldPosition fieldPosition = new FieldPosition(0);
+        // children of every node, ordered by lowest leaf number below the child if the log is sorted
+        private final int[][] children = new int[nodeCount][2];
+        private final int[] childCount = new int[nodeCount];
+        private final int[] lowestLeaf = new int[nodeCount];
+
+        NewickWriter(DecimalFormat df) {
+            this.df = df;
+        }
+
+        void append(StringBuffer buf, int[] parents, int[] childIndices, double[] values, boolean[] present) {
+            int root = -1;
+            Arrays.fill(childCount, 0);
+            for (int i = 0; i < nodeCount; i++) {
+                final int parent = parents[i];
+                if (parent < 0) {
+                    root = i;
+                } else {
+                    final int index = sorted ? childCount[parent] : childIndices[i];
+                    if (index >= children[parent].length) {
+                        children[parent] = Arrays.copyOf(children[parent], Math.max(index + 1, children[parent].length * 2));
+                    }
+                    children[parent][index] = i;
+                    childCount[parent]++;
+                }
+            }
+            if (sorted) {
+                sort(root);
+            }
+            append(buf, root, parents, values, present);
+        }
+
+        /** order children as Node.sort does, and return the lowest leaf number below node **/
+        private int sort(int node) {
+            if (childCount[node] == 0) {
+                lowestLeaf[node] = node;
+                return node;
+            }
+            final int[] c = children[node];
+            for (int i = 0; i < childCount[node]; i++) {
+                sort(c[i]);
+            }
+            // insertion sort, there are hardly ever more than two children
+            for (int i = 1; i < childCount[node]; i++) {
+                final int child = c[i];
+                int j = i - 1;
+                while (j >= 0 && lowestLeaf[c[j]] > lowestLeaf[child]) {
+                    c[j + 1] = c[j];
+                    j--;
+                }
+                c[j + 1] = child;
+            }
+            lowestLeaf[node] = lowestLeaf[c[0]];
+            return lowestLeaf[node];
+        }
+
+        private void append(StringBuffer buf, int node, int[] parents, double[] values, boolean[] present) {
+            if (childCount[node] > 0) {
+                buf.append('(');
+                append(buf, children[node][0], parents, values, present);
+                if (childCount[node] > 1) {
+                    buf.append(',');
+                    append(buf, children[node][1], parents, values, present);
+                }
+                buf.append(')');
+            } else {
+                buf.append(node + 1);
+            }
+
+            if (columnNames.length > 0 || hasRate) {
+                final int metaDataStart = buf.length();
+                buf.append("[&");
+                final int start = buf.length();
+                int offset = nodeCount;
+                for (int k = 0; k < columnNames.length; k++) {
+                    final int dim = columnDimensions[k];
+                    final int first = offset + node * dim;
+                    if (present[first]) {
+                        buf.append(columnNames[k]);
+                        buf.append('=');
+                        if (dim > 1) {
+                            buf.append('{');
+                        }
+                        for (int i = 0; i < dim && present[first + i]; i++) {
+                            if (i > 0) {
+                                buf.append(',');
+                            }
+                            appendValue(buf, values[first + i], columnTypes[k]);
+                        }
+                        if (dim > 1) {
+                            buf.append('}');
+                        }
+                    }
+                    if (buf.length() > start && k < columnNames.length - 1) {
+                        buf.append(',');
+                    }
+                    offset += dim * nodeCount;
+                }
+                if (buf.length() > start && columnNames.length > 0 && hasRate) {
+                    buf.append(',');
+                }
+                if (hasRate) {
+                    buf.append("rate=");
+                    appendValue(buf, values[offset + node], BinaryTreeLogger.REAL);
+                }
+                if (buf.length() > start) {
+                    buf.append(']');
+                } else {
+                    buf.setLength(metaDataStart);
+                }
+            }
+
+            buf.append(':');
+            double length = parents[node] < 0 ? 0 : values[parents[node]] - values[node];
+            if (substitutions) {
+                length *= values[valueCount - nodeCount + node];
+            }
+            appendValue(buf, length, BinaryTreeLogger.REAL);
+        }
+
+        private void appendValue(StringBuffer buf, double value, int type) {
+            switch (type) {
+            case BinaryTreeLogger.INTEGER:
+                buf.append((long) value);
+                break;
+            case BinaryTreeLogger.BOOLEAN:
+                buf.append(value != 0);
+                break;
+            case BinaryTreeLogger.REAL:
+                if (df != null) {
+                    df.format(value, buf, fieldPosition);
+                } else {
+                    appendFullPrecision(buf, value);
+                }
+                break;
+            default:
+                appendFullPrecision(buf, value);
+            }
+        }
+
+        private void appendFullPrecision(StringBuffer buf, double value) {
+            if (singlePrecision) {
+                buf.append((float) value);
+            } else {
+                buf.append(value);
+            }
+        }
+    } // class NewickWriter
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private static void printUsageAndExit(final Arguments arguments) {
+        arguments.printUsage("binarytreelogreader", "<binary tree log> [<output NEXUS file>]");
+        System.out.println("\nExample:");
+        System.out.println("binarytreelogreader -burnin 10 -dp 4 beast.btrees beast.trees");
+        System.exit(0);
+    }
+
+    public static void main(final String[] args) {
+        final Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.RealOption("burnin", 0, 100, "Percentage of trees to discard as burn-in (default 0)"),
+                        new Arguments.IntegerOption("dp", -1, 32, "Number of decimal places of real values, -1 for full precision (default as logged)"),
+                        new Arguments.Option("help", "Show help"),
+                });
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println();
+            System.out.println(ae.getMessage());
+            System.out.println();
+            printUsageAndExit(arguments);
+        }
+        final String[] files = arguments.getLeftoverArguments();
+        if (arguments.hasOption("help") || files.length < 1 || files.length > 2) {
+            printUsageAndExit(arguments);
+        }
+
+        final double burnin = arguments.hasOption("burnin") ? arguments.getRealOption("burnin") : 0;
+        final Integer dp = arguments.hasOption("dp") ? arguments.getIntegerOption("dp") : null;
+        try (BinaryTreeLogReader reader = new BinaryTreeLogReader(new File(files[0]))) {
+            if (files.length == 2) {
+                try (PrintStream out = new PrintStream(new FileOutputStream(files[1]))) {
+                    reader.toNexus(out, burnin, dp);
+                }
+            } else {
+                reader.toNexus(System.out, burnin, dp);
+                System.out.println();
+            }
+        } catch (IOException e) {
+            Log.err.println("Could not convert " + files[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package beast.base.evolution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.core.Function;
+import beast.base.core.Input;
+import beast.base.core.Log;
+import beast.base.evolution.branchratemodel.BranchRateModel;
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.base.inference.Logger;
+import beast.base.inference.StateNode;
+import beast.base.inference.parameter.BooleanParameter;
+import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.Parameter;
+import beast.base.inference.parameter.RealParameter;
+
+@Description("Logs trees in a compact binary format instead of NEXUS: every tree is a fixed size record with "
+        + "the topology as parent node numbers, followed by node heights, metadata and rates as floats or doubles. "
+        + "Metadata values are accompanied by flags telling whether a node has a value, so NaN values are preserved. "
+        + "The logger takes a single tree or TreeWithMetaDataLogger to log. "
+        + "Use BinaryTreeLogReader to convert the log to a NEXUS tree file.")
+public class BinaryTreeLogger extends Logger {
+    final public Input<Boolean> singlePrecisionInput = new Input<>("singlePrecision", "whether to store heights, metadata and rates "
+            + "as 4 byte floats instead of 8 byte doubles", false);
+
+    /** first bytes of every binary tree log: "BTL" followed by the format version **/
+    public final static int MAGIC = 0x42544C02;
+
+    // header flags
+    final static int FLOAT = 1;
+    final static int SUBSTITUTIONS = 2;
+    final static int RATE = 4;
+    /** children are ordered as by Node.sort, otherwise records contain the position of every node among its siblings **/
+    final static int SORTED = 8;
+
+    // metadata column types, determining how values are written when converting to NEXUS
+    /** real value, formatted with the number of decimal places **/
+    final static int REAL = 0;
+    /** value written in full precision **/
+    final static int DOUBLE = 1;
+    final static int INTEGER = 2;
+    final static int BOOLEAN = 3;
+
+    private Tree tree;
+    private List<Function> metadataList;
+    private BranchRateModel.Base branchRateModel;
+    private boolean substitutions;
+    private int decimalPlaces = -1;
+    private boolean singlePrecision;
+    private boolean sortTree = true;
+
+    // values per node of every metadata column
+    private int[] dimensions;
+    // reused for every record
+    private ByteBuffer record;
+    private int[] parents;
+    private byte[] childIndices;
+    // one bit per metadata value, set if the node has the value
+    private byte[] present;
+
+    // file name after substituting $(tree) and the file name prefix
+    private String resolvedFileName;
+
+    @Override
+    public void initAndValidate() {
+        super.initAndValidate();
+        mode = LOGMODE.tree;
+        resolvedFileName = null;
+        if (isLoggingToStdout()) {
+            throw new IllegalArgumentException("BinaryTreeLogger needs a fileName to log to");
+        }
+        List<BEASTObject> loggers = loggersInput.get();
+        if (loggers.size() != 1) {
+            throw new IllegalArgumentException("BinaryTreeLogger logs a single tree, but " + loggers.size() + " items to log were specified");
+        }
+        metadataList = new ArrayList<>();
+        if (loggers.get(0) instanceof TreeWithMetaDataLogger) {
+            TreeWithMetaDataLogger treeLogger = (TreeWithMetaDataLogger) loggers.get(0);
+            tree = treeLogger.treeInput.get();
+            metadataList.addAll(treeLogger.parameterInput.get());
+            branchRateModel = treeLogger.clockModelInput.get();
+            substitutions = treeLogger.substitutions;
+            decimalPlaces = treeLogger.decimalPlacesInput.get();
+            sortTree = treeLogger.sortTreeInput.get();
+        } else if (loggers.get(0) instanceof Tree) {
+            tree = (Tree) loggers.get(0);
+        } else {
+            throw new IllegalArgumentException("BinaryTreeLogger expects a tree or TreeWithMetaDataLogger to log, not " + loggers.get(0).getClass().getName());
+        }
+        singlePrecision = singlePrecisionInput.get();
+
+        final int nodeCount = tree.getNodeCount();
+        dimensions = new int[metadataList.size()];
+        int metadataValueCount = 0;
+        for (int k = 0; k < metadataList.size(); k++) {
+            Function metadata = metadataList.get(k);
+            dimensions[k] = metadata instanceof Parameter<?> ? ((Parameter<?>) metadata).getMinorDimension1() : 1;
+            metadataValueCount += dimensions[k] * nodeCount;
+        }
+        final int valueCount = nodeCount + metadataValueCount + (branchRateModel != null ? nodeCount : 0);
+        record = ByteBuffer.allocate(getRecordSize(nodeCount, valueCount, metadataValueCount, singlePrecision, sortTree));
+        parents = new int[nodeCount];
+        childIndices = sortTree ? null : new byte[nodeCount];
+        present = new byte[(metadataValueCount + 7) / 8];
+    }
+
+    static int getRecordSize(int nodeCount, int valueCount, int metadataValueCount, boolean singlePrecision, boolean sorted) {
+        // sample number, parents, child indices if not sorted, presence flags of metadata, and values
+        return 8 + 4 * nodeCount + (sorted ? 0 : nodeCount) + (metadataValueCount + 7) / 8
+                + (singlePrecision ? 4 : 8) * valueCount;
+    }
+
+    @Override
+    public void init() throws IOException {
+        if (openLogFile()) {
+            m_out.write(createHeader());
+            m_out.flush();
+        }
+    }
+
+    private byte[] createHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(tree.getNodeCount());
+        out.writeInt(tree.getLeafNodeCount());
+        out.writeByte((singlePrecision ? FLOAT : 0) | (substitutions ? SUBSTITUTIONS : 0) | (branchRateModel != null ? RATE : 0)
+                | (sortTree ? SORTED : 0));
+        out.writeInt(decimalPlaces);
+        for (int i = 0; i < tree.getLeafNodeCount(); i++) {
+            // leaves need not have an ID
+            final String id = tree.getNode(i).getID();
+            out.writeBoolean(id != null);
+            if (id != null) {
+                out.writeUTF(id);
+            }
+        }
+        out.writeInt(metadataList.size());
+        for (int k = 0; k < metadataList.size(); k++) {
+            Function metadata = metadataList.get(k);
+            out.writeUTF(((BEASTObject) metadata).getID());
+            out.writeByte(getType(metadata, dimensions[k]));
+            out.writeInt(dimensions[k]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** type of a metadata column, following how TreeWithMetaDataLogger formats values **/
+    private static int getType(Function metadata, int dimension) {
+        if (metadata instanceof RealParameter) {
+            return REAL;
+        }
+        if (metadata instanceof Parameter<?> && dimension > 1) {
+            if (metadata instanceof IntegerParameter) {
+                return INTEGER;
+            }
+            if (metadata instanceof BooleanParameter) {
+                return BOOLEAN;
+            }
+        }
+        return DOUBLE;
+    }
+
+    @Override
+    protected boolean openLogFile() throws IOException {
+        final String fileName = getResolvedFileName();
+        if (FILE_MODE != LogFileMode.resume || !new File(fileName).exists()) {
+            return super.openLogFile();
+        }
+        // drop any partially written record, and continue from the last complete one
+        try (BinaryTreeLogReader reader = new BinaryTreeLogReader(new File(fileName))) {
+            if (reader.getRecordCount() == 0) {
+                throw new RuntimeException("Error 402: empty tree log file " + fileName);
+            }
+            final long sampleOffset = reader.getSample(reader.getRecordCount() - 1);
+            if (Logger.sampleOffset > 0 && sampleOffset != Logger.sampleOffset) {
+                throw new RuntimeException("Error 401: Cannot resume: log files do not end in same sample number");
+            }
+            Logger.sampleOffset = sampleOffset;
+            truncate(fileName, reader.getRecordOffset(reader.getRecordCount()));
+        }
+        m_out = new PrintStream(new FileOutputStream(fileName, true));
+        Log.info.println("Appending file " + fileName);
+        return false;
+    }
+
+    /**
+     * @return file name with the same substitutions as Logger.openLogFile applies, resolved once,
+     * since Logger.openLogFile replaces the file name by the substituted one
+     */
+    private String getResolvedFileName() {
+        if (resolvedFileName != null) {
+            return resolvedFileName;
+        }
+        String fileName = getFileName();
+        if (fileName.contains("$(tree)")) {
+            String treeName = "tree";
+            final String id = loggersInput.get().get(0).getID();
+            if (id != null && id.indexOf(".t:") > 0) {
+                treeName = id.substring(id.indexOf(".t:") + 3);
+            }
+            fileName = fileName.replace("$(tree)", treeName);
+        }
+        if (System.getProperty("file.name.prefix") != null) {
+            fileName = System.getProperty("file.name.prefix") + fileName;
+        }
+        resolvedFileName = fileName;
+        return fileName;
+    }
+
+    private static void truncate(String fileName, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.WRITE)) {
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+        }
+    }
+
+    @Override
+    public long getLogOffset() throws IOException {
+        final String fileName = getResolvedFileName();
+        final File file = new File(fileName);
+        if (!file.exists()) {
+            return 0;
+        }
+        try (BinaryTreeLogReader reader = new BinaryTreeLogReader(file)) {
+            final long recordCount = reader.getRecordCount();
+            if (recordCount == 0) {
+                return 0;
+            }
+            // remove partially written record, if any
+            truncate(fileName, reader.getRecordOffset(recordCount));
+            return reader.getSample(recordCount - 1);
+        }
+    }
+
+    @Override
+    public void setLogOffset(long offset) throws IOException {
+        final String fileName = getResolvedFileName();
+        final File file = new File(fileName);
+        if (!file.exists()) {
+            return;
+        }
+        try (BinaryTreeLogReader reader = new BinaryTreeLogReader(file)) {
+            for (long i = 0; i < reader.getRecordCount(); i++) {
+                if (reader.getSample(i) == offset) {
+                    truncate(fileName, reader.getRecordOffset(i + 1));
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void log(long sampleNr) {
+        if ((sampleNr < 0) || (sampleNr % every > 0)) {
+            return;
+        }
+        if (sampleOffset >= 0) {
+            if (sampleNr == 0) {
+                // don't need to duplicate the last tree in the log
+                return;
+            }
+            sampleNr += sampleOffset;
+        }
+
+        // make sure we get the current version of the inputs
+        final Tree tree = (Tree) this.tree.getCurrent();
+        for (int i = 0; i < metadataList.size(); i++) {
+            if (metadataList.get(i) instanceof StateNode) {
+                metadataList.set(i, ((StateNode) metadataList.get(i)).getCurrent());
+            }
+        }
+
+        record.clear();
+        record.putLong(sampleNr);
+        final Node[] nodes = tree.getNodesAsArray();
+        for (final Node node : nodes) {
+            parents[node.getNr()] = node.isRoot() ? -1 : node.getParent().getNr();
+        }
+        for (final int parent : parents) {
+            record.putInt(parent);
+        }
+        if (childIndices != null) {
+            for (final Node node : nodes) {
+                if (!node.isRoot()) {
+                    childIndices[node.getNr()] = (byte) node.getParent().getChildren().indexOf(node);
+                }
+            }
+            record.put(childIndices);
+        }
+
+        // values are written after the presence flags, which are filled in along the way
+        final int presentStart = record.position();
+        record.position(presentStart + present.length);
+        Arrays.fill(present, (byte) 0);
+        for (int i = 0; i < nodes.length; i++) {
+            putValue(tree.getNode(i).getHeight());
+        }
+        int v = 0;
+        for (int k = 0; k < metadataList.size(); k++) {
+            final Function metadata = metadataList.get(k);
+            for (int i = 0; i < nodes.length; i++) {
+                if (metadata instanceof Parameter<?>) {
+                    final Parameter<?> p = (Parameter<?>) metadata;
+                    final boolean hasValue = p.getMinorDimension2() > i;
+                    for (int j = 0; j < dimensions[k]; j++) {
+                        if (hasValue && j < p.getMinorDimension1()) {
+                            present[v >> 3] |= 1 << (v & 7);
+                            putValue(p.getArrayValue(i * p.getMinorDimension1() + j));
+                        } else {
+                            putValue(Double.NaN);
+                        }
+                        v++;
+                    }
+                } else {
+                    if (metadata.getDimension() > i) {
+                        present[v >> 3] |= 1 << (v & 7);
+                        putValue(metadata.getArrayValue(i));
+                    } else {
+                        putValue(Double.NaN);
+                    }
+                    v++;
+                }
+            }
+        }
+        if (branchRateModel != null) {
+            for (int i = 0; i < nodes.length; i++) {
+                putValue(branchRateModel.getRateForBranch(tree.getNode(i)));
+            }
+        }
+        final int end = record.position();
+        record.position(presentStart);
+        record.put(present);
+        m_out.write(record.array(), 0, end);
+    }
+
+    private void putValue(double value) {
+        if (singlePrecision) {
+            record.putFloat((float) value);
+        } else {
+            record.putDouble(value);
+        }
+    }
+
+    @Override
+    public void close() {
+        // unlike text logs there is no footer
+        m_out.close();
+    }
+
+}
@@ -3,6 +3,7 @@ package beast.base.evolution;
 import java.io.PrintStream;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
+import java.text.FieldPosition;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,8 +35,12 @@ public class TreeWithMetaDataLogger extends BEASTObject implements Loggable {
     boolean substitutions = false;
 
     private DecimalFormat df;
+    private final FieldPosition fieldPosition = new FieldPosition(0);
     private boolean sortTree;
 
+    // reused between calls to log, so the buffer only grows for the first tree
+    private final StringBuffer newickBuffer = new StringBuffer();
+
     @Override
     public void initAndValidate() {
         int dp = decimalPlacesInput.get();
@@ -85,9 +90,11 @@ public class TreeWithMetaDataLogger extends BEASTObject implements Loggable {
             tree.getRoot().sort();
         }
 
-        out.print(toNewick(tree.getRoot(), metadata, branchRateModel));
+        newickBuffer.setLength(0);
+        appendNewick(newickBuffer, tree.getRoot(), metadata, branchRateModel);
         //out.print(tree.getRoot().toShortNewick(false));
-        out.print(";");
+        newickBuffer.append(';');
+        out.append(newickBuffer);
     }
 
     /**
@@ -102,90 +109,101 @@ public class TreeWithMetaDataLogger extends BEASTObject implements Loggable {
         if (df == null) {
             buf.append(d);
         } else {
-            buf.append(df.format(d));
+            df.format(d, buf, fieldPosition);
         }
     }
 
     String toNewick(Node node, List<Function> metadataList, BranchRateModel.Base branchRateModel) {
         StringBuffer buf = new StringBuffer();
+        appendNewick(buf, node, metadataList, branchRateModel);
+        return buf.toString();
+    }
+
+    /**
+     * Appends the Newick representation of the subtree below node to buf, writing
+     * metadata directly into buf so no intermediate strings are created per node.
+     */
+    void appendNewick(StringBuffer buf, Node node, List<Function> metadataList, BranchRateModel.Base branchRateModel) {
         if (node.getLeft() != null) {
-            buf.append("(");
-            buf.append(toNewick(node.getLeft(), metadataList, branchRateModel));
+            buf.append('(');
+            appendNewick(buf, node.getLeft(), metadataList, branchRateModel);
             if (node.getRight() != null) {
                 buf.append(',');
-                buf.append(toNewick(node.getRight(), metadataList, branchRateModel));
+                appendNewick(buf, node.getRight(), metadataList, branchRateModel);
             }
-            buf.append(")");
+            buf.append(')');
         } else {
             buf.append(node.getNr() + 1);
         }
-		StringBuffer buf2 = new StringBuffer();
 		if (someMetaDataNeedsLogging) {
-			buf2.append("[&");
+			final int metaDataStart = buf.length();
+			buf.append("[&");
+			// start of the metadata entries, used to check whether anything was written
+			final int start = buf.length();
 			if (metadataList.size() > 0) {
-				for (Function metadata : metadataList) {
+				for (int k = 0; k < metadataList.size(); k++) {
+					Function metadata = metadataList.get(k);
 					if (metadata instanceof Parameter<?>) {
 						Parameter<?> p = (Parameter<?>) metadata;
 						int dim = p.getMinorDimension1();
 						if (p.getMinorDimension2() > node.getNr()) {
-							buf2.append(((BEASTObject) metadata).getID());
-							buf2.append('=');
+							buf.append(((BEASTObject) metadata).getID());
+							buf.append('=');
 							if (dim > 1) {
-								buf2.append('{');
+								buf.append('{');
 								for (int i = 0; i < dim; i++) {
 									if (metadata instanceof RealParameter) {
 										RealParameter rp = (RealParameter) metadata;
-										appendDouble(buf2, rp.getMatrixValue(node.getNr(), i));
+										appendDouble(buf, rp.getMatrixValue(node.getNr(), i));
 									} else {
-										buf2.append(p.getMatrixValue(node.getNr(), i));
+										buf.append(p.getMatrixValue(node.getNr(), i));
 									}
 									if (i < dim - 1) {
-										buf2.append(',');
+										buf.append(',');
 									}
 								}
-								buf2.append('}');
+								buf.append('}');
 							} else {
 								if (metadata instanceof RealParameter) {
 									RealParameter rp = (RealParameter) metadata;
-									appendDouble(buf2, rp.getArrayValue(node.getNr()));
+									appendDouble(buf, rp.getArrayValue(node.getNr()));
 								} else {
-									buf2.append(metadata.getArrayValue(node.getNr()));
+									buf.append(metadata.getArrayValue(node.getNr()));
 								}
 							}
-						} else {
-						
 						}
 					} else {
 						if (metadata.getDimension() > node.getNr()) {
-							buf2.append(((BEASTObject) metadata).getID());
-							buf2.append('=');
-							buf2.append(metadata.getArrayValue(node.getNr()));
+							buf.append(((BEASTObject) metadata).getID());
+							buf.append('=');
+							buf.append(metadata.getArrayValue(node.getNr()));
 						}
 					}
-					if (buf2.length() > 2 && metadataList.indexOf(metadata) < metadataList.size() - 1) {
-						buf2.append(",");
+					if (buf.length() > start && k < metadataList.size() - 1) {
+						buf.append(',');
 					}
 				}
-				if (buf2.length() > 2 && branchRateModel != null) {
-					buf2.append(",");
+				if (buf.length() > start && branchRateModel != null) {
+					buf.append(',');
 				}
 			}
 			if (branchRateModel != null) {
-				buf2.append("rate=");
-				appendDouble(buf2, branchRateModel.getRateForBranch(node));
+				buf.append("rate=");
+				appendDouble(buf, branchRateModel.getRateForBranch(node));
+			}
+			if (buf.length() > start) {
+				buf.append(']');
+			} else {
+				// no metadata for this node
+				buf.setLength(metaDataStart);
 			}
-			buf2.append(']');
-		}
-		if (buf2.length() > 3) {
-			buf.append(buf2.toString());
 		}
-        buf.append(":");
+        buf.append(':');
         if (substitutions) {
             appendDouble(buf, node.getLength() * branchRateModel.getRateForBranch(node));
         } else {
             appendDouble(buf, node.getLength());
         }
-        return buf.toString();
     }
 
 
@@ -1,8 +1,11 @@
 package beast.base.evolution.branchratemodel;
 
+import java.util.BitSet;
+
 import beast.base.core.Description;
 import beast.base.core.Input;
 import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.TreeInterface;
 import beast.base.inference.CalculationNode;
 import beast.base.inference.parameter.RealParameter;
 
@@ -18,6 +21,33 @@ public interface BranchRateModel {
     public abstract class Base extends CalculationNode implements BranchRateModel {
         final public Input<RealParameter> meanRateInput = new Input<>("clock.rate", "mean clock rate (defaults to 1.0)");
 
-        // empty at the moment but brings together the required interfaces
+        /**
+         * Fill rates with the rate of the branch above every node of the tree,
+         * indexed by node number, in one go. Implementations can override this
+         * to avoid the overhead of calling getRateForBranch for every node.
+         *
+         * @param tree  tree this clock model applies to
+         * @param rates array of at least tree.getNodeCount() entries
+         */
+        public void getRatesForBranches(final TreeInterface tree, final double[] rates) {
+            for (final Node node : tree.getNodesAsArray()) {
+                rates[node.getNr()] = getRateForBranch(node);
+            }
+        }
+
+        /**
+         * Set the bits (indexed by node number) in dirtyBranches of the branches
+         * whose rate may have changed since the last store() or restore().
+         * Rates of branches that are not marked, and of which the node is not
+         * dirty, are guaranteed to be the same as before, so callers do not need
+         * to call getRateForBranch for them again.
+         * By default, all branches are marked. Bits that are already set are left alone.
+         *
+         * @param tree          tree this clock model applies to
+         * @param dirtyBranches set to mark branches in
+         */
+        public void markDirtyBranches(final TreeInterface tree, final BitSet dirtyBranches) {
+            dirtyBranches.set(0, tree.getNodeCount());
+        }
     }
 }
@@ -1,11 +1,14 @@
 package beast.base.evolution.branchratemodel;
 
+import java.util.BitSet;
+
 import beast.base.core.Citation;
 import beast.base.core.Description;
 import beast.base.core.Input;
 import beast.base.core.Log;
 import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeInterface;
 import beast.base.inference.parameter.BooleanParameter;
 import beast.base.inference.parameter.RealParameter;
 
@@ -153,6 +156,28 @@ public class RandomLocalClockModel extends BranchRateModel.Base {
 
     @Override
     public double getRateForBranch(Node node) {
+        update();
+        return unscaledBranchRates[getNr(node)] * scaleFactor;
+    }
+
+    @Override
+    public void getRatesForBranches(final TreeInterface tree, final double[] rates) {
+        update();
+        for (final Node node : tree.getNodesAsArray()) {
+            rates[node.getNr()] = unscaledBranchRates[getNr(node)] * scaleFactor;
+        }
+    }
+
+    @Override
+    public void markDirtyBranches(final TreeInterface tree, final BitSet dirtyBranches) {
+        // any indicator or rate affects the rates of a whole subtree as well as
+        // the scale factor, so all branches change together
+        if (isDirtyCalculation()) {
+            dirtyBranches.set(0, tree.getNodeCount());
+        }
+    }
+
+    private void update() {
         // this must be synchronized to avoid being called simultaneously by
         // two different likelihood threads
     	synchronized (this) {
@@ -161,8 +186,6 @@ public class RandomLocalClockModel extends BranchRateModel.Base {
                 recompute = false;
 			}
         }
-
-        return unscaledBranchRates[getNr(node)] * scaleFactor;
     }
 
     private int getNr(Node node) {
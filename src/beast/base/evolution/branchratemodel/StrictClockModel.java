@@ -1,7 +1,11 @@
 package beast.base.evolution.branchratemodel;
 
+import java.util.Arrays;
+import java.util.BitSet;
+
 import beast.base.core.Description;
 import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.TreeInterface;
 import beast.base.inference.parameter.RealParameter;
 
 /**
@@ -29,6 +33,19 @@ public class StrictClockModel extends BranchRateModel.Base {
         return mu;
     }
 
+    @Override
+    public void getRatesForBranches(final TreeInterface tree, final double[] rates) {
+        Arrays.fill(rates, 0, tree.getNodeCount(), mu);
+    }
+
+    @Override
+    public void markDirtyBranches(final TreeInterface tree, final BitSet dirtyBranches) {
+        // mu is the only thing that can change
+        if (isDirtyCalculation()) {
+            dirtyBranches.set(0, tree.getNodeCount());
+        }
+    }
+
     @Override
     public boolean requiresRecalculation() {
         mu = muParameter.getValue();
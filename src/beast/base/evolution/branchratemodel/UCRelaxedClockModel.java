@@ -3,6 +3,7 @@ package beast.base.evolution.branchratemodel;
 
 
 import java.util.Arrays;
+import java.util.BitSet;
 
 import org.apache.commons.math.MathException;
 
@@ -12,8 +13,11 @@ import beast.base.core.Input;
 import beast.base.core.Log;
 import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeInterface;
+import beast.base.inference.distribution.InverseCDFTable;
 import beast.base.inference.distribution.ParametricDistribution;
 import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.Parameter;
 import beast.base.inference.parameter.RealParameter;
 import beast.base.util.Randomizer;
 
@@ -37,6 +41,9 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
     final public Input<RealParameter> rateInput = new Input<>("rates", "the rates associated with nodes in the tree for sampling of individual rates among branches."); // , Input.Validate.XOR, categoryInput);
     final public Input<Tree> treeInput = new Input<>("tree", "the tree this relaxed clock is associated with.", Input.Validate.REQUIRED);
     final public Input<Boolean> normalizeInput = new Input<>("normalize", "Whether to normalize the average rate (default false).", false);
+    final public Input<Double> quantileToleranceInput = new Input<>("quantileTolerance", "relative error allowed when approximating the inverse cumulative distribution "
+    		+ "by a lookup table with rateQuantiles and numberOfDiscreteRates <= 1. The table is rebuilt only when the rate distribution changes. "
+    		+ "Use 0 to calculate rates exactly (default 0)", 0.0);
     // there are three modes to represent the rates on the branches
     enum Mode {
         categories,
@@ -65,6 +72,10 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
     private boolean renormalize = true;//
     private double[] rates; //the output rates
     private double[] storedRates; //
+    private double[] quantileRates; // raw rate per quantile, when mode=quantiles and rates==null
+    private double[] storedQuantileRates;
+    private boolean quantileRatesKnown = false; // whether quantileRates have been calculated at all
+    private InverseCDFTable quantileTable; // approximate inverse CDF, null for exact calculation
     private double scaleFactor = 1.0; //initial
     private double storedScaleFactor = 1.0; //initial
     int LATTICE_SIZE_FOR_DISCRETIZED_RATES = 100;//
@@ -133,6 +144,13 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
                 if (numberOfDiscreteRates.get() > 1) {
                     rates = new double[LATTICE_SIZE_FOR_DISCRETIZED_RATES];
                     storedRates = new double[LATTICE_SIZE_FOR_DISCRETIZED_RATES];
+                } else {
+                    // rates per branch are cached, and only recalculated for quantiles that changed
+                    quantileRates = new double[branchCount];
+                    storedQuantileRates = new double[branchCount];
+                    if (quantileToleranceInput.get() > 0) {
+                        quantileTable = new InverseCDFTable(quantileToleranceInput.get());
+                    }
                 }
             }
             break;
@@ -199,7 +217,45 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
             // root has no rate
             return 1;
         }
-        if (recompute) {
+        update();
+        return getRawRate(node) * scaleFactor * meanRate.getValue();
+    }
+
+    @Override
+    public void getRatesForBranches(final TreeInterface tree, final double[] rates) {
+        update();
+        final double factor = scaleFactor * meanRate.getValue();
+        for (final Node node : tree.getNodesAsArray()) {
+            rates[node.getNr()] = node.isRoot() ? 1 : getRawRate(node) * factor;
+        }
+    }
+
+    @Override
+    public void markDirtyBranches(final TreeInterface tree, final BitSet dirtyBranches) {
+        if (rateDistInput.get().isDirtyCalculation() || meanRate.somethingIsDirty() ||
+                (normalize && (isDirtyCalculation() || this.tree.somethingIsDirty()))) {
+            // all rates are affected
+            dirtyBranches.set(0, tree.getNodeCount());
+            return;
+        }
+        final Parameter.Base<?> parameter = mode == Mode.categories ? categories : (mode == Mode.quantiles ? quantiles : rateParameter);
+        if (!parameter.somethingIsDirty()) {
+            return;
+        }
+        // the rate of the node numbered branchCount is stored at the index of the root
+        final int rootNr = tree.getRoot().getNr();
+        for (int i = 0; i < branchCount; i++) {
+            if (parameter.isDirty(i)) {
+                dirtyBranches.set(i == rootNr ? branchCount : i);
+            }
+        }
+    }
+
+    /**
+     * Make sure the cached rates and scale factor are up to date.
+     */
+    private void update() {
+        if (recompute || (quantileRates != null && !quantileRatesKnown)) {
             // this must be synchronized to avoid being called simultaneously by
             // two different likelihood threads
             synchronized (this) {
@@ -215,7 +271,6 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
             }
             renormalize = false;
         }
-        return getRawRate(node) * scaleFactor * meanRate.getValue();
     }
 
     /**
@@ -283,11 +338,8 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
             nodeNumber = node.getTree().getRoot().getNr();
         }
         if (rates == null) {
-	        try {
-	        	return distribution.inverseCumulativeProbability(quantiles.getValue(nodeNumber));
-	        } catch (MathException e) {
-	            throw new RuntimeException("Failed to compute inverse cumulative probability!");
-	        }
+        	// cached rates, updated in prepare() and requiresRecalculation()
+        	return quantileRates[nodeNumber];
         }
 
         // use cached rates
@@ -330,7 +382,24 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
 	// access to rate cache 
 	public double [] getRates() {return rates;}
 
-	
+	/**
+	 * Calculate raw rates for quantiles, either for all quantiles, or
+	 * only for those that changed (when the rate distribution did not change).
+	 */
+	private void updateQuantileRates(boolean all) {
+		try {
+			for (int i = 0; i < branchCount; i++) {
+				if (all || quantiles.isDirty(i)) {
+					final double q = quantiles.getArrayValue(i);
+					quantileRates[i] = quantileTable != null ?
+							quantileTable.inverseCumulativeProbability(q) :
+							distribution.inverseCumulativeProbability(q);
+				}
+			}
+		} catch (MathException e) {
+			throw new RuntimeException("Failed to compute inverse cumulative probability!");
+		}
+	}
    
     
     private void prepare() {
@@ -339,6 +408,17 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
             // here we just reset rates to zero and they are computed by getRawRate(int i) as needed
            Arrays.fill(rates, 0.0);
         }
+      if (quantileRates != null) {
+    	  if (quantileTable != null) {
+    		  try {
+    			  quantileTable.build(distribution);
+    		  } catch (MathException e) {
+    			  throw new RuntimeException("Failed to compute inverse cumulative probability!");
+    		  }
+    	  }
+    	  updateQuantileRates(true);
+    	  quantileRatesKnown = true;
+      }
     }
 
     @Override
@@ -362,6 +442,10 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
         }
 
         if (quantileInput.get() != null && quantileInput.get().somethingIsDirty()) {
+            if (quantileRates != null && quantileRatesKnown) {
+                // distribution did not change, so only rates for changed quantiles need updating
+                updateQuantileRates(false);
+            }
             return true;
         }
 
@@ -384,6 +468,9 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
             //rates = storedRates;
             //storedRates = tmp1;
         }
+        if (quantileRates != null) {
+            System.arraycopy(quantileRates, 0, storedQuantileRates, 0, quantileRates.length);
+        }
         storedScaleFactor = scaleFactor;
         super.store();
     }
@@ -395,6 +482,11 @@ public class UCRelaxedClockModel extends BranchRateModel.Base {
             rates = storedRates;
             storedRates = tmp;
         }
+        if (quantileRates != null) {
+            double[] tmp = quantileRates;
+            quantileRates = storedQuantileRates;
+            storedQuantileRates = tmp;
+        }
         scaleFactor = storedScaleFactor;
         super.restore();
     }
@@ -0,0 +1,84 @@
+package beast.base.evolution.datatype;
+
+import java.util.List;
+
+import beast.base.core.Description;
+import beast.base.evolution.datatype.DataType.Base;
+
+@Description("DataType for codons of the universal genetic code. The 61 sense codons " +
+        "are the states, in alphabetical order (AAA, AAC, ..., TTT). Stop codons (TAA, TAG, TGA) " +
+        "are not states and are not allowed in sequences.")
+public class Codon extends Base {
+    final static String NUCLEOTIDES = "ACGT";
+    final static String[] STOP_CODONS = {"TAA", "TAG", "TGA"};
+    final static int SENSE_CODON_COUNT = 61;
+
+    public Codon() {
+        stateCount = SENSE_CODON_COUNT;
+        codeLength = 3;
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            String codon = "" + NUCLEOTIDES.charAt(i / 16) + NUCLEOTIDES.charAt((i / 4) % 4) + NUCLEOTIDES.charAt(i % 4);
+            if (!isStopCodon(codon)) {
+                buf.append(codon);
+            }
+        }
+        // gaps and missing data
+        buf.append("" + GAP_CHAR + GAP_CHAR + GAP_CHAR);
+        buf.append("" + MISSING_CHAR + MISSING_CHAR + MISSING_CHAR);
+        buf.append("NNN");
+        codeMap = buf.toString();
+
+        mapCodeToStateSet = new int[SENSE_CODON_COUNT + 3][];
+        for (int i = 0; i < SENSE_CODON_COUNT; i++) {
+            mapCodeToStateSet[i] = new int[]{i};
+        }
+        int[] all = new int[SENSE_CODON_COUNT];
+        for (int i = 0; i < SENSE_CODON_COUNT; i++) {
+            all[i] = i;
+        }
+        for (int i = SENSE_CODON_COUNT; i < mapCodeToStateSet.length; i++) {
+            mapCodeToStateSet[i] = all;
+        }
+    }
+
+    /**
+     * @param codon three upper case nucleotide characters
+     * @return true if codon is a stop codon of the universal genetic code
+     */
+    public static boolean isStopCodon(String codon) {
+        for (String stop : STOP_CODONS) {
+            if (stop.equals(codon)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * As Base.stringToEncoding, but RNA (U) is read as DNA (T), and
+     * stop codons are reported as such.
+     */
+    @Override
+    public List<Integer> stringToEncoding(String data) throws IllegalArgumentException {
+        data = data.replaceAll("\\s", "").toUpperCase().replace('U', 'T');
+        if (data.length() % codeLength != 0) {
+            throw new IllegalArgumentException("Sequence length (" + data.length() + ") is not a multiple of 3, so cannot be read as codons");
+        }
+        for (int i = 0; i < data.length(); i += codeLength) {
+            String codon = data.substring(i, i + codeLength);
+            if (isStopCodon(codon)) {
+                throw new IllegalArgumentException("Stop codon " + codon + " found at codon " + (i / codeLength + 1) +
+                        ": stop codons are not states of the codon data type, remove or replace them by gaps");
+            }
+        }
+        return super.stringToEncoding(data);
+    }
+
+    @Override
+    public String getTypeDescription() {
+        return "codon";
+    }
+
+}
@@ -1,5 +1,6 @@
 package beast.base.evolution.likelihood;
 
+import java.util.Arrays;
 
 /**
  * standard likelihood core, uses no caching *
@@ -27,11 +28,45 @@ public class BeerLikelihoodCore extends LikelihoodCore {
 
     protected boolean useScaling = false;
 
+    /**
+     * Dynamic rescaling: once scaling is switched on, partials are only checked for rescaling
+     * at nodes that are scalingInterval levels above the last checked node on every path to the tips.
+     * scalingLevels holds for every node the number of levels since that check, and scalingFactors
+     * the cumulative log scale factors of the subtree below the node, so that the entry for the root
+     * is the total scale factor of a pattern. Both are indexed by the current partials index, so they
+     * are stored and restored together with the partials.
+     */
     protected double[][][] scalingFactors;
+    protected int[][] scalingLevels;
+    protected int scalingInterval = DEFAULT_SCALING_INTERVAL;
+    public final static int DEFAULT_SCALING_INTERVAL = 4;
+    /** node of which the partials were integrated last, which is the root for tree likelihoods **/
+    protected int rootNodeIndex;
 
     private double scalingThreshold = 1.0E-100;
     double SCALE = 2;
 
+    /**
+     * Pattern sharing: for every node, patternRepresentatives holds for each pattern the
+     * first pattern that is identical to it in the subtree below the node, and
+     * distinctPatternCount the number of distinct patterns below the node (0 if unknown).
+     * Both are indexed by the current partials index, so they are stored and restored
+     * together with the partials.
+     */
+    protected boolean usePatternSharing = false;
+    protected int[][][] patternRepresentatives;
+    protected int[][] distinctPatternCount;
+    /** partials are only calculated for distinct patterns when at most this fraction of patterns is distinct **/
+    final static double SHARING_THRESHOLD = 0.75;
+    /** open addressing hash table for finding representatives, and list of distinct patterns **/
+    private long[] hashKeys;
+    private int[] hashValues;
+    private int[] distinctPatterns;
+
+    /** pre-order partials, calculated on request only, so not stored and restored **/
+    protected double[][] preOrderPartials;
+    private double[] preOrderBuffer;
+
     public BeerLikelihoodCore(int nrOfStates) {
         this.nrOfStates = nrOfStates;
     } // c'tor
@@ -438,6 +473,7 @@ public class BeerLikelihoodCore extends LikelihoodCore {
         matrixSize = nrOfStates * nrOfStates;
 
         matrices = new double[2][nodeCount][matrixCount * matrixSize];
+        rootNodeIndex = nodeCount - 1;
     }
 
     /**
@@ -458,17 +494,41 @@ public class BeerLikelihoodCore extends LikelihoodCore {
         storedMatrixIndex = null;
 
         scalingFactors = null;
+        scalingLevels = null;
+        patternRepresentatives = null;
+        distinctPatternCount = null;
+        preOrderPartials = null;
     }
 
     @Override
     public void setUseScaling(double scale) {
+        if (useScaling && scale != 1.0) {
+            // underflow in spite of scaling, so check partials for rescaling more often
+            scalingInterval = Math.max(1, scalingInterval / 2);
+        }
         useScaling = (scale != 1.0);
 
         if (useScaling) {
             scalingFactors = new double[2][nrOfNodes][nrOfPatterns];
+            scalingLevels = new int[2][nrOfNodes];
         }
     }
 
+    /**
+     * Sets the number of levels between nodes at which partials are checked for rescaling.
+     * An interval of 1 checks every internal node.
+     */
+    public void setScalingInterval(int scalingInterval) {
+        if (scalingInterval < 1) {
+            throw new IllegalArgumentException("scaling interval should be at least 1, not " + scalingInterval);
+        }
+        this.scalingInterval = scalingInterval;
+    }
+
+    public int getScalingInterval() {
+        return scalingInterval;
+    }
+
     /**
      * Allocates partials for a node
      */
@@ -522,6 +582,9 @@ public class BeerLikelihoodCore extends LikelihoodCore {
             createNodeStates(nodeIndex);
         }
         System.arraycopy(states, 0, this.states[nodeIndex], 0, nrOfPatterns);
+        if (usePatternSharing) {
+            setTipRepresentatives(nodeIndex);
+        }
     }
 
     /**
@@ -563,6 +626,11 @@ public class BeerLikelihoodCore extends LikelihoodCore {
                 matrixIndex * matrixSize, matrix, 0, matrixSize);
     }
 
+    @Override
+    public double[] getNodeMatrices(int nodeIndex) {
+        return matrices[currentMatrixIndex[nodeIndex]][nodeIndex];
+    }
+
     @Override
     public void setNodePartialsForUpdate(int nodeIndex) {
         currentPartialsIndex[nodeIndex] = 1 - currentPartialsIndex[nodeIndex];
@@ -593,7 +661,9 @@ public class BeerLikelihoodCore extends LikelihoodCore {
      */
     @Override
 	public void calculatePartials(int nodeIndex1, int nodeIndex2, int nodeIndex3) {
-        if (states[nodeIndex1] != null) {
+        if (usePatternSharing && calculateSharedPartials(nodeIndex1, nodeIndex2, nodeIndex3)) {
+            // partials of distinct patterns calculated and copied to the others
+        } else if (states[nodeIndex1] != null) {
             if (states[nodeIndex2] != null) {
                 calculateStatesStatesPruning(
                         states[nodeIndex1], matrices[currentMatrixIndex[nodeIndex1]][nodeIndex1],
@@ -617,7 +687,7 @@ public class BeerLikelihoodCore extends LikelihoodCore {
         }
 
         if (useScaling) {
-            scalePartials(nodeIndex3);
+            updateScaling(nodeIndex1, nodeIndex2, nodeIndex3);
         }
 
 //
@@ -635,6 +705,192 @@ public class BeerLikelihoodCore extends LikelihoodCore {
 //        }
     }
 
+    @Override
+    public void setUsePatternSharing(boolean usePatternSharing) {
+        this.usePatternSharing = usePatternSharing;
+        if (usePatternSharing) {
+            patternRepresentatives = new int[2][nrOfNodes][];
+            distinctPatternCount = new int[2][nrOfNodes];
+            // at least twice the number of patterns, so probe sequences stay short
+            final int tableSize = Integer.highestOneBit(Math.max(nrOfPatterns, 1)) * 4;
+            hashKeys = new long[tableSize];
+            hashValues = new int[tableSize];
+            distinctPatterns = new int[nrOfPatterns];
+            for (int i = 0; i < nrOfNodes; i++) {
+                if (states[i] != null) {
+                    setTipRepresentatives(i);
+                }
+            }
+        } else {
+            patternRepresentatives = null;
+            distinctPatternCount = null;
+        }
+    }
+
+    /**
+     * Patterns at a tip are identical when the states are, where all gaps and
+     * unknown states count as the same state since they are treated the same.
+     * Tips are never updated, so both partials indices share the representatives.
+     */
+    private void setTipRepresentatives(int nodeIndex) {
+        final int[] representatives = new int[nrOfPatterns];
+        final int[] tipStates = states[nodeIndex];
+        Arrays.fill(hashValues, -1);
+        int distinct = 0;
+        for (int k = 0; k < nrOfPatterns; k++) {
+            representatives[k] = representative(Math.min(tipStates[k], nrOfStates), k);
+            if (representatives[k] == k) {
+                distinct++;
+            }
+        }
+        patternRepresentatives[0][nodeIndex] = representatives;
+        patternRepresentatives[1][nodeIndex] = representatives;
+        distinctPatternCount[0][nodeIndex] = distinct;
+        distinctPatternCount[1][nodeIndex] = distinct;
+    }
+
+    /**
+     * @return the first pattern added with the given key, adding pattern k if there is none
+     */
+    private int representative(long key, int k) {
+        final int mask = hashKeys.length - 1;
+        int h = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (hashValues[h] >= 0) {
+            if (hashKeys[h] == key) {
+                return hashValues[h];
+            }
+            h = (h + 1) & mask;
+        }
+        hashKeys[h] = key;
+        hashValues[h] = k;
+        return k;
+    }
+
+    /**
+     * Determines which patterns are identical in the subtree below node nodeIndex3, that is,
+     * which have the same pair of representatives at the children, and if few enough
+     * are distinct calculates partials for the distinct patterns only. Partials of the
+     * others are copies, so results do not change.
+     *
+     * @return false if partials still need to be calculated for all patterns
+     */
+    protected boolean calculateSharedPartials(int nodeIndex1, int nodeIndex2, int nodeIndex3) {
+        final int current = currentPartialsIndex[nodeIndex3];
+        final int distinct1 = distinctPatternCount[currentPartialsIndex[nodeIndex1]][nodeIndex1];
+        final int distinct2 = distinctPatternCount[currentPartialsIndex[nodeIndex2]][nodeIndex2];
+        if (distinct1 == 0 || distinct1 == nrOfPatterns || distinct2 == 0 || distinct2 == nrOfPatterns) {
+            // all patterns at a child are distinct (or unknown, for tips with partials), and so are those here
+            distinctPatternCount[current][nodeIndex3] = nrOfPatterns;
+            return false;
+        }
+
+        final int[] representatives1 = patternRepresentatives[currentPartialsIndex[nodeIndex1]][nodeIndex1];
+        final int[] representatives2 = patternRepresentatives[currentPartialsIndex[nodeIndex2]][nodeIndex2];
+        if (patternRepresentatives[current][nodeIndex3] == null) {
+            patternRepresentatives[current][nodeIndex3] = new int[nrOfPatterns];
+        }
+        final int[] representatives3 = patternRepresentatives[current][nodeIndex3];
+        Arrays.fill(hashValues, -1);
+        int distinct = 0;
+        for (int k = 0; k < nrOfPatterns; k++) {
+            representatives3[k] = representative((long) representatives1[k] * nrOfPatterns + representatives2[k], k);
+            if (representatives3[k] == k) {
+                distinctPatterns[distinct++] = k;
+            }
+        }
+        distinctPatternCount[current][nodeIndex3] = distinct;
+        if (distinct > nrOfPatterns * SHARING_THRESHOLD) {
+            return false;
+        }
+
+        // put the child with states first, as the pruning methods do
+        int child1 = nodeIndex1, child2 = nodeIndex2;
+        if (states[child1] == null && states[child2] != null) {
+            child1 = nodeIndex2;
+            child2 = nodeIndex1;
+        }
+        final double[] matrices1 = matrices[currentMatrixIndex[child1]][child1];
+        final double[] matrices2 = matrices[currentMatrixIndex[child2]][child2];
+        final double[] partials3 = partials[current][nodeIndex3];
+        for (int l = 0; l < nrOfMatrices; l++) {
+            for (int i = 0; i < distinct; i++) {
+                final int k = distinctPatterns[i];
+                if (states[child1] == null) {
+                    calculatePartialsPartialsPattern(partials[currentPartialsIndex[child1]][child1], matrices1,
+                            partials[currentPartialsIndex[child2]][child2], matrices2, partials3, l, k);
+                } else if (states[child2] == null) {
+                    calculateStatesPartialsPattern(states[child1][k], matrices1,
+                            partials[currentPartialsIndex[child2]][child2], matrices2, partials3, l, k);
+                } else {
+                    calculateStatesStatesPattern(states[child1][k], matrices1, states[child2][k], matrices2, partials3, l, k);
+                }
+            }
+            for (int k = 0; k < nrOfPatterns; k++) {
+                if (representatives3[k] != k) {
+                    System.arraycopy(partials3, (l * nrOfPatterns + representatives3[k]) * nrOfStates,
+                            partials3, (l * nrOfPatterns + k) * nrOfStates, nrOfStates);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * As calculateStatesStatesPruning, for pattern k and matrix l only.
+     */
+    private void calculateStatesStatesPattern(int state1, double[] matrices1, int state2, double[] matrices2,
+                                              double[] partials3, int l, int k) {
+        final int v = (l * nrOfPatterns + k) * nrOfStates;
+        int w = l * matrixSize;
+        for (int i = 0; i < nrOfStates; i++) {
+            if (state1 < nrOfStates && state2 < nrOfStates) {
+                partials3[v + i] = matrices1[w + state1] * matrices2[w + state2];
+            } else if (state1 < nrOfStates) {
+                partials3[v + i] = matrices1[w + state1];
+            } else if (state2 < nrOfStates) {
+                partials3[v + i] = matrices2[w + state2];
+            } else {
+                partials3[v + i] = 1.0;
+            }
+            w += nrOfStates;
+        }
+    }
+
+    /**
+     * As calculateStatesPartialsPruning, for pattern k and matrix l only.
+     */
+    private void calculateStatesPartialsPattern(int state1, double[] matrices1, double[] partials2, double[] matrices2,
+                                                double[] partials3, int l, int k) {
+        final int v = (l * nrOfPatterns + k) * nrOfStates;
+        int w = l * matrixSize;
+        for (int i = 0; i < nrOfStates; i++) {
+            double sum = 0.0;
+            for (int j = 0; j < nrOfStates; j++) {
+                sum += matrices2[w + j] * partials2[v + j];
+            }
+            partials3[v + i] = state1 < nrOfStates ? matrices1[w + state1] * sum : sum;
+            w += nrOfStates;
+        }
+    }
+
+    /**
+     * As calculatePartialsPartialsPruning, for pattern k and matrix l only.
+     */
+    private void calculatePartialsPartialsPattern(double[] partials1, double[] matrices1, double[] partials2, double[] matrices2,
+                                                  double[] partials3, int l, int k) {
+        final int v = (l * nrOfPatterns + k) * nrOfStates;
+        int w = l * matrixSize;
+        for (int i = 0; i < nrOfStates; i++) {
+            double sum1 = 0.0, sum2 = 0.0;
+            for (int j = 0; j < nrOfStates; j++) {
+                sum1 += matrices1[w + j] * partials1[v + j];
+                sum2 += matrices2[w + j] * partials2[v + j];
+            }
+            partials3[v + i] = sum1 * sum2;
+            w += nrOfStates;
+        }
+    }
+
     /**
      * Calculates partial likelihoods at a node.
      *
@@ -644,6 +900,10 @@ public class BeerLikelihoodCore extends LikelihoodCore {
      * @param matrixMap  a map of which matrix to use for each pattern (can be null if integrating over categories)
      */
     public void calculatePartials(int nodeIndex1, int nodeIndex2, int nodeIndex3, int[] matrixMap) {
+        if (usePatternSharing) {
+            // identical patterns may use different matrices, so which patterns are identical here is unknown
+            distinctPatternCount[currentPartialsIndex[nodeIndex3]][nodeIndex3] = 0;
+        }
         if (states[nodeIndex1] != null) {
             if (states[nodeIndex2] != null) {
                 calculateStatesStatesPruning(
@@ -671,17 +931,191 @@ public class BeerLikelihoodCore extends LikelihoodCore {
         }
 
         if (useScaling) {
-            scalePartials(nodeIndex3);
+            updateScaling(nodeIndex1, nodeIndex2, nodeIndex3);
         }
     }
 
 
     @Override
 	public void integratePartials(int nodeIndex, double[] proportions, double[] outPartials) {
+        rootNodeIndex = nodeIndex;
         calculateIntegratePartials(partials[currentPartialsIndex[nodeIndex]][nodeIndex], proportions, outPartials);
     }
 
 
+    @Override
+    public boolean canCalculatePreOrderPartials() {
+        return true;
+    }
+
+    @Override
+    public void setRootPreOrderPartials(int rootIndex, double[] frequencies) {
+        if (preOrderPartials == null) {
+            preOrderPartials = new double[nrOfNodes][];
+        }
+        if (preOrderPartials[rootIndex] == null) {
+            preOrderPartials[rootIndex] = new double[partialsSize];
+        }
+        final double[] pre = preOrderPartials[rootIndex];
+        for (int v = 0; v < partialsSize; v += nrOfStates) {
+            System.arraycopy(frequencies, 0, pre, v, nrOfStates);
+        }
+    }
+
+    /**
+     * The probability of the data outside the subtree below the node given state s at
+     * the node is the sum over parent states t of P(t, s) times the pre-order partial of
+     * the parent for t times the probability of the data below the sibling given t.
+     * With scaling, pre-order partials are normalised per pattern, which does not change
+     * derivatives of log likelihoods.
+     */
+    @Override
+    public void calculatePreOrderPartials(int parentIndex, int siblingIndex, int nodeIndex) {
+        if (preOrderPartials[nodeIndex] == null) {
+            preOrderPartials[nodeIndex] = new double[partialsSize];
+        }
+        if (preOrderBuffer == null) {
+            preOrderBuffer = new double[nrOfStates];
+        }
+        final double[] parentPre = preOrderPartials[parentIndex];
+        final double[] pre = preOrderPartials[nodeIndex];
+        final double[] q = preOrderBuffer;
+        final double[] matrices1 = matrices[currentMatrixIndex[nodeIndex]][nodeIndex];
+        final double[] matrices2 = matrices[currentMatrixIndex[siblingIndex]][siblingIndex];
+        final int[] states2 = states[siblingIndex];
+        final double[] partials2 = states2 == null ? partials[currentPartialsIndex[siblingIndex]][siblingIndex] : null;
+
+        int v = 0;
+        for (int l = 0; l < nrOfMatrices; l++) {
+            final int w0 = l * matrixSize;
+            for (int k = 0; k < nrOfPatterns; k++) {
+                // contribution of parent and sibling, for every state of the parent
+                int w = w0;
+                for (int t = 0; t < nrOfStates; t++) {
+                    double sibling;
+                    if (states2 != null) {
+                        final int state2 = states2[k];
+                        sibling = state2 < nrOfStates ? matrices2[w + state2] : 1.0;
+                    } else {
+                        sibling = 0.0;
+                        for (int j = 0; j < nrOfStates; j++) {
+                            sibling += matrices2[w + j] * partials2[v + j];
+                        }
+                    }
+                    q[t] = parentPre[v + t] * sibling;
+                    w += nrOfStates;
+                }
+                // down the branch to the node
+                for (int i = 0; i < nrOfStates; i++) {
+                    double sum = 0.0;
+                    w = w0 + i;
+                    for (int t = 0; t < nrOfStates; t++) {
+                        sum += q[t] * matrices1[w];
+                        w += nrOfStates;
+                    }
+                    pre[v + i] = sum;
+                }
+                v += nrOfStates;
+            }
+        }
+
+        if (useScaling) {
+            for (int k = 0; k < nrOfPatterns; k++) {
+                double max = 0.0;
+                for (int l = 0; l < nrOfMatrices; l++) {
+                    final int u = (l * nrOfPatterns + k) * nrOfStates;
+                    for (int i = 0; i < nrOfStates; i++) {
+                        max = Math.max(max, pre[u + i]);
+                    }
+                }
+                if (max > 0.0) {
+                    for (int l = 0; l < nrOfMatrices; l++) {
+                        final int u = (l * nrOfPatterns + k) * nrOfStates;
+                        for (int i = 0; i < nrOfStates; i++) {
+                            pre[u + i] /= max;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The likelihood is the sum over states of pre-order partials times partials at the node,
+     * and since dP/dt = rate * P * Q, its derivative is the sum over states of pre-order partials
+     * times rate * Q times the partials.
+     */
+    @Override
+    public void calculateBranchLogLikelihoodDerivatives(int nodeIndex, double[] rateMatrix, double[] categoryRates,
+                                                        double[] proportions, double[] outDerivatives) {
+        final double[] pre = preOrderPartials[nodeIndex];
+        final int[] states1 = states[nodeIndex];
+        final double[] partials1 = states1 == null ? partials[currentPartialsIndex[nodeIndex]][nodeIndex] : null;
+
+        for (int k = 0; k < nrOfPatterns; k++) {
+            double likelihood = 0.0;
+            double derivative = 0.0;
+            for (int l = 0; l < nrOfMatrices; l++) {
+                final int v = (l * nrOfPatterns + k) * nrOfStates;
+                double categoryLikelihood = 0.0;
+                double categoryDerivative = 0.0;
+                if (states1 != null) {
+                    final int state1 = states1[k];
+                    if (state1 < nrOfStates) {
+                        categoryLikelihood = pre[v + state1];
+                        for (int i = 0; i < nrOfStates; i++) {
+                            categoryDerivative += pre[v + i] * rateMatrix[i * nrOfStates + state1];
+                        }
+                    } else {
+                        // unknown state: rows of Q sum to zero, so the derivative is zero
+                        for (int i = 0; i < nrOfStates; i++) {
+                            categoryLikelihood += pre[v + i];
+                        }
+                    }
+                } else {
+                    int w = 0;
+                    for (int i = 0; i < nrOfStates; i++) {
+                        double qPartials = 0.0;
+                        for (int j = 0; j < nrOfStates; j++) {
+                            qPartials += rateMatrix[w + j] * partials1[v + j];
+                        }
+                        categoryLikelihood += pre[v + i] * partials1[v + i];
+                        categoryDerivative += pre[v + i] * qPartials;
+                        w += nrOfStates;
+                    }
+                }
+                likelihood += proportions[l] * categoryLikelihood;
+                derivative += proportions[l] * categoryRates[l] * categoryDerivative;
+            }
+            outDerivatives[k] = likelihood > 0.0 ? derivative / likelihood : 0.0;
+        }
+    }
+
+    /**
+     * Rescales the partials at a node if it is scalingInterval levels above the last
+     * node that was checked in its subtree, and sets the cumulative scale factors of
+     * the node to its own (if any) plus those of its children.
+     */
+    protected void updateScaling(int nodeIndex1, int nodeIndex2, int nodeIndex3) {
+        final int current = currentPartialsIndex[nodeIndex3];
+        int level = Math.max(scalingLevels[currentPartialsIndex[nodeIndex1]][nodeIndex1],
+                scalingLevels[currentPartialsIndex[nodeIndex2]][nodeIndex2]) + 1;
+        final double[] cumulative = scalingFactors[current][nodeIndex3];
+        if (level >= scalingInterval) {
+            scalePartials(nodeIndex3);
+            level = 0;
+        } else {
+            Arrays.fill(cumulative, 0.0);
+        }
+        scalingLevels[current][nodeIndex3] = level;
+
+        final double[] cumulative1 = scalingFactors[currentPartialsIndex[nodeIndex1]][nodeIndex1];
+        final double[] cumulative2 = scalingFactors[currentPartialsIndex[nodeIndex2]][nodeIndex2];
+        for (int i = 0; i < nrOfPatterns; i++) {
+            cumulative[i] += cumulative1[i] + cumulative2[i];
+        }
+    }
+
     /**
      * Scale the partials at a given node. This uses a scaling suggested by Ziheng Yang in
      * Yang (2000) J. Mol. Evol. 51: 423-432
@@ -690,10 +1124,11 @@ public class BeerLikelihoodCore extends LikelihoodCore {
      * and finds the largest. If this is less than the scalingThreshold (currently set
      * to 1E-40) then it rescales the partials for that pattern by dividing by this number
      * (i.e., normalizing to between 0, 1). It then stores the log of this scaling.
-     * This is called for every internal node after the partials are calculated so provides
-     * most of the performance hit. Ziheng suggests only doing this on a proportion of nodes
-     * but this sounded like a headache to organize (and he doesn't use the threshold idea
-     * which improves the performance quite a bit).
+     * Following Ziheng's suggestion, this is only called for a proportion of the nodes,
+     * those selected by updateScaling. If the largest partial is below the square of the
+     * threshold, too many levels were left unchecked, and the scaling interval is halved.
+     * Patterns of which all partials underflowed are left alone, so that the likelihood
+     * becomes zero and TreeLikelihood switches to more frequent scaling.
      *
      * @param nodeIndex
      */
@@ -724,7 +1159,10 @@ public class BeerLikelihoodCore extends LikelihoodCore {
                 v += (nrOfPatterns - 1) * nrOfStates;
             }
 
-            if (scaleFactor < scalingThreshold) {
+            if (scaleFactor < scalingThreshold && scaleFactor > 0.0) {
+                if (scaleFactor < scalingThreshold * scalingThreshold && scalingInterval > 1) {
+                    scalingInterval /= 2;
+                }
 
                 v = u;
                 for (int k = 0; k < nrOfMatrices; k++) {
@@ -746,8 +1184,8 @@ public class BeerLikelihoodCore extends LikelihoodCore {
     }
 
     /**
-     * This function returns the scaling factor for that pattern by summing over
-     * the log scalings used at each node. If scaling is off then this just returns
+     * This function returns the scaling factor for that pattern, which is the cumulative
+     * log scaling at the root. If scaling is off then this just returns
      * a 0.
      *
      * @return the log scaling factor
@@ -759,13 +1197,10 @@ public class BeerLikelihoodCore extends LikelihoodCore {
 //    	} else {
 //    		return 0;
 //    	}        
-        double logScalingFactor = 0.0;
         if (useScaling) {
-            for (int i = 0; i < nrOfNodes; i++) {
-                logScalingFactor += scalingFactors[currentPartialsIndex[i]][i][patternIndex_];
-            }
+            return scalingFactors[currentPartialsIndex[rootNodeIndex]][rootNodeIndex][patternIndex_];
         }
-        return logScalingFactor;
+        return 0.0;
     }
 
     /**
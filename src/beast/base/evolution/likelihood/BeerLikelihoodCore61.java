@@ -0,0 +1,197 @@
+package beast.base.evolution.likelihood;
+
+/**
+ * codon implementation of standard likelihood core, for the 61 sense codons
+ * of the universal genetic code (stop codons are not states).
+ *
+ * With 61 states, a transition probability matrix takes about 30kB, so the matrices
+ * of both children do not fit in the L1 cache together with the partials, and
+ * the standard core reads every matrix row once for every pattern. Here, the
+ * product of matrix and partials is calculated in tiles of two matrix rows by
+ * two patterns (four patterns when one child has states), so that every value
+ * loaded is used more than once. Sums are accumulated in the same order as in
+ * the standard core, so results are identical.
+ */
+public class BeerLikelihoodCore61 extends BeerLikelihoodCore {
+    final static int STATE_COUNT = 61;
+
+    public BeerLikelihoodCore61() {
+        super(STATE_COUNT);
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when one child has states and one has partials.
+     */
+    @Override
+    protected void calculateStatesPartialsPruning(int[] stateIndex1, double[] matrices1,
+                                                  double[] partials2, double[] matrices2,
+                                                  double[] partials3) {
+        final int n = STATE_COUNT;
+        final int blockedPatterns = nrOfPatterns - nrOfPatterns % 4;
+
+        for (int l = 0; l < nrOfMatrices; l++) {
+            final int w0 = l * matrixSize;
+            final int offset = l * nrOfPatterns * n;
+
+            int k = 0;
+            for (; k < blockedPatterns; k += 4) {
+                final int v0 = offset + k * n;
+                int i = 0;
+                for (; i < n - 1; i += 2) {
+                    statesPartialsTile(stateIndex1, k, matrices1, partials2, matrices2, partials3, v0, w0 + i * n, i);
+                }
+                // last row
+                for (int b = 0; b < 4; b++) {
+                    statesPartialsRow(stateIndex1[k + b], matrices1, partials2, matrices2, partials3, v0 + b * n, w0 + i * n, i);
+                }
+            }
+
+            // remaining patterns
+            for (; k < nrOfPatterns; k++) {
+                final int v = offset + k * n;
+                for (int i = 0; i < n; i++) {
+                    statesPartialsRow(stateIndex1[k], matrices1, partials2, matrices2, partials3, v, w0 + i * n, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * rows i and i + 1 of the states-partials product for the four patterns starting at k,
+     * with partials starting at v and matrix row i starting at w
+     */
+    private static void statesPartialsTile(int[] stateIndex1, int k, double[] matrices1,
+                                           double[] partials2, double[] matrices2,
+                                           double[] partials3, int v, int w, int i) {
+        final int n = STATE_COUNT;
+        final int va = v, vb = v + n, vc = v + 2 * n, vd = v + 3 * n;
+        final int wa = w, wb = w + n;
+        double sumAa = 0.0, sumAb = 0.0, sumAc = 0.0, sumAd = 0.0;
+        double sumBa = 0.0, sumBb = 0.0, sumBc = 0.0, sumBd = 0.0;
+        for (int j = 0; j < n; j++) {
+            final double ma = matrices2[wa + j];
+            final double mb = matrices2[wb + j];
+            final double pa = partials2[va + j];
+            final double pb = partials2[vb + j];
+            final double pc = partials2[vc + j];
+            final double pd = partials2[vd + j];
+            sumAa += ma * pa;
+            sumAb += ma * pb;
+            sumAc += ma * pc;
+            sumAd += ma * pd;
+            sumBa += mb * pa;
+            sumBb += mb * pb;
+            sumBc += mb * pc;
+            sumBd += mb * pd;
+        }
+        // a child with a gap or unknown state is not used
+        final int stateA = stateIndex1[k];
+        final int stateB = stateIndex1[k + 1];
+        final int stateC = stateIndex1[k + 2];
+        final int stateD = stateIndex1[k + 3];
+        partials3[va + i] = stateA < n ? matrices1[wa + stateA] * sumAa : sumAa;
+        partials3[vb + i] = stateB < n ? matrices1[wa + stateB] * sumAb : sumAb;
+        partials3[vc + i] = stateC < n ? matrices1[wa + stateC] * sumAc : sumAc;
+        partials3[vd + i] = stateD < n ? matrices1[wa + stateD] * sumAd : sumAd;
+        partials3[va + i + 1] = stateA < n ? matrices1[wb + stateA] * sumBa : sumBa;
+        partials3[vb + i + 1] = stateB < n ? matrices1[wb + stateB] * sumBb : sumBb;
+        partials3[vc + i + 1] = stateC < n ? matrices1[wb + stateC] * sumBc : sumBc;
+        partials3[vd + i + 1] = stateD < n ? matrices1[wb + stateD] * sumBd : sumBd;
+    }
+
+    /** row i of the states-partials product for a single pattern **/
+    private static void statesPartialsRow(int state1, double[] matrices1,
+                                          double[] partials2, double[] matrices2,
+                                          double[] partials3, int v, int w, int i) {
+        double sum = 0.0;
+        for (int j = 0; j < STATE_COUNT; j++) {
+            sum += matrices2[w + j] * partials2[v + j];
+        }
+        partials3[v + i] = state1 < STATE_COUNT ? matrices1[w + state1] * sum : sum;
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when both children have partials.
+     */
+    @Override
+    protected void calculatePartialsPartialsPruning(double[] partials1, double[] matrices1,
+                                                    double[] partials2, double[] matrices2,
+                                                    double[] partials3) {
+        final int n = STATE_COUNT;
+        final int blockedPatterns = nrOfPatterns - nrOfPatterns % 2;
+
+        for (int l = 0; l < nrOfMatrices; l++) {
+            final int w0 = l * matrixSize;
+            final int offset = l * nrOfPatterns * n;
+
+            int k = 0;
+            for (; k < blockedPatterns; k += 2) {
+                final int v0 = offset + k * n;
+                int i = 0;
+                for (; i < n - 1; i += 2) {
+                    partialsPartialsTile(partials1, matrices1, partials2, matrices2, partials3, v0, w0 + i * n, i);
+                }
+                // last row
+                partialsPartialsRow(partials1, matrices1, partials2, matrices2, partials3, v0, w0 + i * n, i);
+                partialsPartialsRow(partials1, matrices1, partials2, matrices2, partials3, v0 + n, w0 + i * n, i);
+            }
+
+            // remaining pattern
+            for (; k < nrOfPatterns; k++) {
+                final int v = offset + k * n;
+                for (int i = 0; i < n; i++) {
+                    partialsPartialsRow(partials1, matrices1, partials2, matrices2, partials3, v, w0 + i * n, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * rows i and i + 1 of the partials-partials product for two patterns,
+     * with partials starting at v and matrix row i starting at w
+     */
+    private static void partialsPartialsTile(double[] partials1, double[] matrices1,
+                                             double[] partials2, double[] matrices2,
+                                             double[] partials3, int v, int w, int i) {
+        final int n = STATE_COUNT;
+        final int va = v, vb = v + n;
+        final int wa = w, wb = w + n;
+        double sum1Aa = 0.0, sum1Ab = 0.0, sum1Ba = 0.0, sum1Bb = 0.0;
+        double sum2Aa = 0.0, sum2Ab = 0.0, sum2Ba = 0.0, sum2Bb = 0.0;
+        for (int j = 0; j < n; j++) {
+            final double p1a = partials1[va + j];
+            final double p1b = partials1[vb + j];
+            final double p2a = partials2[va + j];
+            final double p2b = partials2[vb + j];
+            final double m1a = matrices1[wa + j];
+            final double m1b = matrices1[wb + j];
+            final double m2a = matrices2[wa + j];
+            final double m2b = matrices2[wb + j];
+            sum1Aa += m1a * p1a;
+            sum1Ab += m1a * p1b;
+            sum1Ba += m1b * p1a;
+            sum1Bb += m1b * p1b;
+            sum2Aa += m2a * p2a;
+            sum2Ab += m2a * p2b;
+            sum2Ba += m2b * p2a;
+            sum2Bb += m2b * p2b;
+        }
+        partials3[va + i] = sum1Aa * sum2Aa;
+        partials3[vb + i] = sum1Ab * sum2Ab;
+        partials3[va + i + 1] = sum1Ba * sum2Ba;
+        partials3[vb + i + 1] = sum1Bb * sum2Bb;
+    }
+
+    /** row i of the partials-partials product for a single pattern **/
+    private static void partialsPartialsRow(double[] partials1, double[] matrices1,
+                                            double[] partials2, double[] matrices2,
+                                            double[] partials3, int v, int w, int i) {
+        double sum1 = 0.0, sum2 = 0.0;
+        for (int j = 0; j < STATE_COUNT; j++) {
+            sum1 += matrices1[w + j] * partials1[v + j];
+            sum2 += matrices2[w + j] * partials2[v + j];
+        }
+        partials3[v + i] = sum1 * sum2;
+    }
+
+}
@@ -98,6 +98,16 @@ abstract public class LikelihoodCore {
     abstract public void setNodeMatrix(int nodeIndex, int matrixIndex, double[] matrix);
 
     abstract public void getNodeMatrix(int nodeIndex, int matrixIndex, double[] matrix);
+
+    /**
+     * @return array containing the probability transition matrices of all categories
+     * for node with number nodeIndex, one after another, so that they can be calculated
+     * in place after calling setNodeMatrixForUpdate, or null if the core does not
+     * store matrices in this way.
+     */
+    public double[] getNodeMatrices(int nodeIndex) {
+        return null;
+    }
     /** assign values of states for probability transition matrices 
      * padded with 1s for dealing with unknown characters for node with number nodeIndex **/
 //	abstract public void setPaddedNodeMatrices(int nodeIndex, double[] matrix);
@@ -112,6 +122,55 @@ abstract public class LikelihoodCore {
 
     ;
 
+    /**
+     * flag to indicate that partials need only be calculated once for patterns
+     * that are identical in the subtree below a node, which is worth it for
+     * alignments of many near identical sequences. Should be called after
+     * initialize. Cores that do not support this ignore it.
+     */
+    public void setUsePatternSharing(boolean usePatternSharing) {
+    }
+
+    /**
+     * @return true if the core implements setRootPreOrderPartials, calculatePreOrderPartials
+     * and calculateBranchLogLikelihoodDerivatives, which otherwise throw UnsupportedOperationException
+     */
+    public boolean canCalculatePreOrderPartials() {
+        return false;
+    }
+
+    /**
+     * Sets the pre-order partials at the root, which are the root frequencies.
+     * Pre-order partials of a node hold, for every state at the node, the probability
+     * of the data outside the subtree below the node.
+     */
+    public void setRootPreOrderPartials(int rootIndex, double[] frequencies) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not calculate pre-order partials");
+    }
+
+    /**
+     * Calculates pre-order partials for node nodeIndex from the pre-order partials of its
+     * parent and the (post-order) partials of its sibling. This assumes partials are up to date.
+     */
+    public void calculatePreOrderPartials(int parentIndex, int siblingIndex, int nodeIndex) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not calculate pre-order partials");
+    }
+
+    /**
+     * Calculates for every pattern the derivative of the log of the likelihood, integrated over categories,
+     * with respect to the length of the branch above node nodeIndex, from pre-order and post-order partials.
+     *
+     * @param nodeIndex      node at the bottom of the branch
+     * @param rateMatrix     instantaneous rate matrix Q, flattened
+     * @param categoryRates  rate of the branch for every category, so that P = exp(Q * rate * length)
+     * @param proportions    proportion of every category
+     * @param outDerivatives an array into which the derivatives for each pattern will go
+     */
+    public void calculateBranchLogLikelihoodDerivatives(int nodeIndex, double[] rateMatrix, double[] categoryRates,
+                                                        double[] proportions, double[] outDerivatives) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not calculate pre-order partials");
+    }
+
 
     /**
      * flag to indicate whether scaling should be used in the
@@ -35,6 +35,7 @@ import beast.base.evolution.alignment.Alignment;
 import beast.base.evolution.branchratemodel.BranchRateModel;
 import beast.base.evolution.branchratemodel.StrictClockModel;
 import beast.base.evolution.sitemodel.SiteModel;
+import beast.base.evolution.substitutionmodel.EigenDecomposition;
 import beast.base.evolution.substitutionmodel.Frequencies;
 import beast.base.evolution.substitutionmodel.SubstitutionModel;
 import beast.base.evolution.tree.Node;
@@ -49,6 +50,8 @@ public class TreeLikelihood extends GenericTreeLikelihood {
 
     final public Input<Boolean> m_useAmbiguities = new Input<>("useAmbiguities", "flag to indicate that sites containing ambiguous states should be handled instead of ignored (the default)", false);
     final public Input<Boolean> m_useTipLikelihoods = new Input<>("useTipLikelihoods", "flag to indicate that partial likelihoods are provided at the tips", false);
+    final public Input<Boolean> usePatternSharingInput = new Input<>("usePatternSharing", "flag to indicate that partials are calculated only once for patterns that are identical "
+    		+ "in the subtree below a node, which saves time for alignments of many near identical sequences (default false)", false);
     final public Input<String> implementationInput = new Input<>("implementation", "name of class that implements this treelikelihood potentially more efficiently. "
     		+ "This class will be tried first, with the TreeLikelihood as fallback implementation. "
     		+ "When multi-threading, multiple objects can be created.", "beast.evolution.likelihood.BeagleTreeLikelihood");
@@ -95,6 +98,21 @@ public class TreeLikelihood extends GenericTreeLikelihood {
     protected double[] m_branchLengths;
     protected double[] storedBranchLengths;
 
+    /**
+     * Rates of the branches above each of the nodes, by node number, as
+     * obtained from the branch rate model. Only rates of branches that
+     * are marked in dirtyBranches, or of which the node is dirty, are
+     * obtained again from the branch rate model when traversing the tree.
+     */
+    protected double[] branchRates;
+    protected double[] storedBranchRates;
+    protected BitSet dirtyBranches;
+
+    /**
+     * products of category rates and branch rate for the branch being updated *
+     */
+    protected double[] jointBranchRates;
+
     /**
      * memory allocation for likelihoods for each of the patterns *
      */
@@ -158,6 +176,11 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         // No Beagle instance was found, so we use the good old java likelihood core
         beagle = null;
 
+        // both the post-order and the pre-order traversals assume every internal node has two children
+        if (!isBinary(treeInput.get().getRoot())) {
+            throw new IllegalArgumentException("The tree of " + getID() + " should be binary, but has nodes with other than two children");
+        }
+
         int nodeCount = treeInput.get().getNodeCount();
         if (!(siteModelInput.get() instanceof SiteModel.Base)) {
         	throw new IllegalArgumentException("siteModel input should be of type SiteModel.Base");
@@ -173,6 +196,11 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         }
         m_branchLengths = new double[nodeCount];
         storedBranchLengths = new double[nodeCount];
+        branchRates = new double[nodeCount];
+        storedBranchRates = new double[nodeCount];
+        dirtyBranches = new BitSet(nodeCount);
+        // all rates are unknown initially
+        dirtyBranches.set(0, nodeCount);
 
         int stateCount = dataInput.get().getMaxStateCount();
         int patterns = dataInput.get().getPatternCount();
@@ -205,9 +233,18 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         }
     }
 
+    private static boolean isBinary(Node node) {
+        if (node.isLeaf()) {
+            return true;
+        }
+        return node.getChildCount() == 2 && isBinary(node.getLeft()) && isBinary(node.getRight());
+    }
+
     protected LikelihoodCore createLikelihoodCore(int stateCount) {
 		if (stateCount == 4) {
 			return new BeerLikelihoodCore4();
+		} else if (stateCount == 61) {
+			return new BeerLikelihoodCore61();
 		} else {
 			return new BeerLikelihoodCore(stateCount);
 		}
@@ -261,6 +298,7 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         } else {
             setStates(treeInput.get().getRoot(), dataInput.get().getPatternCount());
         }
+        likelihoodCore.setUsePatternSharing(usePatternSharingInput.get());
         hasDirt = Tree.IS_FILTHY;
         for (int i = 0; i < intNodeCount; i++) {
             likelihoodCore.createNodePartials(extNodeCount + i);
@@ -376,12 +414,16 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         final TreeInterface tree = treeInput.get();
 
         try {
+        	updateBranchRates(tree);
         	if (traverse(tree.getRoot()) != Tree.IS_CLEAN)
         		calcLogP();
         }
         catch (ArithmeticException e) {
         	return Double.NEGATIVE_INFINITY;
         }
+        finally {
+        	dirtyBranches.clear();
+        }
         m_nScale++;
         if (logP > 0 || (likelihoodCore.getUseScaling() && m_nScale > X)) {
 //            System.err.println("Switch off scaling");
@@ -420,6 +462,19 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         }
     }
 
+    /**
+     * Find out which branch rates changed. If all of them did, they are obtained
+     * from the branch rate model in one go, otherwise traverse() obtains rates
+     * for the marked branches and for dirty nodes.
+     */
+    protected void updateBranchRates(final TreeInterface tree) {
+        branchRateModel.markDirtyBranches(tree, dirtyBranches);
+        if (dirtyBranches.cardinality() == branchRates.length) {
+            branchRateModel.getRatesForBranches(tree, branchRates);
+            dirtyBranches.clear();
+        }
+    }
+
     /* Assumes there IS a branch rate model as opposed to traverse() */
     protected int traverse(final Node node) {
 
@@ -427,7 +482,11 @@ public class TreeLikelihood extends GenericTreeLikelihood {
 
         final int nodeIndex = node.getNr();
 
-        final double branchRate = branchRateModel.getRateForBranch(node);
+        // rates of clean branches on clean nodes are the same as last time
+        if (node.isDirty() != Tree.IS_CLEAN || dirtyBranches.get(nodeIndex)) {
+            branchRates[nodeIndex] = branchRateModel.getRateForBranch(node);
+        }
+        final double branchRate = branchRates[nodeIndex];
         final double branchTime = node.getLength() * branchRate;
 
         // First update the transition probability matrix(ices) for this branch
@@ -436,11 +495,22 @@ public class TreeLikelihood extends GenericTreeLikelihood {
             m_branchLengths[nodeIndex] = branchTime;
             final Node parent = node.getParent();
             likelihoodCore.setNodeMatrixForUpdate(nodeIndex);
-            for (int i = 0; i < m_siteModel.getCategoryCount(); i++) {
-                final double jointBranchRate = m_siteModel.getRateForCategory(i, node) * branchRate;
-                substitutionModel.getTransitionProbabilities(node, parent.getHeight(), node.getHeight(), jointBranchRate, probabilities);
-                //System.out.println(node.getNr() + " " + Arrays.toString(m_fProbabilities));
-                likelihoodCore.setNodeMatrix(nodeIndex, i, probabilities);
+            final int categoryCount = m_siteModel.getCategoryCount();
+            if (jointBranchRates == null || jointBranchRates.length < categoryCount) {
+                jointBranchRates = new double[categoryCount];
+            }
+            for (int i = 0; i < categoryCount; i++) {
+                jointBranchRates[i] = m_siteModel.getRateForCategory(i, node) * branchRate;
+            }
+            final double[] matrices = likelihoodCore.getNodeMatrices(nodeIndex);
+            if (matrices != null) {
+                // calculate matrices for all categories straight into the likelihood core
+                substitutionModel.getTransitionProbabilities(node, parent.getHeight(), node.getHeight(), jointBranchRates, categoryCount, matrices);
+            } else {
+                for (int i = 0; i < categoryCount; i++) {
+                    substitutionModel.getTransitionProbabilities(node, parent.getHeight(), node.getHeight(), jointBranchRates[i], probabilities);
+                    likelihoodCore.setNodeMatrix(nodeIndex, i, probabilities);
+                }
             }
             update |= Tree.IS_DIRTY;
         }
@@ -509,6 +579,137 @@ public class TreeLikelihood extends GenericTreeLikelihood {
 		return patternLogLikelihoods.clone();
 	} // getPatternLogLikelihoods
 
+    /**
+     * Calculates the derivative of the log likelihood with respect to the length in time of
+     * every branch. This takes one pre-order pass over the tree on top of the post-order pass of
+     * calculateLogP, which should have been called for the current state, and O(n) time in total.
+     * Callers should check canCalculateBranchLengthGradient first.
+     *
+     * @return derivatives indexed by node number, with 0 for the root
+     */
+    public double[] getBranchLengthGradient() {
+        if (!canCalculateBranchLengthGradient()) {
+            throw new UnsupportedOperationException("Branch length gradients are not available for " + getID());
+        }
+        final TreeInterface tree = treeInput.get();
+        final Node root = tree.getRoot();
+        final Alignment data = dataInput.get();
+        final int patternCount = data.getPatternCount();
+        final int stateCount = data.getMaxStateCount();
+        if (patternDerivatives == null) {
+            patternDerivatives = new double[patternCount];
+            variableFractions = new double[patternCount];
+        }
+
+        double[] rootFrequencies = substitutionModel.getFrequencies();
+        if (rootFrequenciesInput.get() != null) {
+            rootFrequencies = rootFrequenciesInput.get().getFreqs();
+        }
+
+        // fraction of the likelihood of each pattern that comes from the variable site categories
+        Arrays.fill(variableFractions, 1.0);
+        if (constantPattern != null && proportionInvariant > 0) {
+            final double[] invariant = new double[patternCount];
+            for (final int i : constantPattern) {
+                invariant[i / stateCount] += proportionInvariant * rootFrequencies[i % stateCount];
+            }
+            for (int k = 0; k < patternCount; k++) {
+                if (invariant[k] > 0) {
+                    double likelihood = 0.0;
+                    for (int i = 0; i < stateCount; i++) {
+                        likelihood += rootFrequencies[i] * m_fRootPartials[k * stateCount + i];
+                    }
+                    variableFractions[k] = 1.0 - invariant[k] / likelihood;
+                }
+            }
+        }
+
+        // the Eigen decomposition may have been updated in place since the last call
+        rateMatrixEigen = null;
+        likelihoodCore.setRootPreOrderPartials(root.getNr(), rootFrequencies);
+        final double[] gradient = new double[tree.getNodeCount()];
+        calculateBranchLengthGradient(root.getLeft(), root.getRight(), data, gradient);
+        calculateBranchLengthGradient(root.getRight(), root.getLeft(), data, gradient);
+        return gradient;
+    }
+
+    /**
+     * @return true if getBranchLengthGradient is available, which requires a likelihood core that
+     * calculates pre-order partials and a substitution model with a real Eigen decomposition,
+     * and excludes BEAGLE and ascertainment correction
+     */
+    public boolean canCalculateBranchLengthGradient() {
+        return beagle == null && !useAscertainedSitePatterns &&
+                likelihoodCore.canCalculatePreOrderPartials() &&
+                !substitutionModel.canReturnComplexDiagonalization() &&
+                substitutionModel.getEigenDecomposition(treeInput.get().getRoot()) != null;
+    }
+
+    private double[] patternDerivatives;
+    private double[] variableFractions;
+    private double[] categoryRates;
+
+    /** pre-order traversal calculating derivatives for the branches below and including the one above node **/
+    private void calculateBranchLengthGradient(Node node, Node sibling, Alignment data, double[] gradient) {
+        final int nodeIndex = node.getNr();
+        likelihoodCore.calculatePreOrderPartials(node.getParent().getNr(), sibling.getNr(), nodeIndex);
+
+        final int categoryCount = m_siteModel.getCategoryCount();
+        if (categoryRates == null || categoryRates.length != categoryCount) {
+            categoryRates = new double[categoryCount];
+        }
+        for (int i = 0; i < categoryCount; i++) {
+            categoryRates[i] = m_siteModel.getRateForCategory(i, node);
+        }
+        likelihoodCore.calculateBranchLogLikelihoodDerivatives(nodeIndex, getRateMatrix(node), categoryRates,
+                m_siteModel.getCategoryProportions(node), patternDerivatives);
+        double derivative = 0.0;
+        for (int k = 0; k < patternDerivatives.length; k++) {
+            derivative += patternDerivatives[k] * variableFractions[k] * data.getPatternWeight(k);
+        }
+        gradient[nodeIndex] = derivative * branchRates[nodeIndex];
+
+        if (!node.isLeaf()) {
+            calculateBranchLengthGradient(node.getLeft(), node.getRight(), data, gradient);
+            calculateBranchLengthGradient(node.getRight(), node.getLeft(), data, gradient);
+        }
+    }
+
+    /**
+     * @return the instantaneous rate matrix that transition probabilities are calculated from,
+     * reconstructed from the Eigen decomposition of the substitution model
+     */
+    private double[] getRateMatrix(Node node) {
+        final EigenDecomposition eigen = substitutionModel.getEigenDecomposition(node);
+        if (eigen == null || eigen.getImEigenValues() != null) {
+            throw new UnsupportedOperationException("Branch length gradients require a substitution model with a real Eigen decomposition");
+        }
+        if (eigen == rateMatrixEigen) {
+            return rateMatrix;
+        }
+        final double[] evec = eigen.getEigenVectors();
+        final double[] ievc = eigen.getInverseEigenVectors();
+        final double[] eval = eigen.getEigenValues();
+        final int n = eval.length;
+        if (rateMatrix == null || rateMatrix.length != n * n) {
+            rateMatrix = new double[n * n];
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double sum = 0.0;
+                for (int m = 0; m < n; m++) {
+                    sum += evec[i * n + m] * eval[m] * ievc[m * n + j];
+                }
+                rateMatrix[i * n + j] = sum;
+            }
+        }
+        rateMatrixEigen = eigen;
+        return rateMatrix;
+    }
+
+    private double[] rateMatrix;
+    private EigenDecomposition rateMatrixEigen;
+
     /** CalculationNode methods **/
 
     /**
@@ -552,6 +753,7 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         }
         super.store();
         System.arraycopy(m_branchLengths, 0, storedBranchLengths, 0, m_branchLengths.length);
+        System.arraycopy(branchRates, 0, storedBranchRates, 0, branchRates.length);
     }
 
     @Override
@@ -568,6 +770,9 @@ public class TreeLikelihood extends GenericTreeLikelihood {
         double[] tmp = m_branchLengths;
         m_branchLengths = storedBranchLengths;
         storedBranchLengths = tmp;
+        tmp = branchRates;
+        branchRates = storedBranchRates;
+        storedBranchRates = tmp;
     }
 
     /**
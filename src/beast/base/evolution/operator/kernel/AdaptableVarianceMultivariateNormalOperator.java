@@ -87,7 +87,6 @@ public class AdaptableVarianceMultivariateNormalOperator extends KernelOperator
     private CompoundParameterHelper parameter;
     private Transform[] transformations;
     private int[] transformationSizes;
-    private double[] transformationSums;
     private int dim;
     private boolean allowNonsense;
 
@@ -213,7 +212,6 @@ public class AdaptableVarianceMultivariateNormalOperator extends KernelOperator
         	}
         }
         transformationSizes = new int[paramCount];
-        transformationSums = new double[paramCount];
         Transform [] ts = new Transform[paramCount];
         int k = 0;
         for (Transform t : transformations) {
@@ -225,9 +223,6 @@ public class AdaptableVarianceMultivariateNormalOperator extends KernelOperator
         				throw new IllegalArgumentException("Don't know how to handle MultivariableTransform of " + p.getClass().getSimpleName());
         			}
         		}
-        		if (t instanceof LogConstrainedSumTransform) {
-        			transformationSums[k] = ((LogConstrainedSumTransform)t).getSum();
-        		}
         		ts[k] = t;
         		k++;
         	} else {
@@ -336,6 +331,11 @@ public class AdaptableVarianceMultivariateNormalOperator extends KernelOperator
         /*for (int i = 0; i < dim; i++) {
             transformedX[i] = transformations[i].transform(x[i]);
         }*/
+
+        //store MH-ratio in logq
+        //the log Jacobian at the current values of blocks is calculated while transforming
+        double logJacobian = 0.0;
+
         //iterate over transformation sizes rather than number of parameters
         //as a transformation might impact multiple parameters
         int currentIndex = 0;
@@ -345,13 +345,7 @@ public class AdaptableVarianceMultivariateNormalOperator extends KernelOperator
                 System.err.println("transformationSizes[i] = " + transformationSizes[i]);
             }
             if (transformationSizes[i] > 1) {
-            	if (transformationSums[i] != 0) {
-            		final double [] t = transformations[i].transform(x, currentIndex, currentIndex + transformationSizes[i] - 1);
-            		System.arraycopy(t,0,transformedX,currentIndex,transformationSizes[i]);
-            	} else {
-            		final double [] t = transformations[i].transform(x, currentIndex, currentIndex + transformationSizes[i]);
-            		System.arraycopy(t,0,transformedX,currentIndex,transformationSizes[i]);            		
-            	}
+            	logJacobian += transformations[i].transformWithLogJacobian(x, currentIndex, currentIndex + transformationSizes[i], transformedX, currentIndex);
             } else {
                 transformedX[currentIndex] = transformations[i].transform(x[currentIndex]);
                 if (DEBUG) {
@@ -369,9 +363,6 @@ public class AdaptableVarianceMultivariateNormalOperator extends KernelOperator
             }
         }
 
-        //store MH-ratio in logq
-        double logJacobian = 0.0;
-
         //change this: make a rule for when iterations == burnin
         if (iterations > 1 && iterations > burnin) {
 
@@ -537,18 +528,11 @@ public class AdaptableVarianceMultivariateNormalOperator extends KernelOperator
             }
             if (MULTI) {
                 if (transformationSizes[i] > 1) {
-                	if (transformationSums[i] != 0) {
-                		double[] temp = transformations[i].inverse(transformedX, currentIndex, currentIndex + transformationSizes[i] - 1, transformationSums[i]);
-                		for (int k = 0; k < temp.length; k++) {
-                			parameter.setValue(currentIndex + k, temp[k]);
-                		}
-                		logJacobian += transformations[i].getLogJacobian(x, currentIndex, currentIndex + transformationSizes[i] - 1) - transformations[i].getLogJacobian(temp, 0, transformationSizes[i] - 1);
-                	} else {
-                		double[] temp = transformations[i].inverse(transformedX, currentIndex, currentIndex + transformationSizes[i]);
-                		for (int k = 0; k < temp.length; k++) {
-                			parameter.setValue(currentIndex + k, temp[k]);
-                		}
-                		logJacobian += transformations[i].getLogJacobian(x, currentIndex, currentIndex + transformationSizes[i]) - transformations[i].getLogJacobian(temp, 0, transformationSizes[i]);
+                	// blocks do not overlap, so inverse transform in place
+                	final int end = currentIndex + transformationSizes[i];
+                	logJacobian -= transformations[i].inverseWithLogJacobian(transformedX, currentIndex, end, transformedX, currentIndex);
+                	for (int k = currentIndex; k < end; k++) {
+                		parameter.setValue(k, transformedX[k]);
                 	}
                 } else {
                     int k = parameter.setValue(currentIndex, transformations[i].inverse(transformedX[currentIndex]));
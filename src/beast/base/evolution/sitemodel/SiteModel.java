@@ -128,6 +128,7 @@ public class SiteModel extends SiteModelInterface.Base {
 
         categoryRates = new double[categoryCount];
         categoryProportions = new double[categoryCount];
+        cachedCount = 0;
         calculateCategoryRates(null);
         //ratesKnown = false;
     }
@@ -256,10 +257,14 @@ public class SiteModel extends SiteModelInterface.Base {
         if (shapeParameter != null) {
 
             final double a = shapeParameter.getValue();
+            if (getCachedCategoryRates(a)) {
+                ratesKnown = true;
+                return;
+            }
             double mean = 0.0;
             final int gammaCatCount = categoryCount - cat;
 
-            final GammaDistribution g = new GammaDistributionImpl(a, 1.0 / a);
+            final GammaDistribution g = useBeast1StyleGamma ? null : new GammaDistributionImpl(a, 1.0 / a);
             for (int i = 0; i < gammaCatCount; i++) {
                 try {
                     // RRB: alternative implementation that seems equally good in
@@ -286,6 +291,7 @@ public class SiteModel extends SiteModelInterface.Base {
 
                 categoryRates[i + cat] /= mean;
             }
+            cacheCategoryRates(a);
         } else {
             categoryRates[cat] = 1.0 / propVariable;
             categoryProportions[cat] = propVariable;
@@ -295,6 +301,37 @@ public class SiteModel extends SiteModelInterface.Base {
         ratesKnown = true;
     }
 
+    /**
+     * Copies category rates and proportions for the given shape and the current proportion
+     * invariant from the cache into categoryRates and categoryProportions, if they are there.
+     * @return whether the rates were in the cache
+     */
+    private boolean getCachedCategoryRates(final double shape) {
+        final double invariant = invarParameter.getValue();
+        for (int i = 0; i < cachedCount; i++) {
+            if (cachedShapes[i] == shape && cachedInvariants[i] == invariant &&
+                    cachedRates[i].length == categoryCount) {
+                System.arraycopy(cachedRates[i], 0, categoryRates, 0, categoryCount);
+                System.arraycopy(cachedProportions[i], 0, categoryProportions, 0, categoryCount);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the current category rates and proportions to the cache, replacing the
+     * oldest entry once the cache is full.
+     */
+    private void cacheCategoryRates(final double shape) {
+        final int i = cachedCount < RATE_CACHE_SIZE ? cachedCount++ : nextCacheEntry;
+        nextCacheEntry = (i + 1) % RATE_CACHE_SIZE;
+        cachedShapes[i] = shape;
+        cachedInvariants[i] = invarParameter.getValue();
+        cachedRates[i] = categoryRates.clone();
+        cachedProportions[i] = categoryProportions.clone();
+    }
+
 
     /**
      * CalculationNode methods *
@@ -337,6 +374,20 @@ public class SiteModel extends SiteModelInterface.Base {
 
     protected double[] categoryProportions;
 
+    /**
+     * Small cache of gamma category rates and proportions keyed by shape and proportion invariant,
+     * so that operators moving the shape back and forth, and restores after rejected proposals,
+     * do not recalculate the gamma quantiles. Rates do not depend on the mutation rate, which is
+     * applied when rates are requested. The cache is emptied when the category count changes.
+     */
+    final static int RATE_CACHE_SIZE = 8;
+    private final double[] cachedShapes = new double[RATE_CACHE_SIZE];
+    private final double[] cachedInvariants = new double[RATE_CACHE_SIZE];
+    private final double[][] cachedRates = new double[RATE_CACHE_SIZE][];
+    private final double[][] cachedProportions = new double[RATE_CACHE_SIZE][];
+    private int cachedCount;
+    private int nextCacheEntry;
+
 
     /**
      * quantile (inverse cumulative density function) of the Gamma distribution
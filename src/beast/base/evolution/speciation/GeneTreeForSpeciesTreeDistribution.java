@@ -4,7 +4,6 @@ package beast.base.evolution.speciation;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.Random;
 
 import beast.base.core.Description;
@@ -15,6 +14,7 @@ import beast.base.evolution.alignment.Taxon;
 import beast.base.evolution.alignment.TaxonSet;
 import beast.base.evolution.speciation.SpeciesTreePopFunction.TreePopSizeFunction;
 import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
 import beast.base.evolution.tree.TreeDistribution;
 import beast.base.evolution.tree.TreeInterface;
 import beast.base.inference.State;
@@ -41,8 +41,32 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
     final public Input<TreeTopFinder> treeTopFinderInput =
             new Input<>("treetop", "calculates height of species tree, required only for linear *beast analysis");
 
-    // intervals for each of the species tree branches
-    private PriorityQueue<Double>[] intervalsInput;
+    // heights of the internal nodes of the gene tree, and the species tree branch
+    // they fall in, in the order they are visited
+    private double[] coalescentTimes;
+    private int[] coalescentBranches;
+    private int coalescentCount;
+    // coalescent times sorted by species tree branch, then by height. Those
+    // of branch i are in sortedTimes[branchStart[i]] ... sortedTimes[branchStart[i + 1] - 1]
+    private double[] sortedTimes;
+    private int[] branchStart;
+    private int[] branchFill;
+    // times for a single branch: bottom, coalescent times, top
+    private double[] times;
+    // contributions of the species tree branches to logP
+    private double[] branchLogP;
+    private double[] storedBranchLogP;
+    // branches to recalculate in the current evaluation
+    private boolean[] recalculateBranch;
+    // branches recalculated since the last store(), which are the only ones store() and restore() copy
+    private boolean[] branchChanged;
+    private int[] changedBranches;
+    private int changedBranchCount;
+    // top of the root branch used for branchLogP, which depends on other gene trees for linear population functions
+    private double rootTop;
+    private double storedRootTop;
+    // set if branchLogP cannot be relied on, initially and after a gene tree that does not fit the species tree
+    private boolean recalculateAll;
     // count nr of lineages at the bottom of species tree branches
     private int[] nrOfLineages;
     // maps gene tree leaf nodes to species tree leaf nodes. Indexed by node number.
@@ -60,8 +84,7 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
         treeInput.setRule(Validate.REQUIRED);
     }
 
-    @SuppressWarnings("unchecked")
-	@Override
+    @Override
     public void initAndValidate() {
     	ploidy = ploidyInput.get();
 //    	switch (m_ploidy.get()) {
@@ -83,11 +106,21 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
         }
 
 
-        // reserve memory for priority queues
-        intervalsInput = new PriorityQueue[speciesCount];
-        for (int i = 0; i < speciesCount; i++) {
-            intervalsInput[i] = new PriorityQueue<>();
-        }
+        // reserve memory for coalescent times
+        final int coalescentCapacity = Math.max(gtNodes.length - gtLineages, 0);
+        coalescentTimes = new double[coalescentCapacity];
+        coalescentBranches = new int[coalescentCapacity];
+        sortedTimes = new double[coalescentCapacity];
+        branchStart = new int[speciesCount + 1];
+        branchFill = new int[speciesCount];
+        times = new double[coalescentCapacity + 2];
+        branchLogP = new double[speciesCount];
+        storedBranchLogP = new double[speciesCount];
+        recalculateBranch = new boolean[speciesCount];
+        branchChanged = new boolean[speciesCount];
+        changedBranches = new int[speciesCount];
+        changedBranchCount = 0;
+        recalculateAll = true;
 
         // sanity check lineage nodes are all at height=0
         for (int i = 0; i < gtLineages; i++) {
@@ -154,64 +187,143 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
 
     @Override
     public double calculateLogP() {
-        logP = 0;
-        for (final PriorityQueue<Double> m_interval : intervalsInput) {
-            m_interval.clear();
+        final TreeInterface stree = speciesTreeInput.get();
+        return calculateLogP(stree.getNodesAsArray(), stree.getRoot());
+    }
+
+    /**
+     * Calculate logP given the nodes of the species tree, which are only read,
+     * so that gene trees sharing a species tree can be evaluated concurrently
+     * (see MultiSpeciesCoalescent).
+     *
+     * @param speciesNodes nodes of the species tree, indexed by node number
+     * @param speciesRoot  root of the species tree
+     */
+    public double calculateLogP(final Node[] speciesNodes, final Node speciesRoot) {
+        final double top = getRootTop(speciesRoot);
+        if (!markBranchesToRecalculate(speciesNodes, speciesRoot, top)) {
+            // nothing this gene tree depends on changed
+            return logP;
         }
 
+        logP = 0;
+        coalescentCount = 0;
         Arrays.fill(nrOfLineages, 0);
 
-        final TreeInterface stree = speciesTreeInput.get();
-        final Node[] speciesNodes = stree.getNodesAsArray();
-
         traverseLineageTree(speciesNodes, treeInput.get().getRoot());
-//		System.err.println(getID());
-//		for (int i = 0; i < m_intervals.length; i++) {
-//			System.err.println(m_intervals[i]);
-//		}
         // if the gene tree does not fit the species tree, logP = -infinity by now
         if (logP == 0) {
-            traverseSpeciesTree(stree.getRoot());
+            sortCoalescentTimes();
+            traverseSpeciesTree(speciesRoot, top);
+            rootTop = top;
+            recalculateAll = false;
+        } else {
+            // branch contributions were not updated
+            recalculateAll = true;
         }
-//		System.err.println("logp=" + logP);
         return logP;
     }
 
+    /** top of the root branch of the species tree **/
+    private double getRootTop(final Node speciesRoot) {
+        if (isConstantPopFunction == TreePopSizeFunction.linear) {
+            return treeTopFinderInput.get().getHighestTreeHeight();
+        }
+        return Math.max(speciesRoot.getHeight(), treeInput.get().getRoot().getHeight());
+    }
+
     /**
-     * calculate contribution to logP for each of the branches of the species tree
+     * Determine which branches of the species tree need their contribution recalculated.
+     * A branch depends on the height of its species tree node and that of its parent, the
+     * topology of the species tree below it, the gene tree and the population sizes. A
+     * change in height marks the node and its children dirty, so for changes in species
+     * tree heights only the branches of dirty nodes and their children are recalculated.
+     *
+     * @return whether any branch needs to be recalculated
+     */
+    private boolean markBranchesToRecalculate(final Node[] speciesNodes, final Node speciesRoot, final double top) {
+        boolean all = recalculateAll || treeInput.get().somethingIsDirty() || popSizesBottom.somethingIsDirty()
+                || (popSizesTop != null && popSizesTop.somethingIsDirty());
+        for (int i = 0; i < speciesNodes.length && !all; i++) {
+            // topology changed, which can change the lineages in any branch above
+            all = speciesNodes[i].isDirty() == Tree.IS_FILTHY;
+        }
+        boolean any = all;
+        for (int i = 0; i < speciesNodes.length; i++) {
+            final Node node = speciesNodes[i];
+            recalculateBranch[i] = all || node.isDirty() != Tree.IS_CLEAN
+                    || (!node.isRoot() && node.getParent().isDirty() != Tree.IS_CLEAN);
+            any |= recalculateBranch[i];
+        }
+        if (top != rootTop) {
+            recalculateBranch[speciesRoot.getNr()] = true;
+            any = true;
+        }
+        return any;
+    }
+
+    /**
+     * sort coalescent times by branch of the species tree (counting sort),
+     * and then by height within each branch that is recalculated
+     */
+    private void sortCoalescentTimes() {
+        final int speciesCount = branchFill.length;
+        Arrays.fill(branchStart, 0);
+        for (int i = 0; i < coalescentCount; i++) {
+            branchStart[coalescentBranches[i] + 1]++;
+        }
+        for (int i = 0; i < speciesCount; i++) {
+            branchStart[i + 1] += branchStart[i];
+        }
+        System.arraycopy(branchStart, 0, branchFill, 0, speciesCount);
+        for (int i = 0; i < coalescentCount; i++) {
+            sortedTimes[branchFill[coalescentBranches[i]]++] = coalescentTimes[i];
+        }
+        for (int i = 0; i < speciesCount; i++) {
+            if (recalculateBranch[i] && branchStart[i + 1] - branchStart[i] > 1) {
+                Arrays.sort(sortedTimes, branchStart[i], branchStart[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * calculate contribution to logP for each of the branches of the species tree.
+     * Contributions are only recalculated for branches marked by markBranchesToRecalculate.
      *
      * @param node*
+     * @param top top of the root branch
      */
-    private void traverseSpeciesTree(final Node node) {
+    private void traverseSpeciesTree(final Node node, final double top) {
         if (!node.isLeaf()) {
-            traverseSpeciesTree(node.getLeft());
-            traverseSpeciesTree(node.getRight());
+            traverseSpeciesTree(node.getLeft(), top);
+            traverseSpeciesTree(node.getRight(), top);
         }
         // calculate contribution of a branch in the species tree to the log probability
         final int nodeIndex = node.getNr();
+        if (recalculateBranch[nodeIndex]) {
+            if (!branchChanged[nodeIndex]) {
+                branchChanged[nodeIndex] = true;
+                changedBranches[changedBranchCount++] = nodeIndex;
+            }
+            branchLogP[nodeIndex] = calcBranchContribution(node, top);
+        }
+        logP += branchLogP[nodeIndex];
+    }
+
+    private double calcBranchContribution(final Node node, final double top) {
+        final int nodeIndex = node.getNr();
 
         // k, as defined in the paper
-        //System.err.println(Arrays.toString(m_nLineages));
-        final int k = intervalsInput[nodeIndex].size();
-        final double[] times = new double[k + 2];
+        final int start = branchStart[nodeIndex];
+        final int k = branchStart[nodeIndex + 1] - start;
         times[0] = node.getHeight();
-        for (int i = 1; i <= k; i++) {
-            times[i] = intervalsInput[nodeIndex].poll();
-        }
-        if (!node.isRoot()) {
-            times[k + 1] = node.getParent().getHeight();
-        } else {
-            if (isConstantPopFunction == TreePopSizeFunction.linear) {
-                times[k + 1] = treeTopFinderInput.get().getHighestTreeHeight();
-            } else {
-                times[k + 1] = Math.max(node.getHeight(), treeInput.get().getRoot().getHeight());
-            }
-        }
-        // sanity check
+        System.arraycopy(sortedTimes, start, times, 1, k);
+        times[k + 1] = node.isRoot() ? top : node.getParent().getHeight();
+        // sanity check. Coalescent times are assigned to the branch they fall in, so this
+        // only fails if a species is younger than its gene tree lineages.
         for (int i = 0; i <= k; i++) {
             if (times[i] > times[i + 1]) {
             	Log.warning.println("invalid times");
-                calculateLogP();
             }
         }
 
@@ -219,50 +331,49 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
 
         switch (isConstantPopFunction) {
             case constant:
-                calcConstantPopSizeContribution(lineagesBottom, popSizesBottom.getValue(nodeIndex), times, k);
-                break;
+                return calcConstantPopSizeContribution(lineagesBottom, popSizesBottom.getValue(nodeIndex), times, k);
             case linear:
-                logP += calcLinearPopSizeContributionJH(lineagesBottom, nodeIndex, times, k, node);
-                break;
+                return calcLinearPopSizeContributionJH(lineagesBottom, getBottomPopSize(node), getTopPopSize(nodeIndex), times, k);
             case linear_with_constant_root:
+            default:
                 if (node.isRoot()) {
                     final double popSize = getTopPopSize(node.getLeft().getNr()) + getTopPopSize(node.getRight().getNr());
-                    calcConstantPopSizeContribution(lineagesBottom, popSize, times, k);
-                } else {
-                    logP += calcLinearPopSizeContribution(lineagesBottom, nodeIndex, times, k, node);
+                    return calcConstantPopSizeContribution(lineagesBottom, popSize, times, k);
                 }
-                break;
+                return calcLinearPopSizeContribution(lineagesBottom, getBottomPopSize(node), getTopPopSize(nodeIndex), times, k);
+        }
+    }
+
+    /** population size at the bottom of a branch for linear population functions **/
+    private double getBottomPopSize(final Node node) {
+        if (node.isLeaf()) {
+            return popSizesBottom.getValue(node.getNr());
         }
+        // use sum of left and right child branches for internal nodes
+        return getTopPopSize(node.getLeft().getNr()) + getTopPopSize(node.getRight().getNr());
     }
 
     /* the contribution of a branch in the species tree to
       * the log probability, for constant population function.
       */
-    private void calcConstantPopSizeContribution(final int lineagesBottom, final double popSize2,
-                                                 final double[] times, final int k) {
+    private double calcConstantPopSizeContribution(final int lineagesBottom, final double popSize2,
+                                                   final double[] times, final int k) {
         final double popSize = popSize2 * ploidy;
-        logP += -k * Math.log(popSize);
-//		System.err.print(logP);
+        double lp = -k * Math.log(popSize);
         for (int i = 0; i <= k; i++) {
-            logP += -((lineagesBottom - i) * (lineagesBottom - i - 1.0) / 2.0) * (times[i + 1] - times[i]) / popSize;
+            lp += -((lineagesBottom - i) * (lineagesBottom - i - 1.0) / 2.0) * (times[i + 1] - times[i]) / popSize;
         }
-//		System.err.println(" " + logP + " " + Arrays.toString(times) + " " + nodeIndex + " " + k);
+        return lp;
     }
 
     /* the contribution of a branch in the species tree to
       * the log probability, for linear population function.
       */
-    private double calcLinearPopSizeContribution(final int lineagesBottom, final int nodeIndex, final double[] times,
-                                                 final int k, final Node node) {
+    private double calcLinearPopSizeContribution(final int lineagesBottom, final double popSizeBottom2, final double popSizeTop2,
+                                                 final double[] times, final int k) {
         double lp = 0.0;
-        final double popSizeBottom;
-        if (node.isLeaf()) {
-            popSizeBottom = popSizesBottom.getValue(nodeIndex) * ploidy;
-        } else {
-            // use sum of left and right child branches for internal nodes
-            popSizeBottom = (getTopPopSize(node.getLeft().getNr()) + getTopPopSize(node.getRight().getNr())) * ploidy;
-        }
-        final double popSizeTop = getTopPopSize(nodeIndex) * ploidy;
+        final double popSizeBottom = popSizeBottom2 * ploidy;
+        final double popSizeTop = popSizeTop2 * ploidy;
         final double a = (popSizeTop - popSizeBottom) / (times[k + 1] - times[0]);
         final double b = popSizeBottom;
         for (int i = 0; i < k; i++) {
@@ -283,19 +394,11 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
         return lp;
     }
 
-    private double calcLinearPopSizeContributionJH(final int lineagesBottom, final int nodeIndex, final double[] times,
-                                                   final int k, final Node node) {
+    private double calcLinearPopSizeContributionJH(final int lineagesBottom, final double popSizeBottom2, final double popSizeTop2,
+                                                   final double[] times, final int k) {
         double lp = 0.0;
-        double popSizeBottom;
-        if (node.isLeaf()) {
-            popSizeBottom = popSizesBottom.getValue(nodeIndex);
-        } else {
-            // use sum of left and right child branches for internal nodes
-            popSizeBottom = (getTopPopSize(node.getLeft().getNr()) + getTopPopSize(node.getRight().getNr()));
-        }
-        popSizeBottom *= ploidy;
-
-        final double popSizeTop = getTopPopSize(nodeIndex) * ploidy;
+        final double popSizeBottom = popSizeBottom2 * ploidy;
+        final double popSizeTop = popSizeTop2 * ploidy;
         final double d5 = popSizeTop - popSizeBottom;
         final double time0 = times[0];
         final double a = d5 / (times[k + 1] - time0);
@@ -362,7 +465,9 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
                 // not fit in the species tree
                 logP = Double.NEGATIVE_INFINITY;
             }
-            intervalsInput[speciesRight].add(height);
+            coalescentTimes[coalescentCount] = height;
+            coalescentBranches[coalescentCount] = speciesRight;
+            coalescentCount++;
             return speciesRight;
         }
     }
@@ -386,6 +491,31 @@ public class GeneTreeForSpeciesTreeDistribution extends TreeDistribution {
         return true;
     }
 
+    @Override
+    public void store() {
+        // only branches recalculated since the last store can differ from the stored values
+        for (int i = 0; i < changedBranchCount; i++) {
+            final int branch = changedBranches[i];
+            storedBranchLogP[branch] = branchLogP[branch];
+            branchChanged[branch] = false;
+        }
+        changedBranchCount = 0;
+        storedRootTop = rootTop;
+        super.store();
+    }
+
+    @Override
+    public void restore() {
+        for (int i = 0; i < changedBranchCount; i++) {
+            final int branch = changedBranches[i];
+            branchLogP[branch] = storedBranchLogP[branch];
+            branchChanged[branch] = false;
+        }
+        changedBranchCount = 0;
+        rootTop = storedRootTop;
+        super.restore();
+    }
+
     @Override
     public List<String> getArguments() {
         return null;
@@ -0,0 +1,161 @@
+package beast.base.evolution.speciation;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import beast.base.core.Description;
+import beast.base.core.Input;
+import beast.base.core.Input.Validate;
+import beast.base.core.Log;
+import beast.base.core.ProgramStatus;
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.TreeInterface;
+import beast.base.inference.Distribution;
+import beast.base.inference.State;
+
+@Description("Multispecies coalescent: prior on the population sizes of a species tree together with the " +
+        "probabilities of a set of gene trees given that species tree. Gene trees that require recalculation " +
+        "are evaluated in parallel against the same species tree.")
+public class MultiSpeciesCoalescent extends Distribution {
+    final public Input<SpeciesTreePopFunction> speciesTreePriorInput = new Input<>("speciesTreePrior",
+            "prior on the population sizes of the species tree. If not specified, it should be part of the posterior elsewhere");
+    final public Input<List<GeneTreeForSpeciesTreeDistribution>> geneTreeInput = new Input<>("geneTree",
+            "probability of a gene tree given the species tree, one for each locus. All should share the same species tree",
+            new ArrayList<>(), Validate.REQUIRED);
+    final public Input<Integer> maxNrOfThreadsInput = new Input<>("threads", "maximum number of threads to use, " +
+            "if less than 1 the number of threads in BeastMCMC is used (default -1)", -1);
+
+    private TreeInterface speciesTree;
+    private GeneTreeForSpeciesTreeDistribution[] geneTrees;
+    // logP of gene trees, merged in order of the geneTree input so the result does not depend on scheduling
+    private double[] geneTreeLogP;
+
+    // snapshot of the species tree, only read while gene trees are evaluated
+    private Node[] speciesNodes;
+    private Node speciesRoot;
+
+    private ExecutorService pool = null;
+    private List<Callable<Object>> geneTreeCallers;
+    private final List<Callable<Object>> dirtyCallers = new ArrayList<>();
+    private int[] dirtyGeneTrees;
+
+    @Override
+    public void initAndValidate() {
+        final List<GeneTreeForSpeciesTreeDistribution> geneTreeList = geneTreeInput.get();
+        geneTrees = geneTreeList.toArray(new GeneTreeForSpeciesTreeDistribution[0]);
+        speciesTree = geneTrees[0].speciesTreeInput.get();
+        for (final GeneTreeForSpeciesTreeDistribution geneTree : geneTrees) {
+            if (geneTree.speciesTreeInput.get() != speciesTree) {
+                throw new IllegalArgumentException("All gene trees should share the same species tree, but " +
+                        geneTree.getID() + " uses a different one than " + geneTrees[0].getID());
+            }
+        }
+        geneTreeLogP = new double[geneTrees.length];
+        dirtyGeneTrees = new int[geneTrees.length];
+
+        int threadCount = ProgramStatus.m_nThreads;
+        if (maxNrOfThreadsInput.get() > 0) {
+            threadCount = Math.min(maxNrOfThreadsInput.get(), ProgramStatus.m_nThreads);
+        }
+        threadCount = Math.min(threadCount, geneTrees.length);
+        if (threadCount > 1) {
+            pool = Executors.newFixedThreadPool(threadCount, r -> {
+                final Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        geneTreeCallers = new ArrayList<>();
+        for (int i = 0; i < geneTrees.length; i++) {
+            final int geneTreeNr = i;
+            geneTreeCallers.add(() -> {
+                calculateGeneTreeLogP(geneTreeNr);
+                return null;
+            });
+        }
+    }
+
+    private void calculateGeneTreeLogP(final int geneTreeNr) {
+        geneTreeLogP[geneTreeNr] = geneTrees[geneTreeNr].calculateLogP(speciesNodes, speciesRoot);
+    }
+
+    @Override
+    public double calculateLogP() {
+        logP = 0;
+        final Distribution prior = speciesTreePriorInput.get();
+        if (prior != null) {
+            logP += prior.isDirtyCalculation() ? prior.calculateLogP() : prior.getCurrentLogP();
+            if (Double.isInfinite(logP) || Double.isNaN(logP)) {
+                return logP;
+            }
+        }
+
+        speciesNodes = speciesTree.getNodesAsArray();
+        speciesRoot = speciesTree.getRoot();
+
+        int dirtyCount = 0;
+        for (int i = 0; i < geneTrees.length; i++) {
+            if (geneTrees[i].isDirtyCalculation()) {
+                dirtyGeneTrees[dirtyCount++] = i;
+            } else {
+                geneTreeLogP[i] = geneTrees[i].getCurrentLogP();
+            }
+        }
+
+        if (pool != null && dirtyCount > 1) {
+            calculateLogPUsingThreads(dirtyCount);
+        } else {
+            for (int i = 0; i < dirtyCount; i++) {
+                calculateGeneTreeLogP(dirtyGeneTrees[i]);
+            }
+        }
+
+        for (final double geneLogP : geneTreeLogP) {
+            logP += geneLogP;
+        }
+        return logP;
+    }
+
+    private void calculateLogPUsingThreads(final int dirtyCount) {
+        dirtyCallers.clear();
+        for (int i = 0; i < dirtyCount; i++) {
+            dirtyCallers.add(geneTreeCallers.get(dirtyGeneTrees[i]));
+        }
+        try {
+            for (final Future<Object> future : pool.invokeAll(dirtyCallers)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Something went wrong in a calculation of a gene tree", e.getCause());
+        } catch (RejectedExecutionException | InterruptedException e) {
+            pool.shutdownNow();
+            pool = null;
+            Log.err.println("Stop using threads: " + e.getMessage());
+            for (int i = 0; i < dirtyCount; i++) {
+                calculateGeneTreeLogP(dirtyGeneTrees[i]);
+            }
+        }
+    }
+
+    @Override
+    public List<String> getArguments() {
+        return null;
+    }
+
+    @Override
+    public List<String> getConditions() {
+        return null;
+    }
+
+    @Override
+    public void sample(final State state, final Random random) {
+    }
+}
@@ -29,6 +29,7 @@ package beast.base.evolution.substitutionmodel;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
 
 import beast.base.core.Description;
 import beast.base.core.Function;
@@ -79,8 +80,22 @@ public class GeneralSubstitutionModel extends SubstitutionModel.Base {
         rateMatrix = new double[nrOfStates][nrOfStates];
         relativeRates = new double[ratesInput.get().getDimension()];
         storedRelativeRates = new double[ratesInput.get().getDimension()];
+
+        // subclasses that calculate transition probabilities for a single rate differently should not use the bulk implementation
+        useBulkTransitionProbabilities =
+                isDeclaredHere(Node.class, double.class, double.class, double.class, double[].class) &&
+                isDeclaredHere(Node.class, double.class, double.class, double.class, double[].class, boolean.class);
     } // initAndValidate
 
+    /** @return whether getTransitionProbabilities with the given parameter types is not overridden by a subclass **/
+    private boolean isDeclaredHere(Class<?>... parameterTypes) {
+        try {
+            return getClass().getMethod("getTransitionProbabilities", parameterTypes).getDeclaringClass() == GeneralSubstitutionModel.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     /**
      * create an EigenSystem of the class indicated by the eigenSystemClass input 
      * @throws ClassNotFoundException 
@@ -110,61 +125,127 @@ public class GeneralSubstitutionModel extends SubstitutionModel.Base {
     protected EigenDecomposition eigenDecomposition;
     private EigenDecomposition storedEigenDecomposition;
 
-    protected boolean updateMatrix = true;
+    // volatile, so that likelihood threads only need to lock when the Eigen decomposition needs updating
+    protected volatile boolean updateMatrix = true;
     private boolean storedUpdateMatrix = true;
 
+    /** whether getTransitionProbabilities for multiple rates can bypass getTransitionProbabilities for a single rate **/
+    private boolean useBulkTransitionProbabilities;
+
+    /** inverse Eigen vectors scaled by exponentiated Eigen values, one buffer per thread **/
+    private final ThreadLocal<double[]> iexpBuffer = ThreadLocal.withInitial(() -> new double[nrOfStates * nrOfStates]);
+
     public void getTransitionProbabilities(Node node, double startTime, double endTime, double rate, double[] matrix, boolean normalized) {
-        double distance = (startTime - endTime) * rate;
-
-        int i, j, k;
-        double temp;
-
-        // this must be synchronized to avoid being called simultaneously by
-        // two different likelihood threads - AJD
-        synchronized (this) {
-            if (updateMatrix) {
-                setupRelativeRates();
-                if (normalized) {
-                    setupRateMatrix();
-                } else {
-                    setupRateMatrixUnnormalized();
+        final double distance = (startTime - endTime) * rate;
+        calculateTransitionProbabilities(updateEigenDecomposition(normalized), distance, getIexpBuffer(), matrix, 0);
+    }
+
+    @Override
+    public void getTransitionProbabilities(Node node, double startTime, double endTime, double[] rates, int rateCount, double[] matrices) {
+        if (!useBulkTransitionProbabilities) {
+            final int matrixSize = nrOfStates * nrOfStates;
+            final double[] matrix = new double[matrixSize];
+            for (int i = 0; i < rateCount; i++) {
+                getTransitionProbabilities(node, startTime, endTime, rates[i], matrix);
+                System.arraycopy(matrix, 0, matrices, i * matrixSize, matrixSize);
+            }
+            return;
+        }
+        final EigenDecomposition eigen = updateEigenDecomposition(true);
+        final double[] iexp = getIexpBuffer();
+        for (int i = 0; i < rateCount; i++) {
+            final double distance = (startTime - endTime) * rates[i];
+            calculateTransitionProbabilities(eigen, distance, iexp, matrices, i * nrOfStates * nrOfStates);
+        }
+    }
+
+    /**
+     * Make sure the Eigen decomposition is up to date. This only locks when it needs
+     * to be recalculated, which happens at most once after the model changed.
+     */
+    private EigenDecomposition updateEigenDecomposition(boolean normalized) {
+        if (updateMatrix) {
+            // this must be synchronized to avoid being called simultaneously by
+            // two different likelihood threads - AJD
+            synchronized (this) {
+                if (updateMatrix) {
+                    setupRelativeRates();
+                    if (normalized) {
+                        setupRateMatrix();
+                    } else {
+                        setupRateMatrixUnnormalized();
+                    }
+                    eigenDecomposition = eigenSystem.decomposeMatrix(rateMatrix);
+                    updateMatrix = false;
                 }
-                eigenDecomposition = eigenSystem.decomposeMatrix(rateMatrix);
-                updateMatrix = false;
             }
         }
+        return eigenDecomposition;
+    }
+
+    private double[] getIexpBuffer() {
+        double[] iexp = iexpBuffer.get();
+        if (iexp.length < nrOfStates * nrOfStates) {
+            iexp = new double[nrOfStates * nrOfStates];
+            iexpBuffer.set(iexp);
+        }
+        return iexp;
+    }
 
-        // is the following really necessary?
-        // implemented a pool of iexp matrices to support multiple threads
-        // without creating a new matrix each call. - AJD
-        // a quick timing experiment shows no difference - RRB
-        double[] iexp = new double[nrOfStates * nrOfStates];
+    /**
+     * Calculate the transition probability matrix exp(Q*distance) from the Eigen
+     * decomposition of Q, and store it in matrix starting at offset.
+     * Rows are accumulated so that the inner loop runs over consecutive entries
+     * and can be vectorised, while every entry is summed in the same order as a
+     * straightforward matrix product would.
+     *
+     * @param iexp buffer of at least nrOfStates*nrOfStates entries
+     */
+    private void calculateTransitionProbabilities(EigenDecomposition eigen, double distance, double[] iexp, double[] matrix, int offset) {
         // Eigen vectors
-        double[] Evec = eigenDecomposition.getEigenVectors();
+        final double[] Evec = eigen.getEigenVectors();
         // inverse Eigen vectors
-        double[] Ievc = eigenDecomposition.getInverseEigenVectors();
+        final double[] Ievc = eigen.getInverseEigenVectors();
         // Eigen values
-        double[] Eval = eigenDecomposition.getEigenValues();
-        for (i = 0; i < nrOfStates; i++) {
-            temp = Math.exp(distance * Eval[i]);
-            for (j = 0; j < nrOfStates; j++) {
-                iexp[i * nrOfStates + j] = Ievc[i * nrOfStates + j] * temp;
+        final double[] Eval = eigen.getEigenValues();
+        final int n = nrOfStates;
+        for (int i = 0; i < n; i++) {
+            final double temp = Math.exp(distance * Eval[i]);
+            for (int j = 0; j < n; j++) {
+                iexp[i * n + j] = Ievc[i * n + j] * temp;
             }
         }
 
-        int u = 0;
-        for (i = 0; i < nrOfStates; i++) {
-            for (j = 0; j < nrOfStates; j++) {
-                temp = 0.0;
-                for (k = 0; k < nrOfStates; k++) {
-                    temp += Evec[i * nrOfStates + k] * iexp[k * nrOfStates + j];
+        for (int i = 0; i < n; i++) {
+            final int row = offset + i * n;
+            Arrays.fill(matrix, row, row + n, 0.0);
+            int k = 0;
+            // four terms at a time, added in the same order as one at a time
+            for (; k < n - 3; k += 4) {
+                final double temp0 = Evec[i * n + k];
+                final double temp1 = Evec[i * n + k + 1];
+                final double temp2 = Evec[i * n + k + 2];
+                final double temp3 = Evec[i * n + k + 3];
+                final int u0 = k * n;
+                final int u1 = u0 + n;
+                final int u2 = u1 + n;
+                final int u3 = u2 + n;
+                for (int j = 0; j < n; j++) {
+                    matrix[row + j] = (((matrix[row + j] + temp0 * iexp[u0 + j]) + temp1 * iexp[u1 + j])
+                            + temp2 * iexp[u2 + j]) + temp3 * iexp[u3 + j];
                 }
-
-                matrix[u] = Math.abs(temp);
-                u++;
+            }
+            for (; k < n; k++) {
+                final double temp = Evec[i * n + k];
+                final int u = k * n;
+                for (int j = 0; j < n; j++) {
+                    matrix[row + j] += temp * iexp[u + j];
+                }
+            }
+            for (int j = row; j < row + n; j++) {
+                matrix[j] = Math.abs(matrix[j]);
             }
         }
-
     }
 
     @Override
@@ -291,15 +372,7 @@ public class GeneralSubstitutionModel extends SubstitutionModel.Base {
      */
     @Override
     public EigenDecomposition getEigenDecomposition(Node node) {
-        synchronized (this) {
-            if (updateMatrix) {
-                setupRelativeRates();
-                setupRateMatrix();
-                eigenDecomposition = eigenSystem.decomposeMatrix(rateMatrix);
-                updateMatrix = false;
-            }
-        }
-        return eigenDecomposition;
+        return updateEigenDecomposition(true);
     }
 
     @Override
@@ -50,6 +50,33 @@ public interface SubstitutionModel {
      */
     void getTransitionProbabilities(Node node, double startTime, double endTime, double rate, double[] matrix);
 
+    /**
+     * get transition probability matrices for the same node and times for a number
+     * of rates in one go, typically the rates of all site categories for a branch.
+     * Matrix i, for rate rates[i], is stored in matrices starting at index i*n*n where
+     * n is the number of states, which is the layout the likelihood core uses for
+     * the matrices of a node.
+     * The default implementation calls getTransitionProbabilities for every rate.
+     * Implementations can override this to avoid per call overhead, and should not
+     * need to lock when called from multiple threads.
+     *
+     * @param node      tree node for which to calculate the probabilities
+     * @param startTime
+     * @param endTime   we assume start time is larger than end time
+     * @param rates     rates, including gamma rates and branch rates
+     * @param rateCount number of rates to use from rates
+     * @param matrices  an array to store the matrices in, of size rateCount*n*n
+     */
+    default void getTransitionProbabilities(Node node, double startTime, double endTime, double[] rates, int rateCount, double[] matrices) {
+        // not all implementations set the state count, so derive it from the size of matrices
+        final int matrixSize = matrices.length / rateCount;
+        final double[] matrix = new double[matrixSize];
+        for (int i = 0; i < rateCount; i++) {
+            getTransitionProbabilities(node, startTime, endTime, rates[i], matrix);
+            System.arraycopy(matrix, 0, matrices, i * matrixSize, matrixSize);
+        }
+    }
+
     /**
      * @param node In most cases, the rate matrix is independent of the tree, but if it changes
      *             throughout a tree, the node can provide this information.
@@ -0,0 +1,449 @@
+package beast.base.evolution.tree;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import beast.base.evolution.alignment.TaxonSet;
+
+/**
+ * Counts clades, and accumulates mean and variance of their heights, over a
+ * sample of trees, for example for clade credibility calculations.
+ * Compared to CladeSet, clades are represented by fixed width bit masks
+ * stored in one flat long[] array, and looked up in an open addressing
+ * hash table, so adding a tree does not allocate per clade.
+ * Trees can be added in parallel through addAll, where every thread counts
+ * a chunk of trees in a private CladeCounter, and these are merged at the end.
+ */
+public class CladeCounter {
+    /** number of trees processed by each thread at a time in addAll **/
+    final static int CHUNK_SIZE = 256;
+
+    /** maximum fraction of slots of the hash table in use before it is resized **/
+    final static double MAX_LOAD_FACTOR = 0.5;
+
+    /** taxa labelling the tips, or null if node numbers of tips are used **/
+    private final TaxonSet taxonSet;
+    /** maps taxon IDs to their index in taxonSet **/
+    private final Map<String, Integer> taxonIndex;
+    private final int taxonCount;
+    /** number of longs per clade **/
+    private final int words;
+
+    /** hash table: clade bit masks, words longs per slot **/
+    private long[] keys;
+    /** number of trees containing clade, 0 for empty slots **/
+    private int[] counts;
+    /** running mean and sum of squared deviations of clade heights (Welford) **/
+    private double[] meanHeights;
+    private double[] m2Heights;
+    /** number of slots in hash table, a power of 2 **/
+    private int capacity;
+    /** number of clades in hash table **/
+    private int size;
+
+    private int treeCount = 0;
+
+    /** slots ordered by descending frequency, or null if the table changed since sorting **/
+    private int[] sortedSlots;
+
+    /** clade bit masks of nodes in current tree, indexed by node number **/
+    private long[] nodeBits = new long[0];
+    /** tip node number to taxon index for current tree **/
+    private int[] tipIndex = new int[0];
+
+    /**
+     * @param taxonSet taxa used to label the tips
+     */
+    public CladeCounter(TaxonSet taxonSet) {
+        this(taxonSet, taxonSet.getTaxonCount());
+    }
+
+    /**
+     * Clades are identified by node numbers of tips instead of taxon names,
+     * so all trees added need to number their tips consistently.
+     *
+     * @param taxonCount number of tips in trees
+     */
+    public CladeCounter(int taxonCount) {
+        this(null, taxonCount);
+    }
+
+    private CladeCounter(TaxonSet taxonSet, int taxonCount) {
+        this.taxonSet = taxonSet;
+        this.taxonCount = taxonCount;
+        this.words = Math.max(1, (taxonCount + 63) / 64);
+        if (taxonSet != null) {
+            taxonIndex = new HashMap<>();
+            List<String> taxa = taxonSet.asStringList();
+            for (int i = 0; i < taxa.size(); i++) {
+                taxonIndex.put(taxa.get(i), i);
+            }
+        } else {
+            taxonIndex = null;
+        }
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        keys = new long[capacity * words];
+        counts = new int[capacity];
+        meanHeights = new double[capacity];
+        m2Heights = new double[capacity];
+        size = 0;
+    }
+
+    /** @return number of trees added **/
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    /** @return number of unique clades **/
+    public int getCladeCount() {
+        return size;
+    }
+
+    /** @return number of taxa **/
+    public int getTaxonCount() {
+        return taxonCount;
+    }
+
+    /**
+     * Adds all clades (including the root clade) of the tree.
+     */
+    public void add(Tree tree) {
+        final int nodeCount = tree.getNodeCount();
+        if (nodeBits.length < nodeCount * words) {
+            nodeBits = new long[nodeCount * words];
+        }
+        if (tipIndex.length < tree.getLeafNodeCount()) {
+            tipIndex = new int[tree.getLeafNodeCount()];
+        }
+        Arrays.fill(nodeBits, 0, nodeCount * words, 0L);
+
+        for (int i = 0; i < tree.getLeafNodeCount(); i++) {
+            tipIndex[i] = getTipIndex(tree.getNode(i));
+        }
+        addClades(tree.getRoot());
+        treeCount++;
+        sortedSlots = null;
+    }
+
+    private int getTipIndex(Node tip) {
+        if (taxonIndex == null) {
+            if (tip.getNr() >= taxonCount) {
+                throw new IllegalArgumentException("Tip " + (tip.getID() != null ? tip.getID() + " " : "") + "has number " +
+                        tip.getNr() + ", but clades are counted over " + taxonCount + " taxa");
+            }
+            return tip.getNr();
+        }
+        final Integer index = taxonIndex.get(tip.getID());
+        if (index == null) {
+            throw new IllegalArgumentException("Taxon " + tip.getID() + " not in taxon set");
+        }
+        return index;
+    }
+
+    /** post-order traversal, setting up nodeBits and adding clades of internal nodes **/
+    private void addClades(Node node) {
+        final int offset = node.getNr() * words;
+        if (node.isLeaf()) {
+            final int index = tipIndex[node.getNr()];
+            nodeBits[offset + (index >>> 6)] |= 1L << index;
+        } else {
+            for (Node child : node.getChildren()) {
+                addClades(child);
+                final int childOffset = child.getNr() * words;
+                for (int k = 0; k < words; k++) {
+                    nodeBits[offset + k] |= nodeBits[childOffset + k];
+                }
+            }
+            add(nodeBits, offset, 1, node.getHeight(), 0.0);
+        }
+    }
+
+    /**
+     * Add count observations of a clade with given mean height and sum of
+     * squared deviations from that mean.
+     */
+    private void add(long[] bits, int offset, int count, double meanHeight, double m2Height) {
+        int slot = findSlot(bits, offset);
+        if (counts[slot] == 0) {
+            if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+                resize();
+                slot = findSlot(bits, offset);
+            }
+            System.arraycopy(bits, offset, keys, slot * words, words);
+            counts[slot] = count;
+            meanHeights[slot] = meanHeight;
+            m2Heights[slot] = m2Height;
+            size++;
+        } else {
+            // combine running mean and variance (Chan et al.)
+            final int n = counts[slot] + count;
+            final double delta = meanHeight - meanHeights[slot];
+            meanHeights[slot] += delta * count / n;
+            m2Heights[slot] += m2Height + delta * delta * ((double) counts[slot] * count / n);
+            counts[slot] = n;
+        }
+    }
+
+    /** @return slot containing clade, or empty slot where it should go **/
+    private int findSlot(long[] bits, int offset) {
+        final int mask = capacity - 1;
+        int slot = hash(bits, offset) & mask;
+        while (counts[slot] != 0 && !equals(bits, offset, slot)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int hash(long[] bits, int offset) {
+        long h = 0;
+        for (int k = 0; k < words; k++) {
+            h = (h + bits[offset + k]) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private boolean equals(long[] bits, int offset, int slot) {
+        final int slotOffset = slot * words;
+        for (int k = 0; k < words; k++) {
+            if (bits[offset + k] != keys[slotOffset + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resize() {
+        final long[] oldKeys = keys;
+        final int[] oldCounts = counts;
+        final double[] oldMeans = meanHeights;
+        final double[] oldM2s = m2Heights;
+        final int oldCapacity = capacity;
+        allocate(capacity * 2);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            if (oldCounts[slot] != 0) {
+                final int newSlot = findSlot(oldKeys, slot * words);
+                System.arraycopy(oldKeys, slot * words, keys, newSlot * words, words);
+                counts[newSlot] = oldCounts[slot];
+                meanHeights[newSlot] = oldMeans[slot];
+                m2Heights[newSlot] = oldM2s[slot];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Adds clade counts and heights of another counter over the same taxa.
+     */
+    public void merge(CladeCounter other) {
+        if (other.taxonCount != taxonCount) {
+            throw new IllegalArgumentException("Cannot merge clade counts over different numbers of taxa");
+        }
+        for (int slot = 0; slot < other.capacity; slot++) {
+            if (other.counts[slot] != 0) {
+                add(other.keys, slot * words, other.counts[slot], other.meanHeights[slot], other.m2Heights[slot]);
+            }
+        }
+        treeCount += other.treeCount;
+        sortedSlots = null;
+    }
+
+    /**
+     * Adds all trees using threadCount threads. Trees are taken from the
+     * iterator in chunks, so at most threadCount chunks of trees are
+     * in memory at any time, and can be read for example through a
+     * NexusTreeIterator. Results do not depend on timing of threads.
+     */
+    public void addAll(Iterable<? extends Tree> trees, int threadCount) {
+        if (threadCount <= 1) {
+            for (Tree tree : trees) {
+                add(tree);
+            }
+            return;
+        }
+
+        final List<CladeCounter> workers = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            workers.add(new CladeCounter(taxonSet, taxonCount));
+        }
+        final ExecutorService exec = Executors.newFixedThreadPool(threadCount);
+        try {
+            final Iterator<? extends Tree> iterator = trees.iterator();
+            while (iterator.hasNext()) {
+                final List<Callable<Void>> tasks = new ArrayList<>();
+                for (int i = 0; i < threadCount && iterator.hasNext(); i++) {
+                    final List<Tree> chunk = new ArrayList<>(CHUNK_SIZE);
+                    while (chunk.size() < CHUNK_SIZE && iterator.hasNext()) {
+                        chunk.add(iterator.next());
+                    }
+                    final CladeCounter worker = workers.get(i);
+                    tasks.add(() -> {
+                        for (Tree tree : chunk) {
+                            worker.add(tree);
+                        }
+                        return null;
+                    });
+                }
+                for (Future<Void> future : exec.invokeAll(tasks)) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Counting clades failed: " + e.getMessage(), e);
+        } finally {
+            exec.shutdown();
+        }
+
+        for (CladeCounter worker : workers) {
+            merge(worker);
+        }
+    }
+
+    /**
+     * @return clade slots in descending order of frequency, ties broken by slot
+     */
+    private int[] getSortedSlots() {
+        if (sortedSlots == null) {
+            final long[] order = new long[size];
+            int k = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (counts[slot] != 0) {
+                    order[k++] = ((long) (Integer.MAX_VALUE - counts[slot]) << 32) | slot;
+                }
+            }
+            Arrays.sort(order);
+            sortedSlots = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedSlots[i] = (int) order[i];
+            }
+        }
+        return sortedSlots;
+    }
+
+    /** @return bit mask of i-th clade in order of descending frequency **/
+    public long[] getClade(int i) {
+        final int slot = getSortedSlots()[i];
+        return Arrays.copyOfRange(keys, slot * words, (slot + 1) * words);
+    }
+
+    /** @return number of trees containing the i-th clade in order of descending frequency **/
+    public int getFrequency(int i) {
+        return counts[getSortedSlots()[i]];
+    }
+
+    /** @return mean height of the i-th clade in order of descending frequency **/
+    public double getMeanHeight(int i) {
+        return meanHeights[getSortedSlots()[i]];
+    }
+
+    /** @return sample variance of height of the i-th clade in order of descending frequency **/
+    public double getHeightVariance(int i) {
+        final int slot = getSortedSlots()[i];
+        return counts[slot] > 1 ? m2Heights[slot] / (counts[slot] - 1) : 0.0;
+    }
+
+    /** @return number of trees containing the clade **/
+    public int getFrequency(long[] clade) {
+        return counts[findClade(clade)];
+    }
+
+    /** @return number of trees containing the clade **/
+    public int getFrequency(BitSet clade) {
+        return getFrequency(toBits(clade));
+    }
+
+    /** @return mean height of the clade, or NaN if the clade was not observed **/
+    public double getMeanHeight(long[] clade) {
+        final int slot = findClade(clade);
+        return counts[slot] != 0 ? meanHeights[slot] : Double.NaN;
+    }
+
+    private int findClade(long[] clade) {
+        if (clade.length != words) {
+            throw new IllegalArgumentException("Clade bit mask has " + clade.length + " words, but " + words +
+                    " are needed for " + taxonCount + " taxa");
+        }
+        return findSlot(clade, 0);
+    }
+
+    private long[] toBits(BitSet clade) {
+        final long[] bits = new long[words];
+        final long[] cladeBits = clade.toLongArray();
+        System.arraycopy(cladeBits, 0, bits, 0, Math.min(cladeBits.length, bits.length));
+        return bits;
+    }
+
+    /** @return clade bit mask as BitSet, with bits indexed as taxa in the taxon set **/
+    public static BitSet toBitSet(long[] clade) {
+        return BitSet.valueOf(clade);
+    }
+
+    /** @return clade as set of taxa in alphabetical order, in the format of CladeSet.getClade **/
+    public String getCladeString(int i) {
+        final long[] clade = getClade(i);
+        final List<String> taxa = taxonSet != null ? taxonSet.asStringList() : null;
+        final List<String> ids = new ArrayList<>();
+        for (int k = 0; k < words; k++) {
+            long word = clade[k];
+            while (word != 0) {
+                final int index = k * 64 + Long.numberOfTrailingZeros(word);
+                ids.add(taxa != null ? taxa.get(index) : Integer.toString(index));
+                word &= word - 1;
+            }
+        }
+        ids.sort(null);
+        return "{" + String.join(", ", ids) + "}";
+    }
+
+    /**
+     * Annotate clades of tree with their posterior probability.
+     * Clades that do not occur in any of the counted trees get probability 0,
+     * but do not contribute to the returned sum, which would otherwise be -Infinity.
+     *
+     * @param tree tree over the same taxa
+     * @param freqAttrName name of meta data attribute to set per internal node
+     * @return sum of log clade probabilities of internal nodes with clades that were observed
+     */
+    public double annotate(Tree tree, String freqAttrName) {
+        final int nodeCount = tree.getNodeCount();
+        final long[] bits = new long[nodeCount * words];
+        for (int i = 0; i < tree.getLeafNodeCount(); i++) {
+            final int index = getTipIndex(tree.getNode(i));
+            bits[i * words + (index >>> 6)] |= 1L << index;
+        }
+        double logClade = 0.0;
+        for (Node node : tree.listNodesPostOrder(null, null)) {
+            if (!node.isLeaf()) {
+                final int offset = node.getNr() * words;
+                for (Node child : node.getChildren()) {
+                    final int childOffset = child.getNr() * words;
+                    for (int k = 0; k < words; k++) {
+                        bits[offset + k] |= bits[childOffset + k];
+                    }
+                }
+                final double f = counts[findSlot(bits, offset)] / (double) treeCount;
+                node.setMetaData(freqAttrName, f);
+                if (f > 0) {
+                    logClade += Math.log(f);
+                }
+            }
+        }
+        return logClade;
+    }
+
+}
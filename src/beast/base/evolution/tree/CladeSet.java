@@ -28,6 +28,7 @@ package beast.base.evolution.tree;
 
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -38,6 +39,7 @@ import beast.base.util.FrequencySet;
 /**
  * Stores a set of unique clades (and their node heights) for a tree.
  * Import from BEAST 1.
+ * For counting clades over large samples of trees, see CladeCounter.
  *
  * @author Andrew Rambaut
  * @author Alexei Drummond
@@ -94,10 +96,9 @@ public class CladeSet extends FrequencySet<BitSet> {
 
         SortedSet<String> taxaSet = new TreeSet<>();
 
-        for (int i = 0; i < bits.length(); i++) {
-            if (bits.get(i)) {
-                taxaSet.add(taxonSet.asStringList().get(i)); //TODO ?= taxonList.getTaxonId(i)
-            }
+        List<String> taxa = taxonSet.asStringList();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            taxaSet.add(taxa.get(i)); //TODO ?= taxonList.getTaxonId(i)
         }
         return taxaSet;
     }
@@ -165,6 +165,30 @@ public class TreeIntervals extends CalculationNode implements IntervalList {
         return inters;
     }
 
+    /**
+     * Direct access to the interval widths, without copying.
+     * Only the first getIntervalCount() entries are valid, and
+     * the array should not be modified.
+     */
+    public double[] getIntervalArray() {
+        if (!intervalsKnown) {
+            calculateIntervals();
+        }
+        return intervals;
+    }
+
+    /**
+     * Direct access to the lineage counts, without copying.
+     * Only the first getIntervalCount() entries are valid, and
+     * the array should not be modified.
+     */
+    public int[] getLineageCountArray() {
+        if (!intervalsKnown) {
+            calculateIntervals();
+        }
+        return lineageCounts;
+    }
+
     public double[] getCoalescentTimes(double[] coalescentTimes) {
 
         if (!intervalsKnown) {
@@ -24,10 +24,12 @@
 */
 package beast.base.evolution.tree;
 
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -370,11 +372,57 @@ public class TreeParser extends Tree implements StateNodeInitialiser {
 
     /**
      * Parse a newick-ish string and generate the BEAST tree it describes.
+     * The string is parsed in a single pass by NewickStringParser. Should that
+     * fail, the string is parsed again with the ANTLR generated parser, which
+     * provides more informative error messages.
      *
      * @param newick string to parse
      * @return root node of tree
      */
     public Node parseNewick(String newick) {
+        return parseNewick((CharSequence) newick);
+    }
+
+    /**
+     * Parse a newick-ish string stored as 8-bit characters in a byte buffer,
+     * from its position to its limit, without copying the buffer into a String
+     * (unless parsing fails and the ANTLR parser is used to report the error).
+     *
+     * @param newick buffer to parse
+     * @return root node of tree
+     */
+    public Node parseNewick(ByteBuffer newick) {
+        return parseNewick(new ByteBufferCharSequence(newick));
+    }
+
+    /**
+     * Parse a newick-ish character sequence and generate the BEAST tree it describes.
+     *
+     * @param newick character sequence to parse
+     * @return root node of tree
+     */
+    public Node parseNewick(CharSequence newick) {
+        final int labelCount = labels == null ? 0 : labels.size();
+        final boolean integerLeafLabels = this.integerLeafLabels;
+        try {
+            return new NewickStringParser(newick).parse();
+        } catch (TreeParsingException e) {
+            // restore state and parse again to get a detailed error message
+            if (labels != null && createUnrecognizedTaxa) {
+                labels.subList(labelCount, labels.size()).clear();
+            }
+            this.integerLeafLabels = integerLeafLabels;
+            return parseNewickWithANTLR(newick.toString());
+        }
+    }
+
+    /**
+     * Parse a newick-ish string using the ANTLR generated lexer and parser.
+     *
+     * @param newick string to parse
+     * @return root node of tree
+     */
+    public Node parseNewickWithANTLR(String newick) {
         CharStream charStream = CharStreams.fromString(newick);
 
         // Custom parse/lexer error listener
@@ -439,39 +487,244 @@ public class TreeParser extends Tree implements StateNodeInitialiser {
 
 
     /**
-     * Visits each component of the AST built from the Newick string, constructing
-     * a BEAST tree along the way.
+     * number of nodes numbered while parsing the current Newick string
      */
-    class NewickASTVisitor extends NewickParserBaseVisitor<Node> {
+    private int numberedNodeCount;
 
-        private int numberedNodeCount = 0;
+    /**
+     * maps labels to their index in labels, created on demand while parsing
+     */
+    private Map<String, Integer> labelIndexMap;
 
-        @Override
-        public Node visitTree(NewickParser.TreeContext ctx) {
-            Node root = visit(ctx.node());
+    /**
+     * Prepare for parsing a new Newick string.
+     */
+    private void startParsing() {
+        numberedNodeCount = 0;
+        labelIndexMap = null;
+    }
+
+    /**
+     * Turn the root node constructed by either of the parsers into a
+     * properly numbered tree with node heights.
+     *
+     * @param root root of tree with branch lengths stored as heights
+     * @return root
+     */
+    private Node finishTree(Node root) {
+        // Ensure tree is properly sorted in terms of node numbers.
+        root.sort();
+
+        // Replace lengths read from Newick with heights.
+        convertLengthToHeight(root);
+
+        // Make sure internal nodes are numbered correctly
+        numberUnnumberedNodes(root);
+
+        // Check for duplicate taxa
+        BitSet nodeNrSeen = new BitSet();
+        for (Node leaf : root.getAllLeafNodes()) {
+            if (leaf.getNr()<0)
+               continue;  // Skip unnumbered leaves
+
+            if (nodeNrSeen.get(leaf.getNr()))
+                throw new TreeParsingException("Duplicate taxon found: " + labels.get(leaf.getNr()));
+            else
+                nodeNrSeen.set(leaf.getNr());
+        }
+
+        return root;
+    }
 
-            // Ensure tree is properly sorted in terms of node numbers.
-            root.sort();
+    /**
+     * Set ID of the node and, where applicable, its number.
+     *
+     * @param node node with all children added
+     * @param label label of the node as it appears in the Newick string
+     * @param isInteger whether the label is an integer number
+     */
+    private void processLabel(Node node, String label, boolean isInteger) {
+        node.setID(label);
 
-            // Replace lengths read from Newick with heights.
-            convertLengthToHeight(root);
+        if (!isInteger)
+            integerLeafLabels = false;
 
-            // Make sure internal nodes are numbered correctly
-            numberUnnumberedNodes(root);
+        // Treat labels as node numbers in certain situations
+        if (!isLabelledNewickInput.get() && isInteger) {
 
-            // Check for duplicate taxa
-            BitSet nodeNrSeen = new BitSet();
-            for (Node leaf : root.getAllLeafNodes()) {
-                if (leaf.getNr()<0)
-                   continue;  // Skip unnumbered leaves
+            int nodeNr = Integer.parseInt(label) - offsetInput.get();
+            if (nodeNr<0)
+                throw new TreeParsingException("Node number given " +
+                        "is smaller than current offset (" +
+                        offsetInput.get() + ").  Perhaps offset is " +
+                        "too high?");
 
-                if (nodeNrSeen.get(leaf.getNr()))
-                    throw new TreeParsingException("Duplicate taxon found: " + labels.get(leaf.getNr()));
-                else
-                    nodeNrSeen.set(leaf.getNr());
+            node.setNr(nodeNr);
+            numberedNodeCount += 1;
+        } else {
+            if (node.isLeaf()) {
+                node.setNr(getLabelIndex(label));
+                numberedNodeCount += 1;
             }
+        }
+    }
+
+    /**
+     * Check and binarize node once its children, label, meta data and length are processed.
+     */
+    private void finishNode(Node node) {
+        if (node.getChildCount()==1 && !allowSingleChildInput.get())
+            throw new TreeParsingException("Node with single child found.");
+
+        // Use length-zero edges to binarize multifurcations.
+        if (binarizeMultifurcationsInput.get())
+            binarizeMultifurcation(node);
+    }
+
+    /**
+     * Use zero-length edges to replace multifurcations with a sequence of bifurcations.
+     *
+     * @param node node representing multifurcation
+     */
+    private void binarizeMultifurcation(Node node) {
+         if (node.getChildCount()>2) {
+            List<Node> children = new ArrayList<>(node.getChildren());
+            Node prevDummy = node;
+            for (int i=1; i<children.size()-1; i++) {
+                Node child = children.get(i);
+
+                Node dummyNode = newNode();
+                dummyNode.setNr(-1);
+                dummyNode.setHeight(0);
+                prevDummy.addChild(dummyNode);
+
+                node.removeChild(child);
+                dummyNode.addChild(child);
+
+                prevDummy = dummyNode;
+            }
+            node.removeChild(children.get(children.size()-1));
+            prevDummy.addChild(children.get(children.size()-1));
+        }
+    }
+
+    /**
+     * Try to map str into an index.
+     */
+    private int getLabelIndex(final String str) {
+
+        // look it up in list of taxa
+        if (labelIndexMap == null) {
+            labelIndexMap = new HashMap<>();
+            for (int index = 0; index < labels.size(); index++) {
+                labelIndexMap.putIfAbsent(labels.get(index), index);
+            }
+        }
+        Integer index = labelIndexMap.get(str);
+        if (index != null) {
+            return index;
+        }
+
+        // if createUnrecognizedTaxon==true, then do it now, otherwise labels will not be populated and
+        // out of bounds error will occur in m_sLabels later.
+        if (createUnrecognizedTaxa) {
+            labels.add(str);
+            labelIndexMap.put(str, labels.size() - 1);
+            return labels.size() - 1;
+        }
+
+        throw new TreeParsingException("Label '" + str + "' in Newick beast.tree could " +
+                "not be identified. Perhaps taxa or taxonset is not specified?");
+    }
+
+    /**
+     * The node height field is initially populated with the length of the edge above due
+     * to the way the tree is stored in Newick format.  This method converts these lengths
+     * to actual ages before the most recent sample.
+     *
+     * @param root root of tree
+     */
+    private void convertLengthToHeight(final Node root) {
+        final double totalHeight = convertLengthToHeight(root, 0);
+        offset(root, -totalHeight);
+    }
+
+    /**
+     * Recursive method used to convert lengths to heights.  Applied to the root,
+     * results in heights from 0 to -total_height_of_tree.
+     *
+     * @param node node of a clade to convert
+     * @param height Parent height.
+     * @return total height of clade
+     */
+    private double convertLengthToHeight(final Node node, final double height) {
+        final double length = node.getHeight();
+        node.setHeight((height - length) * scaleInput.get());
+        if (node.isLeaf()) {
+            return node.getHeight();
+        } else {
+            double minChildHeight = Double.POSITIVE_INFINITY;
+            for (Node child : node.getChildren())
+                minChildHeight = Math.min(minChildHeight, convertLengthToHeight(child, height - length));
+
+            return minChildHeight;
+        }
+    }
+
+    /**
+     * Method used by convertLengthToHeight(node) to remove negative offset from
+     * node heights that is produced by convertLengthToHeight(node, height).
+     *
+     * @param node node of clade to offset
+     * @param delta offset
+     */
+    private void offset(final Node node, final double delta) {
+        node.setHeight(node.getHeight() + delta);
+        if (node.isLeaf()) {
+            if (node.getHeight() < thresholdInput.get()) {
+                node.setHeight(0);
+            }
+        }
+        for (Node child : node.getChildren())
+            offset(child, delta);
+    }
+
+    /**
+     * Number any nodes in a clade which were not explicitly numbered by
+     * the parsed string.
+     *
+     * @param node clade parent
+     */
+    private void numberUnnumberedNodes(Node node) {
+        if (node.isLeaf())
+            return;
+
+        for (Node child : node.getChildren()) {
+            numberUnnumberedNodes(child);
+        }
+
+        if (node.getNr()<0)
+            node.setNr(numberedNodeCount);
+
+        numberedNodeCount += 1;
+    }
+
+
+    /**
+     * Visits each component of the AST built from the Newick string, constructing
+     * a BEAST tree along the way.
+     */
+    class NewickASTVisitor extends NewickParserBaseVisitor<Node> {
 
-            return root;
+        NewickASTVisitor() {
+            startParsing();
+        }
+
+        @Override
+        public Node visitTree(NewickParser.TreeContext ctx) {
+            Node root = visit(ctx.node());
+
+            return finishTree(root);
         }
 
         private void processMetadata(Node node, MetaContext metaContext, boolean isLengthMeta) {
@@ -536,33 +789,6 @@ public class TreeParser extends Tree implements StateNodeInitialiser {
             }
         }
 
-        /**
-         * Use zero-length edges to replace multifurcations with a sequence of bifurcations.
-         *
-         * @param node node representing multifurcation
-         */
-        private void binarizeMultifurcation(Node node) {
-             if (node.getChildCount()>2) {
-                List<Node> children = new ArrayList<>(node.getChildren());
-                Node prevDummy = node;
-                for (int i=1; i<children.size()-1; i++) {
-                    Node child = children.get(i);
-
-                    Node dummyNode = newNode();
-                    dummyNode.setNr(-1);
-                    dummyNode.setHeight(0);
-                    prevDummy.addChild(dummyNode);
-
-                    node.removeChild(child);
-                    dummyNode.addChild(child);
-
-                    prevDummy = dummyNode;
-                }
-                node.removeChild(children.get(children.size()-1));
-                prevDummy.addChild(children.get(children.size()-1));
-            }
-        }
-
         @Override
         public Node visitNode(NewickParser.NodeContext ctx) {
             Node node = newNode();
@@ -592,138 +818,410 @@ public class TreeParser extends Tree implements StateNodeInitialiser {
 
             node.setNr(-1);
             if (postCtx.label() != null) {
-                node.setID(postCtx.label().getText());
-
-                if (postCtx.label().number() == null
-                        || postCtx.label().number().INT() == null)
-                    integerLeafLabels = false;
-
-                // Treat labels as node numbers in certain situations
-                if (!isLabelledNewickInput.get()
-                        && postCtx.label().number() != null
-                        && postCtx.label().number().INT() != null) {
-
-                    int nodeNr = Integer.parseInt(postCtx.label().getText()) - offsetInput.get();
-                    if (nodeNr<0)
-                        throw new TreeParsingException("Node number given " +
-                                "is smaller than current offset (" +
-                                offsetInput.get() + ").  Perhaps offset is " +
-                                "too high?");
-
-                    node.setNr(nodeNr);
-                    numberedNodeCount += 1;
-                } else {
-                    if (node.isLeaf()) {
-                        node.setNr(getLabelIndex(postCtx.label().getText()));
-                        numberedNodeCount += 1;
-                    }
-                }
+                processLabel(node, postCtx.label().getText(),
+                        postCtx.label().number() != null && postCtx.label().number().INT() != null);
             }
 
-            if (node.getChildCount()==1 && !allowSingleChildInput.get())
-                throw new TreeParsingException("Node with single child found.");
+            finishNode(node);
 
-            // Use length-zero edges to binarize multifurcations.
-            if (binarizeMultifurcationsInput.get())
-                binarizeMultifurcation(node);
+            return node;
+        }
+    }
 
 
-            return node;
+    /**
+     * Parser for (extended) Newick that constructs nodes directly while scanning
+     * the characters once, without creating a token stream or parse tree.
+     * It accepts the same language as the ANTLR grammar in the treeparser
+     * package and produces the same trees, including meta data. Errors are
+     * reported without position information; parseNewick then falls back on
+     * the ANTLR parser to produce a more informative message.
+     */
+    class NewickStringParser {
+        private final CharSequence newick;
+        private final int length;
+        private int pos = 0;
+
+        /**
+         * buffer for meta data strings, reused for all nodes
+         */
+        private final StringBuilder buf = new StringBuilder();
+
+        NewickStringParser(CharSequence newick) {
+            this.newick = newick;
+            this.length = newick.length();
+            startParsing();
+        }
+
+        Node parse() {
+            Node root = parseNode();
+
+            skipWhiteSpace();
+            if (pos < length && newick.charAt(pos) == ';')
+                pos++;
+            skipWhiteSpace();
+            if (pos < length)
+                throw error("unexpected character '" + newick.charAt(pos) + "'");
+
+            return finishTree(root);
         }
 
         /**
-         * Try to map str into an index.
+         * Parse a clade. Uses an explicit stack of open internal nodes, so deep
+         * (e.g. caterpillar) trees do not run out of stack space.
          */
-        private int getLabelIndex(final String str) {
+        private Node parseNode() {
+            List<Node> openNodes = new ArrayList<>();
+            while (true) {
+                skipWhiteSpace();
+                if (pos < length && newick.charAt(pos) == '(') {
+                    pos++;
+                    openNodes.add(newNode());
+                    continue;
+                }
 
-            // look it up in list of taxa
-            for (int index = 0; index < labels.size(); index++) {
-                if (str.equals(labels.get(index))) {
-                    return index;
+                Node node = newNode();
+                parsePost(node);
+
+                // add completed node to its parent, and complete parents that are closed
+                while (true) {
+                    if (openNodes.isEmpty())
+                        return node;
+                    openNodes.get(openNodes.size() - 1).addChild(node);
+
+                    skipWhiteSpace();
+                    if (pos < length && newick.charAt(pos) == ',') {
+                        pos++;
+                        break;
+                    }
+                    if (pos >= length || newick.charAt(pos) != ')')
+                        throw error("expected ',' or ')'");
+                    pos++;
+                    node = openNodes.remove(openNodes.size() - 1);
+                    parsePost(node);
+                }
+            }
+        }
+
+        /**
+         * Parse label, meta data and length following a node, and process
+         * them in the same order as NewickASTVisitor.visitNode does.
+         */
+        private void parsePost(Node node) {
+            String label = null;
+            boolean isInteger = false;
+
+            skipWhiteSpace();
+            if (pos < length && (newick.charAt(pos) == '"' || newick.charAt(pos) == '\'')) {
+                label = newick.subSequence(pos, skipQuoted()).toString();
+            } else {
+                int start = pos;
+                int end = skipUnquoted(false);
+                if (end > start) {
+                    label = newick.subSequence(start, end).toString();
+                    isInteger = numberType(start, end, true) == INTEGER;
                 }
             }
 
-            // if createUnrecognizedTaxon==true, then do it now, otherwise labels will not be populated and
-            // out of bounds error will occur in m_sLabels later.
-            if (createUnrecognizedTaxa) {
-                labels.add(str);
-                return labels.size() - 1;
+            skipWhiteSpace();
+            if (atMetaStart())
+                parseMetaData(node, false);
+
+            skipWhiteSpace();
+            double branchLength = DEFAULT_LENGTH;
+            if (pos < length && newick.charAt(pos) == ':') {
+                pos++;
+                skipWhiteSpace();
+                if (atMetaStart())
+                    parseMetaData(node, true);
+                skipWhiteSpace();
+                int start = pos;
+                int end = skipUnquoted(false);
+                if (numberType(start, end, true) == NOT_A_NUMBER)
+                    throw error("expected branch length");
+                branchLength = Double.parseDouble(newick.subSequence(start, end).toString());
             }
+            node.setHeight(branchLength);
+
+            node.setNr(-1);
+            if (label != null)
+                processLabel(node, label, isInteger);
 
-            throw new TreeParsingException("Label '" + str + "' in Newick beast.tree could " +
-                    "not be identified. Perhaps taxa or taxonset is not specified?");
+            finishNode(node);
+        }
+
+        private boolean atMetaStart() {
+            return pos + 1 < length && newick.charAt(pos) == '[' && newick.charAt(pos + 1) == '&';
         }
 
         /**
-         * The node height field is initially populated with the length of the edge above due
-         * to the way the tree is stored in Newick format.  This method converts these lengths
-         * to actual ages before the most recent sample.
-         *
-         * @param root root of tree
+         * Parse "[&key=value,...]" and store it as meta data of node.
          */
-        private void convertLengthToHeight(final Node root) {
-            final double totalHeight = convertLengthToHeight(root, 0);
-            offset(root, -totalHeight);
+        private void parseMetaData(Node node, boolean isLengthMeta) {
+            pos += 2;
+            buf.setLength(0);
+            while (true) {
+                skipWhiteSpace();
+                int start = pos;
+                int end;
+                if (pos < length && (newick.charAt(pos) == '"' || newick.charAt(pos) == '\'')) {
+                    end = skipQuoted();
+                } else {
+                    end = skipUnquoted(true);
+                    if (end == start || numberType(start, end, false) != NOT_A_NUMBER)
+                        throw error("expected meta data key");
+                }
+                String key = newick.subSequence(start, end).toString();
+                buf.append(key);
+
+                skipWhiteSpace();
+                if (pos >= length || newick.charAt(pos) != '=')
+                    throw error("expected '='");
+                pos++;
+                buf.append('=');
+
+                Object value = parseAttribValue();
+                if (!suppressMetadata) {
+                    if (isLengthMeta)
+                        node.setLengthMetaData(key, value);
+                    else
+                        node.setMetaData(key, value);
+                }
+
+                skipWhiteSpace();
+                if (pos < length && newick.charAt(pos) == ',') {
+                    pos++;
+                    buf.append(',');
+                } else if (pos < length && newick.charAt(pos) == ']') {
+                    pos++;
+                    break;
+                } else {
+                    throw error("expected ',' or ']'");
+                }
+            }
+
+            if (isLengthMeta)
+                node.lengthMetaDataString = buf.toString();
+            else
+                node.metaDataString = buf.toString();
         }
 
         /**
-         * Recursive method used to convert lengths to heights.  Applied to the root,
-         * results in heights from 0 to -total_height_of_tree.
+         * Parse a meta data value, appending its text (without white space) to buf.
          *
-         * @param node node of a clade to convert
-         * @param height Parent height.
-         * @return total height of clade
+         * @return Double for numbers, String for strings, Double[] or String[] for vectors
          */
-        private double convertLengthToHeight(final Node node, final double height) {
-            final double length = node.getHeight();
-            node.setHeight((height - length) * scaleInput.get());
-            if (node.isLeaf()) {
-                return node.getHeight();
-            } else {
-                double minChildHeight = Double.POSITIVE_INFINITY;
-                for (Node child : node.getChildren())
-                    minChildHeight = Math.min(minChildHeight, convertLengthToHeight(child, height - length));
+        private Object parseAttribValue() {
+            skipWhiteSpace();
+            if (pos < length && newick.charAt(pos) == '{') {
+                pos++;
+                buf.append('{');
+                List<String> elements = new ArrayList<>();
+                while (true) {
+                    int start = buf.length();
+                    parseAttribValue();
+                    elements.add(buf.substring(start));
+
+                    skipWhiteSpace();
+                    if (pos < length && newick.charAt(pos) == ',') {
+                        pos++;
+                        buf.append(',');
+                    } else if (pos < length && newick.charAt(pos) == '}') {
+                        pos++;
+                        buf.append('}');
+                        break;
+                    } else {
+                        throw error("expected ',' or '}'");
+                    }
+                }
+
+                try {
+                    Double[] arrayValues = new Double[elements.size()];
+                    for (int i = 0; i < arrayValues.length; i++)
+                        arrayValues[i] = Double.parseDouble(elements.get(i));
+                    return arrayValues;
+                } catch (NumberFormatException ex) {
+                    // it is a non-numerical vector -- store as String
+                    return elements.toArray(new String[0]);
+                }
+            }
 
-                return minChildHeight;
+            int start = pos;
+            if (pos < length && (newick.charAt(pos) == '"' || newick.charAt(pos) == '\'')) {
+                int end = skipQuoted();
+                buf.append(newick, start, end);
+                return newick.subSequence(start + 1, end - 1).toString();
+            }
+
+            int end = skipUnquoted(true);
+            if (end == start)
+                throw error("expected meta data value");
+            buf.append(newick, start, end);
+            String value = newick.subSequence(start, end).toString();
+            if (numberType(start, end, false) != NOT_A_NUMBER)
+                return Double.parseDouble(value);
+            return value;
+        }
+
+        private void skipWhiteSpace() {
+            while (pos < length) {
+                char c = newick.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\r' && c != '\n')
+                    return;
+                pos++;
             }
         }
 
         /**
-         * Method used by convertLengthToHeight(node) to remove negative offset from
-         * node heights that is produced by convertLengthToHeight(node, height).
+         * Advance past a string starting with a quote up to and including the matching quote.
          *
-         * @param node node of clade to offset
-         * @param delta offset
+         * @return position just past the closing quote
          */
-        private void offset(final Node node, final double delta) {
-            node.setHeight(node.getHeight() + delta);
-            if (node.isLeaf()) {
-                if (node.getHeight() < thresholdInput.get()) {
-                    node.setHeight(0);
+        private int skipQuoted() {
+            char quote = newick.charAt(pos);
+            int end = pos + 1;
+            while (end < length && newick.charAt(end) != quote)
+                end++;
+            if (end >= length)
+                throw error("unterminated string");
+            pos = end + 1;
+            return pos;
+        }
+
+        /**
+         * Advance past characters that can appear in an unquoted string.
+         *
+         * @param inMetaData whether the string is part of meta data, where ':' is allowed as well
+         * @return position just past the string
+         */
+        private int skipUnquoted(boolean inMetaData) {
+            while (pos < length) {
+                char c = newick.charAt(pos);
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                    pos++;
+                    continue;
+                }
+                switch (c) {
+                    case '|': case '#': case '*': case '%': case '/': case '.':
+                    case '-': case '+': case '_': case '&':
+                        pos++;
+                        continue;
+                    case ':':
+                        if (inMetaData) {
+                            pos++;
+                            continue;
+                        }
+                        return pos;
+                    default:
+                        return pos;
                 }
             }
-            for (Node child : node.getChildren())
-                offset(child, delta);
+            return pos;
         }
 
         /**
-         * Number any nodes in a clade which were not explicitly numbered by
-         * the parsed string.
+         * Determine whether the characters from start to end form a number
+         * according to the INT, FLOAT and FLOAT_SCI rules of the Newick lexer.
          *
-         * @param node clade parent
+         * @param allowPlusInExponent the lexer allows an explicit '+' in the exponent outside meta data only
+         * @return NOT_A_NUMBER, INTEGER or FLOAT
          */
-        private void numberUnnumberedNodes(Node node) {
-            if (node.isLeaf())
-                return;
-
-            for (Node child : node.getChildren()) {
-                numberUnnumberedNodes(child);
+        private int numberType(int start, int end, boolean allowPlusInExponent) {
+            int i = start;
+            if (i < end && newick.charAt(i) == '-')
+                i++;
+
+            int intStart = i;
+            if (i < end && newick.charAt(i) == '0') {
+                i++;
+            } else if (i < end && newick.charAt(i) >= '1' && newick.charAt(i) <= '9') {
+                i++;
+                while (i < end && isDigit(newick.charAt(i)))
+                    i++;
+            }
+            boolean hasInt = i > intStart;
+
+            boolean hasDot = false;
+            int fractionDigits = 0;
+            if (i < end && newick.charAt(i) == '.') {
+                hasDot = true;
+                i++;
+                while (i < end && isDigit(newick.charAt(i))) {
+                    i++;
+                    fractionDigits++;
+                }
             }
+            if (!hasInt && fractionDigits == 0)
+                return NOT_A_NUMBER;
+            if (i == end)
+                return hasDot ? FLOAT : INTEGER;
+
+            // exponent
+            if (hasDot && fractionDigits == 0)
+                return NOT_A_NUMBER;
+            if (newick.charAt(i) != 'e' && newick.charAt(i) != 'E')
+                return NOT_A_NUMBER;
+            i++;
+            if (i < end && (newick.charAt(i) == '-' || (allowPlusInExponent && newick.charAt(i) == '+')))
+                i++;
+            int exponentStart = i;
+            while (i < end && isDigit(newick.charAt(i)))
+                i++;
+            if (i == exponentStart || i != end)
+                return NOT_A_NUMBER;
+            return FLOAT;
+        }
 
-            if (node.getNr()<0)
-                node.setNr(numberedNodeCount);
+        private boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
 
-            numberedNodeCount += 1;
+        private TreeParsingException error(String message) {
+            return new TreeParsingException(message + " at character " + (pos + 1));
+        }
+    }
+
+    private final static int NOT_A_NUMBER = 0, INTEGER = 1, FLOAT = 2;
+
+    /**
+     * Read-only view of the bytes from position to limit of a buffer
+     * as 8-bit characters.
+     */
+    static class ByteBufferCharSequence implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int offset, length;
+
+        ByteBufferCharSequence(ByteBuffer buffer) {
+            this(buffer, buffer.position(), buffer.remaining());
+        }
+
+        private ByteBufferCharSequence(ByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(offset + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new ByteBufferCharSequence(buffer, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            char [] chars = new char[length];
+            for (int i = 0; i < length; i++)
+                chars[i] = charAt(i);
+            return new String(chars);
         }
     }
 
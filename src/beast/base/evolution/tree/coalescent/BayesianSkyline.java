@@ -18,6 +18,7 @@ import beast.base.evolution.tree.TreeDistribution;
 import beast.base.evolution.tree.TreeIntervals;
 import beast.base.inference.*;
 import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.Parameter;
 import beast.base.util.Binomial;
 
 
@@ -54,6 +55,31 @@ public class BayesianSkyline extends TreeDistribution {
     int[] cumulativeGroupSizes;
     boolean m_bIsPrepared = false;
 
+    /**
+     * Intervals in order of time, with a zero-length interval inserted for every additional
+     * coalescent event at a multifurcation. Each has the start time, width, lineage count,
+     * whether it ends in a coalescent event, and the group whose population size applies.
+     * These only depend on the tree and the group sizes.
+     */
+    private int eventCount;
+    private double[] eventStart;
+    private double[] eventWidth;
+    private int[] eventLineageCount;
+    private boolean[] eventIsCoalescent;
+    private int[] eventGroup;
+    /** events of group g are groupEvents[groupEventStart[g]], ..., groupEvents[groupEventStart[g + 1] - 1], in order of time **/
+    private int[] groupEventStart;
+    private int[] groupEvents;
+    private boolean eventsKnown = false;
+    /** whether events were recalculated since the last store **/
+    private boolean eventsChanged = false;
+
+    /** contribution to logP of the events of each group **/
+    private double[] groupLogP;
+    private double[] storedGroupLogP;
+    /** whether only groups of which the population size changed need to be recalculated **/
+    private boolean incremental = false;
+
     public BayesianSkyline() {
     }
 
@@ -148,19 +174,38 @@ public class BayesianSkyline extends TreeDistribution {
      */
     @Override
     protected boolean requiresRecalculation() {
-        m_bIsPrepared = false;
+        if (intervals.isDirtyCalculation() || groupSizes.somethingIsDirty()) {
+            m_bIsPrepared = false;
+            eventsKnown = false;
+        }
+        incremental = true;
         return true;
     }
 
     @Override
     public void store() {
-        m_bIsPrepared = false;
+        if (groupLogP != null) {
+            if (storedGroupLogP == null || storedGroupLogP.length != groupLogP.length) {
+                storedGroupLogP = new double[groupLogP.length];
+            }
+            System.arraycopy(groupLogP, 0, storedGroupLogP, 0, groupLogP.length);
+        }
+        eventsChanged = false;
+        incremental = false;
         super.store();
     }
 
     @Override
     public void restore() {
-        m_bIsPrepared = false;
+        double[] tmp = groupLogP;
+        groupLogP = storedGroupLogP;
+        storedGroupLogP = tmp;
+        if (eventsChanged) {
+            // the tree or group sizes changed since the last store
+            m_bIsPrepared = false;
+            eventsKnown = false;
+        }
+        incremental = false;
         super.restore();
     }
 
@@ -176,59 +221,155 @@ public class BayesianSkyline extends TreeDistribution {
     /**
      * Calculates the log likelihood of this set of coalescent intervals, given
      * a demographic model.
+     * The likelihood is the sum of the contributions of the groups. If only
+     * population sizes changed, only the groups of these population sizes are
+     * recalculated. Otherwise, the groups of all intervals are determined in a
+     * single pass through the coalescent times.
      */
     @Override
     public double calculateLogP() {
-        if (!m_bIsPrepared) {
-            prepare();
+        final int groupCount = popSizes.getDimension();
+        if (!incremental || !eventsKnown || groupLogP == null || groupLogP.length != groupCount) {
+            // calculateLogP may be called without requiresRecalculation, e.g. after initialisation
+            if (!incremental) {
+                m_bIsPrepared = false;
+            }
+            if (!m_bIsPrepared) {
+                prepare();
+            }
+            calculateEvents();
+            if (groupLogP == null || groupLogP.length != groupCount) {
+                groupLogP = new double[groupCount];
+            }
+            for (int g = 0; g < groupCount; g++) {
+                calculateGroupLogP(g);
+            }
+        } else {
+            boolean dirtyGroups = false;
+            if (popSizes instanceof Parameter.Base) {
+                final Parameter.Base<?> p = (Parameter.Base<?>) popSizes;
+                for (int g = 0; g < groupCount; g++) {
+                    if (p.isDirty(g)) {
+                        calculateGroupLogP(g);
+                        dirtyGroups = true;
+                    }
+                }
+            }
+            if (!dirtyGroups) {
+                // no information on which population sizes changed
+                for (int g = 0; g < groupCount; g++) {
+                    calculateGroupLogP(g);
+                }
+            }
         }
+        incremental = false;
 
         logP = 0.0;
+        for (int g = 0; g < groupCount; g++) {
+            logP += groupLogP[g];
+        }
+        return logP;
+    }
 
-        double currentTime = 0.0;
-
-        int groupIndex = 0;
-        // int[] groupSizes = getGroupSizes();
-        // double[] groupEnds = getGroupHeights();
-
-        int subIndex = 0;
+    private void calculateGroupLogP(int g) {
+        final double popSize = popSizes.getArrayValue(g);
+        double groupLogP = 0.0;
+        for (int k = groupEventStart[g]; k < groupEventStart[g + 1]; k++) {
+            final int e = groupEvents[k];
+            groupLogP += calculateIntervalLikelihood(popSize, eventWidth[e], eventStart[e],
+                    eventLineageCount[e], eventIsCoalescent[e] ? IntervalType.COALESCENT : IntervalType.NOTHING);
+        }
+        this.groupLogP[g] = groupLogP;
+    }
 
-        //ConstantPopulation cp = new ConstantPopulation();// Units.Type.YEARS);
+    /**
+     * Determine the events and the group each belongs to. The population size
+     * of an interval is that at its middle, as returned by getPopSize. Since
+     * the middles of consecutive intervals are non-decreasing, the epoch and
+     * group are found by moving forward through coalescentTimes and
+     * cumulativeGroupSizes, instead of by a binary search for every interval.
+     */
+    private void calculateEvents() {
+        final int intervalCount = intervals.getIntervalCount();
+        final int maxEvents = intervalCount + intervals.getSampleCount();
+        if (eventStart == null || eventStart.length < maxEvents) {
+            eventStart = new double[maxEvents];
+            eventWidth = new double[maxEvents];
+            eventLineageCount = new int[maxEvents];
+            eventIsCoalescent = new boolean[maxEvents];
+            eventGroup = new int[maxEvents];
+            groupEvents = new int[maxEvents];
+        }
+        final int groupCount = popSizes.getDimension();
+        final double lastTime = coalescentTimes[coalescentTimes.length - 1];
 
-        for (int j = 0; j < intervals.getIntervalCount(); j++) {
+        eventCount = 0;
+        double currentTime = 0.0;
+        int epoch = 0;
+        int groupIndex = 0;
+        for (int j = 0; j < intervalCount; j++) {
+            final double width = intervals.getInterval(j);
+            final double t = currentTime + (width / 2.0);
 
-            // set the population size to the size of the middle of the current
-            // interval
-            final double ps = getPopSize(currentTime + (intervals.getInterval(j) / 2.0));
-            //cp.setN0(ps);
-            if (intervals.getIntervalType(j) == IntervalType.COALESCENT) {
-                subIndex += 1;
-                if (subIndex >= groupSizes.getValue(groupIndex)) {
-                    groupIndex += 1;
-                    subIndex = 0;
+            int group;
+            if (t > lastTime) {
+                group = groupCount - 1;
+            } else {
+                while (coalescentTimes[epoch] < t) {
+                    epoch++;
+                }
+                if (coalescentTimes[epoch] == t) {
+                    // ties in coalescentTimes are resolved as by the binary search in getPopSize
+                    group = getGroupIndex(t);
+                } else {
+                    while (groupIndex < cumulativeGroupSizes.length && cumulativeGroupSizes[groupIndex] <= epoch) {
+                        groupIndex++;
+                    }
+                    group = Math.min(groupIndex, groupCount - 1);
                 }
             }
-
-            logP += calculateIntervalLikelihood(ps, intervals.getInterval(j), currentTime,
-                    intervals.getLineageCount(j), intervals.getIntervalType(j));
+            final IntervalType type = intervals.getIntervalType(j);
+            addEvent(currentTime, width, intervals.getLineageCount(j), type == IntervalType.COALESCENT, group);
 
             // insert zero-length coalescent intervals
-            int diff = intervals.getCoalescentEvents(j) - 1;
-            for (int k = 0; k < diff; k++) {
-                //cp.setN0(getPopSize(currentTime));
-                double popSize = getPopSize(currentTime);
-                logP += calculateIntervalLikelihood(popSize, 0.0, currentTime, intervals.getLineageCount(j) - k - 1,
-                        IntervalType.COALESCENT);
-                subIndex += 1;
-                if (subIndex >= groupSizes.getValue(groupIndex)) {
-                    groupIndex += 1;
-                    subIndex = 0;
+            final int diff = intervals.getCoalescentEvents(j) - 1;
+            if (diff > 0) {
+                final int zeroGroup = getGroupIndex(currentTime);
+                for (int k = 0; k < diff; k++) {
+                    addEvent(currentTime, 0.0, intervals.getLineageCount(j) - k - 1, true, zeroGroup);
                 }
             }
+            currentTime += width;
+        }
 
-            currentTime += intervals.getInterval(j);
+        // sort events by group, keeping them in order of time within a group
+        if (groupEventStart == null || groupEventStart.length != groupCount + 1) {
+            groupEventStart = new int[groupCount + 1];
+        } else {
+            Arrays.fill(groupEventStart, 0);
         }
-        return logP;
+        for (int e = 0; e < eventCount; e++) {
+            groupEventStart[eventGroup[e] + 1]++;
+        }
+        for (int g = 0; g < groupCount; g++) {
+            groupEventStart[g + 1] += groupEventStart[g];
+        }
+        final int[] next = groupEventStart.clone();
+        for (int e = 0; e < eventCount; e++) {
+            groupEvents[next[eventGroup[e]]++] = e;
+        }
+
+        eventsKnown = true;
+        eventsChanged = true;
+    }
+
+    private void addEvent(double start, double width, int lineageCount, boolean isCoalescent, int group) {
+        eventStart[eventCount] = start;
+        eventWidth[eventCount] = width;
+        eventLineageCount[eventCount] = lineageCount;
+        eventIsCoalescent[eventCount] = isCoalescent;
+        eventGroup[eventCount] = group;
+        eventCount++;
     }
 
     public static double calculateIntervalLikelihood(double popSize, double width,
@@ -263,8 +404,16 @@ public class BayesianSkyline extends TreeDistribution {
             prepare();
         }
 
+        return popSizes.getArrayValue(getGroupIndex(t));
+    }
+
+    /**
+     * @param t time
+     * @return index of the population size that applies at time t
+     */
+    private int getGroupIndex(double t) {
         if (t > coalescentTimes[coalescentTimes.length - 1])
-            return popSizes.getArrayValue(popSizes.getDimension() - 1);
+            return popSizes.getDimension() - 1;
 
         int epoch = Arrays.binarySearch(coalescentTimes, t);
         if (epoch < 0) {
@@ -282,7 +431,7 @@ public class BayesianSkyline extends TreeDistribution {
             groupIndex = popSizes.getDimension() - 1;
         }
 
-        return popSizes.getArrayValue(groupIndex);
+        return groupIndex;
     }
 
     @Override
@@ -101,6 +101,9 @@ public class Coalescent extends TreeDistribution {
      * @return the log likelihood of the intervals given the population size function
      */
     public double calculateLogLikelihood(IntervalList intervals, PopulationFunction popSizeFunction, double threshold) {
+        if (intervals.getClass() == TreeIntervals.class) {
+            return calculateLogLikelihood((TreeIntervals) intervals, popSizeFunction, threshold);
+        }
 
         double logL = 0.0;
 
@@ -146,6 +149,50 @@ public class Coalescent extends TreeDistribution {
         return logL;
     }
 
+    /** buffers for the integrals and population sizes over the intervals **/
+    private double[] integrals = new double[0];
+    private double[] popSizes = new double[0];
+
+    /**
+     * As calculateLogLikelihood(IntervalList, PopulationFunction, double), but working on
+     * the interval arrays of the tree intervals directly, with the integrals and population
+     * sizes for all intervals obtained from the population function in one call.
+     */
+    private double calculateLogLikelihood(TreeIntervals intervals, PopulationFunction popSizeFunction, double threshold) {
+        final int n = intervals.getIntervalCount();
+        final double[] durations = intervals.getIntervalArray();
+        final int[] lineageCounts = intervals.getLineageCountArray();
+        if (integrals.length < n) {
+            integrals = new double[n];
+            popSizes = new double[n];
+        }
+        popSizeFunction.getIntegrals(durations, n, integrals, popSizes);
+
+        double logL = 0.0;
+        for (int i = 0; i < n; i++) {
+            final double duration = durations[i];
+            final double intervalArea = integrals[i];
+            if (intervalArea == 0 && duration > 1e-10) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            final int lineageCount = lineageCounts[i];
+
+            logL += -Binomial.choose2(lineageCount) * intervalArea;
+
+            // coalescent interval if lineages are lost at its end, as in TreeIntervals.getIntervalType
+            final int lineageCountAtEnd = i < n - 1 ? lineageCounts[i + 1] : 1;
+            if (lineageCount > lineageCountAtEnd) {
+                final double demographicAtCoalPoint = popSizes[i];
+                if (duration == 0.0 || demographicAtCoalPoint * (intervalArea / duration) >= threshold) {
+                    logL -= Math.log(demographicAtCoalPoint);
+                } else {
+                    return Double.NEGATIVE_INFINITY;
+                }
+            }
+        }
+        return logL;
+    }
+
     @Override
     protected boolean requiresRecalculation() {
         return ((CalculationNode) popSizeInput.get()).isDirtyCalculation() || super.requiresRecalculation();
@@ -330,7 +330,10 @@ public class CompoundPopulationFunction extends PopulationFunction.Abstract impl
     }
 
     private double linPop(double t) {
-        final int j = getIntervalIndexLin(t);
+        return linPop(t, getIntervalIndexLin(t));
+    }
+
+    private double linPop(double t, int j) {
         if (j == values.length - 1) {
             return values[j];
         }
@@ -388,41 +391,94 @@ public class CompoundPopulationFunction extends PopulationFunction.Abstract impl
 
         switch (type) {
             case STEPWISE: {
-                final int first = getIntervalIndexStep(start);
-                final int last = getIntervalIndexStep(finish);
-
-                final double popStart = values[first];
-                if (first == last) {
-                    intensity = (finish - start) / popStart;
-                } else {
-                    intensity = (times[first + 1] - start) / popStart;
+                intensity = intensityStep(start, finish, getIntervalIndexStep(start), getIntervalIndexStep(finish));
+                break;
+            }
+            case LINEAR: {
+                intensity = intensityLin(start, finish, getIntervalIndexLin(start), getIntervalIndexLin(finish));
+                break;
+            }
+        }
+        return intensity;
+    }
 
-                    for (int k = first + 1; k < last; ++k) {
-                        intensity += intervals[k] / values[k];
-                    }
-                    intensity += (finish - times[last]) / values[last];
+    /**
+     * Since interval starts are non-decreasing, the indices of the pieces containing
+     * the start and end of an interval are found by a single pass through the pieces
+     * for all intervals, instead of a search from the first piece for every interval.
+     */
+    @Override
+    public void getIntegrals(double[] durations, int count, double[] integrals, double[] popSizes) {
+        double startTime = 0.0;
+        switch (type) {
+            case STEPWISE: {
+                int first = getIntervalIndexStep(startTime);
+                for (int i = 0; i < count; i++) {
+                    final double finishTime = startTime + durations[i];
+                    // as getIntervalIndexStep(finishTime), but starting from first
+                    final float tf = (float) finishTime;
+                    int last = first;
+                    while (tf > (float) times[last + 1]) ++last;
+
+                    integrals[i] = intensityStep(startTime, finishTime, first, last);
+                    popSizes[i] = values[last];
+                    first = last;
+                    startTime = finishTime;
                 }
                 break;
             }
             case LINEAR: {
-                final int first = getIntervalIndexLin(start);
-                final int last = getIntervalIndexLin(finish);
-
-                if (first == last) {
-                    intensity += intensityLinInterval(start, finish, first);
-                } else {
-                    // from first to end of interval
-                    intensity += intensityLinInterval(start, times[first + 1], first);
-                    // intervals until (not including) last
-                    for (int k = first + 1; k < last; ++k) {
-                        intensity += intensityLinInterval(k);
-                    }
-                    // last interval
-                    intensity += intensityLinInterval(times[last], finish, last);
+                int first = getIntervalIndexLin(startTime);
+                for (int i = 0; i < count; i++) {
+                    final double finishTime = startTime + durations[i];
+                    // as getIntervalIndexLin(finishTime), but starting from first
+                    int last = first;
+                    while (finishTime > times[last + 1]) ++last;
+
+                    integrals[i] = intensityLin(startTime, finishTime, first, last);
+                    popSizes[i] = linPop(finishTime, last);
+                    first = last;
+                    startTime = finishTime;
                 }
                 break;
             }
         }
+    }
+
+    /**
+     * @return integral of stepwise function from start in piece first to finish in piece last
+     */
+    private double intensityStep(double start, double finish, int first, int last) {
+        final double popStart = values[first];
+        if (first == last) {
+            return (finish - start) / popStart;
+        }
+        double intensity = (times[first + 1] - start) / popStart;
+
+        for (int k = first + 1; k < last; ++k) {
+            intensity += intervals[k] / values[k];
+        }
+        intensity += (finish - times[last]) / values[last];
+        return intensity;
+    }
+
+    /**
+     * @return integral of linear function from start in piece first to finish in piece last
+     */
+    private double intensityLin(double start, double finish, int first, int last) {
+        double intensity = 0.0;
+        if (first == last) {
+            intensity += intensityLinInterval(start, finish, first);
+        } else {
+            // from first to end of interval
+            intensity += intensityLinInterval(start, times[first + 1], first);
+            // intervals until (not including) last
+            for (int k = first + 1; k < last; ++k) {
+                intensity += intensityLinInterval(k);
+            }
+            // last interval
+            intensity += intensityLinInterval(times[last], finish, last);
+        }
         return intensity;
     }
 
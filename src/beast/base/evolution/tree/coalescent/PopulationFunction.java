@@ -55,6 +55,28 @@ public interface PopulationFunction extends UnivariateRealFunction {
      */
     double getIntegral(double start, double finish);
 
+    /**
+     * Calculates the integrals 1/N(t) dt over consecutive intervals starting at time 0,
+     * and the population size at the end of each interval.
+     * Interval i starts at the sum of the durations of the intervals before it.
+     * This implementation calls getIntegral and getPopSize for every interval.
+     * Piecewise functions can override it to pass through their pieces once.
+     *
+     * @param durations durations of the intervals
+     * @param count     number of intervals
+     * @param integrals to store integral over interval i in
+     * @param popSizes  to store N(t) at the end of interval i in
+     */
+    default void getIntegrals(double[] durations, int count, double[] integrals, double[] popSizes) {
+        double startTime = 0.0;
+        for (int i = 0; i < count; i++) {
+            final double finishTime = startTime + durations[i];
+            integrals[i] = getIntegral(startTime, finishTime);
+            popSizes[i] = getPopSize(finishTime);
+            startTime = finishTime;
+        }
+    }
+
     /** Interface is not used anywhere and was not implemented for skyline anyway
      * For now it is commented out. We can easily reinstate the code if a use arises,
      * but then we need to implement for all cases ...
@@ -37,6 +37,7 @@ import java.util.concurrent.RejectedExecutionException;
 
 import beast.base.core.BEASTInterface;
 import beast.base.core.Description;
+import beast.base.core.Function;
 import beast.base.core.Input;
 import beast.base.core.Log;
 import beast.base.core.ProgramStatus;
@@ -45,7 +46,7 @@ import beast.base.core.ProgramStatus;
 @Description("Takes a collection of distributions, typically a number of likelihoods " +
         "and priors and combines them into the compound of these distributions " +
         "typically interpreted as the posterior.")
-public class CompoundDistribution extends Distribution {
+public class CompoundDistribution extends Distribution implements Differentiable {
     // no need to make this input REQUIRED. If no distribution input is
     // specified the class just returns probability 1.
     final public Input<List<Distribution>> pDistributions =
@@ -91,6 +92,27 @@ public class CompoundDistribution extends Distribution {
     /**
      * Distribution implementation follows *
      */
+    /**
+     * Calculates the log density like calculateLogP, but without recalculating distribution
+     * calculated, of which the log density is already up to date for the current state,
+     * as for the screen of delayed acceptance MCMC.
+     */
+    public double calculateLogP(Distribution calculated) {
+        this.calculated = calculated;
+        try {
+            return calculateLogP();
+        } finally {
+            this.calculated = null;
+        }
+    }
+
+    /** distribution whose log density is up to date although it is dirty, or null **/
+    private Distribution calculated;
+
+    private boolean needsCalculation(Distribution distr) {
+        return distr.isDirtyCalculation() && distr != calculated;
+    }
+
     @Override
     public double calculateLogP() {
         logP = 0;
@@ -100,7 +122,7 @@ public class CompoundDistribution extends Distribution {
         int workAvailable = 0;
         if (useThreads) {
 	        for (Distribution dists : pDistributions.get()) {
-	            if (dists.isDirtyCalculation()) {
+	            if (needsCalculation(dists)) {
 	            	workAvailable++;
 	            }
 	        }
@@ -109,7 +131,7 @@ public class CompoundDistribution extends Distribution {
             logP = calculateLogPUsingThreads();
         } else {
             for (Distribution dists : pDistributions.get()) {
-                if (dists.isDirtyCalculation()) {
+                if (needsCalculation(dists)) {
                     logP += dists.calculateLogP();
                 } else {
                     logP += dists.getCurrentLogP();
@@ -132,7 +154,7 @@ public class CompoundDistribution extends Distribution {
         @Override
 		public void run() {
             try {
-                if (distr.isDirtyCalculation()) {
+                if (needsCalculation(distr)) {
                     logP += distr.calculateLogP();
                 } else {
                     logP += distr.getCurrentLogP();
@@ -154,14 +176,14 @@ public class CompoundDistribution extends Distribution {
 
             int dirtyDistrs = 0;
             for (Distribution dists : pDistributions.get()) {
-                if (dists.isDirtyCalculation()) {
+                if (needsCalculation(dists)) {
                     dirtyDistrs++;
                 }
             }
             countDown = new CountDownLatch(dirtyDistrs);
             // kick off the threads
             for (Distribution dists : pDistributions.get()) {
-                if (dists.isDirtyCalculation()) {
+                if (needsCalculation(dists)) {
                     CoreRunnable coreRunnable = new CoreRunnable(dists);
                     exec.execute(coreRunnable);
                 }
@@ -248,5 +270,34 @@ public class CompoundDistribution extends Distribution {
         }
         return logP;
     }
+
+    /**
+     * Can differentiate if all distributions that depend on parameter can.
+     */
+    @Override
+    public boolean canDifferentiate(final Function parameter) {
+        if (ignore) {
+            return true;
+        }
+        for (Distribution distr : pDistributions.get()) {
+            if (Differentiable.dependsOn(distr, parameter) &&
+                    !(distr instanceof Differentiable && ((Differentiable) distr).canDifferentiate(parameter))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void addGradient(final Function parameter, final double[] gradient, final int offset) {
+        if (ignore) {
+            return;
+        }
+        for (Distribution distr : pDistributions.get()) {
+            if (distr instanceof Differentiable) {
+                ((Differentiable) distr).addGradient(parameter, gradient, offset);
+            }
+        }
+    }
     
 } // class CompoundDistribution
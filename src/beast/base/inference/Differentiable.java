@@ -0,0 +1,41 @@
+package beast.base.inference;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import beast.base.core.BEASTInterface;
+import beast.base.core.Function;
+
+/**
+ * Distribution that can calculate the gradient of its log density with respect to
+ * (some of) its parameters, for operators that use gradients such as
+ * HamiltonianMonteCarloOperator. Distributions that do not implement this
+ * are differentiated numerically by such operators.
+ */
+public interface Differentiable {
+
+    /**
+     * @return true if addGradient can calculate the gradient with respect to parameter,
+     * which includes the case where the log density does not depend on parameter at all
+     */
+    boolean canDifferentiate(Function parameter);
+
+    /**
+     * Adds the gradient of the log density with respect to the elements of parameter to
+     * gradient[offset] ... gradient[offset + parameter.getDimension() - 1].
+     * The gradient is calculated for the current values of the state, and does not
+     * require calculateLogP to be called first.
+     */
+    void addGradient(Function parameter, double[] gradient, int offset);
+
+    /**
+     * @return true if parameter can be reached through the inputs of obj, that is,
+     * if obj may depend on parameter
+     */
+    static boolean dependsOn(BEASTInterface obj, Function parameter) {
+        final Set<BEASTInterface> objects = Collections.newSetFromMap(new IdentityHashMap<>());
+        obj.collectPredecessors(objects);
+        return objects.contains(parameter);
+    }
+}
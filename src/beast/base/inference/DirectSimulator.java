@@ -1,8 +1,19 @@
 package beast.base.inference;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import beast.base.core.BEASTInterface;
 import beast.base.core.Description;
@@ -13,6 +24,16 @@ import beast.base.util.Randomizer;
  * Runnable for generating a fixed number of samples from a prior distribution using
  * direct simulation.
  *
+ * Samples are drawn in chunks of chunkSize samples, each with its own random
+ * number generator seeded from the main one, so results do not depend on the
+ * number of threads or their timing. With more than one thread, every thread
+ * samples from its own copy of the distribution graph, and sampled state nodes
+ * are copied back into the original graph and logged in sample order.
+ * This requires distributions to draw from the random number generator passed
+ * to sample(state, random). Those that draw from Randomizer instead, like
+ * ParametricDistributions that override sample(size) but not sample(size, random),
+ * still give valid samples, but ones that cannot be reproduced.
+ *
  * Created by Tim Vaughan <tgvaughan@gmail.com> on 16/06/17.
  */
 @Description("Runnable for generating a fixed number of samples from a prior distribution" +
@@ -31,23 +52,43 @@ public class DirectSimulator extends Runnable {
             "Number of independent samples to generate.",
             Input.Validate.REQUIRED);
 
+    public Input<Integer> threadsInput = new Input<>("threads",
+            "Number of threads to sample with, each using its own copy of the distribution (default 1).",
+            1);
+
+    public Input<Integer> chunkSizeInput = new Input<>("chunkSize",
+            "Number of consecutive samples drawn with the same random number generator (default 1000).",
+            1000);
+
     State state;
     Distribution distribution;
     List<Logger> loggers;
     int nSamples;
+    int threadCount;
+    int chunkSize;
 
     Random random;
 
+    /** distributions in the graph, for clearing sampled flags without traversing the graph **/
+    private Distribution[] distributions;
+
     @Override
     public void initAndValidate() {
         distribution = distributionInput.get();
         loggers = loggersInput.get();
         nSamples = nSamplesInput.get();
+        threadCount = Math.max(threadsInput.get(), 1);
+        chunkSize = chunkSizeInput.get();
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize should be at least 1, not " + chunkSize);
+        }
 
         // Create new Random instance initialized with seed from Randomizer
         // (Necessary because sample() currently needs a Random instance and we
         // want to use the same seed specified on the command line.)
         random = new Random(Randomizer.getSeed());
+
+        distributions = collectDistributions(distribution);
     }
 
     public void clearSampledFlags(BEASTInterface obj) {
@@ -71,6 +112,47 @@ public class DirectSimulator extends Runnable {
         }
     }
 
+    private static void clearSampledFlags(Distribution[] distributions) {
+        for (Distribution d : distributions) {
+            d.sampledFlag = false;
+        }
+    }
+
+    private static Set<BEASTInterface> collectObjects(BEASTInterface obj) {
+        final Set<BEASTInterface> objects = Collections.newSetFromMap(new IdentityHashMap<>());
+        obj.collectPredecessors(objects);
+        return objects;
+    }
+
+    static Distribution[] collectDistributions(BEASTInterface obj) {
+        final List<Distribution> distributions = new ArrayList<>();
+        for (BEASTInterface o : collectObjects(obj)) {
+            if (o instanceof Distribution)
+                distributions.add((Distribution) o);
+        }
+        return distributions.toArray(new Distribution[0]);
+    }
+
+    /**
+     * @return state nodes in the graph of obj that are arguments of a distribution in
+     * the graph, and so may be sampled, by ID in order of first encounter
+     */
+    static Map<String, StateNode> collectStateNodes(BEASTInterface obj) {
+        final Set<BEASTInterface> objects = collectObjects(obj);
+        final Set<String> arguments = new HashSet<>();
+        for (BEASTInterface o : objects) {
+            if (o instanceof Distribution && ((Distribution) o).getArguments() != null)
+                arguments.addAll(((Distribution) o).getArguments());
+        }
+        final Map<String, StateNode> stateNodes = new LinkedHashMap<>();
+        for (BEASTInterface o : objects) {
+            if (o instanceof StateNode && arguments.contains(o.getID())) {
+                stateNodes.put(o.getID(), (StateNode) o);
+            }
+        }
+        return stateNodes;
+    }
+
     @Override
     public void run() throws Exception {
 
@@ -79,12 +161,21 @@ public class DirectSimulator extends Runnable {
             logger.init();
 
         // Perform simulations
-        for (int i=0; i<nSamples; i++) {
-            clearSampledFlags(distribution);
-            distribution.sample(state, random);
+        if (threadCount > 1) {
+            runParallel();
+        } else {
+            int sampleNr = 0;
+            while (sampleNr < nSamples) {
+                final Random chunkRandom = new Random(random.nextLong());
+                for (int i = 0; i < chunkSize && sampleNr < nSamples; i++) {
+                    clearSampledFlags(distributions);
+                    distribution.sample(state, chunkRandom);
 
-            for (Logger logger : loggers) {
-                logger.log(i);
+                    for (Logger logger : loggers) {
+                        logger.log(sampleNr);
+                    }
+                    sampleNr++;
+                }
             }
         }
 
@@ -94,5 +185,131 @@ public class DirectSimulator extends Runnable {
 
         System.out.println("Direct simulation of " + nSamples + " samples completed.");
     }
-}
 
+    /**
+     * Copy of the distribution graph that samples are drawn from by a single thread.
+     */
+    private static class Worker {
+        final Distribution distribution;
+        final Distribution[] distributions;
+        /** state nodes in the copy in the same order as those in the original graph **/
+        final StateNode[] stateNodes;
+
+        Worker(Distribution original, String[] stateNodeIDs) {
+            distribution = (Distribution) copyGraph(original);
+            distributions = collectDistributions(distribution);
+            final Map<String, StateNode> copies = collectStateNodes(distribution);
+            stateNodes = new StateNode[stateNodeIDs.length];
+            for (int i = 0; i < stateNodes.length; i++) {
+                stateNodes[i] = copies.get(stateNodeIDs[i]);
+                if (stateNodes[i] == null) {
+                    throw new IllegalArgumentException("Could not find state node " + stateNodeIDs[i] + " in copy of distribution");
+                }
+            }
+        }
+
+        /**
+         * @return copies of the sampled state nodes for each of the count samples
+         */
+        List<StateNode[]> sample(long seed, int count) {
+            final Random random = new Random(seed);
+            final List<StateNode[]> samples = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                clearSampledFlags(distributions);
+                distribution.sample(null, random);
+                final StateNode[] sample = new StateNode[stateNodes.length];
+                for (int j = 0; j < sample.length; j++) {
+                    sample[j] = stateNodes[j].copy();
+                }
+                samples.add(sample);
+            }
+            return samples;
+        }
+    }
+
+    /**
+     * Copies the graph of obj by creating a new object of the same class for every
+     * object in the graph, setting the same input values with references to other
+     * objects in the graph replaced by their copies, and initialising the copies
+     * in post-order, like the XMLParser would for the XML of the graph.
+     */
+    static BEASTInterface copyGraph(BEASTInterface obj) {
+        return copyGraph(obj, new IdentityHashMap<>());
+    }
+
+    private static BEASTInterface copyGraph(BEASTInterface obj, Map<BEASTInterface, BEASTInterface> copies) {
+        BEASTInterface copy = copies.get(obj);
+        if (copy != null) {
+            return copy;
+        }
+        try {
+            copy = obj.getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Could not copy " + obj.getID() + ": " + e.getMessage(), e);
+        }
+        copy.setID(obj.getID());
+        for (Input<?> input : obj.listInputs()) {
+            final Object value = input.get();
+            if (value == null) {
+                continue;
+            }
+            final Input<?> copyInput = copy.getInput(input.getName());
+            if (value instanceof List) {
+                for (Object o : (List<?>) value) {
+                    copyInput.setValue(o instanceof BEASTInterface ? copyGraph((BEASTInterface) o, copies) : o, copy);
+                }
+            } else if (value instanceof BEASTInterface) {
+                copyInput.setValue(copyGraph((BEASTInterface) value, copies), copy);
+            } else {
+                copyInput.setValue(value, copy);
+            }
+        }
+        copy.initAndValidate();
+        copies.put(obj, copy);
+        return copy;
+    }
+
+    /**
+     * Sample in chunks on threadCount copies of the distribution. At most
+     * threadCount chunks of samples are kept in memory at any time.
+     */
+    private void runParallel() {
+        final Map<String, StateNode> stateNodeMap = collectStateNodes(distribution);
+        final String[] stateNodeIDs = stateNodeMap.keySet().toArray(new String[0]);
+        final StateNode[] stateNodes = stateNodeMap.values().toArray(new StateNode[0]);
+
+        final Worker[] workers = new Worker[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            workers[i] = new Worker(distribution, stateNodeIDs);
+        }
+
+        final ExecutorService exec = Executors.newFixedThreadPool(threadCount);
+        try {
+            int sampleNr = 0;
+            while (sampleNr < nSamples) {
+                final List<Callable<List<StateNode[]>>> tasks = new ArrayList<>();
+                for (int i = 0; i < threadCount && sampleNr + i * chunkSize < nSamples; i++) {
+                    final int count = Math.min(chunkSize, nSamples - sampleNr - i * chunkSize);
+                    final long seed = random.nextLong();
+                    final Worker worker = workers[i];
+                    tasks.add(() -> worker.sample(seed, count));
+                }
+                for (Future<List<StateNode[]>> future : exec.invokeAll(tasks)) {
+                    for (StateNode[] sample : future.get()) {
+                        for (int j = 0; j < stateNodes.length; j++) {
+                            stateNodes[j].assignFromWithoutID(sample[j]);
+                        }
+                        for (Logger logger : loggers) {
+                            logger.log(sampleNr);
+                        }
+                        sampleNr++;
+                    }
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Direct simulation failed: " + e.getMessage(), e);
+        } finally {
+            exec.shutdown();
+        }
+    }
+}
@@ -117,6 +117,12 @@ public class Logger extends BEASTObject {
     long startLogTime = -5;
     long startSample;
 
+    /**
+     * buffer and stream that loggables write to, reused between calls to log *
+     */
+    private LogBuffer logBuffer;
+    private PrintStream logStream;
+
     @Override
     public void initAndValidate() {
 
@@ -651,8 +657,12 @@ public class Logger extends BEASTObject {
             sampleNr += sampleOffset;
         }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        PrintStream out = new PrintStream(baos);
+        if (logBuffer == null) {
+            logBuffer = new LogBuffer();
+            logStream = new PrintStream(logBuffer);
+        }
+        logBuffer.reset();
+        PrintStream out = logStream;
 
         if (mode == LOGMODE.compound) {
             out.print((sampleNr) + "\t");
@@ -661,17 +671,17 @@ public class Logger extends BEASTObject {
         for (final Loggable m_logger : loggerList) {
             m_logger.log(sampleNr, out);
         }
-
-        // Acquire log string and trim excess tab
-        String logContent;
-        try {
-            logContent = baos.toString("ASCII").trim();
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("ASCII string encoding not supported: required for logging!");
-        }
+        out.flush();
 
         // Include calculation speed estimate if this log is going to the terminal
         if ( m_out == System.out ) {
+            // Acquire log string and trim excess tab
+            String logContent;
+            try {
+                logContent = logBuffer.toString("ASCII").trim();
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException("ASCII string encoding not supported: required for logging!");
+            }
             logContent = prettifyLogLine(logContent);
             m_out.print(logContent);
 
@@ -697,10 +707,29 @@ public class Logger extends BEASTObject {
             m_out.println();
 
         } else {
-            m_out.println(logContent);
+            // write bytes straight from the buffer, trimming excess tab, so
+            // large lines (e.g. trees) are not copied into a String first
+            final byte[] bytes = logBuffer.buffer();
+            int start = 0;
+            int end = logBuffer.size();
+            while (start < end && (bytes[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (bytes[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+            m_out.write(bytes, start, end - start);
+            m_out.println();
         }
     } // log
 
+    /** byte buffer that gives access to its content without copying **/
+    static class LogBuffer extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
 
     private String prettifyLogLine(String logContent) {
         final String[] strs = logContent.split("\t");
@@ -101,6 +101,10 @@ public class MCMC extends Runnable {
     final public Input<Boolean> sampleFromPriorInput = new Input<>("sampleFromPrior", "whether to ignore the likelihood when sampling (default false). " +
             "The distribution with id 'likelihood' in the posterior input will be ignored when this flag is set.", false);
 
+    final public Input<Distribution> screenInput = new Input<>("screen", "cheap distribution, such as the prior, used for delayed acceptance. " +
+            "Proposals are first accepted or rejected based on this distribution, and only proposals that pass " +
+            "are evaluated against the full distribution, with a correction in the acceptance ratio (default none)");
+
     final public Input<OperatorSchedule> operatorScheduleInput = new Input<>("operatorschedule", "specify operator selection and optimisation schedule", new OperatorSchedule(), Validate.REQUIRED);
 
     /**
@@ -281,6 +285,13 @@ public class MCMC extends Runnable {
 
     protected List<Logger> loggers;
 
+    /** distribution used for screening proposals in delayed acceptance, or null **/
+    protected Distribution screen;
+    protected double oldScreenLogP;
+    protected double newScreenLogP;
+    /** whether the screen is one of the distributions of the posterior, so its log density can be reused **/
+    protected boolean screenInPosterior;
+
     @Override
     public void run() throws IOException, SAXException, ParserConfigurationException {
         // set up state (again). Other beastObjects may have manipulated the
@@ -310,6 +321,17 @@ public class MCMC extends Runnable {
                 initialisationAttempts += 1;
             } while (Double.isInfinite(oldLogLikelihood) && initialisationAttempts < numInitializationAttempts.get());
         }
+        screen = screenInput.get();
+        screenInPosterior = screen != null && posterior instanceof CompoundDistribution &&
+                ((CompoundDistribution) posterior).pDistributions.get().contains(screen);
+        if (screen != null) {
+            // calculate the posterior last, so that all its calculation nodes are up to date
+            oldScreenLogP = state.robustlyCalcPosterior(screen);
+            oldLogLikelihood = state.robustlyCalcPosterior(posterior);
+            if (Double.isInfinite(oldScreenLogP) || Double.isNaN(oldScreenLogP)) {
+                throw new RuntimeException("Start state has zero probability for screen " + screen.getID() + " used for delayed acceptance.");
+            }
+        }
         final long startTime = System.currentTimeMillis();
 
         state.storeCalculationNodes();
@@ -468,7 +490,10 @@ public class MCMC extends Runnable {
                             operatorSchedule.storeToFile();
                             System.exit(1);
                         }
-                        oldLogLikelihood = state.robustlyCalcPosterior(posterior);;
+                        if (screen != null) {
+                            oldScreenLogP = state.robustlyCalcPosterior(screen);
+                        }
+                        oldLogLikelihood = state.robustlyCalcPosterior(posterior);
                     }
                 } else {
                     if (isTooDifferent(logLikelihood, originalLogP)) {
@@ -563,31 +588,73 @@ public class MCMC extends Runnable {
                 state.checkCalculationNodesDirtiness();
             }
 
-            newLogLikelihood = posterior.calculateLogP();
-
-            logAlpha = newLogLikelihood - oldLogLikelihood + logHastingsRatio; //CHECK HASTINGS
-            if (printDebugInfo) System.err.print(logAlpha + " " + newLogLikelihood + " " + oldLogLikelihood);
-
-            if (logAlpha >= 0 || Randomizer.nextDouble() < Math.exp(logAlpha)) {
-                // accept
-                oldLogLikelihood = newLogLikelihood;
-                state.acceptCalculationNodes();
+            // first stage of delayed acceptance: accept or reject based on the screen only.
+            // Gibbs proposals are always accepted, so need not be screened.
+            double logAlphaScreen = 0;
+            final boolean isScreened = screen != null && logHastingsRatio != Double.POSITIVE_INFINITY;
+            if (screen != null) {
+                newScreenLogP = screen.calculateLogP();
+                logAlphaScreen = newScreenLogP - oldScreenLogP + logHastingsRatio;
+                if (printDebugInfo) System.err.print(logAlphaScreen + " " + newScreenLogP + " " + oldScreenLogP + " ");
+            }
 
+            if (isScreened && !(logAlphaScreen >= 0 || Randomizer.nextDouble() < Math.exp(logAlphaScreen))) {
+                // screened out: reject without calculating the posterior
+                logAlpha = logAlphaScreen;
                 if (sampleNr >= 0) {
-                    operator.accept();
-                }
-                if (printDebugInfo) System.err.print(" accept");
-            } else {
-                // reject
-                if (sampleNr >= 0) {
-                    operator.reject(newLogLikelihood == Double.NEGATIVE_INFINITY ? -1 : 0);
+                    operator.reject(newScreenLogP == Double.NEGATIVE_INFINITY ? -1 : 1);
                 }
                 state.restore();
                 state.restoreCalculationNodes();
-                if (printDebugInfo) System.err.print(" reject");
+                if (printDebugInfo) System.err.print(" screened out");
                 if (debugFlag) {
                     validateReject(operator);
                 }
+            } else {
+                if (screenInPosterior) {
+                    // the screen is up to date, so need not be calculated again
+                    newLogLikelihood = ((CompoundDistribution) posterior).calculateLogP(screen);
+                } else {
+                    newLogLikelihood = posterior.calculateLogP();
+                }
+
+                if (isScreened) {
+                    // second stage: the Hastings ratio is accounted for by the screen, and the
+                    // ratio of the screen is divided out so that the chain samples from the posterior
+                    logAlpha = newLogLikelihood - oldLogLikelihood - (newScreenLogP - oldScreenLogP);
+                } else {
+                    logAlpha = newLogLikelihood - oldLogLikelihood + logHastingsRatio; //CHECK HASTINGS
+                }
+                if (printDebugInfo) System.err.print(logAlpha + " " + newLogLikelihood + " " + oldLogLikelihood);
+
+                final boolean accept = logAlpha >= 0 || Randomizer.nextDouble() < Math.exp(logAlpha);
+                if (isScreened) {
+                    // operators are optimised for the probability of passing both stages
+                    logAlpha = Math.min(logAlpha, 0) + Math.min(logAlphaScreen, 0);
+                }
+
+                if (accept) {
+                    // accept
+                    oldLogLikelihood = newLogLikelihood;
+                    oldScreenLogP = newScreenLogP;
+                    state.acceptCalculationNodes();
+
+                    if (sampleNr >= 0) {
+                        operator.accept();
+                    }
+                    if (printDebugInfo) System.err.print(" accept");
+                } else {
+                    // reject
+                    if (sampleNr >= 0) {
+                        operator.reject(newLogLikelihood == Double.NEGATIVE_INFINITY ? -1 : 0);
+                    }
+                    state.restore();
+                    state.restoreCalculationNodes();
+                    if (printDebugInfo) System.err.print(" reject");
+                    if (debugFlag) {
+                        validateReject(operator);
+                    }
+                }
             }
             state.setEverythingDirty(false);
         } else {
@@ -132,6 +132,8 @@ public abstract class Operator extends BEASTObject {
     protected int m_nNrRejectedInvalid = 0;
     // rejected because operator failed (sub-group of above)
     protected int m_nNrRejectedOperator = 0;
+    // rejected by the screen of delayed acceptance, without evaluating the full posterior
+    protected int m_nNrRejectedScreened = 0;
 
     public void accept() {
         m_nNrAccepted++;
@@ -144,9 +146,12 @@ public abstract class Operator extends BEASTObject {
         reject(0); // silly hack
     }
 
-    // 0 like finite  -1 like -inf -2 operator failed
+    // 0 like finite  -1 like -inf -2 operator failed  1 screened out by delayed acceptance
     public void reject(final int reason) {
         m_nNrRejected++;
+        if (reason == 1) {
+            ++m_nNrRejectedScreened;
+        }
         if (reason < 0) {
             ++m_nNrRejectedInvalid;
             if (reason == -2) {
@@ -279,6 +284,7 @@ public abstract class Operator extends BEASTObject {
 	        json.key("rejectFC").value(m_nNrRejectedForCorrection);
 	        json.key("rejectIv").value(m_nNrRejectedInvalid);
 	        json.key("rejectOp").value(m_nNrRejectedOperator);
+	        json.key("rejectSc").value(m_nNrRejectedScreened);
 	        json.endObject();
 	        out.print(json.toString());
     	} catch (JSONException e) {
@@ -304,6 +310,7 @@ public abstract class Operator extends BEASTObject {
 	
 	        m_nNrRejectedInvalid = o.has("rejectIv") ? o.getInt("rejectIv") : 0;
 	        m_nNrRejectedOperator = o.has("rejectOp") ? o.getInt("rejectOp") : 0;
+	        m_nNrRejectedScreened = o.has("rejectSc") ? o.getInt("rejectSc") : 0;
     	} catch (JSONException e) {
     		// failed to restore from state file
     		// report and continue
@@ -336,6 +343,14 @@ public abstract class Operator extends BEASTObject {
     public int get_m_nNrRejectedForCorrection(){
     	return m_nNrRejectedForCorrection;
     }
+
+    /**
+     * @return number of proposals rejected by the screen of delayed acceptance MCMC,
+     * which is included in the number of rejected proposals
+     */
+    public int getNrRejectedScreened() {
+    	return m_nNrRejectedScreened;
+    }
     
     // Added for coupled MCMC
     public void setAcceptedRejected(int m_nNrAccepted, int m_nNrRejected, int m_nNrAcceptedForCorrection, int m_nNrRejectedForCorrection){
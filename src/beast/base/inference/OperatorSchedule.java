@@ -211,6 +211,7 @@ public class OperatorSchedule extends BEASTObject {
     private static final String NUM_REJECT = "#reject";
     private static final String PR_M = "Pr(m)";
     private static final String PR_ACCEPT = "Pr(acc|m)";
+    private static final String PR_SCREENED = "Pr(scr|m)";
 
     /**
      * report operator statistics *
@@ -241,10 +242,18 @@ public class OperatorSchedule extends BEASTObject {
         }
         formatter.format(headerFormat, PR_M);
         formatter.format(headerFormat, PR_ACCEPT);
+        // only report screening when delayed acceptance was used
+        boolean screened = false;
+        for (final Operator operator : operators) {
+            screened |= operator.m_nNrRejectedScreened > 0;
+        }
+        if (screened) {
+            formatter.format(headerFormat, PR_SCREENED);
+        }
         out.println();
         int i = 0;
         for (final Operator operator : operators) {
-            out.println(prettyPrintOperator(operator, longestName, colWidth, 5, normalizedWeights[i], detailedRejection));
+            out.println(prettyPrintOperator(operator, longestName, colWidth, 5, normalizedWeights[i], detailedRejection, screened));
             i += 1;
         }
         out.println();
@@ -259,6 +268,11 @@ public class OperatorSchedule extends BEASTObject {
         out.println(": The probability this operator is chosen in a step of the MCMC (i.e. the normalized weight).");
         formatter.format(headerFormat, PR_ACCEPT);
         out.println(": The acceptance probability (" + NUM_ACCEPT + " as a fraction of the total proposals for this operator).");
+        if (screened) {
+            formatter.format(headerFormat, PR_SCREENED);
+            out.println(": The fraction of the total proposals for this operator rejected by the screen of delayed acceptance, " +
+                    "without evaluating the full distribution.");
+        }
         out.println();
         
         // closing the formatter somehow closes PrintStream out, so better not close this here
@@ -273,6 +287,18 @@ public class OperatorSchedule extends BEASTObject {
             // weight of this operator (p(m))
             double normalizedWeight,
             boolean detailedRejection) {
+        return prettyPrintOperator(op, nameColWidth, colWidth, dp, normalizedWeight, detailedRejection, false);
+    }
+
+    protected static String prettyPrintOperator(
+            Operator op,
+            int nameColWidth,
+            int colWidth,
+            int dp,
+            // weight of this operator (p(m))
+            double normalizedWeight,
+            boolean detailedRejection,
+            boolean screened) {
 
         double tuning = op.getCoercableParameterValue();
         double accRate = (double) op.m_nNrAccepted / (double) (op.m_nNrAccepted + op.m_nNrRejected);
@@ -298,6 +324,9 @@ public class OperatorSchedule extends BEASTObject {
         }
         formatter.format(doubleFormat, normalizedWeight);
         formatter.format(doubleFormat, accRate);
+        if (screened) {
+            formatter.format(doubleFormat, (double) op.m_nNrRejectedScreened / (double) (op.m_nNrAccepted + op.m_nNrRejected));
+        }
 
         sb.append(" " + op.getPerformanceSuggestion());
 
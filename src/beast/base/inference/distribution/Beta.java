@@ -51,6 +51,16 @@ public class Beta extends ParametricDistribution {
         return m_dist;
     }
 
+    @Override
+    public double derivativeLogDensity(final double x) {
+        refresh();
+        final double v = x - getOffset();
+        if (v <= 0 || v >= 1) {
+            return 0.0;
+        }
+        return (m_dist.getAlpha() - 1) / v - (m_dist.getBeta() - 1) / (1 - v);
+    }
+
     @Override
     protected double getMeanWithoutOffset() {
     	return m_dist.getAlpha() / (m_dist.getAlpha() + m_dist.getBeta());
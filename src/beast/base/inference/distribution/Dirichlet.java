@@ -1,5 +1,7 @@
 package beast.base.inference.distribution;
 
+import java.util.Random;
+
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.ContinuousDistribution;
 import org.apache.commons.math.distribution.Distribution;
@@ -100,4 +102,47 @@ public class Dirichlet extends ParametricDistribution {
 		}
 		return samples;
 	}
+
+	@Override
+	public Double[][] sample(int size, Random random) {
+		int dim = alphaInput.get().getDimension();
+		Double[][] samples = new Double[size][];
+		for (int i = 0; i < size; i++) {
+			Double[] dirichletSample = new Double[dim];
+			double sum = 0.0;
+			for (int j = 0; j < dim; j++) {
+				dirichletSample[j] = nextGamma(random, alphaInput.get().getValue(j));
+				sum += dirichletSample[j];
+			}
+			for (int j = 0; j < dim; j++) {
+				dirichletSample[j] = dirichletSample[j] / sum;
+			}
+			samples[i] = dirichletSample;
+		}
+		return samples;
+	}
+
+	/**
+	 * Draw from a gamma distribution with the given shape and scale 1 by the method of
+	 * Marsaglia and Tsang (2000), boosting shapes below 1 as shape + 1.
+	 */
+	private static double nextGamma(Random random, double shape) {
+		if (shape < 1.0) {
+			return nextGamma(random, shape + 1.0) * Math.pow(random.nextDouble(), 1.0 / shape);
+		}
+		final double d = shape - 1.0 / 3.0;
+		final double c = 1.0 / Math.sqrt(9.0 * d);
+		while (true) {
+			final double x = random.nextGaussian();
+			double v = 1.0 + c * x;
+			if (v <= 0.0) {
+				continue;
+			}
+			v = v * v * v;
+			final double u = random.nextDouble();
+			if (u < 1.0 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1.0 - v + Math.log(v))) {
+				return d * v;
+			}
+		}
+	}
 }
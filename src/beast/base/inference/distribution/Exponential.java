@@ -5,6 +5,7 @@ import org.apache.commons.math.distribution.ContinuousDistribution;
 import org.apache.commons.math.distribution.ExponentialDistributionImpl;
 
 import beast.base.core.Description;
+import beast.base.core.Function;
 import beast.base.core.Input;
 import beast.base.core.Log;
 import beast.base.inference.parameter.RealParameter;
@@ -62,6 +63,26 @@ public class Exponential extends ParametricDistribution {
         return m_dist;
     }
     
+    @Override
+    public void calcLogDensities(final Function x, final int[] indices, final int count, final double[] logDensities) {
+        refresh();
+        final double mean = m_dist.getMean();
+        final double logMean = Math.log(mean);
+        final double offset = getOffset();
+        final int n = indices == null ? x.getDimension() : count;
+        for (int k = 0; k < n; k++) {
+            final int i = indices == null ? k : indices[k];
+            final double v = x.getArrayValue(i) - offset;
+            logDensities[i] = v < 0 ? Double.NEGATIVE_INFINITY : (-v / mean) - logMean;
+        }
+    }
+
+    @Override
+    public double derivativeLogDensity(final double x) {
+        refresh();
+        return x - getOffset() < 0 ? 0.0 : -1.0 / m_dist.getMean();
+    }
+
     @Override
     protected double getMeanWithoutOffset() {
     	return m_dist.getMean();
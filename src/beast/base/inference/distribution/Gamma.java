@@ -5,6 +5,7 @@ import org.apache.commons.math.distribution.ContinuousDistribution;
 import org.apache.commons.math.distribution.GammaDistributionImpl;
 
 import beast.base.core.Description;
+import beast.base.core.Function;
 import beast.base.core.Input;
 import beast.base.inference.parameter.RealParameter;
 
@@ -78,6 +79,37 @@ public class Gamma extends ParametricDistribution {
         return m_dist;
     }
 
+    @Override
+    public void calcLogDensities(final Function x, final int[] indices, final int count, final double[] logDensities) {
+        refresh();
+        final double alpha = m_dist.getAlpha();
+        final double beta = m_dist.getBeta();
+        // log density in closed form, rather than the log of the density
+        final double logNormalisation = Math.log(beta) + org.apache.commons.math.special.Gamma.logGamma(alpha);
+        final double logDensityAtZero = alpha < 1 ? Double.POSITIVE_INFINITY : (alpha == 1 ? -Math.log(beta) : Double.NEGATIVE_INFINITY);
+        final double offset = getOffset();
+        final int n = indices == null ? x.getDimension() : count;
+        for (int k = 0; k < n; k++) {
+            final int i = indices == null ? k : indices[k];
+            final double v = x.getArrayValue(i) - offset;
+            if (v > 0) {
+                logDensities[i] = (alpha - 1) * Math.log(v / beta) - v / beta - logNormalisation;
+            } else {
+                logDensities[i] = v < 0 ? Double.NEGATIVE_INFINITY : logDensityAtZero;
+            }
+        }
+    }
+
+    @Override
+    public double derivativeLogDensity(final double x) {
+        refresh();
+        final double v = x - getOffset();
+        if (v <= 0) {
+            return 0.0;
+        }
+        return (m_dist.getAlpha() - 1) / v - 1.0 / m_dist.getBeta();
+    }
+
     @Override
     protected double getMeanWithoutOffset() {
     	refresh();
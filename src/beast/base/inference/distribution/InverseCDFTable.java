@@ -0,0 +1,154 @@
+package beast.base.inference.distribution;
+
+
+import org.apache.commons.math.MathException;
+
+/**
+ * Piecewise linear approximation of the inverse cumulative distribution
+ * function (quantile function) of a ParametricDistribution, for when it is
+ * evaluated many times for the same distribution, as for the quantile
+ * parameterisation of UCRelaxedClockModel.
+ *
+ * The table is built by adaptive bisection: an interval is split in two
+ * halves that become intervals of the table, unless the exact value at
+ * the midpoint of either half differs from the linear interpolation over
+ * that half by more than half the relative tolerance. Since the
+ * interpolation error of a smooth function is largest near the middle
+ * of an interval, the margin of a factor two covers the error elsewhere
+ * in the interval, including where the curvature of the inverse CDF
+ * changes within it. Quantiles in the tails, outside
+ * [TAIL, 1 - TAIL], where the inverse CDF may go to infinity, are always
+ * calculated exactly.
+ * Lookups are O(1) on average by using a uniform grid of buckets pointing
+ * into the (non-uniform) knots.
+ */
+public class InverseCDFTable {
+    /** probability mass in each tail that is not covered by the table **/
+    public final static double TAIL = 1e-3;
+
+    /** initial number of intervals before adaptive refinement **/
+    final static int INITIAL_INTERVALS = 16;
+
+    /** intervals are not split any further below this width **/
+    final static double MIN_WIDTH = 1e-10;
+
+    private final double tolerance;
+
+    private ParametricDistribution distribution;
+
+    /** knots: quantiles and matching values of the inverse CDF **/
+    private double[] p = new double[64];
+    private double[] x = new double[64];
+    private int knotCount;
+
+    /** bucket j contains index of the last knot with p <= TAIL + j * bucketWidth **/
+    private int[] buckets;
+    private double bucketScale;
+
+    /**
+     * @param tolerance relative error of the approximation, should be positive
+     */
+    public InverseCDFTable(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("tolerance should be positive, not " + tolerance);
+        }
+        this.tolerance = tolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /** @return number of points the inverse CDF is evaluated at in the table **/
+    public int getKnotCount() {
+        return knotCount;
+    }
+
+    /**
+     * (Re)build the table for the distribution with its current parameter values.
+     */
+    public void build(ParametricDistribution distribution) throws MathException {
+        this.distribution = distribution;
+        knotCount = 0;
+        final double width = (1.0 - 2 * TAIL) / INITIAL_INTERVALS;
+        double p0 = TAIL;
+        double x0 = distribution.inverseCumulativeProbability(p0);
+        addKnot(p0, x0);
+        for (int i = 1; i <= INITIAL_INTERVALS; i++) {
+            final double p1 = i < INITIAL_INTERVALS ? TAIL + i * width : 1.0 - TAIL;
+            final double x1 = distribution.inverseCumulativeProbability(p1);
+            refine(p0, x0, p1, x1, distribution.inverseCumulativeProbability((p0 + p1) / 2));
+            p0 = p1;
+            x0 = x1;
+        }
+        buildBuckets();
+    }
+
+    /**
+     * Add knots for the interval (p0, p1], with value xm at its midpoint,
+     * bisecting while the interpolation error at the midpoint of either
+     * half exceeds half the tolerance. The knot at p0 has already been added.
+     */
+    private void refine(double p0, double x0, double p1, double x1, double xm) throws MathException {
+        final double pm = (p0 + p1) / 2;
+        final double x01 = distribution.inverseCumulativeProbability((p0 + pm) / 2);
+        final double x11 = distribution.inverseCumulativeProbability((pm + p1) / 2);
+        if ((isAccurate(x01, (x0 + xm) / 2) && isAccurate(x11, (xm + x1) / 2)) || p1 - p0 < MIN_WIDTH) {
+            addKnot(pm, xm);
+            addKnot(p1, x1);
+        } else {
+            refine(p0, x0, pm, xm, x01);
+            refine(pm, xm, p1, x1, x11);
+        }
+    }
+
+    private boolean isAccurate(double exact, double interpolated) {
+        return Math.abs(exact - interpolated) <= tolerance / 2 * Math.abs(exact);
+    }
+
+    private void addKnot(double p0, double x0) {
+        if (knotCount == p.length) {
+            final double[] newP = new double[p.length * 2];
+            final double[] newX = new double[x.length * 2];
+            System.arraycopy(p, 0, newP, 0, knotCount);
+            System.arraycopy(x, 0, newX, 0, knotCount);
+            p = newP;
+            x = newX;
+        }
+        p[knotCount] = p0;
+        x[knotCount] = x0;
+        knotCount++;
+    }
+
+    private void buildBuckets() {
+        final int bucketCount = Math.max(knotCount, INITIAL_INTERVALS);
+        bucketScale = bucketCount / (1.0 - 2 * TAIL);
+        if (buckets == null || buckets.length != bucketCount + 1) {
+            buckets = new int[bucketCount + 1];
+        }
+        int k = 0;
+        for (int j = 0; j <= bucketCount; j++) {
+            final double bucketStart = TAIL + j / bucketScale;
+            while (k < knotCount - 2 && p[k + 1] <= bucketStart) {
+                k++;
+            }
+            buckets[j] = k;
+        }
+    }
+
+    /**
+     * @param quantile probability in [0, 1]
+     * @return approximate inverse cumulative probability
+     */
+    public double inverseCumulativeProbability(double quantile) throws MathException {
+        if (quantile < TAIL || quantile > 1.0 - TAIL) {
+            return distribution.inverseCumulativeProbability(quantile);
+        }
+        int k = buckets[(int) ((quantile - TAIL) * bucketScale)];
+        while (p[k + 1] < quantile) {
+            k++;
+        }
+        return x[k] + (x[k + 1] - x[k]) * (quantile - p[k]) / (p[k + 1] - p[k]);
+    }
+
+}
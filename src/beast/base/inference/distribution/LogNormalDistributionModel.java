@@ -6,6 +6,7 @@ import org.apache.commons.math.distribution.Distribution;
 import org.apache.commons.math.distribution.NormalDistributionImpl;
 
 import beast.base.core.Description;
+import beast.base.core.Function;
 import beast.base.core.Input;
 import beast.base.inference.parameter.RealParameter;
 
@@ -74,6 +75,39 @@ public class LogNormalDistributionModel extends ParametricDistribution {
         return dist;
     }
 
+    @Override
+    public void calcLogDensities(final Function x, final int[] indices, final int count, final double[] logDensities) {
+        refresh();
+        // same expression as LogNormalImpl.logDensity, with terms not depending on x calculated once
+        final double logA = Math.log(1.0 / (Math.sqrt(2.0 * Math.PI) * dist.m_fStdDev));
+        final double c = 2.0 * dist.m_fStdDev * dist.m_fStdDev;
+        final double mean = dist.m_fMean;
+        final double offset = getOffset();
+        final int n = indices == null ? x.getDimension() : count;
+        for (int k = 0; k < n; k++) {
+            final int i = indices == null ? k : indices[k];
+            final double v = x.getArrayValue(i) - offset;
+            if (v <= 0) {
+                logDensities[i] = Double.NEGATIVE_INFINITY;
+            } else {
+                final double logV = Math.log(v);
+                final double d = logV - mean;
+                logDensities[i] = (logA + -d * d / c) - logV;
+            }
+        }
+    }
+
+    @Override
+    public double derivativeLogDensity(final double x) {
+        refresh();
+        final double v = x - getOffset();
+        if (v <= 0) {
+            return 0.0;
+        }
+        final double sigma = dist.m_fStdDev;
+        return -(1.0 + (Math.log(v) - dist.m_fMean) / (sigma * sigma)) / v;
+    }
+
     public class LogNormalImpl implements ContinuousDistribution {
         double m_fMean;
         double m_fStdDev;
@@ -5,6 +5,7 @@ import org.apache.commons.math.distribution.ContinuousDistribution;
 import org.apache.commons.math.distribution.NormalDistributionImpl;
 
 import beast.base.core.Description;
+import beast.base.core.Function;
 import beast.base.core.Input;
 import beast.base.core.Input.Validate;
 import beast.base.inference.parameter.RealParameter;
@@ -57,6 +58,30 @@ public class Normal extends ParametricDistribution {
         return dist;
     }
 
+    @Override
+    public void calcLogDensities(final Function x, final int[] indices, final int count, final double[] logDensities) {
+        refresh();
+        final double mean = dist.getMean();
+        final double sigma = dist.getStandardDeviation();
+        // same expression as NormalDistributionImpl.logDensity, with terms not depending on x calculated once
+        final double logA = Math.log(1.0 / (Math.sqrt(2.0 * Math.PI) * sigma));
+        final double c = 2.0 * sigma * sigma;
+        final double offset = getOffset();
+        final int n = indices == null ? x.getDimension() : count;
+        for (int k = 0; k < n; k++) {
+            final int i = indices == null ? k : indices[k];
+            final double d = x.getArrayValue(i) - offset - mean;
+            logDensities[i] = logA + -d * d / c;
+        }
+    }
+
+    @Override
+    public double derivativeLogDensity(final double x) {
+        refresh();
+        final double sigma = dist.getStandardDeviation();
+        return -(x - getOffset() - dist.getMean()) / (sigma * sigma);
+    }
+
     @Override
     public double getMeanWithoutOffset() {
         if (meanInput.get() == null) {
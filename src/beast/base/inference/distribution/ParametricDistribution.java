@@ -25,6 +25,8 @@
 
 package beast.base.inference.distribution;
 
+import java.util.Random;
+
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.ContinuousDistribution;
 import org.apache.commons.math.distribution.IntegerDistribution;
@@ -67,6 +69,31 @@ public abstract class ParametricDistribution extends CalculationNode implements
         return logP;
     }
 
+    /**
+     * Calculate log densities of individual elements of x, and store the log density of
+     * element i in logDensities[i]. Only the elements listed in the first count entries of
+     * indices are calculated, or all elements of x if indices is null.
+     * Like calcLogP, this assumes the elements of x are independent. Summing logDensities
+     * in order gives the same result as calcLogP for univariate distributions.
+     * This implementation obtains the underlying distribution once for all elements.
+     * Distributions with a closed form for the log density can override this to avoid
+     * going through the underlying distribution altogether.
+     *
+     * @param x            values to calculate log densities for
+     * @param indices      indices of elements of x to calculate, or null for all elements
+     * @param count        number of entries of indices to use, ignored if indices is null
+     * @param logDensities array of at least x.getDimension() entries to store results in
+     */
+    public void calcLogDensities(final Function x, final int[] indices, final int count, final double[] logDensities) {
+        final double offset = getOffset();
+        final org.apache.commons.math.distribution.Distribution dist = getDistribution();
+        final int n = indices == null ? x.getDimension() : count;
+        for (int k = 0; k < n; k++) {
+            final int i = indices == null ? k : indices[k];
+            logDensities[i] = logDensity(dist, x.getArrayValue(i) - offset);
+        }
+    }
+
     /*
      * This implementation is only suitable for univariate distributions.
      * Must be overwritten for multivariate ones.
@@ -82,6 +109,35 @@ public abstract class ParametricDistribution extends CalculationNode implements
 
     }
 
+    /** whether sample(int) is overridden, as determined on first call of sample(int, Random) **/
+    private Boolean hasCustomSampler;
+
+    /**
+     * As sample(size), but drawing from random instead of Randomizer, so that samples
+     * drawn on different threads can be reproduced. Distributions that override
+     * sample(size) should override this method as well: otherwise they are sampled
+     * through sample(size), which draws from Randomizer, so that samples drawn by
+     * DirectSimulator with more than one thread depend on the timing of threads.
+     */
+    public Double[][] sample(final int size, final Random random) throws MathException {
+        if (hasCustomSampler == null) {
+            try {
+                hasCustomSampler = getClass().getMethod("sample", int.class).getDeclaringClass() != ParametricDistribution.class;
+            } catch (NoSuchMethodException e) {
+                hasCustomSampler = true;
+            }
+        }
+        if (hasCustomSampler) {
+            return sample(size);
+        }
+        final Double[][] sample = new Double[size][];
+        for (int i = 0; i < sample.length; i++) {
+            final double p = random.nextDouble();
+            sample[i] = new Double[]{inverseCumulativeProbability(p)};
+        }
+        return sample;
+    }
+
     /**
      * For this distribution, X, this method returns x such that P(X &lt; x) = p.
      *
@@ -129,16 +185,19 @@ public abstract class ParametricDistribution extends CalculationNode implements
     private double logDensity(double x, final double offset) {
    //     if( x >= offset ) {
             x -= offset;
-            final org.apache.commons.math.distribution.Distribution dist = getDistribution();
-            if (dist instanceof ContinuousDistribution) {
-                return ((ContinuousDistribution) dist).logDensity(x);
-            } else if (dist instanceof IntegerDistribution) {
-                final double probability = ((IntegerDistribution) dist).probability(x);
-                if( probability > 0 ) {
-                    return Math.log(probability);
-                }
-            }
+            return logDensity(getDistribution(), x);
   //      }
+    }
+
+    private static double logDensity(final org.apache.commons.math.distribution.Distribution dist, final double x) {
+        if (dist instanceof ContinuousDistribution) {
+            return ((ContinuousDistribution) dist).logDensity(x);
+        } else if (dist instanceof IntegerDistribution) {
+            final double probability = ((IntegerDistribution) dist).probability(x);
+            if( probability > 0 ) {
+                return Math.log(probability);
+            }
+        }
         return Double.NEGATIVE_INFINITY;
     }
 
@@ -148,6 +207,25 @@ public abstract class ParametricDistribution extends CalculationNode implements
         return logDensity(x, getOffset());
     }
 
+    /**
+     * Derivative of the log density at x with respect to x, taking offset in account.
+     * This implementation uses central differences of logDensity. Distributions with
+     * a closed form for the log density should override this.
+     * Only suitable for univariate continuous distributions.
+     *
+     * @param x The point at which the derivative should be computed.
+     * @return d log(pdf(x)) / dx
+     */
+    public double derivativeLogDensity(final double x) {
+        final double offset = getOffset();
+        final org.apache.commons.math.distribution.Distribution dist = getDistribution();
+        final double h = DERIVATIVE_DELTA * Math.max(1.0, Math.abs(x - offset));
+        return (logDensity(dist, x - offset + h) - logDensity(dist, x - offset - h)) / (2.0 * h);
+    }
+
+    /** relative step size used for numerical derivatives of the log density **/
+    final static double DERIVATIVE_DELTA = 1e-6;
+
     /**
      * For a random variable X whose values are distributed according
      * to this distribution, this method returns P(X &le; x).  In other words,
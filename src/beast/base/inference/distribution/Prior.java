@@ -15,13 +15,14 @@ import beast.base.core.Input;
 import beast.base.core.Input.Validate;
 import beast.base.inference.*;
 import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.Parameter;
 import beast.base.inference.parameter.RealParameter;
 
 
 @Description("Produces prior (log) probability of value x." +
         "If x is multidimensional, the components of x are assumed to be independent, " +
         "so the sum of log probabilities of all elements of x is returned as the prior.")
-public class Prior extends Distribution {
+public class Prior extends Distribution implements Differentiable {
     final public Input<Function> m_x = new Input<>("x", "point at which the density is calculated", Validate.REQUIRED);
     final public Input<ParametricDistribution> distInput = new Input<>("distr", "distribution used to calculate prior, e.g. normal, beta, gamma.", Validate.REQUIRED);
 
@@ -30,15 +31,55 @@ public class Prior extends Distribution {
      */
     protected ParametricDistribution dist;
 
+    /**
+     * Log densities of the elements of x, so that when only some elements of x change
+     * and the distribution does not, only the log densities of those elements need to
+     * be recalculated. Only used when the distribution treats elements independently.
+     */
+    protected double[] logDensities;
+    protected double[] storedLogDensities;
+    private boolean logDensitiesKnown = false;
+    private boolean storedLogDensitiesKnown = false;
+    /** indices of elements of x that changed **/
+    private int[] dirtyIndices;
+    /** whether the distribution calculates log densities element by element **/
+    private boolean elementwise;
+    /** set in requiresRecalculation if the dirty flags of x can be used in the next calculateLogP **/
+    private boolean incremental = false;
+
     @Override
     public void initAndValidate() {
         dist = distInput.get();
+        try {
+            elementwise = dist.getClass().getMethod("calcLogP", Function.class).getDeclaringClass() == ParametricDistribution.class;
+        } catch (NoSuchMethodException e) {
+            elementwise = false;
+        }
         calculateLogP();
     }
 
     @Override
     public double calculateLogP() {
         Function x = m_x.get();
+        final int dimension = x.getDimension();
+
+        // count < 0 means all elements need to be calculated
+        int count = -1;
+        if (incremental && logDensitiesKnown && logDensities.length == dimension) {
+            final Parameter.Base<?> p = (Parameter.Base<?>) x;
+            count = 0;
+            for (int i = 0; i < dimension; i++) {
+                if (p.isDirty(i)) {
+                    dirtyIndices[count++] = i;
+                }
+            }
+            if (count == 0) {
+                // changed without marking individual elements
+                count = -1;
+            }
+        }
+        incremental = false;
+
         if (x instanceof RealParameter || x instanceof IntegerParameter) {
             // test that parameter is inside its bounds
             double l = 0.0;
@@ -50,21 +91,92 @@ public class Prior extends Distribution {
                 l = ((IntegerParameter) x).getLower();
                 h = ((IntegerParameter) x).getUpper();
             }
-            for (int i = 0; i < x.getDimension(); i++) {
-                double value = x.getArrayValue(i);
+            final int n = count < 0 ? dimension : count;
+            for (int k = 0; k < n; k++) {
+                double value = x.getArrayValue(count < 0 ? k : dirtyIndices[k]);
                 if (value < l || value > h) {
                     logP = Double.NEGATIVE_INFINITY;
+                    logDensitiesKnown = false;
                     return Double.NEGATIVE_INFINITY;
                 }
             }
         }
-        logP = dist.calcLogP(x);
+
+        if (elementwise) {
+            if (logDensities == null || logDensities.length != dimension) {
+                logDensities = new double[dimension];
+                storedLogDensities = new double[dimension];
+                dirtyIndices = new int[dimension];
+                storedLogDensitiesKnown = false;
+            }
+            dist.calcLogDensities(x, count < 0 ? null : dirtyIndices, count, logDensities);
+            logDensitiesKnown = true;
+            // summing all is cheap compared to calculating densities, and gives the same result as calcLogP
+            logP = 0;
+            for (int i = 0; i < dimension; i++) {
+                logP += logDensities[i];
+            }
+        } else {
+            logP = dist.calcLogP(x);
+        }
         if (logP == Double.POSITIVE_INFINITY) {
             logP = Double.NEGATIVE_INFINITY;
         }
         return logP;
     }
 
+    @Override
+    protected boolean requiresRecalculation() {
+        // dirty flags of x are only reliable when called through the State, and
+        // can only be used when the distribution itself did not change
+        incremental = elementwise && m_x.get() instanceof Parameter.Base && !dist.isDirtyCalculation();
+        return super.requiresRecalculation();
+    }
+
+    @Override
+    public void store() {
+        if (logDensitiesKnown) {
+            System.arraycopy(logDensities, 0, storedLogDensities, 0, logDensities.length);
+        }
+        storedLogDensitiesKnown = logDensitiesKnown;
+        super.store();
+    }
+
+    @Override
+    public void restore() {
+        if (logDensities != null) {
+            double[] tmp = logDensities;
+            logDensities = storedLogDensities;
+            storedLogDensities = tmp;
+        }
+        logDensitiesKnown = storedLogDensitiesKnown;
+        incremental = false;
+        super.restore();
+    }
+
+    /**
+     * Gradients are available with respect to x for univariate continuous distributions
+     * that do not themselves depend on x.
+     */
+    @Override
+    public boolean canDifferentiate(final Function parameter) {
+        if (m_x.get() != parameter) {
+            return !Differentiable.dependsOn(this, parameter);
+        }
+        return elementwise && !dist.isIntegerDistribution() && !Differentiable.dependsOn(dist, parameter);
+    }
+
+    @Override
+    public void addGradient(final Function parameter, final double[] gradient, final int offset) {
+        final Function x = m_x.get();
+        if (x != parameter) {
+            return;
+        }
+        for (int i = 0; i < x.getDimension(); i++) {
+            gradient[offset + i] += dist.derivativeLogDensity(x.getArrayValue(i));
+        }
+    }
+
     /**
      * return name of the parameter this prior is applied to *
      */
@@ -91,14 +203,14 @@ public class Prior extends Distribution {
 
         Double[] newx;
         try {
-            newx = dist.sample(1)[0];
+            newx = dist.sample(1, random)[0];
 
             if (newx.length == x.getDimension()) {            	
 	            if (x instanceof RealParameter) {
 	            	RealParameter p = (RealParameter) x;
 	                for (int i = 0; i < newx.length; i++) {
 	                	while (p.getLower() > newx[i] || p.getUpper() < newx[i]) {
-	                		newx = dist.sample(1)[0];
+	                		newx = dist.sample(1, random)[0];
 	                	}
 	                    ((RealParameter) x).setValue(i, newx[i]);
 	                }
@@ -106,7 +218,7 @@ public class Prior extends Distribution {
 	                IntegerParameter p = (IntegerParameter) x;
 	                for (int i = 0; i < newx.length; i++) {
 	                	while (p.getLower() > newx[i] || p.getUpper() < newx[i]) {
-	                		newx = dist.sample(1)[0];
+	                		newx = dist.sample(1, random)[0];
 	                	}
 	                    p.setValue(i, (int)Math.round(newx[i]));
 	                }
@@ -117,18 +229,18 @@ public class Prior extends Distribution {
 		            if (x instanceof RealParameter) {
 		            	RealParameter p = (RealParameter) x;
 		            	while (p.getLower() > newx[0] || p.getUpper() < newx[0]) {
-		            		newx = dist.sample(1)[0];
+		            		newx = dist.sample(1, random)[0];
 		            	}
 		                p.setValue(k, newx[0]);
 		            } else if (x instanceof IntegerParameter) {
 		                IntegerParameter p = (IntegerParameter) x;
 		            	while (p.getLower() > newx[0] || p.getUpper() < newx[0]) {
-		            		newx = dist.sample(1)[0];
+		            		newx = dist.sample(1, random)[0];
 		            	}
 		                p.setValue(k, (int)Math.round(newx[0]));
 		            }
 		            if (k < x.getDimension()-1) {
-		            	newx = dist.sample(1)[0];
+		            	newx = dist.sample(1, random)[0];
 		            }
             	}
             }
@@ -112,6 +112,11 @@ public class Uniform extends ParametricDistribution {
         }
     }
     
+    @Override
+    public double derivativeLogDensity(final double x) {
+        return 0.0;
+    }
+
     @Override
     protected double getMeanWithoutOffset() {
     	if (Double.isInfinite(_lower) || Double.isInfinite(_upper)) {
@@ -0,0 +1,413 @@
+package beast.base.inference.operator.kernel;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import beast.base.core.Description;
+import beast.base.core.Function;
+import beast.base.core.Input;
+import beast.base.core.Input.Validate;
+import beast.base.inference.Differentiable;
+import beast.base.inference.Distribution;
+import beast.base.inference.Evaluator;
+import beast.base.inference.Operator;
+import beast.base.inference.StateNode;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+
+@Description("Hamiltonian Monte Carlo operator that moves all elements of one or more real parameters jointly " +
+        "along a trajectory guided by the gradient of the target distribution. Bounded parameters can be moved " +
+        "on an unbounded scale through (univariable) transformations. Gradients are calculated by the target " +
+        "distribution if it is Differentiable with respect to all parameters, and by finite differences otherwise. " +
+        "The step size is tuned during the run, and a diagonal mass matrix is estimated during adaptation.")
+public class HamiltonianMonteCarloOperator extends Operator {
+    final public Input<List<RealParameter>> parameterInput = new Input<>("parameter",
+            "parameter to be moved without transformation", new ArrayList<>());
+    final public Input<List<Transform>> transformationsInput = new Input<>("transformations",
+            "transformed parameters to be moved, e.g. LogTransform for parameters that are positive. " +
+            "Only univariable transformations are supported.", new ArrayList<>());
+    final public Input<Distribution> targetInput = new Input<>("target",
+            "distribution to sample from, usually the posterior", Validate.REQUIRED);
+    final public Input<Double> stepSizeInput = new Input<>("stepSize",
+            "initial size of leapfrog steps (this is tuned during the run if optimise=true)", 0.1);
+    final public Input<Integer> stepsInput = new Input<>("steps",
+            "number of leapfrog steps in a trajectory (default 10)", 10);
+    final public Input<Integer> adaptationInput = new Input<>("adaptation",
+            "number of proposals during which the mass matrix is estimated from the states visited, " +
+            "0 to keep the identity mass matrix (default 1000)", 1000);
+    final public Input<Double> deltaInput = new Input<>("delta",
+            "step size of finite differences on the transformed scale, only used when the target is not Differentiable", 1e-5);
+    final public Input<Boolean> optimiseInput = new Input<>("optimise",
+            "flag to indicate that the step size is automatically changed in order to achieve a good acceptance rate (default true)", true);
+
+    /** minimum number of proposals before the mass matrix is estimated **/
+    final static int MIN_ADAPTATION_COUNT = 32;
+
+    private Distribution target;
+    /** parameters moved, one per block of elements, and their transformation, or null if not transformed **/
+    private RealParameter[] parameters;
+    private Transform[] transforms;
+    private int dim;
+    /** whether gradients are calculated by the target, or by finite differences **/
+    private boolean analyticGradient;
+
+    private double stepSize;
+    private int steps;
+    private int adaptation;
+    private double delta;
+    private int proposalCount;
+
+    // buffers for the trajectory, allocated once
+    /** current position on the transformed scale **/
+    private double[] position;
+    private double[] momentum;
+    private double[] gradient;
+    /** untransformed values at the current position **/
+    private double[] values;
+    /** untransformed values at the start of the trajectory **/
+    private double[] initialValues;
+    /** diagonal of the inverse mass matrix, the estimated variances of the transformed parameters **/
+    private double[] inverseMass;
+    private double[] mean;
+    private double[] sumOfSquares;
+
+    @Override
+    public void initAndValidate() {
+        target = targetInput.get();
+        final List<RealParameter> parameterList = new ArrayList<>();
+        final List<Transform> transformList = new ArrayList<>();
+        for (RealParameter p : parameterInput.get()) {
+            parameterList.add(p);
+            transformList.add(null);
+        }
+        for (Transform t : transformationsInput.get()) {
+            if (!(t instanceof Transform.UnivariableTransform)) {
+                throw new IllegalArgumentException("Only univariable transformations are supported, not " + t.getClass().getSimpleName());
+            }
+            for (Function f : t.getF()) {
+                if (!(f instanceof RealParameter)) {
+                    throw new IllegalArgumentException("Transformed parameters should be RealParameters, not " + f.getClass().getSimpleName());
+                }
+                parameterList.add((RealParameter) f);
+                transformList.add(t);
+            }
+        }
+        if (parameterList.isEmpty()) {
+            throw new IllegalArgumentException("At least one parameter or transformation must be specified");
+        }
+        parameters = parameterList.toArray(new RealParameter[0]);
+        transforms = transformList.toArray(new Transform[0]);
+
+        dim = 0;
+        for (RealParameter p : parameters) {
+            dim += p.getDimension();
+        }
+
+        stepSize = stepSizeInput.get();
+        steps = stepsInput.get();
+        adaptation = adaptationInput.get();
+        delta = deltaInput.get();
+        if (stepSize <= 0 || steps < 1 || delta <= 0) {
+            throw new IllegalArgumentException("stepSize and delta should be positive and steps at least 1");
+        }
+
+        position = new double[dim];
+        momentum = new double[dim];
+        gradient = new double[dim];
+        values = new double[dim];
+        initialValues = new double[dim];
+        inverseMass = new double[dim];
+        mean = new double[dim];
+        sumOfSquares = new double[dim];
+        Arrays.fill(inverseMass, 1.0);
+
+        analyticGradient = canDifferentiate();
+    }
+
+    /**
+     * @return true if both the target and the transformations provide gradients
+     */
+    private boolean canDifferentiate() {
+        if (!(target instanceof Differentiable)) {
+            return false;
+        }
+        for (int b = 0; b < parameters.length; b++) {
+            if (!((Differentiable) target).canDifferentiate(parameters[b])) {
+                return false;
+            }
+            if (transforms[b] != null && !transforms[b].canUpdateGradientLogDensity()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finite differences require the target to be evaluated for different
+     * values of the parameters, which is done through an Evaluator.
+     */
+    @Override
+    public Distribution getEvaluatorDistribution() {
+        return analyticGradient ? null : target;
+    }
+
+    @Override
+    public double proposal() {
+        return proposal(null);
+    }
+
+    @Override
+    public double proposal(final Evaluator evaluator) {
+        if (!analyticGradient && evaluator == null) {
+            throw new IllegalStateException("HamiltonianMonteCarloOperator requires an evaluator to calculate " +
+                    "gradients by finite differences, since " + target.getID() + " is not Differentiable");
+        }
+
+        int k = 0;
+        for (int b = 0; b < parameters.length; b++) {
+            final RealParameter p = parameters[b];
+            for (int i = 0; i < p.getDimension(); i++) {
+                final double x = p.getArrayValue(i);
+                initialValues[k] = x;
+                values[k] = x;
+                position[k] = transforms[b] == null ? x : transforms[b].transform(x);
+                k++;
+            }
+        }
+        if (proposalCount < adaptation) {
+            updateMassMatrix();
+        }
+        proposalCount++;
+
+        final double logJacobian = getLogJacobian();
+        double kineticEnergy = 0;
+        for (int i = 0; i < dim; i++) {
+            momentum[i] = Randomizer.nextGaussian() / Math.sqrt(inverseMass[i]);
+            kineticEnergy += inverseMass[i] * momentum[i] * momentum[i];
+        }
+        kineticEnergy *= 0.5;
+
+        // leapfrog trajectory
+        boolean valid = calculateGradient(evaluator);
+        for (int l = 0; valid && l < steps; l++) {
+            for (int i = 0; i < dim; i++) {
+                momentum[i] += 0.5 * stepSize * gradient[i];
+                position[i] += stepSize * inverseMass[i] * momentum[i];
+            }
+            valid = updateValues() && calculateGradient(evaluator);
+            if (valid) {
+                for (int i = 0; i < dim; i++) {
+                    momentum[i] += 0.5 * stepSize * gradient[i];
+                }
+            }
+        }
+
+        if (!analyticGradient) {
+            // the evaluator leaves calculation nodes in the state of the last evaluation, so make
+            // sure they represent the initial state in case the proposal is rejected
+            resetEvaluations(evaluator, valid ? 1 : 2);
+        }
+        if (!valid) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        double newKineticEnergy = 0;
+        for (int i = 0; i < dim; i++) {
+            newKineticEnergy += inverseMass[i] * momentum[i] * momentum[i];
+        }
+        newKineticEnergy *= 0.5;
+
+        setValues(values);
+        return kineticEnergy - newKineticEnergy + logJacobian - getLogJacobian();
+    }
+
+    /**
+     * Calculate values from position, and assign them to the parameters.
+     *
+     * @return false if values are out of bounds, in which case parameters are not changed
+     */
+    private boolean updateValues() {
+        int k = 0;
+        for (int b = 0; b < parameters.length; b++) {
+            final RealParameter p = parameters[b];
+            final double lower = p.getLower();
+            final double upper = p.getUpper();
+            for (int i = 0; i < p.getDimension(); i++) {
+                final double x = transforms[b] == null ? position[k] : transforms[b].inverse(position[k]);
+                if (!(x >= lower && x <= upper)) {
+                    return false;
+                }
+                values[k++] = x;
+            }
+        }
+        setValues(values);
+        return true;
+    }
+
+    private void setValues(final double[] x) {
+        int k = 0;
+        for (RealParameter p : parameters) {
+            for (int i = 0; i < p.getDimension(); i++) {
+                p.setValue(i, x[k++]);
+            }
+        }
+    }
+
+    /**
+     * @return log of the Jacobian of the transformations at values
+     */
+    private double getLogJacobian() {
+        double logJacobian = 0;
+        int k = 0;
+        for (int b = 0; b < parameters.length; b++) {
+            final int n = parameters[b].getDimension();
+            if (transforms[b] != null) {
+                for (int i = 0; i < n; i++) {
+                    logJacobian += transforms[b].getLogJacobian(values[k + i]);
+                }
+            }
+            k += n;
+        }
+        return logJacobian;
+    }
+
+    /**
+     * Calculate the gradient of the log density of the target on the transformed scale at position.
+     * Assumes values are up to date with position.
+     *
+     * @return false if the gradient is not finite
+     */
+    private boolean calculateGradient(final Evaluator evaluator) {
+        if (analyticGradient) {
+            Arrays.fill(gradient, 0.0);
+            int offset = 0;
+            for (RealParameter p : parameters) {
+                ((Differentiable) target).addGradient(p, gradient, offset);
+                offset += p.getDimension();
+            }
+            int k = 0;
+            for (int b = 0; b < parameters.length; b++) {
+                final int n = parameters[b].getDimension();
+                if (transforms[b] != null) {
+                    for (int i = 0; i < n; i++) {
+                        gradient[k + i] = transforms[b].updateGradientLogDensity(gradient[k + i], values[k + i]);
+                    }
+                }
+                k += n;
+            }
+        } else {
+            for (int i = 0; i < dim; i++) {
+                final double y = position[i];
+                position[i] = y + delta;
+                final double logPPlus = evaluate(evaluator);
+                position[i] = y - delta;
+                final double logPMinus = evaluate(evaluator);
+                position[i] = y;
+                gradient[i] = (logPPlus - logPMinus) / (2.0 * delta);
+            }
+            // leave values consistent with position
+            updateValues();
+        }
+        for (int i = 0; i < dim; i++) {
+            if (!Double.isFinite(gradient[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return log density of the target on the transformed scale at position
+     */
+    private double evaluate(final Evaluator evaluator) {
+        // the evaluator restores the state after every evaluation, so all values need to be set
+        if (!updateValues()) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return evaluator.evaluate() - getLogJacobian();
+    }
+
+    /**
+     * Evaluate the target at the initial values, so that calculation nodes
+     * are stored and restored consistently with the initial state.
+     */
+    private void resetEvaluations(final Evaluator evaluator, final int count) {
+        for (int j = 0; j < count; j++) {
+            setValues(initialValues);
+            evaluator.evaluate();
+        }
+    }
+
+    /**
+     * Add the current position to the estimates of the variances of the transformed
+     * parameters, and update the mass matrix after a doubling number of proposals.
+     */
+    private void updateMassMatrix() {
+        final int n = proposalCount + 1;
+        for (int i = 0; i < dim; i++) {
+            final double d = position[i] - mean[i];
+            mean[i] += d / n;
+            sumOfSquares[i] += d * (position[i] - mean[i]);
+        }
+        if (n >= MIN_ADAPTATION_COUNT && ((n & (n - 1)) == 0 || n == adaptation)) {
+            // shrink towards a small value, as in Stan
+            for (int i = 0; i < dim; i++) {
+                final double variance = sumOfSquares[i] / (n - 1);
+                inverseMass[i] = (n / (n + 5.0)) * variance + 1e-3 * (5.0 / (n + 5.0));
+            }
+        }
+    }
+
+    @Override
+    public List<StateNode> listStateNodes() {
+        final List<StateNode> list = new ArrayList<>();
+        for (RealParameter p : parameters) {
+            if (!list.contains(p)) {
+                list.add(p);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public double getTargetAcceptanceProbability() {
+        return 0.65;
+    }
+
+    @Override
+    public double getCoercableParameterValue() {
+        return stepSize;
+    }
+
+    @Override
+    public void setCoercableParameterValue(final double value) {
+        stepSize = value;
+    }
+
+    @Override
+    public void optimize(final double logAlpha) {
+        if (optimiseInput.get()) {
+            double delta = calcDelta(logAlpha);
+            delta += Math.log(stepSize);
+            stepSize = Math.exp(delta);
+        }
+    }
+
+    @Override
+    public String getPerformanceSuggestion() {
+        final double prob = m_nNrAccepted / (m_nNrAccepted + m_nNrRejected + 0.0);
+        final double targetProb = getTargetAcceptanceProbability();
+        double ratio = prob / targetProb;
+        if (ratio > 2.0) ratio = 2.0;
+        if (ratio < 0.5) ratio = 0.5;
+        final double newStepSize = stepSize * ratio;
+
+        final DecimalFormat formatter = new DecimalFormat("#.###");
+        if (prob < 0.10 || prob > 0.90) {
+            return "Try setting stepSize to about " + formatter.format(newStepSize);
+        } else return "";
+    }
+}
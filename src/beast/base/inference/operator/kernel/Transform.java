@@ -100,6 +100,14 @@ public interface Transform {
      */
     double[] inverse(double[] values, int from, int to, double sum);
 
+    /**
+     * @return true if updateGradientLogDensity is implemented, so that operators that use
+     * gradients can check this up front instead of catching the exception it throws otherwise
+     */
+    default boolean canUpdateGradientLogDensity() {
+        return true;
+    }
+
     double updateGradientLogDensity(double gradient, double value);
 
     double[] updateGradientLogDensity(double[] gradient, double[] value, int from, int to);
@@ -149,6 +157,41 @@ public interface Transform {
      */
     double getLogJacobian(double[] values, int from, int to);
 
+    /**
+     * Transforms a block of values into a given array and calculates the log Jacobian in
+     * the same pass. No state other than the settings of the transform is used, so this
+     * can be called concurrently, for example by several operators. The default goes through
+     * the array versions of transform and getLogJacobian; transforms with independent
+     * components override it to work element by element without allocating.
+     * @param values evaluation points
+     * @param from start transformation at this index
+     * @param to end transformation before this index
+     * @param result array receiving the transformed values, which may be values itself
+     * @param offset index in result of the first transformed value
+     * @return the log of the transform's jacobian at values, as getLogJacobian(values, from, to)
+     */
+    default double transformWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+        final double logJacobian = getLogJacobian(values, from, to);
+        System.arraycopy(transform(values, from, to), 0, result, offset, to - from);
+        return logJacobian;
+    }
+
+    /**
+     * Inverse transforms a block of values and calculates the log Jacobian of the transform
+     * at the inverse transformed values in the same pass, like transformWithLogJacobian.
+     * @param values transformed values
+     * @param from start transformation at this index
+     * @param to end transformation before this index
+     * @param result array receiving the inverse transformed values, which may be values itself
+     * @param offset index in result of the first inverse transformed value
+     * @return the log of the transform's jacobian at the inverse transformed values
+     */
+    default double inverseWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+        final double[] inverse = inverse(values, from, to);
+        System.arraycopy(inverse, 0, result, offset, to - from);
+        return getLogJacobian(inverse, 0, to - from);
+    }
+
     /**
      * @return true if the transform is multivatiate (i.e. components not independents)
      */
@@ -407,6 +450,26 @@ public interface Transform {
 //            return sum;
         }
 
+        public double transformWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            double logJacobian = 0.0;
+            for (int i = from; i < to; i++) {
+                final double value = values[i];
+                logJacobian += getLogJacobian(value);
+                result[offset + i - from] = transform(value);
+            }
+            return logJacobian;
+        }
+
+        public double inverseWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            double logJacobian = 0.0;
+            for (int i = from; i < to; i++) {
+                final double value = inverse(values[i]);
+                result[offset + i - from] = value;
+                logJacobian += getLogJacobian(value);
+            }
+            return logJacobian;
+        }
+
         public boolean isMultivariate() { return false;}
     }
 
@@ -472,7 +535,7 @@ public interface Transform {
 			if (this.parameter == null) {
 				this.parameter = new ArrayList<>();
 			}
-			if (parameter != null) {
+			if (parameters != null) {
 				this.parameter.addAll(parameters);
 			}
 		}
@@ -691,6 +754,29 @@ public interface Transform {
 
         public double getLogJacobian(double value) { return -Math.log(value); }
 
+        @Override
+        public double transformWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            // the log Jacobian is minus the transformed value
+            double logJacobian = 0.0;
+            for (int i = from; i < to; i++) {
+                final double transformed = Math.log(values[i]);
+                result[offset + i - from] = transformed;
+                logJacobian -= transformed;
+            }
+            return logJacobian;
+        }
+
+        @Override
+        public double inverseWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            double logJacobian = 0.0;
+            for (int i = from; i < to; i++) {
+                final double value = values[i];
+                result[offset + i - from] = Math.exp(value);
+                logJacobian -= value;
+            }
+            return logJacobian;
+        }
+
 		@Override
 		public int getMinDimensions() {
 			return 1;
@@ -864,6 +950,11 @@ public interface Transform {
             return "logConstrainedSum";
         }
 
+        @Override
+        public boolean canUpdateGradientLogDensity() {
+            return false;
+        }
+
         public double[] updateGradientLogDensity(double[] gradient, double[] value, int from, int to) {
             throw new RuntimeException("Not yet implemented");
         }
@@ -913,6 +1004,37 @@ public interface Transform {
             return sum;
         }
 
+        // unlike the methods above, to is exclusive here, as for other transforms
+        @Override
+        public double transformWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            double logJacobian = 0.0;
+            for (int i = from; i < to; i++) {
+                final double transformed = Math.log(values[i]);
+                result[offset + i - from] = transformed;
+                logJacobian -= transformed;
+            }
+            return logJacobian;
+        }
+
+        /** inverse transform enforcing the fixed sum, as inverse(values, from, to - 1, getSum()) **/
+        @Override
+        public double inverseWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            double newSum = 0.0;
+            double valueSum = 0.0;
+            for (int i = from; i < to; i++) {
+                final double value = values[i];
+                valueSum += value;
+                final double expValue = Math.exp(value);
+                result[offset + i - from] = expValue;
+                newSum += expValue;
+            }
+            for (int i = offset; i < offset + to - from; i++) {
+                result[i] = (result[i] / newSum) * fixedSum;
+            }
+            // log of result[i] is values[i] + log(fixedSum / newSum)
+            return -valueSum - (to - from) * (Math.log(fixedSum) - Math.log(newSum));
+        }
+
         public boolean isMultivariate() { return true;}
 
         public static void main(String[] args) {
@@ -988,6 +1110,11 @@ public interface Transform {
             throw new RuntimeException("Not yet implemented");
         }
 
+        @Override
+        public boolean canUpdateGradientLogDensity() {
+            return false;
+        }
+
         public double updateGradientLogDensity(double gradient, double value) {
             throw new RuntimeException("Not yet implemented");
         }
@@ -1019,6 +1146,32 @@ public interface Transform {
             return -Math.log(1.0 - value) - Math.log(value);
         }
 
+        @Override
+        public double transformWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            // share the logs between transform and Jacobian
+            double logJacobian = 0.0;
+            for (int i = from; i < to; i++) {
+                final double logValue = Math.log(values[i]);
+                final double logComplement = Math.log(1.0 - values[i]);
+                result[offset + i - from] = logValue - logComplement;
+                logJacobian += -logComplement - logValue;
+            }
+            return logJacobian;
+        }
+
+        @Override
+        public double inverseWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            // with x = 1/(1+exp(-y)): -log(1-x) - log(x) = y + 2 log(1+exp(-y))
+            double logJacobian = 0.0;
+            for (int i = from; i < to; i++) {
+                final double value = values[i];
+                final double expMinusValue = Math.exp(-value);
+                result[offset + i - from] = 1.0 / (1.0 + expMinusValue);
+                logJacobian += value + 2.0 * Math.log1p(expMinusValue);
+            }
+            return logJacobian;
+        }
+
 		@Override
 		public int getMinDimensions() {
 			return 1;
@@ -1189,6 +1342,11 @@ public interface Transform {
 //            return 0;
         }
 
+        @Override
+        public boolean canUpdateGradientLogDensity() {
+            return false;
+        }
+
         @Override
         public double updateGradientLogDensity(double gradient, double value) {
             throw new RuntimeException("not implemented yet");
@@ -1286,6 +1444,18 @@ public interface Transform {
             return 0.0;
         }
 
+        @Override
+        public double transformWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            System.arraycopy(values, from, result, offset, to - from);
+            return 0.0;
+        }
+
+        @Override
+        public double inverseWithLogJacobian(double[] values, int from, int to, double[] result, int offset) {
+            System.arraycopy(values, from, result, offset, to - from);
+            return 0.0;
+        }
+
 		@Override
 		public int getMinDimensions() {
 			return 1;
@@ -1425,6 +1595,11 @@ public interface Transform {
             return inner.gradientInverse(value) * outer.gradientInverse(inner.transform(value));
         }
 
+        @Override
+        public boolean canUpdateGradientLogDensity() {
+            return outer.canUpdateGradientLogDensity() && inner.canUpdateGradientLogDensity();
+        }
+
         @Override
         public double updateGradientLogDensity(double gradient, double value) {
 //            final double innerGradient = inner.updateGradientLogDensity(gradient, value);
@@ -1578,6 +1753,11 @@ public interface Transform {
 
         }
 
+        @Override
+        public boolean canUpdateGradientLogDensity() {
+            return false;
+        }
+
         @Override
         public double updateGradientLogDensity(double gradient, double value) {
             throw new RuntimeException("Not yet implemented");
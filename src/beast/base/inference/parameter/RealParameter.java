@@ -100,6 +100,7 @@ public class RealParameter extends Parameter.Base<Double> {
                 continue;
 
             values[i] *= scale;
+            m_bIsDirty[i] = true;
             nScaled += 1;
 
             if (values[i] < m_fLower || values[i] > m_fUpper) {
@@ -0,0 +1,714 @@
+package beast.base.inference.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import beast.base.core.Log;
+import beast.base.util.DiscreteStatistics;
+import beast.base.util.HeapSort;
+import beast.pkgmgmt.Arguments;
+
+/**
+ * Summarises trace logs as produced by Logger (tab separated, lines starting with '#'
+ * are comments, the first other line contains column labels, and the first column holds
+ * the sample number) in a single pass over the file, without loading the trace into memory.
+ *
+ * The file is read through memory mapped chunks. Rows of a chunk are parsed in parallel
+ * and then every column is added to its own ColumnSummary, with columns divided over threads.
+ * Mean and variance are exact. ESS (as ESS.calcESS), median and HPD interval are exact as
+ * long as a column has at most EXACT_LIMIT values after burn-in. Otherwise the median and
+ * HPD interval are estimated from a histogram with HISTOGRAM_BINS bins, and the ESS by batch
+ * means, so every value is added in constant time. Values that are not numbers are skipped.
+ */
+public class TraceSummariser {
+    /** number of values per column that are kept for exact quantiles **/
+    public final static int EXACT_LIMIT = 20000;
+    final static int HISTOGRAM_BINS = 10000;
+    /** size of memory mapped chunks of the file **/
+    final static int CHUNK_SIZE = 1 << 24;
+
+    private final int threadCount;
+
+    public TraceSummariser(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Summary statistics of a single column, updated one value at a time.
+     */
+    public static class ColumnSummary {
+        final String label;
+        long skipped = 0;
+
+        long count = 0;
+        double mean = 0, m2 = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+        // sums of batches of batchSize consecutive values for the ESS. The number of batches is kept
+        // between batchSize / 2 and 2 * batchSize by merging pairs, so batches hold about sqrt(count) values
+        double[] batchSums = new double[16];
+        int batchCount = 0;
+        long batchSize = 1;
+        double partialSum = 0;
+        long partialCount = 0;
+
+        // values in order of the trace for exact quantiles and ESS, until there are more than EXACT_LIMIT, then a histogram
+        double[] values = new double[16];
+        int[] sortedIndices;
+        long[] bins;
+        double lower, width;
+
+        ColumnSummary(String label) {
+            this.label = label;
+        }
+
+        void add(final double x) {
+            if (Double.isNaN(x)) {
+                skipped++;
+                return;
+            }
+            count++;
+            final double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+
+            // batches for ESS
+            partialSum += x;
+            if (++partialCount == batchSize) {
+                if (batchCount == batchSums.length) {
+                    batchSums = Arrays.copyOf(batchSums, batchCount * 2);
+                }
+                batchSums[batchCount++] = partialSum;
+                partialSum = 0;
+                partialCount = 0;
+                if (batchCount == 2 * batchSize) {
+                    mergeBatches();
+                }
+            }
+
+            // quantiles
+            if (bins == null) {
+                if (count > EXACT_LIMIT) {
+                    toHistogram();
+                    addToHistogram(x);
+                } else {
+                    if (count > values.length) {
+                        values = Arrays.copyOf(values, Math.min(EXACT_LIMIT, Math.max(16, values.length * 2)));
+                    }
+                    values[(int) count - 1] = x;
+                    sortedIndices = null;
+                }
+            } else {
+                addToHistogram(x);
+            }
+        }
+
+        /** merge pairs of batches, doubling the batch size **/
+        private void mergeBatches() {
+            for (int i = 0; i < batchCount / 2; i++) {
+                batchSums[i] = batchSums[2 * i] + batchSums[2 * i + 1];
+            }
+            batchCount /= 2;
+            batchSize *= 2;
+        }
+
+        private void toHistogram() {
+            bins = new long[HISTOGRAM_BINS];
+            lower = min;
+            width = (max - min) / HISTOGRAM_BINS;
+            if (width <= 0) {
+                width = Math.max(Math.abs(min), 1.0) * 1e-10;
+            }
+            for (int i = 0; i < count - 1; i++) {
+                addToHistogram(values[i]);
+            }
+            values = null;
+            sortedIndices = null;
+        }
+
+        private void addToHistogram(final double x) {
+            // double the bin width until x is in range, extending the range
+            // downwards or upwards, and merge pairs of bins
+            while (x < lower || x >= lower + HISTOGRAM_BINS * width) {
+                final boolean down = x < lower;
+                final long[] merged = new long[HISTOGRAM_BINS];
+                final int offset = down ? HISTOGRAM_BINS / 2 : 0;
+                for (int i = 0; i < HISTOGRAM_BINS; i++) {
+                    merged[offset + i / 2] += bins[i];
+                }
+                bins = merged;
+                if (down) {
+                    lower -= HISTOGRAM_BINS * width;
+                }
+                width *= 2;
+            }
+            final int bin = (int) ((x - lower) / width);
+            bins[Math.min(bin, HISTOGRAM_BINS - 1)]++;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /** whether all values could be parsed as numbers **/
+        public boolean isNumeric() {
+            return skipped == 0;
+        }
+
+        /** number of values that were skipped since they are not numbers **/
+        public long getSkippedCount() {
+            return skipped;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getVariance() {
+            return count > 1 ? m2 / (count - 1) : 0.0;
+        }
+
+        public double getStdDev() {
+            return Math.sqrt(getVariance());
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        /** whether quantiles and HPD interval are exact, or estimated from a histogram **/
+        public boolean isExact() {
+            return bins == null;
+        }
+
+        /**
+         * effective sample size, as calculated by ESS.calcESS for the same values when exact,
+         * and from the variance of batch means otherwise
+         */
+        public double getESS() {
+            if (values != null) {
+                return getExactESS();
+            }
+            double batchMean = 0, batchM2 = 0;
+            for (int i = 0; i < batchCount; i++) {
+                final double x = batchSums[i] / batchSize;
+                final double delta = x - batchMean;
+                batchMean += delta / (i + 1);
+                batchM2 += delta * (x - batchMean);
+            }
+            // asymptotic variance of the mean times count
+            final double asymptoticVariance = batchSize * batchM2 / (batchCount - 1);
+            return count * getVariance() / asymptoticVariance;
+        }
+
+        /** as ESS.calcESS, but with the sums of trace(i)*trace(i+lag) calculated in one pass over the values for every lag **/
+        private double getExactESS() {
+            final int n = (int) count;
+            final int maxLag = Math.min(n, ESS.MAX_LAG);
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += values[i];
+            }
+            final double mean = sum / n;
+            final double[] autoCorrelation = new double[maxLag];
+            // sum1 = sum of values[0 ... n-lag-1], sum2 = sum of values[lag ... n-1]
+            double sum1 = sum;
+            double sum2 = sum;
+            for (int lag = 0; lag < maxLag; lag++) {
+                double squareLaggedSum = 0;
+                for (int i = lag; i < n; i++) {
+                    squareLaggedSum += values[i - lag] * values[i];
+                }
+                autoCorrelation[lag] = squareLaggedSum - (sum1 + sum2) * mean + mean * mean * (n - lag);
+                autoCorrelation[lag] /= (n - lag);
+                sum1 -= values[n - 1 - lag];
+                sum2 -= values[lag];
+                // the stopping criterion of ESS.ACT only needs pairs of positive autocorrelations
+                if (lag > 0 && lag % 2 == 0 && autoCorrelation[lag - 1] + autoCorrelation[lag] <= 0) {
+                    break;
+                }
+            }
+
+            double integralOfACFunctionTimes2 = 0.0;
+            for (int lag = 0; lag < maxLag; lag++) {
+                if (lag == 0) {
+                    integralOfACFunctionTimes2 = autoCorrelation[0];
+                } else if (lag % 2 == 0) {
+                    if (autoCorrelation[lag - 1] + autoCorrelation[lag] > 0) {
+                        integralOfACFunctionTimes2 += 2.0 * (autoCorrelation[lag - 1] + autoCorrelation[lag]);
+                    } else {
+                        break;
+                    }
+                }
+            }
+            final double act = integralOfACFunctionTimes2 / autoCorrelation[0];
+            return count / act;
+        }
+
+        /** median, as DiscreteStatistics.median when exact **/
+        public double getMedian() {
+            if (bins == null) {
+                return DiscreteStatistics.median(getSortedValues(), sortedIndices);
+            }
+            return getQuantile(0.5);
+        }
+
+        /** values and (in sortedIndices) the index sorting them, for exact quantiles **/
+        private double[] getSortedValues() {
+            if (values.length != count) {
+                values = Arrays.copyOf(values, (int) count);
+                sortedIndices = null;
+            }
+            if (sortedIndices == null) {
+                sortedIndices = new int[values.length];
+                HeapSort.sort(values, sortedIndices);
+            }
+            return values;
+        }
+
+        /** q-th quantile, as DiscreteStatistics.quantile when exact **/
+        public double getQuantile(final double q) {
+            if (bins == null) {
+                return DiscreteStatistics.quantile(q, getSortedValues(), sortedIndices);
+            }
+            final double target = q * count;
+            long cumulative = 0;
+            for (int i = 0; i < HISTOGRAM_BINS; i++) {
+                if (bins[i] > 0 && cumulative + bins[i] >= target) {
+                    final double x = lower + (i + (target - cumulative) / bins[i]) * width;
+                    return Math.max(min, Math.min(max, x));
+                }
+                cumulative += bins[i];
+            }
+            return max;
+        }
+
+        /** HPD interval containing the given proportion of values, as DiscreteStatistics.HPDInterval when exact **/
+        public double[] getHPDInterval(final double proportion) {
+            if (bins == null) {
+                return DiscreteStatistics.HPDInterval(proportion, getSortedValues(), sortedIndices);
+            }
+            // smallest range of consecutive bins containing at least the proportion of values
+            final long required = Math.round(proportion * count);
+            int bestStart = 0, bestEnd = HISTOGRAM_BINS - 1;
+            long inside = 0;
+            int start = 0;
+            for (int end = 0; end < HISTOGRAM_BINS; end++) {
+                inside += bins[end];
+                while (inside - bins[start] >= required) {
+                    inside -= bins[start];
+                    start++;
+                }
+                if (inside >= required && end - start < bestEnd - bestStart) {
+                    bestStart = start;
+                    bestEnd = end;
+                }
+            }
+            return new double[]{Math.max(min, lower + bestStart * width), Math.min(max, lower + (bestEnd + 1) * width)};
+        }
+    } // class ColumnSummary
+
+    /**
+     * Summarise all columns, except the first (sample number) of a trace log.
+     * @param burninPercentage percentage of rows to discard from the start of the log
+     */
+    public List<ColumnSummary> summarise(final File file, final double burninPercentage) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount, r -> {
+            final Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long burnin = 0;
+            if (burninPercentage > 0) {
+                burnin = (long) (countRows(channel) * burninPercentage / 100.0);
+            }
+            return summarise(channel, burnin, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** number of data rows, that is, lines that are not comments, empty or the header **/
+    private long countRows(final FileChannel channel) throws IOException {
+        long lines = 0;
+        boolean lineStart = true;
+        for (long position = 0; position < channel.size(); position += CHUNK_SIZE) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(CHUNK_SIZE, channel.size() - position));
+            while (buffer.hasRemaining()) {
+                final byte b = buffer.get();
+                if (lineStart && b != '#' && b != '\n' && b != '\r') {
+                    lines++;
+                }
+                lineStart = b == '\n';
+            }
+        }
+        return Math.max(0, lines - 1);
+    }
+
+    private List<ColumnSummary> summarise(final FileChannel channel, final long burnin, final ExecutorService executor) throws IOException {
+        final List<ColumnSummary> summaries = new ArrayList<>();
+        final long size = channel.size();
+        long rowsSeen = 0;
+        long position = 0;
+        int[] lineStarts = new int[1024];
+        int[] lineEnds = new int[1024];
+        while (position < size) {
+            final int length = (int) Math.min(CHUNK_SIZE, size - position);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            // find complete lines in this chunk
+            int lineCount = 0;
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(i) == '\n' || (i == length - 1 && position + length == size)) {
+                    int end = buffer.get(i) == '\n' ? i : i + 1;
+                    if (end > start && buffer.get(end - 1) == '\r') {
+                        end--;
+                    }
+                    if (end > start && buffer.get(start) != '#') {
+                        if (summaries.isEmpty()) {
+                            // header
+                            final String[] labels = toString(buffer, start, end).split("\t");
+                            for (int k = 1; k < labels.length; k++) {
+                                summaries.add(new ColumnSummary(labels[k]));
+                            }
+                        } else if (rowsSeen++ >= burnin) {
+                            if (lineCount == lineStarts.length) {
+                                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                                lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+                            }
+                            lineStarts[lineCount] = start;
+                            lineEnds[lineCount] = end;
+                            lineCount++;
+                        }
+                    }
+                    start = i + 1;
+                }
+            }
+            if (start == 0 && position + length < size) {
+                throw new IOException("Line longer than " + CHUNK_SIZE + " bytes at position " + position);
+            }
+            if (lineCount > 0) {
+                processLines(buffer, lineStarts, lineEnds, lineCount, summaries, executor);
+            }
+            position += start;
+        }
+        return summaries;
+    }
+
+    /** parse lines into columns, in parallel over blocks of rows, then add them to the summaries in parallel over columns **/
+    private void processLines(final MappedByteBuffer buffer, final int[] lineStarts, final int[] lineEnds, final int lineCount,
+                              final List<ColumnSummary> summaries, final ExecutorService executor) throws IOException {
+        final int columnCount = summaries.size();
+        final double[][] columns = new double[columnCount][lineCount];
+
+        final List<Callable<Object>> parsers = new ArrayList<>();
+        final int rowsPerTask = (lineCount + threadCount - 1) / threadCount;
+        for (int from = 0; from < lineCount; from += rowsPerTask) {
+            final int first = from;
+            final int last = Math.min(lineCount, from + rowsPerTask);
+            parsers.add(() -> {
+                final char[] field = new char[64];
+                for (int row = first; row < last; row++) {
+                    parseLine(buffer, lineStarts[row], lineEnds[row], row, columns, field);
+                }
+                return null;
+            });
+        }
+        invokeAll(executor, parsers);
+
+        final List<Callable<Object>> accumulators = new ArrayList<>();
+        for (int t = 0; t < Math.min(threadCount, columnCount); t++) {
+            final int offset = t;
+            accumulators.add(() -> {
+                for (int k = offset; k < columnCount; k += threadCount) {
+                    final ColumnSummary summary = summaries.get(k);
+                    final double[] column = columns[k];
+                    for (int row = 0; row < lineCount; row++) {
+                        summary.add(column[row]);
+                    }
+                }
+                return null;
+            });
+        }
+        invokeAll(executor, accumulators);
+    }
+
+    private void invokeAll(final ExecutorService executor, final List<Callable<Object>> tasks) throws IOException {
+        try {
+            for (final Future<Object> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while summarising trace", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** parse tab separated values, skipping the sample number; values that are not numbers become NaN, and are skipped by ColumnSummary.add **/
+    private static void parseLine(final MappedByteBuffer buffer, final int start, final int end, final int row,
+                                  final double[][] columns, final char[] field) {
+        int column = -1;
+        int fieldStart = start;
+        for (int i = start; i <= end && column < columns.length; i++) {
+            if (i == end || buffer.get(i) == '\t') {
+                if (column >= 0) {
+                    columns[column][row] = parseDouble(buffer, fieldStart, i, field);
+                }
+                column++;
+                fieldStart = i + 1;
+            }
+        }
+        // missing values
+        for (; column >= 0 && column < columns.length; column++) {
+            columns[column][row] = Double.NaN;
+        }
+    }
+
+    /** powers of ten that are exactly representable as double **/
+    private static final double[] POW10 = new double[23];
+    /** powers of five that fit in a long **/
+    private static final long[] POW5 = new long[28];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+        POW5[0] = 1;
+        for (int i = 1; i < POW5.length; i++) {
+            POW5[i] = POW5[i - 1] * 5;
+        }
+    }
+
+    /**
+     * parse bytes start ... end-1 of the buffer as Double.parseDouble would, returning NaN for values
+     * that are not numbers. Decimal numbers with up to 18 significant digits are converted directly
+     * from the buffer, and are correctly rounded; anything else (e.g. "Infinity" or very small values)
+     * is copied into field, which is only used as scratch space, and passed to Double.parseDouble.
+     */
+    public static double parseDouble(final ByteBuffer buffer, int start, int end, final char[] field) {
+        while (start < end && (buffer.get(start) & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer.get(end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+        final double value = parseDecimal(buffer, start, end);
+        if (!Double.isNaN(value)) {
+            return value;
+        }
+        final int length = end - start;
+        final char[] chars = length > field.length ? new char[length] : field;
+        for (int j = 0; j < length; j++) {
+            chars[j] = (char) (buffer.get(start + j) & 0xff);
+        }
+        try {
+            return Double.parseDouble(new String(chars, 0, length));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /** decimal number in bytes start ... end-1, or NaN if it cannot be converted exactly here **/
+    private static double parseDecimal(final ByteBuffer buffer, final int start, final int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean hasDigits = false;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            final byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                hasDigits = true;
+                if (mantissa > 0 || b != '0') {
+                    if (++significantDigits > 18) {
+                        return Double.NaN;
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                }
+                if (fraction) {
+                    scale--;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (!hasDigits) {
+            return Double.NaN;
+        }
+        if (i < end) {
+            final byte b = buffer.get(i++);
+            if (b != 'e' && b != 'E' || i == end) {
+                return Double.NaN;
+            }
+            boolean negativeExponent = false;
+            if (buffer.get(i) == '-' || buffer.get(i) == '+') {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+            if (i == end || end - i > 4) {
+                return Double.NaN;
+            }
+            int exponent = 0;
+            for (; i < end; i++) {
+                final byte d = buffer.get(i);
+                if (d < '0' || d > '9') {
+                    return Double.NaN;
+                }
+                exponent = exponent * 10 + (d - '0');
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+
+        final double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (scale >= 0) {
+            // exact as long as mantissa * 10^scale fits in a long, and then correctly rounded by the conversion
+            long m = mantissa;
+            for (int k = 0; k < scale; k++) {
+                if (m > Long.MAX_VALUE / 10) {
+                    return Double.NaN;
+                }
+                m *= 10;
+            }
+            value = m;
+        } else if (mantissa < (1L << 53) && -scale < POW10.length) {
+            // both operands are exact, so the division is correctly rounded
+            value = mantissa / POW10[-scale];
+        } else if (-scale < POW5.length) {
+            value = divideByPowerOfTen(mantissa, -scale);
+        } else {
+            return Double.NaN;
+        }
+        return negative ? -value : value;
+    }
+
+    /** mantissa / 10^k correctly rounded, as mantissa / 5^k * 2^-k with the quotient calculated bitwise **/
+    private static double divideByPowerOfTen(final long mantissa, final int k) {
+        final long divisor = POW5[k];
+        long quotient = mantissa / divisor;
+        long remainder = mantissa % divisor;
+        int exponent = -k;
+        // at least 55 bits, so that the lowest bit is below the rounding bit and can hold the remainder
+        while (quotient < (1L << 54)) {
+            // remainder < divisor < 2^63, so twice the remainder fits in an unsigned long
+            remainder <<= 1;
+            quotient <<= 1;
+            exponent--;
+            if (Long.compareUnsigned(remainder, divisor) >= 0) {
+                remainder -= divisor;
+                quotient |= 1;
+            }
+        }
+        if (remainder != 0) {
+            quotient |= 1;
+        }
+        // converting a long to double rounds to nearest even, and scaling by a power of two is exact for normal values
+        return Math.scalb((double) quotient, exponent);
+    }
+
+    private static String toString(final MappedByteBuffer buffer, final int start, final int end) {
+        final byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes);
+    }
+
+    /** print summaries as a tab separated table, one row per column of the trace **/
+    public static void print(final List<ColumnSummary> summaries, final PrintStream out) {
+        out.println("item\tmean\tstddev\tmedian\t95%HPDlo\t95%HPDup\tESS\tmin\tmax");
+        boolean approximate = false;
+        for (final ColumnSummary summary : summaries) {
+            if (summary.getCount() == 0) {
+                continue;
+            }
+            if (summary.getSkippedCount() > 0) {
+                Log.warning.println("Skipped " + summary.getSkippedCount() + " values of " + summary.getLabel() + " that are not numbers");
+            }
+            final double[] hpd = summary.getHPDInterval(0.95);
+            out.println(summary.getLabel() + "\t" + summary.getMean() + "\t" + summary.getStdDev() + "\t" +
+                    summary.getMedian() + "\t" + hpd[0] + "\t" + hpd[1] + "\t" + summary.getESS() + "\t" +
+                    summary.getMin() + "\t" + summary.getMax());
+            approximate |= !summary.isExact();
+        }
+        if (approximate) {
+            Log.warning.println("Median and HPD intervals are approximate for traces with more than " + EXACT_LIMIT + " samples after burn-in");
+        }
+    }
+
+    private static void printUsageAndExit(final Arguments arguments) {
+        arguments.printUsage("tracesummariser", "<trace log file>");
+        System.out.println("\nExample:");
+        System.out.println("tracesummariser -burnin 10 -threads 4 beast.log");
+        System.exit(0);
+    }
+
+    public static void main(final String[] args) {
+        final Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.RealOption("burnin", 0, 100, "Percentage of samples to discard as burn-in (default 10)"),
+                        new Arguments.IntegerOption("threads", 1, Integer.MAX_VALUE, "Number of threads to use (default number of processors)"),
+                        new Arguments.Option("help", "Show help"),
+                });
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println();
+            System.out.println(ae.getMessage());
+            System.out.println();
+            printUsageAndExit(arguments);
+        }
+        final String[] files = arguments.getLeftoverArguments();
+        if (arguments.hasOption("help") || files.length != 1) {
+            printUsageAndExit(arguments);
+        }
+
+        final double burnin = arguments.hasOption("burnin") ? arguments.getRealOption("burnin") : 10;
+        final int threads = arguments.hasOption("threads") ? arguments.getIntegerOption("threads") : Runtime.getRuntime().availableProcessors();
+        try {
+            final List<ColumnSummary> summaries = new TraceSummariser(threads).summarise(new File(files[0]), burnin);
+            print(summaries, System.out);
+        } catch (IOException e) {
+            Log.err.println("Could not summarise " + files[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -456,8 +456,20 @@ public class NexusParser {
      * @throws IOException if error reading from file
      */
     NexusCommand readNextCommand(BufferedReader fin) throws IOException {
-        StringBuilder commandBuilder = new StringBuilder();
+        return readNextCommand(fin, new StringBuilder());
+    }
 
+    /**
+     * Get next nexus command, if available, appending its content to
+     * what is already in commandBuilder (typically, a command name
+     * obtained through readCommandName).
+     *
+     * @param fin nexus file reader
+     * @param commandBuilder start of the command
+     * @return nexus command, or null if none available.
+     * @throws IOException if error reading from file
+     */
+    NexusCommand readNextCommand(BufferedReader fin, StringBuilder commandBuilder) throws IOException {
         while(true) {
             int nextVal = fin.read();
             if (nextVal<0)
@@ -509,50 +521,149 @@ public class NexusParser {
         // read to first command within trees block
         NexusCommand nextCommand = readNextCommand(fin);
 
-        int origin = -1;
-
         // if first non-empty line is "translate" then parse translate block
-        if (nextCommand.isCommand("translate")) {
-            translationMap = parseTranslateCommand(nextCommand.arguments);
-            origin = getIndexedTranslationMapOrigin(translationMap);
-            if (origin != -1) {
-                taxa = getIndexedTranslationMap(translationMap, origin);
-            }
-        }
+        final int origin = parseTranslateCommand(nextCommand);
 
         // read trees
         while (nextCommand != null && !nextCommand.isEndOfBlock()) {
             if (nextCommand.isCommand("tree")) {
-                String treeString = nextCommand.arguments;
-                final int i = treeString.indexOf('(');
-                if (i > 0) {
-                    treeString = treeString.substring(i);
-                }
-                TreeParser treeParser;
-
-                if (origin != -1) {
-                    treeParser = new TreeParser(taxa, treeString, origin, false);
-                } else {
-                    try {
-                        treeParser = new TreeParser(taxa, treeString, 0, false);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        treeParser = new TreeParser(taxa, treeString, 1, false);
-                    }
-                }
+                final Tree tree = parseTreeCommand(nextCommand, origin);
 
                 // this needs to go after translation map or listeners have an incomplete tree!
                 for (final NexusParserListener listener : listeners) {
-                    listener.treeParsed(trees.size(), treeParser);
+                    listener.treeParsed(trees.size(), tree);
                 }
 
                 // this must come after listener or trees.size() gives the wrong index to treeParsed
-                trees.add(treeParser);
+                trees.add(tree);
 
             }
             nextCommand = readNextCommand(fin);
         }
     }
 
+    /**
+     * Set up translationMap and taxa if the command is a translate command.
+     *
+     * @param command first command of a trees block (may be null)
+     * @return origin of the indexed translation map, or -1 if the taxa are not indexed by contiguous integers
+     * @throws IOException
+     */
+    protected int parseTranslateCommand(final NexusCommand command) throws IOException {
+        int origin = -1;
+        if (command != null && command.isCommand("translate")) {
+            translationMap = parseTranslateCommand(command.arguments);
+            origin = getIndexedTranslationMapOrigin(translationMap);
+            if (origin != -1) {
+                taxa = getIndexedTranslationMap(translationMap, origin);
+            }
+        }
+        return origin;
+    }
+
+    /**
+     * Convert a tree command into a tree, using the translation map (if any).
+     *
+     * @param command tree command from a trees block
+     * @param origin as returned by parseTranslateCommand
+     * @return the parsed tree
+     */
+    protected Tree parseTreeCommand(final NexusCommand command, final int origin) {
+        String treeString = command.arguments;
+        final int i = treeString.indexOf('(');
+        if (i > 0) {
+            treeString = treeString.substring(i);
+        }
+
+        if (origin != -1) {
+            return new TreeParser(taxa, treeString, origin, false);
+        }
+        try {
+            return new TreeParser(taxa, treeString, 0, false);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return new TreeParser(taxa, treeString, 1, false);
+        }
+    }
+
+    /**
+     * Read the name of the next nexus command, leaving the reader positioned
+     * just after the name, so the rest of the command can either be read
+     * with readNextCommand or skipped with skipCommand.
+     *
+     * @param fin nexus file reader
+     * @return lower case command name, or null at end of file
+     * @throws IOException if error reading from file
+     */
+    protected String readCommandName(final BufferedReader fin) throws IOException {
+        final StringBuilder name = new StringBuilder();
+        while (true) {
+            // mark, so that a ';' directly following the name is left for the remainder of the command
+            fin.mark(1);
+            final int nextVal = fin.read();
+            if (nextVal < 0) {
+                break;
+            }
+            final char nextChar = (char) nextVal;
+            if (nextChar == '\n') {
+                lineNr += 1;
+            }
+            if (Character.isWhitespace(nextChar)) {
+                if (name.length() > 0) {
+                    break;
+                }
+            } else if (nextChar == ';') {
+                if (name.length() > 0) {
+                    fin.reset();
+                    break;
+                }
+            } else if (nextChar == '[' && name.length() == 0) {
+                readNexusComment(fin, new StringBuilder());
+            } else {
+                name.append(nextChar);
+            }
+        }
+        if (name.length() == 0) {
+            return null;
+        }
+        return name.toString().toLowerCase();
+    }
+
+    /**
+     * Advance the reader past the end of the current command without storing
+     * its content. Comments and strings are honoured, so a ';' inside tree
+     * meta-data does not terminate the command.
+     *
+     * @param fin nexus file reader
+     * @throws IOException if error reading from file
+     */
+    protected void skipCommand(final BufferedReader fin) throws IOException {
+        int commentDepth = 0;
+        char stringDelim = 0;
+        while (true) {
+            final int nextVal = fin.read();
+            if (nextVal < 0) {
+                return;
+            }
+            final char nextChar = (char) nextVal;
+            if (nextChar == '\n') {
+                lineNr += 1;
+            }
+            if (stringDelim != 0) {
+                if (nextChar == stringDelim) {
+                    stringDelim = 0;
+                }
+            } else if (nextChar == '"' || nextChar == '\'') {
+                stringDelim = nextChar;
+            } else if (nextChar == '[') {
+                commentDepth++;
+            } else if (nextChar == ']' && commentDepth > 0) {
+                commentDepth--;
+            } else if (nextChar == ';' && commentDepth == 0) {
+                return;
+            }
+        }
+    }
+
     protected List<String> getIndexedTranslationMap(final Map<String, String> translationMap, final int origin) {
 
         Log.trace.println("translation map size = " + translationMap.size());
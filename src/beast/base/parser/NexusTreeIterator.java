@@ -0,0 +1,249 @@
+package beast.base.parser;
+
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import beast.base.evolution.tree.Tree;
+
+/**
+ * Iterates over the trees in the trees block of a nexus file, one tree at a time,
+ * so memory use does not depend on the number of trees in the file.
+ * The translate command and the taxa block (if any) are applied to every tree.
+ * Trees in the burn-in and trees dropped by thinning are skipped without being
+ * parsed into a Tree.
+ * Listeners added through addListener are informed of every tree returned,
+ * with the index of the tree in the file.
+ *
+ * Typical use:
+ * <pre>
+ * try (NexusTreeIterator trees = new NexusTreeIterator(file, 10, 1)) {
+ *     for (Tree tree : trees) {...}
+ * }
+ * </pre>
+ */
+public class NexusTreeIterator extends NexusParser implements Iterator<Tree>, Iterable<Tree>, Closeable {
+    private final BufferedReader fin;
+
+    /** number of trees at start of trees block to skip **/
+    private final int burnin;
+    /** only every thin-th tree after burn-in is returned **/
+    private final int thin;
+
+    /** as returned by parseTranslateCommand **/
+    private int origin = -1;
+    /** index in file of next tree command to be encountered **/
+    private int treeIndex = 0;
+    /** index in file of most recently returned tree **/
+    private int currentIndex = -1;
+    /** next tree to be returned, or null if it needs to be read **/
+    private Tree nextTree;
+    private boolean endOfBlock = false;
+    /** command name read during initialisation that still needs processing **/
+    private String pendingCommandName;
+
+    /**
+     * Iterate over all trees in file.
+     */
+    public NexusTreeIterator(final File file) throws IOException {
+        this(new FileReader(file), 0, 1);
+    }
+
+    /**
+     * Iterate over trees in file after burn-in, with thinning.
+     * Determining the burn-in requires a quick pass over the file to count
+     * the trees, in which trees are skipped without being parsed.
+     *
+     * @param file nexus file containing a trees block
+     * @param burninPercentage percentage of trees to skip at the start (0 to 100)
+     * @param thin only return every thin-th tree after burn-in
+     */
+    public NexusTreeIterator(final File file, final double burninPercentage, final int thin) throws IOException {
+        this(new FileReader(file), burninPercentage > 0 ? (int) (countTrees(file) * burninPercentage / 100.0) : 0, thin);
+    }
+
+    /**
+     * Iterate over trees in reader after burn-in, with thinning.
+     *
+     * @param reader to read nexus from
+     * @param burnin number of trees to skip at the start
+     * @param thin only return every thin-th tree after burn-in
+     */
+    public NexusTreeIterator(final Reader reader, final int burnin, final int thin) throws IOException {
+        if (burnin < 0) {
+            throw new IllegalArgumentException("burnin should be non-negative, not " + burnin);
+        }
+        if (thin < 1) {
+            throw new IllegalArgumentException("thin should be at least 1, not " + thin);
+        }
+        this.burnin = burnin;
+        this.thin = thin;
+        lineNr = 0;
+        if (reader instanceof BufferedReader) {
+            fin = (BufferedReader) reader;
+        } else {
+            fin = new BufferedReader(reader);
+        }
+        try {
+            if (!advanceToTreesBlock(fin)) {
+                endOfBlock = true;
+                return;
+            }
+            final String name = readCommandName(fin);
+            if (name == null) {
+                endOfBlock = true;
+            } else if (name.equals("translate")) {
+                origin = parseTranslateCommand(readNextCommand(fin, new StringBuilder(name).append(' ')));
+            } else {
+                // no translate command: process as any other command
+                pendingCommandName = name;
+            }
+        } catch (IOException e) {
+            fin.close();
+            throw new IOException("Around line " + (lineNr + 1) + "\n" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read lines up to and including the start of the trees block, processing
+     * a taxa block if encountered on the way.
+     *
+     * @return false if no trees block is found
+     */
+    private boolean advanceToTreesBlock(final BufferedReader fin) throws IOException {
+        while (true) {
+            final String str = nextLine(fin);
+            if (str == null) {
+                return false;
+            }
+            final String lower = str.toLowerCase();
+            if (lower.matches("^\\s*begin\\s+taxa;\\s*$")) {
+                parseTaxaBlock(fin);
+            } else if (lower.matches("^\\s*begin\\s+trees;\\s*$")) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Count number of trees in the trees block of a nexus file, without parsing the trees.
+     */
+    public static int countTrees(final File file) throws IOException {
+        final NexusParser parser = new NexusParser();
+        try (BufferedReader fin = new BufferedReader(new FileReader(file))) {
+            String str;
+            do {
+                str = parser.nextLine(fin);
+                if (str == null) {
+                    return 0;
+                }
+            } while (!str.toLowerCase().matches("^\\s*begin\\s+trees;\\s*$"));
+
+            int count = 0;
+            String name = parser.readCommandName(fin);
+            while (name != null && !name.equals("end")) {
+                if (name.equals("tree")) {
+                    count++;
+                }
+                parser.skipCommand(fin);
+                name = parser.readCommandName(fin);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Read up to the next tree that is to be returned.
+     *
+     * @return the tree, or null if the end of the trees block is reached
+     */
+    private Tree readNextTree() throws IOException {
+        while (!endOfBlock) {
+            String name;
+            if (pendingCommandName != null) {
+                name = pendingCommandName;
+                pendingCommandName = null;
+            } else {
+                name = readCommandName(fin);
+            }
+            if (name == null || name.equals("end")) {
+                endOfBlock = true;
+                fin.close();
+                return null;
+            }
+            if (name.equals("tree")) {
+                final int index = treeIndex++;
+                if (index >= burnin && (index - burnin) % thin == 0) {
+                    final NexusCommand command = readNextCommand(fin, new StringBuilder(name).append(' '));
+                    final Tree tree = parseTreeCommand(command, origin);
+                    currentIndex = index;
+                    for (final NexusParserListener listener : listeners) {
+                        listener.treeParsed(index, tree);
+                    }
+                    return tree;
+                }
+            }
+            skipCommand(fin);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextTree == null && !endOfBlock) {
+            try {
+                nextTree = readNextTree();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Around line " + (lineNr + 1) + "\n" + e.getMessage(), e);
+            }
+        }
+        return nextTree != null;
+    }
+
+    @Override
+    public Tree next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Tree tree = nextTree;
+        nextTree = null;
+        return tree;
+    }
+
+    /**
+     * @return index in the file (starting from zero) of the tree most recently returned by next()
+     */
+    public int getTreeIndex() {
+        return currentIndex;
+    }
+
+    @Override
+    public Iterator<Tree> iterator() {
+        return this;
+    }
+
+    /**
+     * @return sequential stream over the remaining trees
+     */
+    public Stream<Tree> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        endOfBlock = true;
+        fin.close();
+    }
+
+} // class NexusTreeIterator
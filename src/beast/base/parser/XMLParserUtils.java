@@ -52,77 +52,235 @@ public class XMLParserUtils {
     /**
      * Expand plates in XML by duplicating the containing XML and replacing
      * the plate variable with the appropriate value.
+     * Plates are expanded in a single pass over the document: the copies of a plate
+     * body are processed for nested plates right after they are created, and variable
+     * substitution uses a template compiled once per plate body (see PlateTemplate).
      */
     public static void processPlates(Document doc, String plateElementName) {
     	Map<String, Node> idMap = new LinkedHashMap<>();
-    	
-        // process plate elements
-        final NodeList nodes = doc.getElementsByTagName(plateElementName);
-        // instead of processing all plates, process them one by one,
-        // then check recursively for new plates that could have been
-        // created when they are nested
-        if (nodes.getLength() > 0) {
-            Node node = nodes.item(0);
-            final String var = node.getAttributes().getNamedItem("var").getNodeValue();
-            final String rangeString = node.getAttributes().getNamedItem("range").getNodeValue();
-            
-            if (node.getAttributes().getNamedItem("fragment") != null) {
-            	final String fragmentID = node.getAttributes().getNamedItem("fragment").getNodeValue();
-            	Node fragment = getElementById(doc, fragmentID, idMap);
-            	if (fragment == null) {
-            		throw new RuntimeException("plate refers to fragment with id='" + fragmentID + "' that cannot be found");
-            	}
-            	fragment = fragment.cloneNode(true);
-                node.getParentNode().replaceChild(fragment, node);
-            	node = fragment;
-           }
-	
-            final String[] valuesString = rangeString.split(",");
-
-            // interpret values in the range of form x:y as all numbers between x and y inclusive
-            List<String> vals = new ArrayList<>();
-            for (final String valueString : valuesString) {
-                if (valueString.indexOf(":") > 0) {
-                	try {
-	                    String[] range = valueString.split(":");
-	                    int min = Integer.parseInt(range[0]);
-	                    int max = Integer.parseInt(range[1]);
-	                    for (int i = min; i <= max; i++) {
-	                        vals.add(String.valueOf(i));
-	                    }
-                	} catch (NumberFormatException e) {
-                		Log.warning.println("plate range value '" + valueString + "'contains a ':' but does not seem to be a range, (like 1:5).");
-                		Log.warning.println("interpreting it as if it were not a range");
-                        vals.add(valueString);
-                	}
-                } else {
+    	processPlates(doc, doc, plateElementName, idMap);
+    } // processPlates
+
+    /** expand all plates in the subtree below node **/
+    private static void processPlates(Document doc, Node node, String plateElementName, Map<String, Node> idMap) {
+    	Node child = node.getFirstChild();
+    	while (child != null) {
+    		final Node next = child.getNextSibling();
+    		if (isPlate(child, plateElementName)) {
+    			expandPlate(doc, child, plateElementName, idMap);
+    		} else {
+    			processPlates(doc, child, plateElementName, idMap);
+    		}
+    		child = next;
+    	}
+    }
+
+    private static boolean isPlate(Node node, String plateElementName) {
+    	return node.getNodeType() == Node.ELEMENT_NODE && node.getNodeName().equals(plateElementName);
+    }
+
+    /** replace a plate by copies of its body, one for every value in its range, and expand plates in the copies **/
+    private static void expandPlate(Document doc, Node node, String plateElementName, Map<String, Node> idMap) {
+        final String var = node.getAttributes().getNamedItem("var").getNodeValue();
+        final String rangeString = node.getAttributes().getNamedItem("range").getNodeValue();
+        final Node parent = node.getParentNode();
+
+        if (node.getAttributes().getNamedItem("fragment") != null) {
+        	final String fragmentID = node.getAttributes().getNamedItem("fragment").getNodeValue();
+        	Node fragment = getElementById(doc, fragmentID, idMap);
+        	if (fragment == null) {
+        		throw new RuntimeException("plate refers to fragment with id='" + fragmentID + "' that cannot be found");
+        	}
+        	fragment = fragment.cloneNode(true);
+            parent.replaceChild(fragment, node);
+        	node = fragment;
+        }
+
+        final String[] valuesString = rangeString.split(",");
+
+        // interpret values in the range of form x:y as all numbers between x and y inclusive
+        List<String> vals = new ArrayList<>();
+        for (final String valueString : valuesString) {
+            if (valueString.indexOf(":") > 0) {
+            	try {
+                    String[] range = valueString.split(":");
+                    int min = Integer.parseInt(range[0]);
+                    int max = Integer.parseInt(range[1]);
+                    for (int i = min; i <= max; i++) {
+                        vals.add(String.valueOf(i));
+                    }
+            	} catch (NumberFormatException e) {
+            		Log.warning.println("plate range value '" + valueString + "'contains a ':' but does not seem to be a range, (like 1:5).");
+            		Log.warning.println("interpreting it as if it were not a range");
                     vals.add(valueString);
-                }
+            	}
+            } else {
+                vals.add(valueString);
             }
+        }
 
-            for (final String val : vals) {
-                // copy children
-                final NodeList children = node.getChildNodes();
-                for (int childIndex = 0; childIndex < children.getLength(); childIndex++) {
-                    final Node child = children.item(childIndex);
-                    final Node newChild = child.cloneNode(true);
-                    replaceVariable(newChild, var, val);
-                    node.getParentNode().insertBefore(newChild, node);
-                }
+        final PlateTemplate template = new PlateTemplate(node, var);
+        final List<Node> copies = new ArrayList<>();
+        for (final String val : vals) {
+            // copy children
+            for (int childIndex = 0; childIndex < template.bodySize(); childIndex++) {
+                final Node newChild = template.instantiate(childIndex, val);
+                parent.insertBefore(newChild, node);
+                copies.add(newChild);
             }
-            node.getParentNode().removeChild(node);
-            processPlates(doc,plateElementName);
         }
-    } // processPlates
+        parent.removeChild(node);
+
+        // nested plates
+        for (final Node copy : copies) {
+        	if (isPlate(copy, plateElementName)) {
+        		expandPlate(doc, copy, plateElementName, idMap);
+        	} else {
+        		processPlates(doc, copy, plateElementName, idMap);
+        	}
+        }
+    }
+
+    /**
+     * Variable substitution template for the body of a plate. The body is scanned once
+     * for attributes and CDATA sections that refer to the plate variable, and for each of
+     * these the position in the body and the text around the variable references are
+     * recorded. Instantiating the template for a value then clones the body and only
+     * touches the recorded positions, instead of matching every attribute of every copy.
+     */
+    static class PlateTemplate {
+    	private final Node [] body;
+    	// for every child of the body, the places that refer to the plate variable
+    	private final List<List<Substitution>> substitutions = new ArrayList<>();
+
+    	/** attribute (or CDATA section if attribute == null) with references to the plate variable **/
+    	private static class Substitution {
+    		// child indices leading from a child of the body to the node
+    		int [] path;
+    		String attribute;
+    		// text between references to the plate variable, so one more than the number of references
+    		String [] segments;
+    	}
+
+    	PlateTemplate(Node plate, String var) {
+    		final NodeList children = plate.getChildNodes();
+    		body = new Node[children.getLength()];
+    		for (int i = 0; i < body.length; i++) {
+    			body[i] = children.item(i);
+    			final List<Substitution> list = new ArrayList<>();
+    			compile(body[i], var, new ArrayList<>(), list);
+    			substitutions.add(list);
+    		}
+    	}
+
+    	int bodySize() {
+    		return body.length;
+    	}
+
+    	/** copy of child childIndex of the body with the plate variable replaced by value **/
+    	Node instantiate(int childIndex, String value) {
+    		final Node copy = body[childIndex].cloneNode(true);
+    		for (final Substitution substitution : substitutions.get(childIndex)) {
+    			Node node = copy;
+    			for (final int i : substitution.path) {
+    				node = node.getChildNodes().item(i);
+    			}
+    			final String [] segments = substitution.segments;
+    			final StringBuilder buf = new StringBuilder(segments[0]);
+    			for (int i = 1; i < segments.length; i++) {
+    				buf.append(value).append(segments[i]);
+    			}
+    			if (substitution.attribute != null) {
+    				((Element) node).setAttribute(substitution.attribute, buf.toString());
+    			} else {
+    				node.setNodeValue(buf.toString());
+    			}
+    		}
+    		return copy;
+    	}
+
+    	private static void compile(Node node, String var, List<Integer> path, List<Substitution> list) {
+            switch (node.getNodeType()) {
+    	        case Node.ELEMENT_NODE:
+    				final NamedNodeMap atts = node.getAttributes();
+    	            for (int i = 0; i < atts.getLength(); i++) {
+    	                final Attr attr = (Attr) atts.item(i);
+    	                addSubstitution(attr.getValue(), var, path, attr.getName(), list);
+    	            }
+    	            break;
+    	        case Node.CDATA_SECTION_NODE:
+    	        	addSubstitution(node.getTextContent(), var, path, null, list);
+    	        	break;
+    			default:
+    				break;
+            }
+            final NodeList children = node.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+            	path.add(i);
+            	compile(children.item(i), var, path, list);
+            	path.remove(path.size() - 1);
+            }
+    	}
+
+    	/** split string at references to var, as matched by replaceVariable, and record if there are any **/
+    	private static void addSubstitution(String string, String var, List<Integer> path, String attribute, List<Substitution> list) {
+    		if (string.indexOf("$(") < 0) {
+    			return;
+    		}
+    		final List<String> segments = new ArrayList<>();
+    		final Matcher variableMatcher = variablePattern.matcher(string);
+    		int start = 0;
+    		StringBuilder segment = new StringBuilder();
+    		while (variableMatcher.find()) {
+    		    final String varString = variableMatcher.group(1).trim();
+    		    final int eqIdx = varString.indexOf("=");
+    		    final String varName = eqIdx > -1 ? varString.substring(0, eqIdx).trim() : varString;
+    		    segment.append(string, start, variableMatcher.start());
+    		    if (varName.equals(var)) {
+    		    	segments.add(segment.toString());
+    		    	segment = new StringBuilder();
+    		    } else {
+    		    	segment.append(variableMatcher.group(0));
+    		    }
+    		    start = variableMatcher.end();
+    		}
+    		if (segments.isEmpty()) {
+    			return;
+    		}
+    		segment.append(string, start, string.length());
+    		segments.add(segment.toString());
+
+    		final Substitution substitution = new Substitution();
+    		substitution.path = new int[path.size()];
+    		for (int i = 0; i < path.size(); i++) {
+    			substitution.path[i] = path.get(i);
+    		}
+    		substitution.attribute = attribute;
+    		substitution.segments = segments.toArray(new String[0]);
+    		list.add(substitution);
+    	}
+    } // class PlateTemplate
     
 
     static  Node getElementById(Document doc, String id, Map<String, Node> idMap) {
-    	if (!idMap.containsKey(id)) {
+    	// rebuild if the element is not known, or was removed by expanding a plate
+    	if (!idMap.containsKey(id) || !isInDocument(idMap.get(id))) {
+    		idMap.clear();
     		registerIDs(doc, doc.getDocumentElement(), idMap);
     	}
     	return idMap.get(id);
     }
 
+    private static boolean isInDocument(Node node) {
+    	while (node != null) {
+    		if (node.getNodeType() == Node.DOCUMENT_NODE) {
+    			return true;
+    		}
+    		node = node.getParentNode();
+    	}
+    	return false;
+    }
+
     private static void registerIDs(Document doc, Node node, Map<String, Node> idMap) {
     	if (node.getNodeType() == Node.ELEMENT_NODE) {
             if (node.getAttributes().getNamedItem("id") != null) {
@@ -43,6 +43,16 @@ public class BEASTClassLoader extends URLClassLoader {
 		static private Map<String, ClassLoader> class2loaderMap = new HashMap<>();
 		
 		static private Set<String> namespaces = new HashSet<>();
+
+		// maps class name to package for classes listed in the class index of a package (see ClassIndex)
+		static private Map<String, String> class2packageMap = new HashMap<>();
+
+		// jar files covered by class indexes
+		static private Set<String> indexedJars = new HashSet<>();
+
+		// packages with jar files not covered by a class index, so their class loaders
+		// have to be tried when looking for a class that is not in any class index
+		static private Set<String> unindexedPackages = new HashSet<>();
 		/**
 		 * Class loader should only be created by the singleton BEASTClassLoader.classLoader
 		 * so keep this private
@@ -62,6 +72,9 @@ public class BEASTClassLoader extends URLClassLoader {
 	    public void addURL(URL url, String packageName, Map<String, Set<String>> services) {
 	    	MultiParentURLClassLoader loader = getClassLoader(packageName);
 	    	loader.addURL(url);
+	    	if (!indexedJars.contains(url.toString())) {
+	    		unindexedPackages.add(packageName);
+	    	}
 
 	    	if (services != null) {
 	    		addServices(packageName, services);
@@ -99,7 +112,24 @@ public class BEASTClassLoader extends URLClassLoader {
 	    	System.err.println("Attempting to load " + jarFile);
 	    	MultiParentURLClassLoader loader = getClassLoader(packageName);
 	    	loader.addURL(jarFile);
+	    	unindexedPackages.add(packageName);
 	    } 	
+
+	    /**
+	     * Registers the classes in the class index of a package, so they can be
+	     * found without trying every package class loader. Should be called before
+	     * the jar files of the package are added with addURL.
+	     * @param jarURLs URLs of the jar files covered by the index
+	     * @param classNames names of the classes in these jar files
+	     */
+	    public void addClassIndex(String packageName, Collection<URL> jarURLs, Collection<String> classNames) {
+	    	for (URL url : jarURLs) {
+	    		indexedJars.add(url.toString());
+	    	}
+	    	for (String className : classNames) {
+	    		class2packageMap.put(className, packageName);
+	    	}
+	    }
 	   
 	    /**
 	     *  The BEAST package alternative for Class.forName().
@@ -114,8 +144,20 @@ public class BEASTClassLoader extends URLClassLoader {
 				return Class.forName(className, false, loader);
 			}
 			
+			String packageName = class2packageMap.get(className);
+			if (packageName != null) {
+				try {
+					return Class.forName(className, false, getClassLoader(packageName));
+				} catch (NoClassDefFoundError | java.lang.ClassNotFoundException e) {
+					// ignore -- try the other loaders
+				}
+			}
+
 			// System.err.println("Loading non-service: " + className);
-			for (MultiParentURLClassLoader loader : package2classLoaderMap.values()) {
+			// classes in indexed packages are all in class2packageMap, so only
+			// loaders of packages without class index can contain the class
+			for (String unindexedPackage : unindexedPackages) {
+				MultiParentURLClassLoader loader = package2classLoaderMap.get(unindexedPackage);
 				try { 
 					// System.err.println("Trying to load "+className+" using " + loader.name);
 					return Class.forName(className, false, loader);
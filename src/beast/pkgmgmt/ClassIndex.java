@@ -0,0 +1,275 @@
+package beast.pkgmgmt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Index of the classes in the jar files of an installed package, and of the
+ * services and name declared in its version.xml, so that loading a package does
+ * not require parsing version.xml, and finding classes does not require opening
+ * every jar file or trying every package class loader.
+ *
+ * The index is stored as a text file in the package directory, and is built when
+ * the package is installed, or the first time the package is loaded. It is only
+ * used as long as version.xml and the jar files in the lib directory have the
+ * same size and modification time as when the index was built. The index is
+ * read through a memory mapped file, decoding one line at a time instead of
+ * the whole file at once.
+ */
+public class ClassIndex {
+	public final static String INDEX_FILE = "classindex.txt";
+	final static String HEADER = "# BEAST class index 1";
+
+	String packageName;
+	String packageVersion;
+
+	// maps jar file name (in the lib directory) to names of classes in that jar
+	Map<String, List<String>> jarClasses = new LinkedHashMap<>();
+
+	// maps service (=class name) to service providers (=set of class names)
+	Map<String, Set<String>> services = new HashMap<>();
+
+	// maps file (relative to the package directory) to its modification time and size
+	Map<String, String> fileStamps = new LinkedHashMap<>();
+
+	private ClassIndex() {
+	}
+
+	public String getPackageName() {
+		return packageName;
+	}
+
+	public String getPackageVersion() {
+		return packageVersion;
+	}
+
+	public Map<String, List<String>> getJarClasses() {
+		return jarClasses;
+	}
+
+	public Map<String, Set<String>> getServices() {
+		return services;
+	}
+
+	/** names of the jar files in the lib directory covered by the index **/
+	public List<String> getJarFileNames() {
+		List<String> jarFileNames = new ArrayList<>();
+		for (String file : fileStamps.keySet()) {
+			if (file.startsWith("lib/")) {
+				jarFileNames.add(file.substring(4));
+			}
+		}
+		return jarFileNames;
+	}
+
+	/**
+	 * Index for a package directory: the one on disk if it is up to date, otherwise a
+	 * new index, which is saved if the directory is writable.
+	 * @return the index, or null if the directory has no valid version.xml
+	 */
+	public static ClassIndex get(String packageDir) {
+		ClassIndex index = read(packageDir);
+		if (index != null) {
+			return index;
+		}
+		try {
+			index = build(packageDir);
+		} catch (Exception e) {
+			return null;
+		}
+		try {
+			index.write(packageDir);
+		} catch (IOException e) {
+			// not writable, e.g. a system wide package directory, so just use the index in memory
+		}
+		return index;
+	}
+
+	/**
+	 * Builds an index from version.xml and the jar files in the lib directory of a package.
+	 * @throws Exception when version.xml is missing or cannot be parsed, or a jar file cannot be opened
+	 */
+	public static ClassIndex build(String packageDir) throws Exception {
+		ClassIndex index = new ClassIndex();
+		index.fileStamps = getFileStamps(packageDir);
+
+		File versionFile = new File(packageDir, "version.xml");
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		Document doc = factory.newDocumentBuilder().parse(versionFile);
+		Element packageElement = doc.getDocumentElement();
+		index.packageName = packageElement.getAttribute("name");
+		index.packageVersion = packageElement.getAttribute("version");
+		index.services = PackageManager.parseServices(doc);
+
+		File libDir = new File(packageDir, "lib");
+		for (String fileName : getJarFileNames(libDir)) {
+			List<String> classes = new ArrayList<>();
+			try (JarFile jar = new JarFile(new File(libDir, fileName))) {
+				for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+					String name = entries.nextElement().getName();
+					if (name.endsWith(".class")) {
+						classes.add(name.substring(0, name.length() - 6).replace('/', '.'));
+					}
+				}
+			}
+			index.jarClasses.put(fileName, classes);
+		}
+		return index;
+	}
+
+	/**
+	 * Reads the index of a package directory, if it is there and up to date.
+	 * @return the index, or null if there is none or it is out of date
+	 */
+	public static ClassIndex read(String packageDir) {
+		File indexFile = new File(packageDir, INDEX_FILE);
+		if (!indexFile.exists()) {
+			return null;
+		}
+		ClassIndex index = new ClassIndex();
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (!HEADER.equals(nextLine(buffer))) {
+				return null;
+			}
+			String line;
+			while ((line = nextLine(buffer)) != null) {
+				index.parse(line);
+			}
+		} catch (IOException | ArrayIndexOutOfBoundsException e) {
+			// unreadable or corrupt index
+			return null;
+		}
+		if (!index.fileStamps.equals(getFileStamps(packageDir))) {
+			return null;
+		}
+		return index;
+	}
+
+	/**
+	 * Decodes the next line of the buffer, so that only one line at a time is held as a string.
+	 * @return the line without line separator, or null at the end of the buffer
+	 */
+	private static String nextLine(ByteBuffer buffer) {
+		if (!buffer.hasRemaining()) {
+			return null;
+		}
+		int end = buffer.position();
+		while (end < buffer.limit() && buffer.get(end) != '\n') {
+			end++;
+		}
+		ByteBuffer line = buffer.duplicate();
+		line.limit(end);
+		buffer.position(Math.min(end + 1, buffer.limit()));
+		return StandardCharsets.UTF_8.decode(line).toString();
+	}
+
+	private void parse(String line) {
+		int space = line.indexOf(' ');
+		if (space < 0) {
+			return;
+		}
+		String[] fields = line.substring(space + 1).split("\t", -1);
+		switch (line.substring(0, space)) {
+		case "package":
+			packageName = fields[0];
+			packageVersion = fields.length > 1 ? fields[1] : "";
+			break;
+		case "file":
+			fileStamps.put(fields[0], fields[1] + "\t" + fields[2]);
+			break;
+		case "service":
+			if (!services.containsKey(fields[0])) {
+				services.put(fields[0], new HashSet<>());
+			}
+			services.get(fields[0]).add(fields[1]);
+			break;
+		case "class":
+			if (!jarClasses.containsKey(fields[0])) {
+				jarClasses.put(fields[0], new ArrayList<>());
+			}
+			jarClasses.get(fields[0]).add(fields[1]);
+			break;
+		default:
+			// unknown entry, ignore
+		}
+	}
+
+	/**
+	 * Saves the index in the package directory. The index is written to a temporary
+	 * file first, so other processes never see a partially written index.
+	 */
+	public void write(String packageDir) throws IOException {
+		File indexFile = new File(packageDir, INDEX_FILE);
+		File tmpFile = File.createTempFile(INDEX_FILE, ".tmp", new File(packageDir));
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8))) {
+			out.print(HEADER + "\n");
+			out.print("package " + packageName + "\t" + packageVersion + "\n");
+			for (String file : fileStamps.keySet()) {
+				out.print("file " + file + "\t" + fileStamps.get(file) + "\n");
+			}
+			for (String service : services.keySet()) {
+				for (String provider : services.get(service)) {
+					out.print("service " + service + "\t" + provider + "\n");
+				}
+			}
+			for (String jar : jarClasses.keySet()) {
+				for (String className : jarClasses.get(jar)) {
+					out.print("class " + jar + "\t" + className + "\n");
+				}
+			}
+		}
+		try {
+			Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+	}
+
+	/** modification time and size of version.xml and the jar files in lib **/
+	private static Map<String, String> getFileStamps(String packageDir) {
+		Map<String, String> stamps = new LinkedHashMap<>();
+		File versionFile = new File(packageDir, "version.xml");
+		stamps.put("version.xml", versionFile.lastModified() + "\t" + versionFile.length());
+		File libDir = new File(packageDir, "lib");
+		for (String fileName : getJarFileNames(libDir)) {
+			File jarFile = new File(libDir, fileName);
+			stamps.put("lib/" + fileName, jarFile.lastModified() + "\t" + jarFile.length());
+		}
+		return stamps;
+	}
+
+	private static String[] getJarFileNames(File libDir) {
+		String[] fileNames = libDir.list((dir, name) -> name.endsWith(".jar"));
+		if (fileNames == null) {
+			return new String[0];
+		}
+		Arrays.sort(fileNames);
+		return fileNames;
+	}
+}
@@ -49,6 +49,8 @@ import java.io.*;
 import java.lang.reflect.Modifier;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.channels.Channels;
@@ -147,6 +149,9 @@ public class PackageManager {
      */
     private static List<String> all_classes;
 
+    // maps the file URI of a jar file to the classes it contains, for jar files covered by a ClassIndex
+    private static Map<URI, List<String>> indexedJarClasses = new HashMap<>();
+
     /**
      * @return URLs containing list of downloadable packages.
      * @throws java.net.MalformedURLException
@@ -518,6 +523,13 @@ public class PackageManager {
             	deleteRecursively(dir, new ArrayList<>());
             	throw new RuntimeException(nameSpaceCheck);
             }
+
+            // index classes and services, so they do not need to be discovered when BEAST starts
+            try {
+            	ClassIndex.build(dirName).write(dirName);
+            } catch (Exception e) {
+            	System.err.println("Could not create class index for " + thisPkg.getName() + ": " + e.getMessage());
+            }
             
 
             dirList.put(thisPkg.getName(), dirName);
@@ -1186,7 +1198,14 @@ public class PackageManager {
             File versionFile = new File(jarDirName + "/version.xml");
             String packageName = null;
             Map<String,Set<String>> services = null;
-            if (versionFile.exists()) {
+            ClassIndex index = versionFile.exists() ? ClassIndex.get(jarDirName) : null;
+            if (index != null) {
+                packageName = index.getPackageName();
+                String packageNameAndVersion = packageName + " v" + index.getPackageVersion();
+                System.err.print(packageNameAndVersion);
+                Utils6.logToSplashScreen("Loading package " + packageNameAndVersion);
+                services = index.getServices();
+            } else if (versionFile.exists()) {
                 try {
                     // print name and version of package
                     DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -1212,6 +1231,20 @@ public class PackageManager {
             if (!jarDir.exists()) {
                 jarDir = new File(jarDirName + "\\lib");
             }
+            if (index != null && jarDir.exists() && jarDir.isDirectory()) {
+                List<URL> urls = new ArrayList<>();
+                List<String> classNames = new ArrayList<>();
+                for (String fileName : index.getJarFileNames()) {
+                    File jarFile = new File(jarDir.getAbsolutePath() + "/" + fileName);
+                    urls.add(jarFile.toURI().toURL());
+                    List<String> classes = index.getJarClasses().get(fileName);
+                    if (classes != null) {
+                        classNames.addAll(classes);
+                        indexedJarClasses.put(jarFile.getAbsoluteFile().toURI(), classes);
+                    }
+                }
+                BEASTClassLoader.classLoader.addClassIndex(standardise(packageName), urls, classNames);
+            }
             if (jarDir.exists() && jarDir.isDirectory()) {
                 for (String fileName : jarDir.list()) {
                     if (fileName.endsWith(".jar")) {
@@ -1502,6 +1535,26 @@ public class PackageManager {
     }
 
 
+    /**
+     * @return the classes of a jar file on the class path that is covered by a ClassIndex,
+     * or null if it is not. Entries added through addURL are URL encoded, other entries
+     * are plain file names, so both interpretations are tried.
+     */
+    private static List<String> getIndexedJarClasses(String path) {
+        if (indexedJarClasses.isEmpty()) {
+            return null;
+        }
+        List<String> classes = indexedJarClasses.get(new File(path).getAbsoluteFile().toURI());
+        if (classes == null) {
+            try {
+                classes = indexedJarClasses.get(new File(new URI("file:" + path)).getAbsoluteFile().toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // not a URL encoded absolute path
+            }
+        }
+        return classes;
+    }
+
     private static void loadAllClasses() {
         if (!externalJarsLoaded) {
             try {
@@ -1512,16 +1565,20 @@ public class PackageManager {
         }
 
         all_classes = new ArrayList<String>();
+        List<String> indexedClasses = new ArrayList<>();
         String pathSep = System.getProperty("path.separator");
         String classpath = System.getProperty("java.class.path");
 
         for (String path : classpath.split(pathSep)) {
             //System.err.println("loadallclasses " + path);
+            List<String> jarClasses = getIndexedJarClasses(path);
             path = path.replaceAll("%20", " ");
             File filepath = new File(path);
 
             if (filepath.isDirectory()) {
                 addDirContent(filepath, filepath.getAbsolutePath().length());
+            } else if (jarClasses != null) {
+                indexedClasses.addAll(jarClasses);
             } else if (path.endsWith(".jar")) {
 
                 JarFile jar = null;
@@ -1564,6 +1621,7 @@ public class PackageManager {
             }
             all_classes.set(i, str);
         }
+        all_classes.addAll(indexedClasses);
 
     }
 
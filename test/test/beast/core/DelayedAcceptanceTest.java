@@ -0,0 +1,131 @@
+package test.beast.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.commons.math3.stat.StatUtils;
+import org.junit.jupiter.api.Test;
+
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.MCMC;
+import beast.base.inference.State;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.distribution.Uniform;
+import beast.base.inference.operator.RealRandomWalkOperator;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+public class DelayedAcceptanceTest {
+
+    @Test
+    public void testScreenWithPrior() throws Exception {
+        Randomizer.setSeed(127);
+
+        // prior x ~ N(0, 1) and one observation 1.0 ~ N(x, 0.5^2),
+        // so the posterior of x is N(0.8, 0.2)
+        RealParameter x = new RealParameter("0.0");
+        x.setID("x");
+        x.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Normal normalPrior = new Normal();
+        normalPrior.initByName("mean", "0.0", "sigma", "1.0");
+        Prior xPrior = new Prior();
+        xPrior.initByName("x", x, "distr", normalPrior);
+        CompoundDistribution prior = new CompoundDistribution();
+        prior.initByName("distribution", xPrior);
+        prior.setID("prior");
+
+        RealParameter data = new RealParameter("1.0");
+        data.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Normal normalData = new Normal();
+        normalData.initByName("mean", x, "sigma", "0.5");
+        Prior likelihood = new Prior();
+        likelihood.initByName("x", data, "distr", normalData);
+
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", prior, "distribution", likelihood);
+
+        RealRandomWalkOperator operator = new RealRandomWalkOperator();
+        operator.initByName("weight", 1.0, "parameter", x, "windowSize", 1.0);
+
+        State state = new State();
+        state.initByName("stateNode", x);
+        TraceRecorder trace = new TraceRecorder();
+        trace.initByName("logEvery", 10, "burnin", 1000, "log", x);
+        MCMC mcmc = new MCMC();
+        mcmc.initByName("chainLength", 500000L, "state", state, "distribution", posterior,
+                "screen", prior, "operator", operator, "logger", trace);
+        mcmc.run();
+
+        double[] v = trace.getValues()[0];
+        assertEquals(0.8, StatUtils.mean(v), 1e-2);
+        assertEquals(0.2, StatUtils.variance(v), 1e-2);
+
+        // some, but not all, rejections happen at the screen
+        int screened = operator.getNrRejectedScreened();
+        assertTrue(screened > 0);
+        assertTrue(screened < operator.get_m_nNrRejected());
+    }
+
+    @Test
+    public void testScreenCalculatedOnceAndInvalidProposals() throws Exception {
+        Randomizer.setSeed(128);
+
+        // prior x ~ U(-1, 1), so proposals outside the bounds have screen log density -Infinity
+        RealParameter x = new RealParameter("0.0");
+        x.setID("x");
+        x.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Uniform uniform = new Uniform();
+        uniform.initByName("lower", "-1.0", "upper", "1.0");
+        int[] screenCalculations = new int[1];
+        Prior xPrior = new Prior() {
+            @Override
+            public double calculateLogP() {
+                screenCalculations[0]++;
+                return super.calculateLogP();
+            }
+        };
+        xPrior.initByName("x", x, "distr", uniform);
+        CompoundDistribution prior = new CompoundDistribution();
+        prior.initByName("distribution", xPrior);
+        prior.setID("prior");
+
+        RealParameter data = new RealParameter("0.5");
+        data.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Normal normalData = new Normal();
+        normalData.initByName("mean", x, "sigma", "0.5");
+        Prior likelihood = new Prior();
+        likelihood.initByName("x", data, "distr", normalData);
+
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", prior, "distribution", likelihood);
+
+        int[] rejections = new int[3];
+        RealRandomWalkOperator operator = new RealRandomWalkOperator() {
+            @Override
+            public void reject(int reason) {
+                super.reject(reason);
+                rejections[reason + 1]++;
+            }
+        };
+        operator.initByName("weight", 1.0, "parameter", x, "windowSize", 2.0);
+
+        State state = new State();
+        state.initByName("stateNode", x);
+        TraceRecorder trace = new TraceRecorder();
+        trace.initByName("logEvery", 10, "log", x);
+        MCMC mcmc = new MCMC();
+        int chainLength = 10000;
+        mcmc.initByName("chainLength", (long) chainLength, "state", state, "distribution", posterior,
+                "screen", prior, "operator", operator, "logger", trace);
+        screenCalculations[0] = 0;
+        mcmc.run();
+
+        // once per proposal, and a few times when initialising the chain
+        assertTrue(screenCalculations[0] <= chainLength + 10);
+        // proposals outside the bounds are invalid, not screened out
+        assertTrue(rejections[0] > 0);
+        assertEquals(rejections[2], operator.getNrRejectedScreened());
+        assertEquals(0, operator.getNrRejectedScreened());
+    }
+}
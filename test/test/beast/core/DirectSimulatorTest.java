@@ -0,0 +1,143 @@
+package test.beast.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.inference.DirectSimulator;
+import beast.base.inference.Logger;
+import beast.base.inference.distribution.Dirichlet;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.distribution.Uniform;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+public class DirectSimulatorTest {
+
+    /** logger that keeps logged values in memory **/
+    public static class MemoryLogger extends Logger {
+        List<Long> sampleNrs = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void log(long sampleNr) {
+            sampleNrs.add(sampleNr);
+            values.add(((RealParameter) loggersInput.get().get(0)).getValue());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private MemoryLogger simulate(int threads, int nSamples) throws Exception {
+        Randomizer.setSeed(123);
+        RealParameter mean = new RealParameter(new Double[]{0.0});
+        mean.setID("mean");
+        RealParameter x = new RealParameter(new Double[]{0.0});
+        x.setID("x");
+        Uniform uniform = new Uniform();
+        uniform.initByName("lower", "10.0", "upper", "20.0");
+        uniform.setID("uniform");
+        Prior meanPrior = new Prior();
+        meanPrior.initByName("x", mean, "distr", uniform);
+        meanPrior.setID("meanPrior");
+        Normal normal = new Normal();
+        normal.initByName("mean", mean, "sigma", "1.0");
+        normal.setID("normal");
+        Prior xPrior = new Prior();
+        xPrior.initByName("x", x, "distr", normal);
+        xPrior.setID("xPrior");
+        CompoundDistribution prior = new CompoundDistribution();
+        prior.initByName("distribution", xPrior, "distribution", meanPrior);
+        prior.setID("prior");
+
+        MemoryLogger logger = new MemoryLogger();
+        logger.initByName("log", x);
+        DirectSimulator simulator = new DirectSimulator();
+        simulator.initByName("distribution", prior, "logger", logger, "nSamples", nSamples,
+                "threads", threads, "chunkSize", 7);
+        simulator.run();
+        return logger;
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        MemoryLogger logger = simulate(1, 2000);
+        assertEquals(2000, logger.values.size());
+        double sum = 0;
+        for (double v : logger.values) {
+            sum += v;
+        }
+        // x ~ N(mean, 1) with mean ~ U(10, 20)
+        assertEquals(15.0, sum / logger.values.size(), 0.3);
+    }
+
+    @Test
+    public void testDoesNotDependOnThreadCount() throws Exception {
+        MemoryLogger logger1 = simulate(1, 100);
+        MemoryLogger logger2 = simulate(2, 100);
+        MemoryLogger logger3 = simulate(3, 100);
+        assertEquals(100, logger2.values.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, logger2.sampleNrs.get(i).longValue());
+        }
+        assertArrayEquals(logger1.values.toArray(), logger2.values.toArray());
+        assertArrayEquals(logger2.values.toArray(), logger3.values.toArray());
+        double sum = 0;
+        for (double v : logger2.values) {
+            sum += v;
+        }
+        assertEquals(15.0, sum / logger2.values.size(), 1.0);
+    }
+
+    private MemoryLogger simulateDirichlet(int threads, int nSamples, int randomizerDraws) throws Exception {
+        Randomizer.setSeed(123);
+        // draws from Randomizer should not affect samples, which only depend on its seed
+        for (int i = 0; i < randomizerDraws; i++) {
+            Randomizer.nextDouble();
+        }
+        RealParameter x = new RealParameter(new Double[]{0.2, 0.3, 0.5});
+        x.setID("x");
+        Dirichlet dirichlet = new Dirichlet();
+        dirichlet.initByName("alpha", new RealParameter("0.5 2.0 3.5"));
+        dirichlet.setID("dirichlet");
+        Prior prior = new Prior();
+        prior.initByName("x", x, "distr", dirichlet);
+        prior.setID("prior");
+
+        MemoryLogger logger = new MemoryLogger();
+        logger.initByName("log", x);
+        DirectSimulator simulator = new DirectSimulator();
+        simulator.initByName("distribution", prior, "logger", logger, "nSamples", nSamples,
+                "threads", threads, "chunkSize", 7);
+        simulator.run();
+        return logger;
+    }
+
+    @Test
+    public void testDirichletDoesNotDependOnThreadCount() throws Exception {
+        // Dirichlet overrides sample(size), so also needs to sample from the random number generator of the chunk
+        MemoryLogger logger1 = simulateDirichlet(1, 1000, 3);
+        MemoryLogger logger2 = simulateDirichlet(2, 1000, 0);
+        MemoryLogger logger3 = simulateDirichlet(3, 1000, 5);
+        assertArrayEquals(logger1.values.toArray(), logger2.values.toArray());
+        assertArrayEquals(logger2.values.toArray(), logger3.values.toArray());
+        double sum = 0;
+        for (double v : logger2.values) {
+            sum += v;
+        }
+        // first component has a Beta(0.5, 5.5) distribution with mean 0.5 / 6
+        assertEquals(0.5 / 6, sum / logger2.values.size(), 0.01);
+    }
+}
@@ -0,0 +1,55 @@
+package test.beast.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import beast.base.core.Function;
+import beast.base.core.Input;
+import beast.base.inference.Logger;
+
+/**
+ * Logger for tests that records the values of a parameter after burn-in in memory,
+ * so that tests can check the distribution an MCMC run samples from.
+ */
+public class TraceRecorder extends Logger {
+    final public Input<Integer> burninInput = new Input<>("burnin", "number of samples to skip (burn in)", 0);
+
+    Function param;
+    int every;
+    int burnin;
+    List<double[]> values;
+
+    @Override
+    public void initAndValidate() {
+        param = (Function) loggersInput.get().get(0);
+        every = everyInput.get();
+        burnin = burninInput.get();
+        values = new ArrayList<>();
+    }
+
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public void log(long sample) {
+        if (sample >= burnin && sample % every == 0) {
+            values.add(param.getDoubleValues());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /** @return recorded values, indexed by dimension of the parameter, then by sample **/
+    public double[][] getValues() {
+        double[][] v = new double[param.getDimension()][values.size()];
+        for (int k = 0; k < values.size(); k++) {
+            for (int i = 0; i < v.length; i++) {
+                v[i][k] = values.get(k)[i];
+            }
+        }
+        return v;
+    }
+}
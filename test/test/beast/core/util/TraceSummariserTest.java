@@ -0,0 +1,169 @@
+package test.beast.core.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import beast.base.inference.util.ESS;
+import beast.base.inference.util.TraceSummariser;
+import beast.base.inference.util.TraceSummariser.ColumnSummary;
+import beast.base.util.DiscreteStatistics;
+
+public class TraceSummariserTest {
+
+    @TempDir
+    File dir;
+
+    /** writes a log with two autocorrelated columns and a non-numeric column, and returns the values of the first column **/
+    private double[][] writeLog(File file, int sampleCount) throws Exception {
+        Random random = new Random(123);
+        double[][] values = new double[2][sampleCount];
+        try (PrintStream out = new PrintStream(file)) {
+            out.println("# model: test");
+            out.println("Sample\tposterior\tkappa\tlabel");
+            double a = 0, b = 1;
+            for (int i = 0; i < sampleCount; i++) {
+                a = 0.9 * a + random.nextGaussian();
+                b = Math.abs(0.5 * b + random.nextGaussian());
+                values[0][i] = a;
+                values[1][i] = b;
+                out.print(i * 1000 + "\t" + a + "\t" + b + "\tx" + i + (i % 2 == 0 ? "\r\n" : "\n"));
+            }
+        }
+        return values;
+    }
+
+    @Test
+    public void testExactSummary() throws Exception {
+        File file = new File(dir, "test.log");
+        double[][] values = writeLog(file, 5000);
+        List<ColumnSummary> summaries = new TraceSummariser(3).summarise(file, 10);
+        assertEquals(3, summaries.size());
+        assertFalse(summaries.get(2).isNumeric());
+
+        for (int k = 0; k < 2; k++) {
+            ColumnSummary summary = summaries.get(k);
+            assertTrue(summary.isExact());
+            double[] trace = new double[4500];
+            Double[] boxed = new Double[4500];
+            for (int i = 0; i < 4500; i++) {
+                trace[i] = values[k][500 + i];
+                boxed[i] = trace[i];
+            }
+            assertEquals(4500, summary.getCount());
+            assertEquals(DiscreteStatistics.mean(trace), summary.getMean(), 1e-10);
+            assertEquals(DiscreteStatistics.variance(trace), summary.getVariance(), 1e-10);
+            assertEquals(ESS.calcESS(boxed, 1), summary.getESS(), 1e-10);
+            assertEquals(DiscreteStatistics.median(trace), summary.getMedian(), 0.0);
+            int[] indices = new int[trace.length];
+            beast.base.util.HeapSort.sort(trace, indices);
+            assertArrayEquals(DiscreteStatistics.HPDInterval(0.95, trace, indices), summary.getHPDInterval(0.95), 0.0);
+        }
+    }
+
+    @Test
+    public void testApproximateQuantiles() throws Exception {
+        File file = new File(dir, "long.log");
+        int sampleCount = TraceSummariser.EXACT_LIMIT * 3;
+        double[][] values = writeLog(file, sampleCount);
+        List<ColumnSummary> summaries = new TraceSummariser(2).summarise(file, 0);
+
+        for (int k = 0; k < 2; k++) {
+            ColumnSummary summary = summaries.get(k);
+            assertFalse(summary.isExact());
+            assertEquals(sampleCount, summary.getCount());
+            double[] trace = values[k];
+            double tolerance = 1e-3 * (DiscreteStatistics.max(trace) - DiscreteStatistics.min(trace));
+            assertEquals(DiscreteStatistics.median(trace), summary.getMedian(), tolerance);
+            assertEquals(DiscreteStatistics.quantile(0.025, trace), summary.getQuantile(0.025), tolerance);
+            int[] indices = new int[trace.length];
+            beast.base.util.HeapSort.sort(trace, indices);
+            double[] hpd = DiscreteStatistics.HPDInterval(0.95, trace, indices);
+            assertArrayEquals(hpd, summary.getHPDInterval(0.95), 5 * tolerance);
+
+            // batch means estimate
+            Double[] boxed = new Double[trace.length];
+            for (int i = 0; i < trace.length; i++) {
+                boxed[i] = values[k][i];
+            }
+            double ess = ESS.calcESS(boxed, 1);
+            assertEquals(ess, summary.getESS(), 0.25 * ess);
+        }
+    }
+
+    @Test
+    public void testSkipsValuesThatAreNotNumbers() throws Exception {
+        File file = new File(dir, "nan.log");
+        try (PrintStream out = new PrintStream(file)) {
+            out.println("Sample\tposterior\tkappa");
+            for (int i = 0; i < 100; i++) {
+                out.println(i + "\t" + (i % 10 == 0 ? "NaN" : "" + i) + "\t" + (i == 50 ? "-" : "" + (2 * i)));
+            }
+        }
+        List<ColumnSummary> summaries = new TraceSummariser(2).summarise(file, 0);
+        assertEquals(90, summaries.get(0).getCount());
+        assertEquals(10, summaries.get(0).getSkippedCount());
+        assertEquals(50.0, summaries.get(0).getMean(), 1e-10);
+        assertEquals(99, summaries.get(1).getCount());
+        assertEquals(1, summaries.get(1).getSkippedCount());
+        assertEquals(9800.0 / 99, summaries.get(1).getMean(), 1e-10);
+    }
+
+    private double parse(String s) {
+        byte[] bytes = ("\t" + s + "\t").getBytes(StandardCharsets.ISO_8859_1);
+        return TraceSummariser.parseDouble(ByteBuffer.wrap(bytes), 1, bytes.length - 1, new char[4]);
+    }
+
+    @Test
+    public void testParseDouble() {
+        String[] special = {"0", "-0.0", "0.000", "1", "-1", "+2.5", "1e10", "1E-10", "-1.5e+3", "123456789012345678",
+                "0.1", "0.3", "1.7976931348623157E308", "4.9E-324", "2.2250738585072014E-308", "Infinity", "-Infinity",
+                "1.2345678901234567E-12", "9007199254740993", "0.00000000000000000000000001", "1234567890123456789012",
+                " 3.25 ", "3.25\r", ".5", "5.", "7e0", "1e400", "1e-400"};
+        for (String s : special) {
+            assertEquals(Double.parseDouble(s), parse(s), 0.0, s);
+        }
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(parse("-0.0")));
+        for (String s : new String[]{"", "-", "x", "1e", "1e+", "1.2.3", "NA", "--1", "e5", "."}) {
+            assertTrue(Double.isNaN(parse(s)), s);
+        }
+        assertTrue(Double.isNaN(parse("NaN")));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            double x;
+            switch (i % 4) {
+                case 0:
+                    x = Double.longBitsToDouble(random.nextLong());
+                    break;
+                case 1:
+                    x = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+                    break;
+                case 2:
+                    x = random.nextDouble();
+                    break;
+                default:
+                    x = random.nextInt(1000000) / 1000.0;
+                    break;
+            }
+            if (Double.isNaN(x)) {
+                continue;
+            }
+            String s = Double.toString(x);
+            assertEquals(x, parse(s), 0.0, s);
+            s = String.format("%." + random.nextInt(20) + "g", x);
+            assertEquals(Double.parseDouble(s), parse(s), 0.0, s);
+        }
+    }
+}
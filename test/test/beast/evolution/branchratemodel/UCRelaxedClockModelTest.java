@@ -0,0 +1,152 @@
+package test.beast.evolution.branchratemodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.branchratemodel.UCRelaxedClockModel;
+import beast.base.evolution.likelihood.TreeLikelihood;
+import beast.base.evolution.sitemodel.SiteModel;
+import beast.base.evolution.substitutionmodel.JukesCantor;
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.inference.State;
+import beast.base.inference.distribution.InverseCDFTable;
+import beast.base.inference.distribution.LogNormalDistributionModel;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import test.beast.BEASTTestCase;
+
+public class UCRelaxedClockModelTest {
+
+    private UCRelaxedClockModel createClockModel(Tree tree, LogNormalDistributionModel distr, double tolerance) {
+        RealParameter quantiles = new RealParameter("0.5");
+        UCRelaxedClockModel clockModel = new UCRelaxedClockModel();
+        clockModel.initByName("tree", tree, "distr", distr, "rateQuantiles", quantiles, "quantileTolerance", tolerance);
+        return clockModel;
+    }
+
+    @Test
+    public void testQuantileRates() throws Exception {
+        Randomizer.setSeed(123);
+        Tree tree = new TreeParser("((A:1.0,B:1.0):1.0,((C:0.5,D:0.5):0.5,(E:1.5,F:1.5):0.5):0.5):0.0;", false, true, true, 1);
+        LogNormalDistributionModel distr = new LogNormalDistributionModel();
+        distr.initByName("M", new RealParameter("1.0"), "S", new RealParameter("0.8"), "meanInRealSpace", true);
+
+        UCRelaxedClockModel exact = createClockModel(tree, distr, 0.0);
+        RealParameter quantiles = exact.quantileInput.get();
+        for (Node node : tree.getNodesAsArray()) {
+            if (!node.isRoot()) {
+                double q = quantiles.getArrayValue(node.getNr());
+                assertEquals(distr.inverseCumulativeProbability(q), exact.getRateForBranch(node), 1e-12);
+            }
+        }
+
+        // table approximation with same quantiles
+        UCRelaxedClockModel approx = createClockModel(tree, distr, 1e-5);
+        approx.quantileInput.get().assignFromWithoutID(quantiles);
+        approx.quantileInput.get().setValue(0, 0.99999); // in the tail, so calculated exactly
+        quantiles.setValue(0, 0.99999);
+        exact = createClockModel(tree, distr, 0.0);
+        exact.quantileInput.get().assignFromWithoutID(quantiles);
+        for (Node node : tree.getNodesAsArray()) {
+            if (!node.isRoot()) {
+                double rate = exact.getRateForBranch(node);
+                assertEquals(rate, approx.getRateForBranch(node), 1e-4 * rate);
+            }
+        }
+    }
+
+    @Test
+    public void testInverseCDFTable() throws Exception {
+        LogNormalDistributionModel distr = new LogNormalDistributionModel();
+        distr.initByName("M", new RealParameter("1.0"), "S", new RealParameter("1.5"), "meanInRealSpace", true);
+        for (double tolerance : new double[]{1e-3, 1e-6}) {
+            InverseCDFTable table = new InverseCDFTable(tolerance);
+            table.build(distr);
+            for (int i = 1; i < 10000; i++) {
+                double q = i / 10000.0;
+                double x = distr.inverseCumulativeProbability(q);
+                assertEquals(x, table.inverseCumulativeProbability(q), tolerance * x);
+            }
+        }
+    }
+
+    @Test
+    public void testDirtyBranches() throws Exception {
+        Randomizer.setSeed(127);
+        Alignment data = BEASTTestCase.getAlignment();
+        Tree tree = BEASTTestCase.getTree(data);
+        RealParameter s = new RealParameter("0.5");
+        LogNormalDistributionModel distr = new LogNormalDistributionModel();
+        distr.initByName("M", new RealParameter("1.0"), "S", s, "meanInRealSpace", true);
+        UCRelaxedClockModel clockModel = createClockModel(tree, distr, 0.0);
+        RealParameter quantiles = clockModel.quantileInput.get();
+
+        JukesCantor jc = new JukesCantor();
+        jc.initAndValidate();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName("gammaCategoryCount", 1, "substModel", jc);
+        TreeLikelihood likelihood = new TreeLikelihood();
+        likelihood.initByName("data", data, "tree", tree, "siteModel", siteModel, "branchRateModel", clockModel);
+
+        State state = new State();
+        state.initByName("stateNode", quantiles, "stateNode", s);
+        state.initialise();
+        state.setPosterior(likelihood);
+        likelihood.calculateLogP();
+
+        int nodeCount = tree.getNodeCount();
+        double [] rates = new double[nodeCount];
+        for (int i = 0; i < 20; i++) {
+            state.store(i);
+            int index = Randomizer.nextInt(quantiles.getDimension());
+            if (i % 5 == 4) {
+                s.setValue(0.2 + Randomizer.nextDouble());
+            } else {
+                quantiles.setValue(index, Randomizer.nextDouble());
+            }
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+
+            BitSet dirtyBranches = new BitSet();
+            clockModel.markDirtyBranches(tree, dirtyBranches);
+            if (i % 5 == 4) {
+                assertEquals(nodeCount, dirtyBranches.cardinality());
+            } else {
+                assertEquals(1, dirtyBranches.cardinality());
+                int nodeNr = dirtyBranches.nextSetBit(0);
+                assertTrue(nodeNr == index || (index == tree.getRoot().getNr() && nodeNr == nodeCount - 1));
+            }
+
+            clockModel.getRatesForBranches(tree, rates);
+            for (Node node : tree.getNodesAsArray()) {
+                assertEquals(clockModel.getRateForBranch(node), rates[node.getNr()], 0.0);
+            }
+
+            double logP = likelihood.calculateLogP();
+            assertEquals(freshLogP(data, tree, distr, quantiles, siteModel), logP, 1e-10);
+            if (i % 2 == 0) {
+                state.acceptCalculationNodes();
+            } else {
+                state.restore();
+                state.restoreCalculationNodes();
+            }
+            state.setEverythingDirty(false);
+        }
+        assertEquals(freshLogP(data, tree, distr, quantiles, siteModel), likelihood.calculateLogP(), 1e-10);
+    }
+
+    private double freshLogP(Alignment data, Tree tree, LogNormalDistributionModel distr, RealParameter quantiles, SiteModel siteModel) {
+        UCRelaxedClockModel clockModel = createClockModel(tree, distr, 0.0);
+        clockModel.quantileInput.get().assignFromWithoutID(quantiles);
+        TreeLikelihood likelihood = new TreeLikelihood();
+        likelihood.initByName("data", data, "tree", tree, "siteModel", siteModel, "branchRateModel", clockModel);
+        return likelihood.calculateLogP();
+    }
+}
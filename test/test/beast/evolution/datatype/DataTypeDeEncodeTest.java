@@ -1,6 +1,7 @@
 package test.beast.evolution.datatype;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.util.Arrays;
 import java.util.List;
@@ -8,6 +9,7 @@ import java.util.List;
 import org.junit.jupiter.api.Test;
 import beast.base.evolution.datatype.Aminoacid;
 import beast.base.evolution.datatype.Binary;
+import beast.base.evolution.datatype.Codon;
 import beast.base.evolution.datatype.IntegerData;
 import beast.base.evolution.datatype.Nucleotide;
 import beast.base.evolution.datatype.TwoStateCovarion;
@@ -42,4 +44,19 @@ public class DataTypeDeEncodeTest {
 		}
 	}
 
+	@Test
+	public void testCodon() {
+		Base d = new Codon();
+		assertEquals(61, d.getStateCount());
+		// AAA, TTT, TAC (skipping stop codons TAA), gap, missing
+		assertEquals(Arrays.asList(new Integer[] { 0, 60, 48, 61, 62 }), d.stringToEncoding("AAATTTTAC---???"));
+		assertEquals("AAATTTTAC---???", d.encodingToString(d.stringToEncoding("AAATTTTAC---???")));
+		// RNA
+		assertEquals(d.stringToEncoding("ACGTTT"), d.stringToEncoding("ACGUUU"));
+		assertEquals(61, d.getStatesForCode(63).length);
+
+		assertThrows(IllegalArgumentException.class, () -> d.stringToEncoding("AAATGA"));
+		assertThrows(IllegalArgumentException.class, () -> d.stringToEncoding("AAAT"));
+	}
+
 }
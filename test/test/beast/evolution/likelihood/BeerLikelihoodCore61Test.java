@@ -0,0 +1,63 @@
+package test.beast.evolution.likelihood;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.likelihood.BeerLikelihoodCore;
+import beast.base.evolution.likelihood.BeerLikelihoodCore61;
+import beast.base.util.Randomizer;
+
+public class BeerLikelihoodCore61Test {
+    final static int STATES = 61;
+
+    @Test
+    public void testSameAsGenericCore() {
+        Randomizer.setSeed(127);
+        // odd pattern count, so that both blocked and remaining patterns are calculated
+        int patternCount = 23;
+        int categoryCount = 3;
+        double[] partials = new double[patternCount * STATES * categoryCount];
+        for (int i = 0; i < partials.length; i++) {
+            partials[i] = Randomizer.nextDouble();
+        }
+        int[] states = new int[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            // include gaps
+            states[i] = Randomizer.nextInt(STATES + 3);
+        }
+        double[][] matrices = new double[3][STATES * STATES];
+        for (double[] matrix : matrices) {
+            for (int i = 0; i < matrix.length; i++) {
+                matrix[i] = Randomizer.nextDouble();
+            }
+        }
+
+        BeerLikelihoodCore generic = new BeerLikelihoodCore(STATES);
+        BeerLikelihoodCore codon = new BeerLikelihoodCore61();
+        for (BeerLikelihoodCore core : new BeerLikelihoodCore[]{generic, codon}) {
+            core.initialize(5, patternCount, categoryCount, true, false);
+            core.setNodePartials(0, partials);
+            core.setNodePartials(1, partials);
+            core.setNodeStates(2, states);
+            core.createNodePartials(3);
+            core.createNodePartials(4);
+            for (int node = 0; node < 3; node++) {
+                for (int i = 0; i < categoryCount; i++) {
+                    core.setNodeMatrix(node, i, matrices[node]);
+                }
+            }
+            // partials with partials, and states with partials
+            core.calculatePartials(0, 1, 3);
+            core.calculatePartials(2, 1, 4);
+        }
+
+        double[] expected = new double[partials.length];
+        double[] actual = new double[partials.length];
+        for (int node = 3; node < 5; node++) {
+            generic.getPartials(node, expected);
+            codon.getPartials(node, actual);
+            assertArrayEquals(expected, actual, 0.0);
+        }
+    }
+}
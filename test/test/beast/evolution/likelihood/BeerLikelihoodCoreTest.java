@@ -0,0 +1,181 @@
+package test.beast.evolution.likelihood;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.likelihood.BeerLikelihoodCore;
+import beast.base.util.Randomizer;
+
+public class BeerLikelihoodCoreTest {
+    final static int STATES = 4;
+    final static int PATTERNS = 7;
+    final static int CATEGORIES = 2;
+
+    /**
+     * Sets up a caterpillar tree with the given number of tips, of which the partials
+     * are random numbers multiplied by tipScale, so that partials get smaller towards the root.
+     * Tips are numbered 0..tipCount-1, the internal node above tip k > 0 is tipCount+k-1.
+     */
+    private BeerLikelihoodCore createCore(int tipCount, double tipScale, long seed) {
+        Randomizer.setSeed(seed);
+        int nodeCount = 2 * tipCount - 1;
+        BeerLikelihoodCore core = new BeerLikelihoodCore(STATES);
+        core.initialize(nodeCount, PATTERNS, CATEGORIES, true, false);
+        for (int i = 0; i < tipCount; i++) {
+            double[] partials = new double[PATTERNS * STATES];
+            for (int j = 0; j < partials.length; j++) {
+                partials[j] = tipScale * (0.1 + Randomizer.nextDouble());
+            }
+            core.setNodePartials(i, partials);
+        }
+        for (int i = tipCount; i < nodeCount; i++) {
+            core.createNodePartials(i);
+        }
+        for (int i = 0; i < nodeCount - 1; i++) {
+            for (int k = 0; k < CATEGORIES; k++) {
+                core.setNodeMatrix(i, k, randomMatrix());
+            }
+        }
+        return core;
+    }
+
+    private double[] randomMatrix() {
+        double[] matrix = new double[STATES * STATES];
+        for (int j = 0; j < matrix.length; j++) {
+            matrix[j] = 0.1 + Randomizer.nextDouble() / STATES;
+        }
+        return matrix;
+    }
+
+    private double[] calculateLogLikelihoods(BeerLikelihoodCore core, int tipCount, int fromNode) {
+        int root = 2 * tipCount - 2;
+        for (int i = Math.max(fromNode, tipCount); i <= root; i++) {
+            if (i == tipCount) {
+                core.calculatePartials(0, 1, i);
+            } else {
+                core.calculatePartials(i - 1, i - tipCount + 1, i);
+            }
+        }
+        double[] rootPartials = new double[PATTERNS * STATES];
+        core.integratePartials(root, new double[]{0.5, 0.5}, rootPartials);
+        double[] logL = new double[PATTERNS];
+        core.calculateLogLikelihoods(rootPartials, new double[]{0.25, 0.25, 0.25, 0.25}, logL);
+        return logL;
+    }
+
+    @Test
+    public void testScalingIntervalsAgree() {
+        // small enough to need scaling, but not so small that unscaled partials underflow
+        int tipCount = 30;
+        double tipScale = 1e-6;
+        double[] expected = calculateLogLikelihoods(createCore(tipCount, tipScale, 127), tipCount, 0);
+        for (double logL : expected) {
+            assertTrue(logL < Math.log(1e-100));
+        }
+
+        for (int interval : new int[]{1, 2, 3, BeerLikelihoodCore.DEFAULT_SCALING_INTERVAL, 100}) {
+            BeerLikelihoodCore core = createCore(tipCount, tipScale, 127);
+            core.setUseScaling(1.01);
+            core.setScalingInterval(interval);
+            double[] logL = calculateLogLikelihoods(core, tipCount, 0);
+            assertArrayEquals(expected, logL, 1e-10 * Math.abs(expected[0]));
+        }
+    }
+
+    @Test
+    public void testScalingPreventsUnderflow() {
+        int tipCount = 60;
+        double tipScale = 1e-6;
+        double[] logL = calculateLogLikelihoods(createCore(tipCount, tipScale, 128), tipCount, 0);
+        assertEquals(Double.NEGATIVE_INFINITY, logL[0]);
+
+        BeerLikelihoodCore everyNode = createCore(tipCount, tipScale, 128);
+        everyNode.setUseScaling(1.01);
+        everyNode.setScalingInterval(1);
+        double[] expected = calculateLogLikelihoods(everyNode, tipCount, 0);
+
+        BeerLikelihoodCore core = createCore(tipCount, tipScale, 128);
+        core.setUseScaling(1.01);
+        logL = calculateLogLikelihoods(core, tipCount, 0);
+        assertArrayEquals(expected, logL, 1e-10 * Math.abs(expected[0]));
+        for (int i = 0; i < PATTERNS; i++) {
+            assertTrue(Double.isFinite(logL[i]));
+        }
+    }
+
+    @Test
+    public void testScalingIntervalShrinksOnTinyPartials() {
+        // four levels of tips this small take partials below the square of the scaling threshold
+        int tipCount = 30;
+        BeerLikelihoodCore core = createCore(tipCount, 1e-50, 129);
+        core.setUseScaling(1.01);
+        double[] logL = calculateLogLikelihoods(core, tipCount, 0);
+        assertTrue(core.getScalingInterval() < BeerLikelihoodCore.DEFAULT_SCALING_INTERVAL);
+        for (int i = 0; i < PATTERNS; i++) {
+            assertTrue(Double.isFinite(logL[i]));
+        }
+    }
+
+    @Test
+    public void testScalingStoreRestore() {
+        int tipCount = 40;
+        BeerLikelihoodCore core = createCore(tipCount, 1e-6, 130);
+        core.setUseScaling(1.01);
+        double[] expected = calculateLogLikelihoods(core, tipCount, 0);
+        core.store();
+
+        // change the matrix of a branch halfway, and recalculate the path to the root
+        int node = tipCount + tipCount / 2;
+        Randomizer.setSeed(131);
+        core.setNodeMatrixForUpdate(node);
+        for (int k = 0; k < CATEGORIES; k++) {
+            core.setNodeMatrix(node, k, randomMatrix());
+        }
+        for (int i = node + 1; i < 2 * tipCount - 1; i++) {
+            core.setNodePartialsForUpdate(i);
+        }
+        double[] proposed = calculateLogLikelihoods(core, tipCount, node + 1);
+        assertTrue(Math.abs(proposed[0] - expected[0]) > 1e-6);
+
+        core.restore();
+        double[] rootPartials = new double[PATTERNS * STATES];
+        core.integratePartials(2 * tipCount - 2, new double[]{0.5, 0.5}, rootPartials);
+        double[] logL = new double[PATTERNS];
+        core.calculateLogLikelihoods(rootPartials, new double[]{0.25, 0.25, 0.25, 0.25}, logL);
+        assertArrayEquals(expected, logL, 0.0);
+    }
+
+    @Test
+    public void testPatternSharingWithMatrixMap() {
+        int[][] tipStates = {
+                {0, 0, 0, 0, 1, 1, 2, 2},
+                {0, 0, 1, 1, 2, 2, 3, 3},
+                {0, 1, 0, 1, 0, 1, 0, 1}};
+        int patternCount = tipStates[0].length;
+        double[][] partials = new double[2][];
+        for (int c = 0; c < 2; c++) {
+            Randomizer.setSeed(132);
+            BeerLikelihoodCore core = new BeerLikelihoodCore(STATES);
+            core.initialize(5, patternCount, 1, false, false);
+            core.setUsePatternSharing(c == 1);
+            for (int i = 0; i < 3; i++) {
+                core.setNodeStates(i, tipStates[i]);
+                core.setNodeMatrix(i, 0, randomMatrix());
+            }
+            core.createNodePartials(3);
+            core.createNodePartials(4);
+            core.setNodeMatrix(3, 0, randomMatrix());
+
+            // patterns shared at node 3 for children 0 and 1 are not shared for children 0 and 2
+            core.calculatePartials(0, 1, 3);
+            core.calculatePartials(0, 2, 3, new int[patternCount]);
+            core.calculatePartials(3, 1, 4);
+            partials[c] = new double[patternCount * STATES];
+            core.getNodePartials(4, partials[c]);
+        }
+        assertArrayEquals(partials[0], partials[1], 0.0);
+    }
+}
@@ -1,13 +1,20 @@
 package test.beast.evolution.likelihood;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
 import beast.base.evolution.alignment.Alignment;
 import beast.base.evolution.alignment.Sequence;
+import beast.base.evolution.datatype.Codon;
 import beast.base.evolution.datatype.UserDataType;
 import beast.base.evolution.likelihood.BeagleTreeLikelihood;
+import beast.base.evolution.likelihood.BeerLikelihoodCore;
+import beast.base.evolution.likelihood.LikelihoodCore;
 import beast.base.evolution.likelihood.TreeLikelihood;
+import beast.base.evolution.operator.Exchange;
 import beast.base.evolution.sitemodel.SiteModel;
 import beast.base.evolution.substitutionmodel.BinaryCovarion;
 import beast.base.evolution.substitutionmodel.Blosum62;
@@ -23,9 +30,17 @@ import beast.base.evolution.substitutionmodel.MTREV;
 import beast.base.evolution.substitutionmodel.MutationDeathModel;
 import beast.base.evolution.substitutionmodel.SubstitutionModel;
 import beast.base.evolution.substitutionmodel.WAG;
+import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.State;
 import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import test.beast.BEASTTestCase;
 import test.beast.evolution.alignment.UncertainAlignmentTest;
 
@@ -801,4 +816,187 @@ public class TreeLikelihoodTest  {
 
         assertEquals(logLBeagle, logLnoBeagle, BEASTTestCase.PRECISION);
     }
-} // class TreeLikelihoodTest
+
+    @Test
+    public void testPatternSharing() throws Exception {
+        String[] nucleotides = {"A", "C", "G", "T"};
+        Codon codon = new Codon();
+        String[] codons = new String[codon.getStateCount()];
+        for (int i = 0; i < codons.length; i++) {
+            codons[i] = codon.encodingToString(new int[]{i});
+        }
+        testPatternSharing(nucleotides, "nucleotide", 4);
+        testPatternSharing(codons, "codon", 2);
+    }
+
+    /** compare likelihoods with and without pattern sharing for near identical sequences over a series of tree moves **/
+    private void testPatternSharing(String[] characters, String dataType, int gammaCategoryCount) throws Exception {
+        Randomizer.setSeed(127);
+        int taxonCount = 10;
+        int siteCount = 200;
+        String[] base = new String[siteCount];
+        for (int i = 0; i < siteCount; i++) {
+            base[i] = characters[Randomizer.nextInt(characters.length)];
+        }
+        List<Object> args = new ArrayList<>();
+        // caterpillar tree with internal nodes 0.1 apart
+        String newick = "t0:0.1";
+        for (int t = 0; t < taxonCount; t++) {
+            String[] sites = base.clone();
+            // a few mutations, and a gap
+            for (int i = 0; i < 3; i++) {
+                sites[Randomizer.nextInt(siteCount)] = characters[Randomizer.nextInt(characters.length)];
+            }
+            sites[Randomizer.nextInt(siteCount)] = characters[0].replaceAll(".", "-");
+            args.add("sequence");
+            args.add(new Sequence("t" + t, String.join("", sites)));
+            if (t > 0) {
+                newick = "(" + newick + ",t" + t + ":" + (t * 0.1) + "):0.1";
+            }
+        }
+        args.add("dataType");
+        args.add(dataType);
+        Alignment data = new Alignment();
+        data.initByName(args.toArray());
+        Tree tree = BEASTTestCase.getTree(data, newick + ";");
+
+        SiteModel siteModel = new SiteModel();
+        Frequencies freqs = new Frequencies();
+        freqs.initByName("data", data);
+        Double[] rates = new Double[characters.length * (characters.length - 1)];
+        Arrays.fill(rates, 1.0);
+        GeneralSubstitutionModel gsm = new GeneralSubstitutionModel();
+        gsm.initByName("rates", new RealParameter(rates), "frequencies", freqs);
+        siteModel.initByName("gammaCategoryCount", gammaCategoryCount, "shape", "0.5", "substModel", gsm);
+        TreeLikelihood likelihood = newTreeLikelihood();
+        likelihood.initByName("data", data, "tree", tree, "siteModel", siteModel);
+        TreeLikelihood sharedLikelihood = newTreeLikelihood();
+        sharedLikelihood.initByName("data", data, "tree", tree, "siteModel", siteModel, "usePatternSharing", true);
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", likelihood, "distribution", sharedLikelihood);
+
+        State state = new State();
+        state.initByName("stateNode", tree);
+        state.initialise();
+        state.setPosterior(posterior);
+        assertEquals(likelihood.calculateLogP(), sharedLikelihood.calculateLogP(), 0.0);
+
+        Exchange narrow = new Exchange();
+        narrow.initByName("tree", tree, "weight", 1.0);
+        Exchange wide = new Exchange();
+        wide.initByName("tree", tree, "weight", 1.0, "isNarrow", false);
+        for (int i = 0; i < 30; i++) {
+            state.store(i);
+            double logHR = (i % 2 == 0 ? narrow : wide).proposal();
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+            if (logHR != Double.NEGATIVE_INFINITY) {
+                posterior.calculateLogP();
+                assertEquals(likelihood.getCurrentLogP(), sharedLikelihood.getCurrentLogP(), 0.0);
+            }
+            if (i % 3 == 0) {
+                state.acceptCalculationNodes();
+            } else {
+                state.restore();
+                state.restoreCalculationNodes();
+            }
+            state.setEverythingDirty(false);
+        }
+        posterior.calculateLogP();
+        assertEquals(likelihood.getCurrentLogP(), sharedLikelihood.getCurrentLogP(), 0.0);
+    }
+
+    @Test
+    public void testBranchLengthGradient() throws Exception {
+        Alignment data = BEASTTestCase.getAlignment();
+        Frequencies freqs = new Frequencies();
+        freqs.initByName("data", data);
+        HKY hky = new HKY();
+        hky.initByName("kappa", "29.739445", "frequencies", freqs);
+        GeneralSubstitutionModel gsm = new GeneralSubstitutionModel();
+        gsm.initByName("rates", "1.0 2.0 0.5 1.5 3.0 1.0 0.7 1.2 1.0 0.4 2.5 1.0", "frequencies", freqs);
+
+        for (SubstitutionModel substModel : new SubstitutionModel[]{hky, gsm}) {
+            SiteModel siteModel = new SiteModel();
+            siteModel.initByName("gammaCategoryCount", 4, "shape", "0.5", "proportionInvariant", "0.2", "substModel", substModel);
+            for (boolean useAmbiguities : new boolean[]{false, true}) {
+                Tree tree = BEASTTestCase.getTree(data);
+                TreeLikelihood likelihood = newTreeLikelihood();
+                likelihood.initByName("data", data, "tree", tree, "siteModel", siteModel, "useAmbiguities", useAmbiguities);
+                likelihood.calculateLogP();
+                assertTrue(likelihood.canCalculateBranchLengthGradient());
+                double[] gradient = likelihood.getBranchLengthGradient();
+
+                // derivatives with respect to node heights, by finite differences
+                double delta = 1e-6;
+                for (Node node : tree.getNodesAsArray()) {
+                    double expected = 0.0;
+                    if (!node.isRoot()) {
+                        expected -= gradient[node.getNr()];
+                    }
+                    for (Node child : node.getChildren()) {
+                        expected += gradient[child.getNr()];
+                    }
+                    double height = node.getHeight();
+                    node.setHeight(height + delta);
+                    double logPUp = freshLogP(data, tree, siteModel, useAmbiguities);
+                    node.setHeight(height - delta);
+                    double logPDown = freshLogP(data, tree, siteModel, useAmbiguities);
+                    node.setHeight(height);
+                    double finiteDifference = (logPUp - logPDown) / (2 * delta);
+                    assertEquals(finiteDifference, expected, 1e-5 * Math.max(1.0, Math.abs(finiteDifference)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRequiresBinaryTree() throws Exception {
+        Alignment data = BEASTTestCase.getAlignment();
+        TreeParser tree = new TreeParser();
+        tree.initByName("taxa", data, "IsLabelledNewick", true, "binarizeMultifurcations", false,
+                "newick", "((human:0.02,chimp:0.02,bonobo:0.02):0.05,gorilla:0.07,orangutan:0.07,siamang:0.07);");
+        JukesCantor jc = new JukesCantor();
+        jc.initAndValidate();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName("substModel", jc);
+        TreeLikelihood likelihood = newTreeLikelihood();
+        likelihood.setInputValue("data", data);
+        likelihood.setInputValue("tree", tree);
+        likelihood.setInputValue("siteModel", siteModel);
+        assertThrows(IllegalArgumentException.class, likelihood::initAndValidate);
+    }
+
+    @Test
+    public void testBranchLengthGradientNotAvailable() throws Exception {
+        // the default likelihood core does not calculate pre-order partials
+        Alignment data = BEASTTestCase.getAlignment();
+        Tree tree = BEASTTestCase.getTree(data);
+        JukesCantor jc = new JukesCantor();
+        jc.initAndValidate();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName("substModel", jc);
+        TreeLikelihood likelihood = new TreeLikelihood() {
+            @Override
+            protected LikelihoodCore createLikelihoodCore(int stateCount) {
+                return new BeerLikelihoodCore(stateCount) {
+                    @Override
+                    public boolean canCalculatePreOrderPartials() {
+                        return false;
+                    }
+                };
+            }
+        };
+        System.setProperty("java.only", "true");
+        likelihood.initByName("data", data, "tree", tree, "siteModel", siteModel);
+        likelihood.calculateLogP();
+        assertFalse(likelihood.canCalculateBranchLengthGradient());
+        assertThrows(UnsupportedOperationException.class, likelihood::getBranchLengthGradient);
+    }
+
+    private double freshLogP(Alignment data, Tree tree, SiteModel siteModel, boolean useAmbiguities) throws Exception {
+        TreeLikelihood likelihood = newTreeLikelihood();
+        likelihood.initByName("data", data, "tree", tree, "siteModel", siteModel, "useAmbiguities", useAmbiguities);
+        return likelihood.calculateLogP();
+    }
+}
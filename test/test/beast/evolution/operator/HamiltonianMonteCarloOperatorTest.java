@@ -0,0 +1,151 @@
+package test.beast.evolution.operator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.apache.commons.math3.stat.StatUtils;
+import org.junit.jupiter.api.Test;
+
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.MCMC;
+import beast.base.inference.State;
+import beast.base.inference.distribution.LogNormalDistributionModel;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.operator.kernel.HamiltonianMonteCarloOperator;
+import beast.base.inference.operator.kernel.Transform;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import test.beast.core.TraceRecorder;
+
+public class HamiltonianMonteCarloOperatorTest {
+
+	@Test
+	public void testNormalDistribution() throws Exception {
+		Randomizer.setSeed(127);
+
+		RealParameter param = new RealParameter("0.0 0.0 0.0");
+		param.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		Normal normal = new Normal();
+		normal.initByName("mean", "1.0", "sigma", "2.0");
+		Prior prior = new Prior();
+		prior.initByName("x", param, "distr", normal);
+
+		HamiltonianMonteCarloOperator operator = new HamiltonianMonteCarloOperator();
+		operator.initByName("weight", 1.0, "parameter", param, "target", prior);
+		// gradients are calculated by the prior
+		assertNull(operator.getEvaluatorDistribution());
+
+		double[][] v = sample(param, prior, operator, 50000);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1.0, StatUtils.mean(v[i]), 5e-2);
+			assertEquals(4.0, StatUtils.variance(v[i]), 2e-1);
+		}
+	}
+
+	@Test
+	public void testLogNormalDistribution() throws Exception {
+		Randomizer.setSeed(127);
+
+		RealParameter param = new RealParameter("10.0 2.0");
+		param.setBounds(0.0, Double.POSITIVE_INFINITY);
+		LogNormalDistributionModel logNormal = new LogNormalDistributionModel();
+		logNormal.initByName("M", "1.0", "S", "1.0", "meanInRealSpace", true);
+		Prior prior = new Prior();
+		prior.initByName("x", param, "distr", logNormal);
+
+		Transform.LogTransform transform = new Transform.LogTransform();
+		transform.initByName("f", param);
+		HamiltonianMonteCarloOperator operator = new HamiltonianMonteCarloOperator();
+		operator.initByName("weight", 1.0, "transformations", transform, "target", prior);
+		assertNull(operator.getEvaluatorDistribution());
+
+		double[][] v = sample(param, prior, operator, 100000);
+		for (int i = 0; i < 2; i++) {
+			assertEquals(1.0, StatUtils.mean(v[i]), 5e-2);
+			assertEquals(Math.exp(-0.5), StatUtils.percentile(v[i], 50), 3e-2);
+			assertEquals(0.0854, StatUtils.percentile(v[i], 2.5), 1e-2);
+			assertEquals(4.31, StatUtils.percentile(v[i], 97.5), 3e-1);
+		}
+	}
+
+	@Test
+	public void testTransformWithoutGradient() throws Exception {
+		RealParameter param = new RealParameter("0.5 0.2");
+		param.setBounds(0.0, 1.0);
+		Normal normal = new Normal();
+		normal.initByName("mean", "0.5", "sigma", "0.1");
+		Prior prior = new Prior();
+		prior.initByName("x", param, "distr", normal);
+
+		// the logit transform does not implement gradients, so the operator needs finite differences
+		Transform.LogitTransform transform = new Transform.LogitTransform();
+		transform.initByName("f", param);
+		HamiltonianMonteCarloOperator operator = new HamiltonianMonteCarloOperator();
+		operator.initByName("weight", 1.0, "transformations", transform, "target", prior);
+		assertNotNull(operator.getEvaluatorDistribution());
+	}
+
+	@Test
+	public void testFiniteDifferences() throws Exception {
+		Randomizer.setSeed(127);
+
+		// x ~ N(mu, 1) and mu ~ N(0, 1), so that marginally x ~ N(0, 2).
+		// The prior on x cannot differentiate with respect to mu, so gradients
+		// are calculated by finite differences.
+		RealParameter x = new RealParameter("1.0 -1.0");
+		x.setID("x");
+		x.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		RealParameter mu = new RealParameter("0.5");
+		mu.setID("mu");
+		mu.setBounds(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		Normal normalX = new Normal();
+		normalX.initByName("mean", mu, "sigma", "1.0");
+		Prior priorX = new Prior();
+		priorX.initByName("x", x, "distr", normalX);
+		Normal normalMu = new Normal();
+		normalMu.initByName("mean", "0.0", "sigma", "1.0");
+		Prior priorMu = new Prior();
+		priorMu.initByName("x", mu, "distr", normalMu);
+		CompoundDistribution posterior = new CompoundDistribution();
+		posterior.initByName("distribution", priorX, "distribution", priorMu);
+
+		HamiltonianMonteCarloOperator operator = new HamiltonianMonteCarloOperator();
+		operator.initByName("weight", 1.0, "parameter", x, "parameter", mu, "target", posterior, "steps", 5);
+		assertNotNull(operator.getEvaluatorDistribution());
+
+		State state = new State();
+		state.initByName("stateNode", x, "stateNode", mu);
+		TraceRecorder xTrace = new TraceRecorder();
+		xTrace.initByName("logEvery", 5, "burnin", 1000, "log", x);
+		TraceRecorder muTrace = new TraceRecorder();
+		muTrace.initByName("logEvery", 5, "burnin", 1000, "log", mu);
+		MCMC mcmc = new MCMC();
+		mcmc.initByName("chainLength", 50000L, "state", state, "distribution", posterior,
+				"operator", operator, "logger", xTrace, "logger", muTrace);
+		mcmc.run();
+
+		double[][] v = xTrace.getValues();
+		for (int i = 0; i < 2; i++) {
+			assertEquals(0.0, StatUtils.mean(v[i]), 1e-1);
+			assertEquals(2.0, StatUtils.variance(v[i]), 2e-1);
+		}
+		double[] m = muTrace.getValues()[0];
+		assertEquals(0.0, StatUtils.mean(m), 1e-1);
+		assertEquals(1.0, StatUtils.variance(m), 1e-1);
+	}
+
+	/** @return values of param after burn-in, by dimension **/
+	private double[][] sample(RealParameter param, Prior prior, HamiltonianMonteCarloOperator operator, long chainLength) throws Exception {
+		State state = new State();
+		state.initByName("stateNode", param);
+		TraceRecorder trace = new TraceRecorder();
+		trace.initByName("logEvery", 2, "burnin", 2000, "log", param);
+		MCMC mcmc = new MCMC();
+		mcmc.initByName("chainLength", chainLength, "state", state, "distribution", prior,
+				"operator", operator, "logger", trace);
+		mcmc.run();
+		return trace.getValues();
+	}
+}
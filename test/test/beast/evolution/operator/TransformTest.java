@@ -0,0 +1,127 @@
+package test.beast.evolution.operator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.operator.kernel.AdaptableVarianceMultivariateNormalOperator;
+import beast.base.inference.State;
+import beast.base.inference.operator.kernel.Transform;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+public class TransformTest {
+
+    private void checkBlockMethods(Transform transform, double[] values, double[] transformed) {
+        // part of the array, into another array at an offset
+        double[] result = new double[values.length + 2];
+        double logJacobian = transform.transformWithLogJacobian(values, 1, values.length, result, 2);
+        assertArrayEquals(transform.transform(values, 1, values.length), Arrays.copyOfRange(result, 2, result.length - 1), 1e-14);
+        assertEquals(transform.getLogJacobian(values, 1, values.length), logJacobian, 1e-12);
+
+        logJacobian = transform.inverseWithLogJacobian(transformed, 1, transformed.length, result, 2);
+        double[] inverse = transform.inverse(transformed, 1, transformed.length);
+        assertArrayEquals(inverse, Arrays.copyOfRange(result, 2, result.length - 1), 1e-14);
+        assertEquals(transform.getLogJacobian(inverse, 0, inverse.length), logJacobian, 1e-12);
+
+        // in place
+        double[] copy = values.clone();
+        logJacobian = transform.transformWithLogJacobian(copy, 0, copy.length, copy, 0);
+        assertArrayEquals(transform.transform(values, 0, values.length), copy, 1e-14);
+        assertEquals(transform.getLogJacobian(values, 0, values.length), logJacobian, 1e-12);
+    }
+
+    @Test
+    public void testUnivariableTransforms() {
+        double[] values = {0.1, 0.25, 0.5, 0.75, 0.9};
+        double[] transformed = {-3.0, -0.5, 0.0, 0.5, 3.0};
+        checkBlockMethods(new Transform.LogTransform(), values, transformed);
+        checkBlockMethods(new Transform.LogitTransform(), values, transformed);
+        checkBlockMethods(new Transform.NoTransform(), values, transformed);
+        checkBlockMethods(new Transform.NegateTransform(), values, transformed);
+    }
+
+    @Test
+    public void testDefaultBlockMethods() {
+        // PositiveOrdered relies on the default implementation in Transform
+        Transform transform = new Transform.PositiveOrdered(null);
+        double[] values = {0.1, 0.3, 0.7};
+        double[] result = new double[5];
+        double logJacobian = transform.transformWithLogJacobian(values, 0, 3, result, 1);
+        assertArrayEquals(transform.transform(values, 0, 3), Arrays.copyOfRange(result, 1, 4), 0.0);
+        assertEquals(transform.getLogJacobian(values, 0, 3), logJacobian, 0.0);
+
+        double[] transformed = {-1.0, 0.5, 0.25};
+        logJacobian = transform.inverseWithLogJacobian(transformed, 0, 3, transformed, 0);
+        double[] inverse = transform.inverse(new double[]{-1.0, 0.5, 0.25}, 0, 3);
+        assertArrayEquals(inverse, transformed, 0.0);
+        assertEquals(transform.getLogJacobian(inverse, 0, 3), logJacobian, 0.0);
+    }
+
+    @Test
+    public void testLogConstrainedSumTransform() {
+        RealParameter frequencies = new RealParameter("0.1 0.2 0.3 0.4");
+        Transform.LogConstrainedSumTransform transform = new Transform.LogConstrainedSumTransform(frequencies, 1.0);
+
+        double[] values = {5.0, 0.1, 0.2, 0.3, 0.4};
+        double[] result = new double[4];
+        double logJacobian = transform.transformWithLogJacobian(values, 1, 5, result, 0);
+        assertArrayEquals(transform.transform(values, 1, 4), result, 0.0);
+        assertEquals(transform.getLogJacobian(values, 1, 4), logJacobian, 1e-12);
+
+        double[] transformed = {5.0, -1.0, 0.5, 0.25, -0.3};
+        logJacobian = transform.inverseWithLogJacobian(transformed, 1, 5, result, 0);
+        double[] inverse = transform.inverse(transformed, 1, 4, 1.0);
+        assertArrayEquals(inverse, result, 0.0);
+        assertEquals(transform.getLogJacobian(inverse, 0, 3), logJacobian, 1e-12);
+    }
+
+    @Test
+    public void testAVMNOperatorHastingsRatio() {
+        Randomizer.setSeed(127);
+        RealParameter rates = new RealParameter();
+        rates.initByName("value", "0.5 1.0 2.0", "lower", 0.0);
+        rates.setID("rates");
+        RealParameter frequencies = new RealParameter();
+        frequencies.initByName("value", "0.1 0.2 0.3 0.4", "lower", 0.0, "upper", 1.0);
+        frequencies.setID("frequencies");
+        State state = new State();
+        state.initByName("stateNode", rates, "stateNode", frequencies);
+        state.initialise();
+
+        Transform.LogTransform logTransform = new Transform.LogTransform();
+        logTransform.initByName("f", rates);
+        Transform.LogConstrainedSumTransform sumTransform = new Transform.LogConstrainedSumTransform();
+        sumTransform.initByName("f", frequencies, "sum", 1.0);
+        AdaptableVarianceMultivariateNormalOperator operator = new AdaptableVarianceMultivariateNormalOperator();
+        operator.initByName("weight", 1.0, "beta", 0.05, "initial", 1000, "burnin", 500,
+                "transformations", logTransform, "transformations", sumTransform);
+
+        for (int i = 0; i < 20; i++) {
+            double[] x = new double[7];
+            for (int j = 0; j < 3; j++) {
+                x[j] = rates.getValue(j);
+                x[3 + j] = frequencies.getValue(j);
+            }
+            x[6] = frequencies.getValue(3);
+            double logHastingsRatio = operator.doOperation();
+
+            // both transforms have log Jacobian -sum(log(x))
+            double expected = 0;
+            double sum = 0;
+            for (int j = 0; j < 3; j++) {
+                expected += Math.log(rates.getValue(j)) - Math.log(x[j]);
+            }
+            for (int j = 0; j < 4; j++) {
+                expected += Math.log(frequencies.getValue(j)) - Math.log(x[3 + j]);
+                sum += frequencies.getValue(j);
+            }
+            assertEquals(expected, logHastingsRatio, 1e-10);
+            assertEquals(1.0, sum, 1e-12);
+            state.store(i);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package test.beast.evolution.sitemodel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.sitemodel.SiteModel;
+import beast.base.evolution.substitutionmodel.Frequencies;
+import beast.base.evolution.substitutionmodel.HKY;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+
+public class SiteModelTest {
+
+    private SiteModel createSiteModel(RealParameter shape, RealParameter invariant) {
+        Frequencies frequencies = new Frequencies();
+        frequencies.initByName("frequencies", new RealParameter("0.25 0.25 0.25 0.25"), "estimate", false);
+        HKY hky = new HKY();
+        hky.initByName("kappa", "2.0", "frequencies", frequencies);
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName("gammaCategoryCount", 4, "shape", shape, "proportionInvariant", invariant, "substModel", hky);
+        return siteModel;
+    }
+
+    @Test
+    public void testCachedRatesMatchFreshRates() {
+        RealParameter shape = new RealParameter("0.5");
+        shape.setID("shape");
+        RealParameter invariant = new RealParameter("0.2");
+        invariant.setID("invariant");
+        invariant.setBounds(0.0, 1.0);
+        SiteModel siteModel = createSiteModel(shape, invariant);
+
+        State state = new State();
+        state.initByName("stateNode", shape, "stateNode", invariant);
+        state.initialise();
+        state.setPosterior(siteModel);
+
+        // go back and forth between shapes, more than fit in the cache, and change
+        // the proportion invariant once, accepting every other proposal
+        double[] shapes = {0.5, 1.5, 0.5, 1.5, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 10.0, 0.5, 1.5, 0.5};
+        for (int i = 0; i < shapes.length; i++) {
+            state.store(i);
+            shape.setValue(shapes[i]);
+            if (i == 8) {
+                invariant.setValue(0.3);
+            }
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+
+            SiteModel expected = createSiteModel(new RealParameter(shapes[i] + ""), new RealParameter(invariant.getValue() + ""));
+            assertArrayEquals(expected.getCategoryRates(null), siteModel.getCategoryRates(null), 0.0);
+            assertArrayEquals(expected.getCategoryProportions(null), siteModel.getCategoryProportions(null), 0.0);
+
+            if (i % 2 == 0) {
+                state.acceptCalculationNodes();
+            } else {
+                state.restore();
+                state.restoreCalculationNodes();
+                SiteModel restored = createSiteModel(new RealParameter(shape.getValue() + ""), new RealParameter(invariant.getValue() + ""));
+                assertArrayEquals(restored.getCategoryRates(null), siteModel.getCategoryRates(null), 0.0);
+            }
+            state.setEverythingDirty(false);
+        }
+    }
+}
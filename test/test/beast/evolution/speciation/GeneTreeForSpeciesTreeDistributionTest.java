@@ -0,0 +1,178 @@
+package test.beast.evolution.speciation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.alignment.Taxon;
+import beast.base.evolution.alignment.TaxonSet;
+import beast.base.evolution.speciation.GeneTreeForSpeciesTreeDistribution;
+import beast.base.evolution.speciation.SpeciesTreePopFunction;
+import beast.base.evolution.speciation.TreeTopFinder;
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+public class GeneTreeForSpeciesTreeDistributionTest {
+
+    Tree speciesTree;
+    Tree geneTree;
+    SpeciesTreePopFunction popFunction;
+    TreeTopFinder treeTop;
+    RealParameter bottomPopSize;
+    RealParameter topPopSize;
+
+    private void setUp(String popFunctionName) {
+        speciesTree = new TreeParser("((A:1.0,B:1.0):1.0,C:2.0);", false);
+        geneTree = new TreeParser("(((a1:0.5,a2:0.5):1.0,b1:1.5):1.5,(c1:1.5,c2:1.5):1.5);", false);
+
+        TaxonSet a = new TaxonSet("A", taxa("a1", "a2"));
+        TaxonSet b = new TaxonSet("B", taxa("b1"));
+        TaxonSet c = new TaxonSet("C", taxa("c1", "c2"));
+        List<Taxon> species = new ArrayList<>();
+        species.add(a);
+        species.add(b);
+        species.add(c);
+        TaxonSet taxonSet = new TaxonSet(species);
+
+        bottomPopSize = new RealParameter("1.0");
+        bottomPopSize.setBounds(0.0, Double.POSITIVE_INFINITY);
+        topPopSize = new RealParameter("1.0");
+        topPopSize.setBounds(0.0, Double.POSITIVE_INFINITY);
+        popFunction = new SpeciesTreePopFunction();
+        popFunction.initByName("tree", speciesTree, "popFunction", popFunctionName,
+                "bottomPopSize", bottomPopSize, "topPopSize", topPopSize, "taxonset", taxonSet);
+
+        treeTop = new TreeTopFinder();
+        treeTop.initByName("tree", geneTree, "tree", speciesTree);
+    }
+
+    private List<Taxon> taxa(String... ids) {
+        List<Taxon> taxa = new ArrayList<>();
+        for (String id : ids) {
+            taxa.add(new Taxon(id));
+        }
+        return taxa;
+    }
+
+    private GeneTreeForSpeciesTreeDistribution newDistribution() {
+        GeneTreeForSpeciesTreeDistribution dist = new GeneTreeForSpeciesTreeDistribution();
+        dist.initByName("tree", geneTree, "speciesTree", speciesTree, "speciesTreePrior", popFunction,
+                "treetop", treeTop);
+        return dist;
+    }
+
+    @Test
+    public void testConstantPopSize() {
+        setUp("constant");
+        GeneTreeForSpeciesTreeDistribution dist = newDistribution();
+
+        // with ploidy 2 and population size 1, coalescent rate for two lineages is 1/2.
+        // Branch A: a1, a2 coalesce at 0.5.
+        // Branch (A,B): (a1,a2), b1 coalesce at 1.5.
+        // Branch C: c1, c2 coalesce at 1.5 (top of C is at 2).
+        // Root: two lineages coalesce at 3.0.
+        double expected = 4 * -Math.log(2.0) - (0.5 + 0.5 + 1.5 + 1.0) / 2.0;
+        assertEquals(expected, dist.calculateLogP(), 1e-12);
+    }
+
+    @Test
+    public void testIncrementalConstantPopSize() {
+        testIncremental("constant");
+    }
+
+    @Test
+    public void testIncrementalLinearPopSize() {
+        testIncremental("linear");
+    }
+
+    @Test
+    public void testIncrementalLinearWithConstantRootPopSize() {
+        testIncremental("linear_with_constant_root");
+    }
+
+    /**
+     * Apply random changes to the trees and population sizes, which are accepted or
+     * rejected at random, and compare logP with that of a newly created distribution.
+     * As in MCMC, the state is cleaned after every step, so only what changed is marked dirty.
+     */
+    private void testIncremental(String popFunctionName) {
+        Randomizer.setSeed(127);
+        setUp(popFunctionName);
+        State state = new State();
+        state.initByName("stateNode", geneTree, "stateNode", speciesTree,
+                "stateNode", bottomPopSize, "stateNode", topPopSize);
+        state.initialise();
+        GeneTreeForSpeciesTreeDistribution dist = newDistribution();
+        dist.calculateLogP();
+        state.setEverythingDirty(false);
+
+        for (int i = 0; i < 1000; i++) {
+            double[] geneHeights = heights(geneTree);
+            double[] speciesHeights = heights(speciesTree);
+            Double[] bottom = bottomPopSize.getValues();
+            Double[] top = topPopSize.getValues();
+
+            state.store(i);
+            dist.store();
+            switch (Randomizer.nextInt(3)) {
+                case 0:
+                    changeHeight(geneTree);
+                    break;
+                case 1:
+                    changeHeight(speciesTree);
+                    break;
+                default:
+                    RealParameter popSize = Randomizer.nextBoolean() ? bottomPopSize : topPopSize;
+                    popSize.setValue(Randomizer.nextInt(popSize.getDimension()), 0.5 + Randomizer.nextDouble());
+                    break;
+            }
+            assertEquals(newDistribution().calculateLogP(), dist.calculateLogP(), 1e-10);
+
+            if (Randomizer.nextBoolean()) {
+                // reject
+                setHeights(geneTree, geneHeights);
+                setHeights(speciesTree, speciesHeights);
+                for (int j = 0; j < bottom.length; j++) {
+                    bottomPopSize.setValue(j, bottom[j]);
+                }
+                for (int j = 0; j < top.length; j++) {
+                    topPopSize.setValue(j, top[j]);
+                }
+                state.setEverythingDirty(false);
+                dist.restore();
+                // nothing is dirty, so this is the restored value
+                assertEquals(newDistribution().calculateLogP(), dist.calculateLogP(), 1e-10);
+            }
+            state.setEverythingDirty(false);
+        }
+    }
+
+    /** move the height of a random internal node between that of its children and its parent **/
+    private void changeHeight(Tree tree) {
+        Node node = tree.getNode(tree.getLeafNodeCount() + Randomizer.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+        double upper = node.isRoot() ? lower + 2.0 : node.getParent().getHeight();
+        node.setHeight(lower + Randomizer.nextDouble() * (upper - lower));
+    }
+
+    private double[] heights(Tree tree) {
+        double[] heights = new double[tree.getNodeCount()];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = tree.getNode(i).getHeight();
+        }
+        return heights;
+    }
+
+    private void setHeights(Tree tree, double[] heights) {
+        for (int i = 0; i < heights.length; i++) {
+            tree.getNode(i).setHeight(heights[i]);
+        }
+    }
+}
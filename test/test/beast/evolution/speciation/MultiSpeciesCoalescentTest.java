@@ -0,0 +1,125 @@
+package test.beast.evolution.speciation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.core.ProgramStatus;
+import beast.base.evolution.alignment.Taxon;
+import beast.base.evolution.alignment.TaxonSet;
+import beast.base.evolution.speciation.GeneTreeForSpeciesTreeDistribution;
+import beast.base.evolution.speciation.MultiSpeciesCoalescent;
+import beast.base.evolution.speciation.SpeciesTreePrior;
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+public class MultiSpeciesCoalescentTest {
+
+    @Test
+    public void testThreadedEqualsSequential() {
+        Randomizer.setSeed(127);
+        final int threads = ProgramStatus.m_nThreads;
+        ProgramStatus.m_nThreads = 4;
+        try {
+            Tree speciesTree = new TreeParser("((A:1.0,B:1.0):1.0,C:2.0);", false);
+            List<Taxon> species = new ArrayList<>();
+            species.add(new TaxonSet("A", taxa("a1", "a2")));
+            species.add(new TaxonSet("B", taxa("b1")));
+            species.add(new TaxonSet("C", taxa("c1", "c2")));
+            TaxonSet taxonSet = new TaxonSet(species);
+
+            RealParameter popSize = new RealParameter("1.0");
+            popSize.setBounds(0.0, Double.POSITIVE_INFINITY);
+            SpeciesTreePrior prior = new SpeciesTreePrior();
+            prior.initByName("tree", speciesTree, "popFunction", "constant", "bottomPopSize", popSize,
+                    "gammaParameter", "1.0", "taxonset", taxonSet);
+
+            String[] newicks = {
+                    "(((a1:0.5,a2:0.5):1.0,b1:1.5):1.5,(c1:1.5,c2:1.5):1.5);",
+                    "(((a1:0.75,a2:0.75):1.5,b1:2.25):1.0,(c1:0.5,c2:0.5):2.75);",
+                    "((a1:2.5,(a2:1.25,b1:1.25):1.25):0.5,(c1:1.0,c2:1.0):2.0);",
+                    "(((a1:0.125,a2:0.125):1.75,b1:1.875):2.0,(c1:1.875,c2:1.875):2.0);"
+            };
+            List<Tree> geneTrees = new ArrayList<>();
+            List<GeneTreeForSpeciesTreeDistribution> geneTreeDistributions = new ArrayList<>();
+            for (String newick : newicks) {
+                Tree geneTree = new TreeParser(newick, false);
+                geneTrees.add(geneTree);
+                GeneTreeForSpeciesTreeDistribution dist = new GeneTreeForSpeciesTreeDistribution();
+                dist.initByName("tree", geneTree, "speciesTree", speciesTree, "speciesTreePrior", prior);
+                geneTreeDistributions.add(dist);
+            }
+
+            MultiSpeciesCoalescent msc = new MultiSpeciesCoalescent();
+            msc.initByName("speciesTreePrior", prior, "geneTree", geneTreeDistributions);
+
+            State state = new State();
+            state.initByName("stateNode", speciesTree, "stateNode", geneTrees.get(0), "stateNode", geneTrees.get(1),
+                    "stateNode", geneTrees.get(2), "stateNode", geneTrees.get(3), "stateNode", popSize);
+            state.initialise();
+            state.setPosterior(msc);
+            state.robustlyCalcPosterior(msc);
+
+            // propose changes like MCMC does, and check the result against a sequential
+            // calculation from scratch
+            for (int i = 0; i < 1000; i++) {
+                state.store(i);
+                int k = Randomizer.nextInt(geneTrees.size() + 2);
+                if (k < geneTrees.size()) {
+                    changeHeight(geneTrees.get(k));
+                } else if (k == geneTrees.size()) {
+                    changeHeight(speciesTree);
+                } else {
+                    popSize.setValue(Randomizer.nextInt(popSize.getDimension()), 0.5 + Randomizer.nextDouble());
+                }
+                state.storeCalculationNodes();
+                state.checkCalculationNodesDirtiness();
+                double logP = msc.calculateLogP();
+                assertEquals(sequentialLogP(prior, speciesTree, geneTrees), logP, 1e-10);
+
+                if (!Double.isInfinite(logP) && Randomizer.nextBoolean()) {
+                    state.acceptCalculationNodes();
+                } else {
+                    state.restore();
+                    state.restoreCalculationNodes();
+                }
+                state.setEverythingDirty(false);
+            }
+        } finally {
+            ProgramStatus.m_nThreads = threads;
+        }
+    }
+
+    private double sequentialLogP(SpeciesTreePrior prior, Tree speciesTree, List<Tree> geneTrees) {
+        double logP = prior.calculateLogP();
+        for (Tree geneTree : geneTrees) {
+            GeneTreeForSpeciesTreeDistribution dist = new GeneTreeForSpeciesTreeDistribution();
+            dist.initByName("tree", geneTree, "speciesTree", speciesTree, "speciesTreePrior", prior);
+            logP += dist.calculateLogP();
+        }
+        return logP;
+    }
+
+    private List<Taxon> taxa(String... ids) {
+        List<Taxon> taxa = new ArrayList<>();
+        for (String id : ids) {
+            taxa.add(new Taxon(id));
+        }
+        return taxa;
+    }
+
+    /** move the height of a random internal node between that of its children and its parent **/
+    private void changeHeight(Tree tree) {
+        Node node = tree.getNode(tree.getLeafNodeCount() + Randomizer.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+        double upper = node.isRoot() ? lower + 2.0 : node.getParent().getHeight();
+        node.setHeight(lower + Randomizer.nextDouble() * (upper - lower));
+    }
+}
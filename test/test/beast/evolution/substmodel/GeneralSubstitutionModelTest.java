@@ -7,6 +7,7 @@ import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 
 import beast.base.evolution.substitutionmodel.Frequencies;
 import beast.base.evolution.substitutionmodel.GeneralSubstitutionModel;
+import beast.base.evolution.substitutionmodel.WAG;
 import beast.base.evolution.tree.Node;
 import beast.base.inference.parameter.RealParameter;
 
@@ -75,4 +76,49 @@ public class GeneralSubstitutionModelTest {
                 0.2292779795321076, 0.415400931299253, 0.35532108916863914,
                 0.10323486989557647, 0.3553210891686388, 0.5414440409357847}, prob, 0.0);
     }
+
+    @Test
+    public void getTransitionProbabilitiesForMultipleRates() {
+        RealParameter f = new RealParameter(new Double[]{0.05,0.05,0.05,0.05,0.05,0.05,0.05,0.05,0.05,0.05,
+                0.05,0.05,0.05,0.05,0.05,0.05,0.05,0.05,0.05,0.05});
+        Frequencies freqs = new Frequencies();
+        freqs.initByName("frequencies", f, "estimate", false);
+        WAG wag = new WAG();
+        wag.initByName("frequencies", freqs);
+
+        for (GeneralSubstitutionModel model : new GeneralSubstitutionModel[]{geneSubstModel, wag}) {
+            int matrixSize = model.getStateCount() * model.getStateCount();
+            double[] rates = new double[]{0.1, 0.5, 1.2, 3.0};
+            double[] matrices = new double[rates.length * matrixSize];
+            model.getTransitionProbabilities(new Node(), 1.5, 0.5, rates, rates.length, matrices);
+
+            double[] prob = new double[matrixSize];
+            for (int i = 0; i < rates.length; i++) {
+                model.getTransitionProbabilities(new Node(), 1.5, 0.5, rates[i], prob);
+                assertArrayEquals(prob, Arrays.copyOfRange(matrices, i * matrixSize, (i + 1) * matrixSize), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void getTransitionProbabilitiesForMultipleRatesOfSubclass() {
+        // a subclass that overrides the single rate method with the normalized flag should not be bypassed by the bulk method
+        GeneralSubstitutionModel model = new GeneralSubstitutionModel() {
+            @Override
+            public void getTransitionProbabilities(Node node, double startTime, double endTime, double rate, double[] matrix, boolean normalized) {
+                super.getTransitionProbabilities(node, startTime, endTime, rate * 2, matrix, normalized);
+            }
+        };
+        model.initByName("rates", new RealParameter("1.0 2.0 0.5 1.5 3.0 1.0"),
+                "frequencies", geneSubstModel.frequenciesInput.get());
+
+        double[] rates = new double[]{0.1, 0.5, 1.2, 3.0};
+        double[] matrices = new double[rates.length * 9];
+        model.getTransitionProbabilities(new Node(), 1.5, 0.5, rates, rates.length, matrices);
+        double[] prob = new double[9];
+        for (int i = 0; i < rates.length; i++) {
+            model.getTransitionProbabilities(new Node(), 1.5, 0.5, rates[i], prob);
+            assertArrayEquals(prob, Arrays.copyOfRange(matrices, i * 9, (i + 1) * 9), 0.0);
+        }
+    }
 }
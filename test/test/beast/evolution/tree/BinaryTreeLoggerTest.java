@@ -0,0 +1,195 @@
+package test.beast.evolution.tree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import beast.base.evolution.BinaryTreeLogReader;
+import beast.base.evolution.BinaryTreeLogger;
+import beast.base.evolution.TreeWithMetaDataLogger;
+import beast.base.evolution.branchratemodel.StrictClockModel;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.inference.Logger;
+import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.RealParameter;
+
+public class BinaryTreeLoggerTest {
+
+    @TempDir
+    File dir;
+
+    private Tree tree;
+    private RealParameter rates;
+
+    private TreeWithMetaDataLogger createTreeLogger(int dp) {
+        return createTreeLogger(dp, true);
+    }
+
+    private TreeWithMetaDataLogger createTreeLogger(int dp, boolean sort) {
+        tree = new TreeParser("((B:1.5,C:0.25):0.75,(A:0.125,D:1.0):1.125)", false, false, true, 0);
+        rates = new RealParameter("0.1 0.2 0.3 0.4 0.5 0.6 0.7");
+        rates.setID("rates");
+        RealParameter location = new RealParameter("1 2 3 4 5 6 7 8 9 10 11 12 13 14");
+        location.initByName("minordimension", 2);
+        location.setID("location");
+        IntegerParameter states = new IntegerParameter("1 0 2 1");
+        states.setID("states");
+        StrictClockModel clock = new StrictClockModel();
+        clock.initByName("clock.rate", new RealParameter("0.5"));
+        TreeWithMetaDataLogger treeLogger = new TreeWithMetaDataLogger();
+        treeLogger.initByName("tree", tree, "metadata", rates, "metadata", location, "metadata", states,
+                "branchratemodel", clock, "substitutions", true, "dp", dp, "sort", sort);
+        return treeLogger;
+    }
+
+    private void log(Logger logger) throws Exception {
+        logger.init();
+        logger.log(0);
+        rates.setValue(3, 1.0 / 3.0);
+        // NaN values are logged, unlike values of nodes without metadata
+        rates.setValue(5, Double.NaN);
+        logger.log(1000);
+        logger.log(1500);
+        logger.log(2000);
+        logger.close();
+    }
+
+    private void testConversion(int dp, boolean sort) throws Exception {
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+        File textFile = new File(dir, "text.trees");
+        Logger textLogger = new Logger();
+        textLogger.initByName("fileName", textFile.getPath(), "logEvery", 1000, "mode", "tree", "log", createTreeLogger(dp, sort));
+        log(textLogger);
+
+        File binaryFile = new File(dir, "binary.btrees");
+        BinaryTreeLogger binaryLogger = new BinaryTreeLogger();
+        binaryLogger.initByName("fileName", binaryFile.getPath(), "logEvery", 1000, "log", createTreeLogger(dp, sort));
+        log(binaryLogger);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryTreeLogReader reader = new BinaryTreeLogReader(binaryFile)) {
+            assertEquals(3, reader.getRecordCount());
+            assertEquals(sort, reader.isSorted());
+            reader.toNexus(new PrintStream(bytes), 0, null);
+        }
+        assertEquals(new String(Files.readAllBytes(textFile.toPath())), bytes.toString());
+    }
+
+    @Test
+    public void testConversionFullPrecision() throws Exception {
+        testConversion(-1, true);
+    }
+
+    @Test
+    public void testConversionDecimalPlaces() throws Exception {
+        testConversion(3, true);
+    }
+
+    @Test
+    public void testConversionUnsorted() throws Exception {
+        // (A,D) comes after (B,C), which sorting would swap
+        testConversion(-1, false);
+    }
+
+    @Test
+    public void testLeafWithoutID() throws Exception {
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+        File binaryFile = new File(dir, "noid.btrees");
+        BinaryTreeLogger binaryLogger = new BinaryTreeLogger();
+        TreeWithMetaDataLogger treeLogger = createTreeLogger(-1);
+        tree.getNode(0).setID(null);
+        binaryLogger.initByName("fileName", binaryFile.getPath(), "logEvery", 1000, "log", treeLogger);
+        log(binaryLogger);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryTreeLogReader reader = new BinaryTreeLogReader(binaryFile)) {
+            assertArrayEquals(new String[]{null, "B", "C", "D"}, reader.getTaxa());
+            reader.toNexus(new PrintStream(bytes), 0, null);
+        }
+        // labelled by its number in the translate block
+        assertTrue(bytes.toString().contains("\t\t   1 1,"));
+    }
+
+    @Test
+    public void testSinglePrecisionAndLogOffset() throws Exception {
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+        File binaryFile = new File(dir, "single.btrees");
+        BinaryTreeLogger binaryLogger = new BinaryTreeLogger();
+        binaryLogger.initByName("fileName", binaryFile.getPath(), "logEvery", 1000, "log", createTreeLogger(-1), "singlePrecision", true);
+        log(binaryLogger);
+        long fullLength = binaryFile.length();
+
+        try (BinaryTreeLogReader reader = new BinaryTreeLogReader(binaryFile)) {
+            assertEquals(7, reader.getNodeCount());
+            assertArrayEquals(new String[]{"A", "B", "C", "D"}, reader.getTaxa());
+            int[] parents = new int[7];
+            double[] values = new double[reader.getValueCount()];
+            assertEquals(1000, reader.readRecord(1, parents, values));
+            for (int i = 0; i < 7; i++) {
+                int parent = tree.getNode(i).isRoot() ? -1 : tree.getNode(i).getParent().getNr();
+                assertEquals(parent, parents[i]);
+                assertEquals((float) tree.getNode(i).getHeight(), values[i], 0.0);
+            }
+            // metadata follows heights
+            assertEquals((float) (1.0 / 3.0), values[7 + 3], 0.0);
+
+            boolean[] present = new boolean[reader.getValueCount()];
+            reader.readRecord(1, parents, null, values, present);
+            assertTrue(Double.isNaN(values[7 + 5]));
+            assertTrue(present[7 + 5]);
+            // rates has a value for every node, but states only for the leaves
+            final int statesStart = 7 + 7 + 14;
+            for (int i = 0; i < 7; i++) {
+                assertEquals(i < 4, present[statesStart + i]);
+            }
+        }
+
+        // a partially written record is removed
+        try (FileOutputStream out = new FileOutputStream(binaryFile, true)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        assertEquals(2000, binaryLogger.getLogOffset());
+        assertEquals(fullLength, binaryFile.length());
+
+        binaryLogger.setLogOffset(0);
+        try (BinaryTreeLogReader reader = new BinaryTreeLogReader(binaryFile)) {
+            assertEquals(1, reader.getRecordCount());
+            assertEquals(0, reader.getSample(0));
+        }
+    }
+
+    @Test
+    public void testLogOffsetOfResolvedFileName() throws Exception {
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+        System.setProperty("file.name.prefix", dir.getPath() + File.separator);
+        try {
+            TreeWithMetaDataLogger treeLogger = createTreeLogger(-1);
+            treeLogger.setID("treeLogger.t:dna");
+            BinaryTreeLogger binaryLogger = new BinaryTreeLogger();
+            binaryLogger.initByName("fileName", "$(tree).btrees", "logEvery", 1000, "log", treeLogger);
+            log(binaryLogger);
+            assertTrue(new File(dir, "dna.btrees").exists());
+
+            // as when resuming, offsets are requested before the file is opened
+            binaryLogger = new BinaryTreeLogger();
+            binaryLogger.initByName("fileName", "$(tree).btrees", "logEvery", 1000, "log", treeLogger);
+            assertEquals(2000, binaryLogger.getLogOffset());
+            binaryLogger.setLogOffset(1000);
+            try (BinaryTreeLogReader reader = new BinaryTreeLogReader(new File(dir, "dna.btrees"))) {
+                assertEquals(2, reader.getRecordCount());
+            }
+        } finally {
+            System.clearProperty("file.name.prefix");
+        }
+    }
+}
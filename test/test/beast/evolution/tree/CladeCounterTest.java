@@ -0,0 +1,108 @@
+package test.beast.evolution.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.evolution.alignment.Taxon;
+import beast.base.evolution.alignment.TaxonSet;
+import beast.base.evolution.tree.CladeCounter;
+import beast.base.evolution.tree.CladeSet;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.util.Randomizer;
+
+public class CladeCounterTest {
+
+    @Test
+    public void testAgainstCladeSet() {
+        TaxonSet taxa = new TaxonSet(Taxon.createTaxonList(List.of("A", "B", "C", "D")));
+        String [] newicks = {
+                "((A:1.0,B:1.0):1.0,(C:1.0,D:1.0):1.0):0.0;",
+                "((A:2.0,B:2.0):1.0,(C:1.5,D:1.5):1.5):0.0;",
+                "(((A:1.0,C:1.0):1.0,B:2.0):1.0,D:3.0):0.0;",
+        };
+
+        CladeSet cladeSet = new CladeSet();
+        CladeCounter counter = new CladeCounter(taxa);
+        for (String newick : newicks) {
+            Tree tree = new TreeParser(newick, false, true, true, 1);
+            cladeSet.add(tree);
+            counter.add(tree);
+        }
+
+        assertEquals(3, counter.getTreeCount());
+        assertEquals(cladeSet.getCladeCount(), counter.getCladeCount());
+        for (int i = 0; i < cladeSet.getCladeCount(); i++) {
+            assertEquals(cladeSet.getFrequency(cladeSet.get(i)).intValue(), counter.getFrequency(cladeSet.get(i)));
+        }
+        assertEquals("{A, B, C, D}", counter.getCladeString(0));
+        assertEquals(3, counter.getFrequency(0));
+        assertEquals((2.0 + 3.0 + 3.0) / 3, counter.getMeanHeight(0), 1e-12);
+        assertEquals(1.0 / 3, counter.getHeightVariance(0), 1e-12);
+
+        Tree tree = new TreeParser(newicks[0], false, true, true, 1);
+        double logClade = counter.annotate(tree, "posterior");
+        assertEquals(2 * Math.log(2.0 / 3.0), logClade, 1e-12);
+
+        // clade {B, D} was never seen, and does not contribute to the sum
+        tree = new TreeParser("((A:1.0,C:1.0):1.0,(B:1.0,D:1.0):1.0):0.0;", false, true, true, 1);
+        logClade = counter.annotate(tree, "posterior");
+        assertEquals(Math.log(1.0 / 3.0), logClade, 1e-12);
+        assertEquals(0.0, (Double) tree.getRoot().getRight().getMetaData("posterior"), 0.0);
+
+        assertThrows(IllegalArgumentException.class, () -> counter.getFrequency(new long[2]));
+
+        // tips numbered beyond the number of taxa
+        CladeCounter small = new CladeCounter(3);
+        assertThrows(IllegalArgumentException.class, () -> small.add(new TreeParser(newicks[0], false, true, true, 1)));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        Randomizer.setSeed(127);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 70; i++) {
+            names.add("t" + i);
+        }
+        TaxonSet taxa = new TaxonSet(Taxon.createTaxonList(names));
+
+        List<Tree> trees = new ArrayList<>();
+        for (int k = 0; k < 1000; k++) {
+            trees.add(new TreeParser(randomNewick(names, 10), false, true, true, 1));
+        }
+
+        CladeCounter sequential = new CladeCounter(taxa);
+        sequential.addAll(trees, 1);
+        CladeCounter parallel = new CladeCounter(taxa);
+        parallel.addAll(trees, 4);
+
+        assertEquals(sequential.getTreeCount(), parallel.getTreeCount());
+        assertEquals(sequential.getCladeCount(), parallel.getCladeCount());
+        for (int i = 0; i < sequential.getCladeCount(); i++) {
+            long [] clade = sequential.getClade(i);
+            assertEquals(sequential.getFrequency(i), parallel.getFrequency(clade));
+            assertEquals(sequential.getMeanHeight(i), parallel.getMeanHeight(clade), 1e-10);
+        }
+    }
+
+    /** random caterpillar-like tree where only the first few taxa are shuffled, so clades are shared among trees **/
+    private String randomNewick(List<String> names, int shuffled) {
+        List<String> order = new ArrayList<>(names);
+        for (int i = shuffled - 1; i > 0; i--) {
+            int j = Randomizer.nextInt(i + 1);
+            String tmp = order.get(i);
+            order.set(i, order.get(j));
+            order.set(j, tmp);
+        }
+        String newick = order.get(0) + ":1.0";
+        for (int i = 1; i < order.size(); i++) {
+            newick = "(" + newick + "," + order.get(i) + ":" + (i + Randomizer.nextDouble()) + "):1.0";
+        }
+        return newick + ";";
+    }
+}
@@ -3,9 +3,15 @@ package test.beast.evolution.tree.coalescent;
 
 import org.junit.jupiter.api.Test;
 
+import beast.base.evolution.tree.IntervalType;
+import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.Tree;
 import beast.base.evolution.tree.TreeIntervals;
 import beast.base.evolution.tree.coalescent.BayesianSkyline;
+import beast.base.inference.State;
+import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 
@@ -39,4 +45,71 @@ public class BayesianSkylineTest  {
 
     }
 
+    @Test
+    public void testIncrementalSkyline() throws Exception {
+        Randomizer.setSeed(127);
+        Tree tree = new Tree("((((1:1,2:1):0.5,3:1.5):2,(4:0.5,5:0.5):3):1,(((6:0.25,7:0.25):1.5,8:1.75):0.75,(9:2,10:2):0.5):2.25);");
+        TreeIntervals intervals = new TreeIntervals(tree);
+        RealParameter popSizes = new RealParameter(new Double[]{1.0, 2.0, 0.5, 3.0});
+        IntegerParameter groupSizes = new IntegerParameter(new Integer[]{3, 2, 2, 2});
+        BayesianSkyline skyline = new BayesianSkyline();
+        skyline.initByName("popSizes", popSizes, "groupSizes", groupSizes, "treeIntervals", intervals);
+
+        State state = new State();
+        state.initByName("stateNode", tree, "stateNode", popSizes, "stateNode", groupSizes);
+        state.initialise();
+        state.setPosterior(skyline);
+        assertEquals(perIntervalLogP(skyline, intervals), skyline.calculateLogP(), 1e-10);
+
+        for (int i = 0; i < 30; i++) {
+            state.store(i);
+            if (i % 5 == 4) {
+                // move an internal node between its children and parent
+                Node node = tree.getNode(tree.getLeafNodeCount() + Randomizer.nextInt(tree.getInternalNodeCount() - 1));
+                double lower = Math.max(node.getLeft().getHeight(), node.getRight().getHeight());
+                double upper = node.getParent().getHeight();
+                node.setHeight(lower + Randomizer.nextDouble() * (upper - lower));
+            } else if (i % 5 == 2) {
+                // move a coalescent event from one group to the next
+                int k = Randomizer.nextInt(groupSizes.getDimension() - 1);
+                if (groupSizes.getValue(k) > 1) {
+                    groupSizes.setValue(k, groupSizes.getValue(k) - 1);
+                    groupSizes.setValue(k + 1, groupSizes.getValue(k + 1) + 1);
+                }
+            } else {
+                popSizes.setValue(Randomizer.nextInt(popSizes.getDimension()), 0.1 + Randomizer.nextDouble() * 3);
+            }
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+
+            double logP = skyline.calculateLogP();
+            assertEquals(perIntervalLogP(skyline, intervals), logP, 1e-10);
+            if (i % 2 == 0) {
+                state.acceptCalculationNodes();
+            } else {
+                state.restore();
+                state.restoreCalculationNodes();
+            }
+            state.setEverythingDirty(false);
+        }
+        assertEquals(perIntervalLogP(skyline, intervals), skyline.calculateLogP(), 1e-10);
+    }
+
+    /** log likelihood with population size of every interval obtained through getPopSize **/
+    private double perIntervalLogP(BayesianSkyline skyline, TreeIntervals intervals) {
+        double logP = 0.0;
+        double currentTime = 0.0;
+        for (int j = 0; j < intervals.getIntervalCount(); j++) {
+            double ps = skyline.getPopSize(currentTime + (intervals.getInterval(j) / 2.0));
+            logP += BayesianSkyline.calculateIntervalLikelihood(ps, intervals.getInterval(j), currentTime,
+                    intervals.getLineageCount(j), intervals.getIntervalType(j));
+            for (int k = 0; k < intervals.getCoalescentEvents(j) - 1; k++) {
+                logP += BayesianSkyline.calculateIntervalLikelihood(skyline.getPopSize(currentTime), 0.0, currentTime,
+                        intervals.getLineageCount(j) - k - 1, IntervalType.COALESCENT);
+            }
+            currentTime += intervals.getInterval(j);
+        }
+        return logP;
+    }
+
 }
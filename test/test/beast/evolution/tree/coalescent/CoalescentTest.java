@@ -3,12 +3,19 @@ package test.beast.evolution.tree.coalescent;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 
 import beast.base.evolution.alignment.Alignment;
 import beast.base.evolution.tree.Tree;
 import beast.base.evolution.tree.TreeIntervals;
+import beast.base.evolution.tree.TreeParser;
 import beast.base.evolution.tree.coalescent.Coalescent;
+import beast.base.evolution.tree.coalescent.CompoundPopulationFunction;
 import beast.base.evolution.tree.coalescent.ConstantPopulation;
+import beast.base.evolution.tree.coalescent.ExponentialGrowth;
+import beast.base.evolution.tree.coalescent.PopulationFunction;
+import beast.base.inference.parameter.BooleanParameter;
+import beast.base.inference.parameter.RealParameter;
 import test.beast.BEASTTestCase;
 
 /**
@@ -63,4 +70,44 @@ public class CoalescentTest extends BEASTTestCase {
 
     }
 
+    @Test
+    public void testBulkIntervals() throws Exception {
+        String newick = "((((A:1.0,B:1.0):0.5,C:1.5):1.5,(D:0.25,E:0.25):2.75):1.0,((F:0.5,G:0.5):2.0,H:2.5):1.5);";
+        Tree tree = new TreeParser(newick, false, true, true, 1);
+        TreeIntervals treeIntervals = new TreeIntervals();
+        treeIntervals.initByName("tree", tree);
+
+        ExponentialGrowth exponential = new ExponentialGrowth();
+        exponential.initByName("popSize", "3.0", "growthRate", "0.5");
+        assertBulkMatchesPerInterval(treeIntervals, exponential);
+
+        for (String type : new String[]{"stepwise", "linear"}) {
+            // one population size per coalescent event, and one extra for linear
+            boolean linear = type.equals("linear");
+            RealParameter popSizes = new RealParameter(linear ? new Double[]{1.0, 2.0, 0.5, 4.0, 3.0, 1.5, 2.5, 1.0}
+                                                              : new Double[]{1.0, 2.0, 0.5, 4.0, 3.0, 1.5, 2.5});
+            popSizes.setID("popSizes");
+            BooleanParameter indicators = new BooleanParameter(linear ? new Boolean[]{true, false, true, true, false, true, true}
+                                                                      : new Boolean[]{true, false, true, true, false, true});
+            indicators.setID("indicators");
+            CompoundPopulationFunction compound = new CompoundPopulationFunction();
+            compound.initByName("populationSizes", popSizes, "populationIndicators", indicators,
+                    "itree", treeIntervals, "type", type);
+            assertBulkMatchesPerInterval(treeIntervals, compound);
+        }
+    }
+
+    /** compare log likelihood from interval arrays with that from per interval calls **/
+    private void assertBulkMatchesPerInterval(TreeIntervals treeIntervals, PopulationFunction popSizeFunction) {
+        // a subclass of TreeIntervals is only accessed through the IntervalList methods
+        TreeIntervals perInterval = new TreeIntervals() {};
+        perInterval.initByName("tree", treeIntervals.treeInput.get());
+
+        Coalescent coal = new Coalescent();
+        coal.initByName("treeIntervals", treeIntervals, "populationModel", popSizeFunction);
+        double expected = coal.calculateLogLikelihood(perInterval, popSizeFunction);
+        assertEquals(expected, coal.calculateLogLikelihood(treeIntervals, popSizeFunction), 0.0);
+        assertEquals(expected, coal.calculateLogP(), 0.0);
+    }
+
 }
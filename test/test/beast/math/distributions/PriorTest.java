@@ -0,0 +1,146 @@
+package test.beast.math.distributions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import beast.base.inference.State;
+import beast.base.inference.distribution.Beta;
+import beast.base.inference.distribution.Exponential;
+import beast.base.inference.distribution.Gamma;
+import beast.base.inference.distribution.InverseGamma;
+import beast.base.inference.distribution.LogNormalDistributionModel;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.ParametricDistribution;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+public class PriorTest {
+
+    @Test
+    public void testLogDensities() {
+        Randomizer.setSeed(127);
+        RealParameter x = randomParameter(100);
+        for (ParametricDistribution distr : distributions(new RealParameter("0.7"))) {
+            Prior prior = new Prior();
+            prior.initByName("x", x, "distr", distr);
+            double logP = distr.calcLogP(x);
+            assertEquals(logP, prior.calculateLogP(), Math.abs(logP) * 1e-14);
+        }
+        // log densities outside the support
+        RealParameter y = new RealParameter(new Double[]{-1.0, 0.0, 1.0});
+        ParametricDistribution[] distrs = distributions(new RealParameter("0.7"));
+        for (int d = 0; d < 4; d++) {
+            ParametricDistribution distr = distrs[d];
+            double[] logDensities = new double[3];
+            distr.calcLogDensities(y, null, 0, logDensities);
+            for (int i = 0; i < 3; i++) {
+                double expected = distr.logDensity(y.getValue(i));
+                assertEquals(expected, logDensities[i], Double.isInfinite(expected) ? 0 : 1e-14);
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalPrior() {
+        Randomizer.setSeed(127);
+        for (int d = 0; d < 5; d++) {
+            RealParameter x = randomParameter(500);
+            RealParameter s = new RealParameter("0.7");
+            ParametricDistribution distr = distributions(s)[d];
+            Prior prior = new Prior();
+            prior.initByName("x", x, "distr", distr);
+
+            State state = new State();
+            state.initByName("stateNode", x, "stateNode", s);
+            state.initialise();
+            state.setPosterior(prior);
+            prior.calculateLogP();
+
+            for (int i = 0; i < 30; i++) {
+                state.store(i);
+                if (i % 7 == 6) {
+                    s.setValue(0.5 + Randomizer.nextDouble());
+                } else if (i % 11 == 10) {
+                    x.startEditing(null);
+                    x.scale(0.9);
+                } else {
+                    for (int k = 0; k < 1 + i % 3; k++) {
+                        x.setValue(Randomizer.nextInt(x.getDimension()), 0.1 + Randomizer.nextDouble() * 0.8);
+                    }
+                }
+                state.storeCalculationNodes();
+                state.checkCalculationNodesDirtiness();
+                assertEquals(distr.calcLogP(x), prior.calculateLogP(), 1e-10);
+                if (i % 2 == 0) {
+                    state.acceptCalculationNodes();
+                } else {
+                    state.restore();
+                    state.restoreCalculationNodes();
+                }
+                state.setEverythingDirty(false);
+            }
+            assertEquals(distr.calcLogP(x), prior.calculateLogP(), 1e-10);
+        }
+    }
+
+    @Test
+    public void testGradient() {
+        Randomizer.setSeed(127);
+        RealParameter x = randomParameter(10);
+        RealParameter s = new RealParameter("0.7");
+        InverseGamma inverseGamma = new InverseGamma();
+        inverseGamma.initByName("alpha", "3.0", "beta", "2.0");
+        Normal offsetNormal = new Normal();
+        offsetNormal.initByName("mean", "0.3", "sigma", "2.0", "offset", 0.5);
+        ParametricDistribution[] distrs = distributions(s);
+        distrs = Arrays.copyOf(distrs, distrs.length + 2);
+        // InverseGamma has no closed form derivative, so is differentiated numerically
+        distrs[distrs.length - 2] = inverseGamma;
+        distrs[distrs.length - 1] = offsetNormal;
+        for (ParametricDistribution distr : distrs) {
+            Prior prior = new Prior();
+            prior.initByName("x", x, "distr", distr);
+            assertTrue(prior.canDifferentiate(x));
+            // the log density depends on s, but the prior cannot calculate its gradient
+            assertEquals(distr == inverseGamma || distr == offsetNormal, prior.canDifferentiate(s));
+
+            double[] gradient = new double[x.getDimension() + 1];
+            prior.addGradient(x, gradient, 1);
+            assertEquals(0.0, gradient[0]);
+            for (int i = 0; i < x.getDimension(); i++) {
+                double h = 1e-6;
+                double v = x.getValue(i);
+                double expected = (distr.logDensity(v + h) - distr.logDensity(v - h)) / (2 * h);
+                assertEquals(expected, gradient[i + 1], 1e-6 * Math.max(1.0, Math.abs(expected)));
+            }
+        }
+    }
+
+    private RealParameter randomParameter(int dimension) {
+        Double[] values = new Double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            values[i] = 0.1 + Randomizer.nextDouble() * 0.8;
+        }
+        return new RealParameter(values);
+    }
+
+    /** distributions with a fast path, and Beta as example without **/
+    private ParametricDistribution[] distributions(RealParameter s) {
+        Normal normal = new Normal();
+        normal.initByName("mean", "0.3", "sigma", s);
+        LogNormalDistributionModel logNormal = new LogNormalDistributionModel();
+        logNormal.initByName("M", "0.0", "S", s);
+        Gamma gamma = new Gamma();
+        gamma.initByName("alpha", s, "beta", "0.5");
+        Exponential exponential = new Exponential();
+        exponential.initByName("mean", s);
+        Beta beta = new Beta();
+        beta.initByName("alpha", s, "beta", "2.0");
+        return new ParametricDistribution[]{normal, logNormal, gamma, exponential, beta};
+    }
+}
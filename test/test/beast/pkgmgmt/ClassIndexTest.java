@@ -0,0 +1,127 @@
+package test.beast.pkgmgmt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import beast.pkgmgmt.ClassIndex;
+
+public class ClassIndexTest {
+
+    @TempDir
+    File dir;
+
+    private void writeJar(File jarFile, String... entries) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile))) {
+            for (String entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.write(new byte[]{(byte) 0xCA, (byte) 0xFE});
+                out.closeEntry();
+            }
+        }
+    }
+
+    private void createPackage() throws IOException {
+        try (PrintStream out = new PrintStream(new File(dir, "version.xml"))) {
+            out.println("<package name='mypackage' version='1.2.3'>");
+            out.println("  <depends on='BEAST.base' atleast='2.7.0'/>");
+            out.println("  <service type='beast.base.core.BEASTInterface'>");
+            out.println("    <provider classname='my.pkg.Model'/>");
+            out.println("    <provider classname='my.pkg.Operator'/>");
+            out.println("  </service>");
+            out.println("</package>");
+        }
+        File lib = new File(dir, "lib");
+        lib.mkdir();
+        writeJar(new File(lib, "mypackage.jar"), "my/pkg/Model.class", "my/pkg/Operator.class",
+                "my/pkg/Operator$1.class", "my/pkg/model.png");
+        writeJar(new File(lib, "util.jar"), "my/util/Tool.class");
+    }
+
+    @Test
+    public void testBuildWriteRead() throws Exception {
+        createPackage();
+        assertNull(ClassIndex.read(dir.getPath()));
+
+        ClassIndex index = ClassIndex.get(dir.getPath());
+        assertNotNull(index);
+        assertTrue(new File(dir, ClassIndex.INDEX_FILE).exists());
+
+        ClassIndex read = ClassIndex.read(dir.getPath());
+        assertNotNull(read);
+        for (ClassIndex i : new ClassIndex[]{index, read}) {
+            assertEquals("mypackage", i.getPackageName());
+            assertEquals("1.2.3", i.getPackageVersion());
+            assertEquals(Arrays.asList("mypackage.jar", "util.jar"), i.getJarFileNames());
+            assertEquals(Arrays.asList("my.pkg.Model", "my.pkg.Operator", "my.pkg.Operator$1"), i.getJarClasses().get("mypackage.jar"));
+            assertEquals(Arrays.asList("my.util.Tool"), i.getJarClasses().get("util.jar"));
+            assertEquals(new HashSet<>(Arrays.asList("my.pkg.Model", "my.pkg.Operator")),
+                    i.getServices().get("beast.base.core.BEASTInterface"));
+        }
+    }
+
+    @Test
+    public void testStaleIndexIsRebuilt() throws Exception {
+        createPackage();
+        ClassIndex.get(dir.getPath());
+        assertNotNull(ClassIndex.read(dir.getPath()));
+
+        // replacing a jar invalidates the index
+        File jar = new File(dir, "lib/util.jar");
+        writeJar(jar, "my/util/Tool.class", "my/util/OtherTool.class");
+        jar.setLastModified(jar.lastModified() + 2000);
+        assertNull(ClassIndex.read(dir.getPath()));
+        ClassIndex index = ClassIndex.get(dir.getPath());
+        assertEquals(Arrays.asList("my.util.Tool", "my.util.OtherTool"), index.getJarClasses().get("util.jar"));
+        assertNotNull(ClassIndex.read(dir.getPath()));
+
+        // so does adding a jar
+        writeJar(new File(dir, "lib/extra.jar"), "my/extra/Extra.class");
+        assertNull(ClassIndex.read(dir.getPath()));
+        assertEquals(Arrays.asList("extra.jar", "mypackage.jar", "util.jar"), ClassIndex.get(dir.getPath()).getJarFileNames());
+    }
+
+    @Test
+    public void testCorruptIndexIsIgnored() throws Exception {
+        createPackage();
+        ClassIndex.get(dir.getPath());
+        File indexFile = new File(dir, ClassIndex.INDEX_FILE);
+        Files.write(indexFile.toPath(), "# BEAST class index 1\nfile version.xml\n".getBytes());
+        assertNull(ClassIndex.read(dir.getPath()));
+        Files.write(indexFile.toPath(), "not an index\n".getBytes());
+        assertNull(ClassIndex.read(dir.getPath()));
+        assertEquals("mypackage", ClassIndex.get(dir.getPath()).getPackageName());
+    }
+
+    @Test
+    public void testPackageDirectoryWithSpaces() throws Exception {
+        dir = new File(dir, "my packages");
+        dir.mkdir();
+        createPackage();
+        ClassIndex.get(dir.getPath());
+        ClassIndex read = ClassIndex.read(dir.getPath());
+        assertNotNull(read);
+        assertEquals(Arrays.asList("my.util.Tool"), read.getJarClasses().get("util.jar"));
+    }
+
+    @Test
+    public void testNoVersionFile() throws Exception {
+        createPackage();
+        new File(dir, "version.xml").delete();
+        assertNull(ClassIndex.get(dir.getPath()));
+    }
+}
@@ -11,7 +11,9 @@ import java.util.TreeSet;
 
 import org.junit.jupiter.api.Test;
 
+import beast.base.evolution.tree.Tree;
 import beast.base.parser.NexusParser;
+import beast.base.parser.NexusTreeIterator;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -154,6 +156,52 @@ public class NexusParserTest  {
     }
     
     
+    @Test
+    public void testTreeIterator() throws Exception {
+
+        String nexusTrees  = "#NEXUS\n" +
+                "\n" +
+                "Begin trees;\n" +
+                "\tTranslate\n" +
+                "\t\t1 C,\n" +
+                "\t\t2 B,\n" +
+                "\t\t3 A\n" +
+                "\t\t;\n" +
+                "tree STATE_0 = [&R] (1:10,(3:30,2:20):10);\n" +
+                "tree STATE_1 = [&R] (2:10,(3:30,1:20):10);\n" +
+                "tree STATE_2 = [&R] (3[&comment=\"a;b\"]:10,(1:30,2:20):10);\n" +
+                "tree STATE_3 = [&R] (1:11,(3:31,2:21):11);\n" +
+                "tree STATE_4 = [&R] (1:12,(3:32,2:22):12);\n" +
+                "End;\n";
+
+        NexusParser parser = new NexusParser();
+        parser.parseFile("testTreeIterator", new StringReader(nexusTrees));
+        assertEquals(5, parser.trees.size());
+
+        // all trees
+        List<String> newicks = new ArrayList<>();
+        try (NexusTreeIterator trees = new NexusTreeIterator(new StringReader(nexusTrees), 0, 1)) {
+            for (Tree tree : trees) {
+                newicks.add(tree.getRoot().toNewick());
+            }
+        }
+        assertEquals(5, newicks.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(parser.trees.get(i).getRoot().toNewick(), newicks.get(i));
+        }
+
+        // burn-in of 2 trees, then every other tree
+        List<Integer> indices = new ArrayList<>();
+        try (NexusTreeIterator trees = new NexusTreeIterator(new StringReader(nexusTrees), 2, 2)) {
+            trees.addListener((treeIndex, tree) -> indices.add(treeIndex));
+            while (trees.hasNext()) {
+                Tree tree = trees.next();
+                assertEquals(parser.trees.get(trees.getTreeIndex()).getRoot().toNewick(), tree.getRoot().toNewick());
+            }
+        }
+        assertEquals(Arrays.asList(2, 4), indices);
+    }
+
     @Test
     public void testAssumptionsParse() {
         try {
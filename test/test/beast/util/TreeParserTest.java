@@ -1,10 +1,15 @@
 package test.beast.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.List;
+import java.util.Objects;
+
 import org.junit.jupiter.api.Test;
 
+import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.TreeParser;
 
 public class TreeParserTest {
@@ -176,4 +181,55 @@ public class TreeParserTest {
         assertTrue(treeParser.getNode(0).getParent().getID().equals("ctm"));
         assertTrue(treeParser.getNode(1).getParent().getID() == null);
     }
+
+    @Test
+    public void testSinglePassParserMatchesANTLR() throws Exception {
+
+        String [] newicks = {
+                "((A:1.0,B[&key=2.0,rate=3,type='OK']:1.0):1.0,(C:1.0,D:1.0):1.0):0.0;",
+                "((A:1.0,B[&key={1,2,3}]:1.0):1.0,(C:1.0,D:1.0):1.0):0.0;",
+                "((A:1.0,B[&key=42]:[&key=2.5]1.0):1.0,(C:1.0,D:1.0):1.0):0.0;",
+                "( (A : 1e-1 , B[& set = {a, b} , x = \"y z\" ] : 1.5E+0 )[&posterior=0.5,height_95%_HPD={0.1,2.0}] : 1. , 'C D':2.0);",
+                "((A,B,C),(D,E));",
+                "((xmr),((knw)ctm));"
+        };
+
+        for (String newick : newicks) {
+            TreeParser treeParser = new TreeParser(newick, false, true, true, 1);
+            Node root = treeParser.parseNewick(newick);
+            Node antlrRoot = treeParser.parseNewickWithANTLR(newick);
+            assertEquals(antlrRoot.toNewick(), root.toNewick());
+
+            List<Node> nodes = root.getAllChildNodesAndSelf();
+            List<Node> antlrNodes = antlrRoot.getAllChildNodesAndSelf();
+            assertEquals(antlrNodes.size(), nodes.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                Node antlrNode = antlrNodes.get(i);
+                assertEquals(antlrNode.getNr(), node.getNr());
+                assertEquals(antlrNode.getID(), node.getID());
+                assertEquals(antlrNode.getHeight(), node.getHeight(), 1e-15);
+                assertEquals(antlrNode.metaDataString, node.metaDataString);
+                assertEquals(antlrNode.lengthMetaDataString, node.lengthMetaDataString);
+                assertEquals(antlrNode.getMetaDataNames(), node.getMetaDataNames());
+                for (String key : node.getMetaDataNames()) {
+                    assertTrue(Objects.deepEquals(antlrNode.getMetaData(key), node.getMetaData(key)), key);
+                }
+                for (String key : node.getLengthMetaDataNames()) {
+                    assertTrue(Objects.deepEquals(antlrNode.getLengthMetaData(key), node.getLengthMetaData(key)), key);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParseErrorsFallBackOnANTLR() throws Exception {
+        try {
+            new TreeParser("((A:1.0,B:1.0):1.0,(C:1.0,D:1.0:1.0):0.0;", false, true, true, 1);
+            assertTrue(false, "Expected parse error");
+        } catch (TreeParser.TreeParsingException e) {
+            // ANTLR provides location of the error
+            assertNotNull(e.getCharacterNum());
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package test.beast.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import beast.base.parser.XMLParserUtils;
+
+public class XMLParserUtilsTest {
+
+    private String expand(String xml) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        XMLParserUtils.processPlates(doc, "plate");
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        StringWriter writer = new StringWriter();
+        transformer.transform(new DOMSource(doc), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    @Test
+    public void testPlate() throws Exception {
+        assertEquals("<beast>"
+                + "<x id='a.1' spec='$(other)' value='1 $(other=2) 1'/>"
+                + "<x id='a.2' spec='$(other)' value='2 $(other=2) 2'/>"
+                + "<x id='a.3' spec='$(other)' value='3 $(other=2) 3'/>"
+                + "<y/></beast>",
+                expand("<beast><plate var='n' range='1:3'>"
+                + "<x id='a.$(n)' spec='$(other)' value='$( n ) $(other=2) $(n=4)'/>"
+                + "</plate><y/></beast>").replace('"', '\''));
+    }
+
+    @Test
+    public void testNestedPlates() throws Exception {
+        assertEquals("<beast>"
+                + "<x id='a.b.1'><![CDATA[a b]]></x><x id='a.c.1'><![CDATA[a c]]></x>"
+                + "<x id='d.b.1'><![CDATA[d b]]></x><x id='d.c.1'><![CDATA[d c]]></x>"
+                + "<y id='1'/><y id='2'/>"
+                + "</beast>",
+                expand("<beast><plate var='p' range='a,d'>"
+                + "<plate var='q' range='b,c'><x id='$(p).$(q).1'><![CDATA[$(p) $(q)]]></x></plate>"
+                + "</plate>"
+                + "<plate var='r' range='1,2'><y id='$(r)'/></plate></beast>").replace('"', '\''));
+    }
+
+    @Test
+    public void testPlateWithRangeFromOuterPlate() throws Exception {
+        assertEquals("<beast><x><y id='1.1'/></x><x><y id='2.1'/><y id='2.2'/></x></beast>",
+                expand("<beast><plate var='n' range='1,2'>"
+                + "<x><plate var='m' range='1:$(n)'><y id='$(n).$(m)'/></plate></x>"
+                + "</plate></beast>").replace('"', '\''));
+    }
+
+    @Test
+    public void testFragmentPlate() throws Exception {
+        assertEquals("<beast><fragment id='f'><z name='$(v)'/></fragment>"
+                + "<z name='u'/><z name='w'/></beast>",
+                expand("<beast><fragment id='f'><z name='$(v)'/></fragment>"
+                + "<plate var='v' range='u,w' fragment='f'/></beast>").replace('"', '\''));
+    }
+}